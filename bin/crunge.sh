@@ -5,11 +5,15 @@ src="net/wimpi/modbus/*.java \
 net/wimpi/modbus/cmd/*.java \
 net/wimpi/modbus/facade/*.java \
 net/wimpi/modbus/io/*.java \
+net/wimpi/modbus/metrics/*.java \
 net/wimpi/modbus/msg/*.java \
 net/wimpi/modbus/net/*.java \
 net/wimpi/modbus/procimg/*.java \
+net/wimpi/modbus/scan/*.java \
 net/wimpi/modbus/util/*.java"
+benchSrc="../../jmh/java/net/wimpi/modbus/bench/*.java"
 outputDir="output/"
+benchOutputDir="output-bench/"
 distDir="dist/"
 outputDistRoot="output/net/"
 projectName="jamod-1.2mod"
@@ -35,6 +39,20 @@ dist() {
   jar cf $distDir$projectName.jar -C $outputDir .
 }
 
+# Needs the JMH jars (jmh-core, jmh-generator-annprocess, jopt-simple,
+# commons-math3) in lib/ or /usr/share/java; the remaining arguments are
+# passed on to JMH, e.g. "crunge.sh bench LoopbackBenchmark -p listener=nio"
+bench() {
+	echo "Compiling benchmarks...."
+	rm -rf $benchOutputDir
+	mkdir -p $benchOutputDir
+	$javac -cp $outputDir:$libs -d $benchOutputDir $benchSrc &> $compileErrorsFile
+	if [ $? = 0 ] ; then
+		echo "Running benchmarks...."
+		$java -cp $benchOutputDir:$outputDir:$libs org.openjdk.jmh.Main "$@"
+	fi
+}
+
 
 if [ "$COMMAND" = "d" ] || [ "$COMMAND" = "clean" ]; then
 	cleanup;
@@ -45,6 +63,14 @@ elif [ "$COMMAND" = "c" ] || [ "$COMMAND" = "compile" ]; then
 	if [ $? = 0 ] ; then
 		dist;
 	fi
+elif [ "$COMMAND" = "b" ] || [ "$COMMAND" = "bench" ]; then
+	cleanup;
+	echo "Compiling...."
+	$javac $compileArgs $src &> $compileErrorsFile
+	if [ $? = 0 ] ; then
+		shift
+		bench "$@";
+	fi
 elif [ "$COMMAND" = "r" ] || [ "$COMMAND" = "run" ]; then
 	echo "No running of this project..."
 fi
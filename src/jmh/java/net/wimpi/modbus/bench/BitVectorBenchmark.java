@@ -0,0 +1,90 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.util.BitVector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks reading and writing a full <tt>BitVector</tt> bit by bit, as done
+ * by the coil and input discrete messages.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitVectorBenchmark {
+
+	@Param( { "16", "2000" })
+	public int size;
+
+	@Param( { "false", "true" })
+	public boolean msbAccess;
+
+	private BitVector m_Bits;
+
+	@Setup
+	public void setup() {
+		if (size > Modbus.MAX_BITS) {
+			throw new IllegalArgumentException("size");
+		}
+		m_Bits = new BitVector(size);
+		m_Bits.toggleAccess(msbAccess);
+		for (int i = 0; i < size; i += 3) {
+			m_Bits.setBit(i, true);
+		}
+	}// setup
+
+	@Benchmark
+	public int getBits() {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (m_Bits.getBit(i)) {
+				n++;
+			}
+		}
+		return n;
+	}// getBits
+
+	@Benchmark
+	public BitVector setBits() {
+		for (int i = 0; i < size; i++) {
+			m_Bits.setBit(i, (i & 1) == 0);
+		}
+		return m_Bits;
+	}// setBits
+
+}// class BitVectorBenchmark
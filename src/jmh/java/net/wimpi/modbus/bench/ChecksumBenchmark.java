@@ -0,0 +1,129 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.wimpi.modbus.util.ModbusUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the CRC (RTU) and LRC (ASCII) checksum calculations for frames
+ * of typical sizes.
+ * <p>
+ * <tt>crcBytewise</tt> is the former byte-at-a-time implementation with two
+ * lookup tables and an <tt>int[2]</tt> result, kept as baseline for the
+ * slicing-by-8 implementation measured by <tt>crc16</tt>.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+
+	/**
+	 * Frame sizes: a read request, a mid-sized and a maximum RTU frame.
+	 */
+	@Param( { "8", "64", "256" })
+	public int size;
+
+	private byte[] m_Frame;
+	private ByteBuffer m_Direct;
+
+	@Setup
+	public void setup() {
+		m_Frame = new byte[size];
+		new Random(42).nextBytes(m_Frame);
+		m_Direct = ByteBuffer.allocateDirect(size);
+		m_Direct.put(m_Frame);
+	}// setup
+
+	@Benchmark
+	public int[] crc() {
+		return ModbusUtil.calculateCRC(m_Frame, 0, m_Frame.length);
+	}// crc
+
+	@Benchmark
+	public int[] crcBytewise() {
+		int[] crc = { 0xFF, 0xFF };
+		for (int i = 0; i < m_Frame.length; i++) {
+			int index = crc[0] ^ (m_Frame[i] & 0xff);
+			crc[0] = crc[1] ^ CRC_HI[index];
+			crc[1] = CRC_LO[index];
+		}
+		return crc;
+	}// crcBytewise
+
+	@Benchmark
+	public int crc16() {
+		return ModbusUtil.calculateCRC16(m_Frame, 0, m_Frame.length);
+	}// crc16
+
+	@Benchmark
+	public int crc16Direct() {
+		m_Direct.clear();
+		return ModbusUtil.updateCRC16(ModbusUtil.CRC16_INITIAL, m_Direct);
+	}// crc16Direct
+
+	@Benchmark
+	public int lrc() {
+		return ModbusUtil.calculateLRC(m_Frame, 0, m_Frame.length);
+	}// lrc
+
+	@Benchmark
+	public int lrcBytewise() {
+		int lrc = 0;
+		for (int i = 0; i < m_Frame.length; i++) {
+			lrc += m_Frame[i] & 0xff;
+		}
+		return (int) ((byte) ((lrc ^ 0xff) + 1)) & 0xff;
+	}// lrcBytewise
+
+	/* Tables of the former implementation, split into CRC bytes */
+	private static final short[] CRC_HI = new short[256];
+	private static final short[] CRC_LO = new short[256];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int crc = b;
+			for (int i = 0; i < 8; i++) {
+				crc = ((crc & 1) != 0) ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+			}
+			CRC_HI[b] = (short) (crc & 0xff);
+			CRC_LO[b] = (short) (crc >>> 8);
+		}
+	}
+
+}// class ChecksumBenchmark
@@ -0,0 +1,64 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.bench;
+
+import net.wimpi.modbus.procimg.ArrayProcessImage;
+import net.wimpi.modbus.procimg.ProcessImageImplementation;
+import net.wimpi.modbus.procimg.SimpleDigitalIn;
+import net.wimpi.modbus.procimg.SimpleDigitalOut;
+import net.wimpi.modbus.procimg.SimpleInputRegister;
+import net.wimpi.modbus.procimg.SimpleProcessImage;
+import net.wimpi.modbus.procimg.SimpleRegister;
+
+/**
+ * Helper creating the process images used by the benchmarks.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+final class Images {
+
+	/**
+	 * The number of points of each kind in the benchmark images.
+	 */
+	static final int DEFAULT_SIZE = 2000;
+
+	private Images() {
+	}// constructor
+
+	static SimpleProcessImage createSimpleProcessImage(int size) {
+		SimpleProcessImage spi = new SimpleProcessImage();
+		fill(spi, size);
+		return spi;
+	}// createSimpleProcessImage
+
+	static ArrayProcessImage createArrayProcessImage(int size) {
+		ArrayProcessImage api = new ArrayProcessImage();
+		fill(api, size);
+		return api;
+	}// createArrayProcessImage
+
+	private static void fill(ProcessImageImplementation pi, int size) {
+		for (int i = 0; i < size; i++) {
+			pi.addDigitalOut(new SimpleDigitalOut(i % 3 == 0));
+			pi.addDigitalIn(new SimpleDigitalIn(i % 2 == 0));
+			pi.addRegister(new SimpleRegister(i));
+			pi.addInputRegister(new SimpleInputRegister(size - i));
+		}
+	}// fill
+
+}// class Images
@@ -0,0 +1,142 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.bench;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.facade.ModbusTCPMaster;
+import net.wimpi.modbus.net.ModbusNIOTCPListener;
+import net.wimpi.modbus.net.ModbusTCPListener;
+import net.wimpi.modbus.procimg.Register;
+import net.wimpi.modbus.procimg.SimpleRegister;
+import net.wimpi.modbus.util.BitVector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks complete <tt>ModbusTCPMaster</tt> round-trips against a slave
+ * listening on the loopback interface.
+ * <p>
+ * The port can be set with the <tt>net.wimpi.modbus.bench.port</tt> system
+ * property (default 15502).
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+
+	@Param( { "blocking", "nio" })
+	public String listener;
+
+	@Param( { "simple", "array" })
+	public String image;
+
+	@Param( { "10", "100" })
+	public int count;
+
+	private ModbusTCPListener m_Listener;
+	private ModbusNIOTCPListener m_NIOListener;
+	private ModbusTCPMaster m_Master;
+	private Register m_Register;
+
+	@Setup
+	public void setup() throws Exception {
+		int port = Integer.getInteger("net.wimpi.modbus.bench.port", 15502)
+				.intValue();
+		InetAddress addr = InetAddress.getByName("127.0.0.1");
+
+		ModbusCoupler.getReference().setProcessImage(
+				("array".equals(image)) ? Images
+						.createArrayProcessImage(Images.DEFAULT_SIZE) : Images
+						.createSimpleProcessImage(Images.DEFAULT_SIZE));
+		ModbusCoupler.getReference().setMaster(false);
+
+		if ("nio".equals(listener)) {
+			m_NIOListener = new ModbusNIOTCPListener(1, addr);
+			m_NIOListener.setPort(port);
+			m_NIOListener.start();
+		} else {
+			m_Listener = new ModbusTCPListener();
+			m_Listener.setAddress(addr);
+			m_Listener.setPort(port);
+			m_Listener.start();
+		}
+
+		m_Master = new ModbusTCPMaster(addr.getHostAddress(), port);
+		// the listener binds asynchronously
+		for (int i = 0;; i++) {
+			try {
+				m_Master.connect();
+				break;
+			} catch (Exception ex) {
+				if (i == 50) {
+					throw ex;
+				}
+				Thread.sleep(100);
+			}
+		}
+		m_Register = new SimpleRegister(0);
+	}// setup
+
+	@TearDown
+	public void tearDown() {
+		m_Master.disconnect();
+		if (m_NIOListener != null) {
+			m_NIOListener.stop();
+		}
+		if (m_Listener != null) {
+			m_Listener.stop();
+		}
+	}// tearDown
+
+	@Benchmark
+	public Register[] readMultipleRegisters() throws Exception {
+		return m_Master.readMultipleRegisters(0, count);
+	}// readMultipleRegisters
+
+	@Benchmark
+	public BitVector readCoils() throws Exception {
+		return m_Master.readCoils(0, count);
+	}// readCoils
+
+	@Benchmark
+	public Register writeSingleRegister() throws Exception {
+		m_Register.setValue(m_Register.getValue() + 1);
+		m_Master.writeSingleRegister(1, m_Register);
+		return m_Register;
+	}// writeSingleRegister
+
+}// class LoopbackBenchmark
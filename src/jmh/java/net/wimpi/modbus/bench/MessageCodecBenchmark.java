@@ -0,0 +1,212 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.io.BytesInputStream;
+import net.wimpi.modbus.io.BytesOutputStream;
+import net.wimpi.modbus.msg.ModbusFrame;
+import net.wimpi.modbus.msg.ModbusFrameProcessor;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.msg.ReadCoilsRequest;
+import net.wimpi.modbus.msg.ReadInputDiscretesRequest;
+import net.wimpi.modbus.msg.ReadInputRegistersRequest;
+import net.wimpi.modbus.msg.ReadMultipleRegistersRequest;
+import net.wimpi.modbus.msg.WriteCoilRequest;
+import net.wimpi.modbus.msg.WriteMultipleCoilsRequest;
+import net.wimpi.modbus.msg.WriteMultipleRegistersRequest;
+import net.wimpi.modbus.msg.WriteSingleRegisterRequest;
+import net.wimpi.modbus.procimg.Register;
+import net.wimpi.modbus.procimg.SimpleRegister;
+import net.wimpi.modbus.util.BitVector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks encoding (<tt>writeTo</tt>) and decoding (<tt>readFrom</tt>) of
+ * the request and response messages of every supported function code, as well
+ * as serving a request through the object model versus the
+ * <tt>ModbusFrameProcessor</tt>.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	@Param( { "1", "2", "3", "4", "5", "6", "15", "16" })
+	public int functionCode;
+
+	/**
+	 * Number of bits or registers covered by range requests.
+	 */
+	@Param( { "10", "100" })
+	public int count;
+
+	private ModbusRequest m_Request;
+	private ModbusResponse m_Response;
+	private byte[] m_RequestBytes;
+	private int m_RequestLength;
+	private byte[] m_ResponseBytes;
+	private int m_ResponseLength;
+
+	private BytesOutputStream m_ByteOut;
+	private BytesInputStream m_ByteIn;
+	private ModbusFrame m_Frame;
+	private ByteBuffer m_Out;
+	private ModbusFrameProcessor m_Processor;
+
+	@Setup
+	public void setup() throws IOException {
+		ModbusCoupler.getReference().setProcessImage(
+				Images.createSimpleProcessImage(Images.DEFAULT_SIZE));
+
+		m_Request = createRequest(functionCode, count);
+		m_Request.setTransactionID(1);
+		m_Request.setUnitID(1);
+		m_Response = m_Request.createResponse();
+
+		m_ByteOut = new BytesOutputStream(Modbus.MAX_IP_MESSAGE_LENGTH);
+		m_Request.writeTo(m_ByteOut);
+		m_RequestLength = m_ByteOut.size();
+		m_RequestBytes = new byte[Modbus.MAX_IP_MESSAGE_LENGTH];
+		System.arraycopy(m_ByteOut.getBuffer(), 0, m_RequestBytes, 0,
+				m_RequestLength);
+
+		m_ByteOut.reset();
+		m_Response.writeTo(m_ByteOut);
+		m_ResponseLength = m_ByteOut.size();
+		m_ResponseBytes = new byte[Modbus.MAX_IP_MESSAGE_LENGTH];
+		System.arraycopy(m_ByteOut.getBuffer(), 0, m_ResponseBytes, 0,
+				m_ResponseLength);
+
+		m_ByteIn = new BytesInputStream(Modbus.MAX_IP_MESSAGE_LENGTH);
+		m_Frame = new ModbusFrame(ByteBuffer.wrap(m_RequestBytes));
+		m_Out = ByteBuffer.allocate(Modbus.MAX_IP_MESSAGE_LENGTH);
+		m_Processor = new ModbusFrameProcessor();
+	}// setup
+
+	@Benchmark
+	public int writeRequest() throws IOException {
+		m_ByteOut.reset();
+		m_Request.writeTo(m_ByteOut);
+		return m_ByteOut.size();
+	}// writeRequest
+
+	@Benchmark
+	public int writeResponse() throws IOException {
+		m_ByteOut.reset();
+		m_Response.writeTo(m_ByteOut);
+		return m_ByteOut.size();
+	}// writeResponse
+
+	@Benchmark
+	public ModbusRequest readRequest() throws IOException {
+		m_ByteIn.reset(m_RequestBytes, m_RequestLength);
+		ModbusRequest req = ModbusRequest.createModbusRequest(functionCode);
+		req.readFrom(m_ByteIn);
+		return req;
+	}// readRequest
+
+	@Benchmark
+	public ModbusResponse readResponse() throws IOException {
+		m_ByteIn.reset(m_ResponseBytes, m_ResponseLength);
+		ModbusResponse res = ModbusResponse
+				.createModbusResponse(functionCode);
+		res.readFrom(m_ByteIn);
+		return res;
+	}// readResponse
+
+	/**
+	 * Serves the encoded request the way the listeners did before frames were
+	 * introduced: decode, create the response from the image and encode it.
+	 */
+	@Benchmark
+	public int serveMessage() throws IOException {
+		m_ByteIn.reset(m_RequestBytes, m_RequestLength);
+		ModbusRequest req = ModbusRequest.createModbusRequest(functionCode);
+		req.readFrom(m_ByteIn);
+		m_ByteOut.reset();
+		req.createResponse().writeTo(m_ByteOut);
+		return m_ByteOut.size();
+	}// serveMessage
+
+	/**
+	 * Serves the encoded request in place through a
+	 * <tt>ModbusFrameProcessor</tt>.
+	 */
+	@Benchmark
+	public int serveFrame() {
+		m_Out.clear();
+		m_Processor.process(m_Frame, m_Out);
+		return m_Out.position();
+	}// serveFrame
+
+	private static ModbusRequest createRequest(int fc, int count) {
+		switch (fc) {
+		case Modbus.READ_COILS:
+			return new ReadCoilsRequest(0, count);
+		case Modbus.READ_INPUT_DISCRETES:
+			return new ReadInputDiscretesRequest(0, count);
+		case Modbus.READ_MULTIPLE_REGISTERS:
+			return new ReadMultipleRegistersRequest(0, count);
+		case Modbus.READ_INPUT_REGISTERS:
+			return new ReadInputRegistersRequest(0, count);
+		case Modbus.WRITE_COIL:
+			return new WriteCoilRequest(1, true);
+		case Modbus.WRITE_SINGLE_REGISTER:
+			return new WriteSingleRegisterRequest(1, new SimpleRegister(42));
+		case Modbus.WRITE_MULTIPLE_COILS:
+			BitVector bv = new BitVector(count);
+			for (int i = 0; i < count; i += 2) {
+				bv.setBit(i, true);
+			}
+			return new WriteMultipleCoilsRequest(0, bv);
+		case Modbus.WRITE_MULTIPLE_REGISTERS:
+			Register[] regs = new Register[count];
+			for (int i = 0; i < regs.length; i++) {
+				regs[i] = new SimpleRegister(i);
+			}
+			return new WriteMultipleRegistersRequest(0, regs);
+		default:
+			throw new IllegalArgumentException("Unsupported function code "
+					+ fc);
+		}
+	}// createRequest
+
+}// class MessageCodecBenchmark
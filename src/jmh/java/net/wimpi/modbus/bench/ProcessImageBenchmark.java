@@ -0,0 +1,95 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.wimpi.modbus.procimg.ArrayProcessImage;
+import net.wimpi.modbus.procimg.IllegalAddressException;
+import net.wimpi.modbus.procimg.Register;
+import net.wimpi.modbus.procimg.SimpleProcessImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks fetching register ranges from the process image implementations.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessImageBenchmark {
+
+	@Param( { "1", "10", "125" })
+	public int count;
+
+	private SimpleProcessImage m_Simple;
+	private ArrayProcessImage m_Array;
+	private byte[] m_Data;
+	private int m_Ref;
+
+	@Setup
+	public void setup() {
+		m_Simple = Images.createSimpleProcessImage(Images.DEFAULT_SIZE);
+		m_Array = Images.createArrayProcessImage(Images.DEFAULT_SIZE);
+		m_Data = new byte[2 * count];
+	}// setup
+
+	/**
+	 * Moves the reference through the image, so that the whole image is
+	 * touched over the iterations.
+	 */
+	private int nextRef() {
+		m_Ref += count;
+		if (m_Ref + count > Images.DEFAULT_SIZE) {
+			m_Ref = 0;
+		}
+		return m_Ref;
+	}// nextRef
+
+	@Benchmark
+	public Register[] simpleRegisterRange() {
+		return m_Simple.getRegisterRange(nextRef(), count);
+	}// simpleRegisterRange
+
+	@Benchmark
+	public Register[] arrayRegisterRange() throws IllegalAddressException {
+		return m_Array.getRegisterRange(nextRef(), count);
+	}// arrayRegisterRange
+
+	@Benchmark
+	public byte[] arrayReadRegisters() throws IllegalAddressException {
+		m_Array.readRegisters(nextRef(), count, m_Data, 0);
+		return m_Data;
+	}// arrayReadRegisters
+
+}// class ProcessImageBenchmark
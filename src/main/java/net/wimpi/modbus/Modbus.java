@@ -99,6 +99,18 @@ public interface Modbus {
 	 */
 	public static final int MAX_BITS = 2000;
 
+	/**
+	 * Defines the maximum number of registers in multiple reads of registers
+	 * or input registers (<b>125</b>).
+	 */
+	public static final int MAX_REGISTERS = 125;
+
+	/**
+	 * Defines the maximum number of registers in multiple writes of
+	 * registers (<b>123</b>).
+	 */
+	public static final int MAX_WRITE_REGISTERS = 123;
+
 	/**
 	 * Defines the Modbus slave exception offset that is added to the function
 	 * code, to flag an exception.
@@ -136,6 +148,27 @@ public interface Modbus {
 	 */
 	public static final int ILLEGAL_VALUE_EXCEPTION = 3;
 
+	/**
+	 * Defines the Modbus slave exception type <tt>slave device busy</tt>. This
+	 * exception code is returned if the slave is engaged in processing other
+	 * requests and the client should retry later.
+	 */
+	public static final int SLAVE_DEVICE_BUSY_EXCEPTION = 6;
+
+	/**
+	 * Defines the Modbus slave exception type <tt>gateway path
+	 * unavailable</tt>. This exception code is returned by gateways that have
+	 * no path to the addressed unit.
+	 */
+	public static final int GATEWAY_PATH_UNAVAILABLE_EXCEPTION = 10;
+
+	/**
+	 * Defines the Modbus slave exception type <tt>gateway target device
+	 * failed to respond</tt>. This exception code is returned by gateways if
+	 * the addressed unit did not answer in time.
+	 */
+	public static final int GATEWAY_TARGET_FAILED_EXCEPTION = 11;
+
 	/**
 	 * Defines the default port number of Modbus (=<tt>502</tt>).
 	 */
@@ -0,0 +1,197 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+
+package net.wimpi.modbus;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.wimpi.modbus.procimg.DefaultProcessImageFactory;
+import net.wimpi.modbus.procimg.ProcessImage;
+import net.wimpi.modbus.procimg.ProcessImageFactory;
+
+/**
+ * Class holding the state a slave serves requests from, and the factory
+ * messages create their registers with.
+ * <p>
+ * Listeners, transports and messages take a <tt>ModbusContext</tt> through
+ * their <tt>setContext()</tt> methods, so that several independent slaves
+ * (or masters with different factories) can run in one JVM. If none is set,
+ * they fall back to the {@link ModbusCoupler} singleton, which is the
+ * default context.
+ * <p>
+ * To serve several units, process images can be registered per unit
+ * identifier (see {@link #setProcessImage(int, ProcessImage)}). As soon as
+ * one unit image is registered, the slave listeners route every request to
+ * the image of its unit and answer requests for unregistered units with a
+ * <tt>gateway target device failed to respond</tt> exception (serial slaves
+ * ignore them). Otherwise the single process image serves all requests, and
+ * serial slaves answer the unit identifier of this context only.
+ * <p>
+ * All accessors are lock-free, so that handler threads do not contend on
+ * the context.
+ * 
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusContext {
+
+	private volatile ProcessImage m_ProcessImage;
+	private final AtomicReferenceArray<ProcessImage> m_UnitImages;
+	private volatile int m_UnitImageCount;
+	private volatile int m_UnitID = Modbus.DEFAULT_UNIT_ID;
+	private volatile ProcessImageFactory m_PIFactory;
+
+	/**
+	 * Constructs a new <tt>ModbusContext</tt> instance without process image,
+	 * using a <tt>DefaultProcessImageFactory</tt>.
+	 */
+	public ModbusContext() {
+		m_UnitImages = new AtomicReferenceArray<ProcessImage>(256);
+		m_PIFactory = new DefaultProcessImageFactory();
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ModbusContext</tt> instance serving the given
+	 * process image.
+	 * 
+	 * @param procimg
+	 *            a <tt>ProcessImage</tt>.
+	 */
+	public ModbusContext(ProcessImage procimg) {
+		this();
+		m_ProcessImage = procimg;
+	}// constructor(ProcessImage)
+
+	/**
+	 * Returns the actual <tt>ProcessImageFactory</tt> instance.
+	 * 
+	 * @return a <tt>ProcessImageFactory</tt> instance.
+	 */
+	public ProcessImageFactory getProcessImageFactory() {
+		return m_PIFactory;
+	}// getProcessImageFactory
+
+	/**
+	 * Sets the <tt>ProcessImageFactory</tt> instance.
+	 * 
+	 * @param factory
+	 *            the instance to be used for creating process image instances.
+	 */
+	public void setProcessImageFactory(ProcessImageFactory factory) {
+		m_PIFactory = factory;
+	}// setProcessImageFactory
+
+	/**
+	 * Returns a reference to the <tt>ProcessImage</tt> of this
+	 * <tt>ModbusContext</tt>.
+	 * 
+	 * @return the <tt>ProcessImage</tt>.
+	 */
+	public ProcessImage getProcessImage() {
+		return m_ProcessImage;
+	}// getProcessImage
+
+	/**
+	 * Sets the reference to the <tt>ProcessImage</tt> of this
+	 * <tt>ModbusContext</tt>.
+	 * 
+	 * @param procimg
+	 *            the <tt>ProcessImage</tt> to be set.
+	 */
+	public void setProcessImage(ProcessImage procimg) {
+		m_ProcessImage = procimg;
+	}// setProcessImage
+
+	/**
+	 * Returns the <tt>ProcessImage</tt> serving the given unit.
+	 * 
+	 * @param unitid
+	 *            the unit identifier.
+	 * @return the image registered for the unit, or the single process image
+	 *         if no unit images are registered, or null if there is none.
+	 */
+	public ProcessImage getProcessImage(int unitid) {
+		if (m_UnitImageCount == 0) {
+			return m_ProcessImage;
+		}
+		return m_UnitImages.get(unitid & 0xff);
+	}// getProcessImage
+
+	/**
+	 * Registers the <tt>ProcessImage</tt> serving the given unit.
+	 * 
+	 * @param unitid
+	 *            the unit identifier.
+	 * @param procimg
+	 *            the <tt>ProcessImage</tt>, or null to remove the unit.
+	 */
+	public synchronized void setProcessImage(int unitid, ProcessImage procimg) {
+		ProcessImage old = m_UnitImages.getAndSet(unitid & 0xff, procimg);
+		if (old == null && procimg != null) {
+			m_UnitImageCount++;
+		} else if (old != null && procimg == null) {
+			m_UnitImageCount--;
+		}
+	}// setProcessImage
+
+	/**
+	 * Tests if requests are routed to process images registered per unit.
+	 * 
+	 * @return true if at least one unit image is registered, false
+	 *         otherwise.
+	 */
+	public boolean isMultiUnit() {
+		return m_UnitImageCount > 0;
+	}// isMultiUnit
+
+	/**
+	 * Tests if a slave on a serial line answers requests for the given unit.
+	 * 
+	 * @param unitid
+	 *            the unit identifier.
+	 * @return true if a unit image is registered for the unit or, without
+	 *         unit images, if it is the unit identifier of this context.
+	 */
+	public boolean isServing(int unitid) {
+		if (m_UnitImageCount == 0) {
+			return unitid == m_UnitID;
+		}
+		return m_UnitImages.get(unitid & 0xff) != null;
+	}// isServing
+
+	/**
+	 * Returns the identifier of this unit. This identifier is required to be
+	 * set for serial protocol slave implementations.
+	 * 
+	 * @return the unit identifier as <tt>int</tt>.
+	 */
+	public int getUnitID() {
+		return m_UnitID;
+	}// getUnitID
+
+	/**
+	 * Sets the identifier of this unit, which is needed to be determined in a
+	 * serial network.
+	 * 
+	 * @param id
+	 *            the new unit identifier as <tt>int</tt>.
+	 */
+	public void setUnitID(int id) {
+		m_UnitID = id;
+	}// setUnitID
+
+}// class ModbusContext
@@ -16,37 +16,32 @@
 
 package net.wimpi.modbus;
 
-import net.wimpi.modbus.procimg.DefaultProcessImageFactory;
 import net.wimpi.modbus.procimg.ProcessImage;
-import net.wimpi.modbus.procimg.ProcessImageFactory;
 
 /**
  * Class implemented following a Singleton pattern, to couple the slave side
  * with a master side or with a device.
  * <p>
- * At the moment it only provides a reference to the OO model of the process
- * image.
+ * The coupler is the default {@link ModbusContext}, used by all listeners,
+ * transports and messages that have not been given a context of their own.
  * 
  * @author Dieter Wimberger
  * @version @version@ (@date@)
  */
-public class ModbusCoupler {
+public class ModbusCoupler extends ModbusContext {
 
 	// class attributes
 	private static ModbusCoupler c_Self; // Singleton reference
 
 	// instance attributes
-	private ProcessImage m_ProcessImage;
-	private int m_UnitID = Modbus.DEFAULT_UNIT_ID;
 	private boolean m_Master = true;
-	private ProcessImageFactory m_PIFactory;
 
 	static {
 		c_Self = new ModbusCoupler();
 	}// initializer
 
 	private ModbusCoupler() {
-		m_PIFactory = new DefaultProcessImageFactory();
+		super();
 	}// constructor
 
 	/**
@@ -57,73 +52,10 @@ public class ModbusCoupler {
 	 *            a <tt>ProcessImage</tt>.
 	 */
 	private ModbusCoupler(ProcessImage procimg) {
-		setProcessImage(procimg);
+		super(procimg);
 		c_Self = this;
 	}// contructor(ProcessImage)
 
-	/**
-	 * Returns the actual <tt>ProcessImageFactory</tt> instance.
-	 * 
-	 * @return a <tt>ProcessImageFactory</tt> instance.
-	 */
-	public ProcessImageFactory getProcessImageFactory() {
-		return m_PIFactory;
-	}// getProcessImageFactory
-
-	/**
-	 * Sets the <tt>ProcessImageFactory</tt> instance.
-	 * 
-	 * @param factory
-	 *            the instance to be used for creating process image instances.
-	 */
-	public void setProcessImageFactory(ProcessImageFactory factory) {
-		m_PIFactory = factory;
-	}// setProcessImageFactory
-
-	/**
-	 * Returns a reference to the <tt>ProcessImage</tt> of this
-	 * <tt>ModbusCoupler</tt>.
-	 * <p/>
-	 * 
-	 * @return the <tt>ProcessImage</tt>.
-	 */
-	public synchronized ProcessImage getProcessImage() {
-		return m_ProcessImage;
-	}// getProcessImage
-
-	/**
-	 * Sets the reference to the <tt>ProcessImage</tt> of this
-	 * <tt>ModbusCoupler</tt>.
-	 * <p/>
-	 * 
-	 * @param procimg
-	 *            the <tt>ProcessImage</tt> to be set.
-	 */
-	public synchronized void setProcessImage(ProcessImage procimg) {
-		m_ProcessImage = procimg;
-	}// setProcessImage
-
-	/**
-	 * Returns the identifier of this unit. This identifier is required to be
-	 * set for serial protocol slave implementations.
-	 * 
-	 * @return the unit identifier as <tt>int</tt>.
-	 */
-	public int getUnitID() {
-		return m_UnitID;
-	}// getUnitID
-
-	/**
-	 * Sets the identifier of this unit, which is needed to be determined in a
-	 * serial network.
-	 * 
-	 * @param id
-	 *            the new unit identifier as <tt>int</tt>.
-	 */
-	public void setUnitID(int id) {
-		m_UnitID = id;
-	}// setUnitID
-
 	/**
 	 * Tests if this instance is a master device.
 	 * 
@@ -0,0 +1,690 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.facade;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.io.ModbusTransport;
+import net.wimpi.modbus.msg.ExceptionResponse;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.msg.ReadCoilsRequest;
+import net.wimpi.modbus.msg.ReadCoilsResponse;
+import net.wimpi.modbus.msg.ReadInputDiscretesRequest;
+import net.wimpi.modbus.msg.ReadInputDiscretesResponse;
+import net.wimpi.modbus.msg.ReadInputRegistersRequest;
+import net.wimpi.modbus.msg.ReadInputRegistersResponse;
+import net.wimpi.modbus.msg.ReadMultipleRegistersRequest;
+import net.wimpi.modbus.msg.ReadMultipleRegistersResponse;
+import net.wimpi.modbus.msg.WriteCoilRequest;
+import net.wimpi.modbus.msg.WriteCoilResponse;
+import net.wimpi.modbus.msg.WriteMultipleCoilsRequest;
+import net.wimpi.modbus.msg.WriteMultipleRegistersRequest;
+import net.wimpi.modbus.msg.WriteSingleRegisterRequest;
+import net.wimpi.modbus.net.TCPMasterConnection;
+import net.wimpi.modbus.procimg.InputRegister;
+import net.wimpi.modbus.procimg.Register;
+import net.wimpi.modbus.util.BitVector;
+
+/**
+ * Asynchronous Modbus/TCP Master facade.
+ * <p/>
+ * In contrast to the {@link ModbusTCPMaster}, which waits for each response
+ * before sending the next request, this master pipelines requests over a
+ * single connection. Up to {@link #getWindowSize()} requests are outstanding
+ * at any time; further requests are queued and sent as soon as a slot becomes
+ * available. Responses are matched to their requests by the MBAP transaction
+ * identifier on a dedicated reader thread, so the slave (or gateway) may
+ * answer in any order. Requests freed from the queue by a response or a
+ * timeout are sent by a writer thread, so the reader never blocks in a
+ * socket write.
+ * <p/>
+ * Every request completes its future either with the response, with a
+ * <tt>ModbusSlaveException</tt> if the slave answered with an exception
+ * response, or with a <tt>ModbusIOException</tt> if it timed out (see
+ * {@link ModbusIOException#isTimeout()}) or the connection failed.
+ * <p/>
+ * Note that the transaction identifier of a request is set when it is sent,
+ * so a <tt>ModbusRequest</tt> instance must not be executed again before its
+ * future has completed.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class AsyncModbusTCPMaster {
+
+	/**
+	 * Defines the default number of outstanding requests (=<tt>16</tt>).
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 16;
+
+	private TCPMasterConnection m_Connection;
+	private ModbusTransport m_Transport;
+	private int m_WindowSize = DEFAULT_WINDOW_SIZE;
+	private int m_Timeout = Modbus.DEFAULT_TIMEOUT;
+
+	private Semaphore m_Window;
+	private final ConcurrentLinkedQueue<PendingRequest> m_Queue;
+	private final ConcurrentHashMap<Integer, PendingRequest> m_InFlight;
+	private final ReentrantLock m_WriteLock;
+	// generation of the open connection, 0 if disconnected
+	private final AtomicInteger m_Connected;
+	private int m_Generation;
+	private int m_TransactionID = Modbus.DEFAULT_TRANSACTION_ID;
+	private ScheduledThreadPoolExecutor m_Timer;
+	private ExecutorService m_Writer;
+	private final AtomicBoolean m_SendPending;
+	private final Runnable m_SendTask;
+	private Thread m_Reader;
+
+	/**
+	 * Constructs a new asynchronous master facade instance for communication
+	 * with a given slave.
+	 *
+	 * @param addr
+	 *            an internet address as resolvable IP name or IP number,
+	 *            specifying the slave to communicate with.
+	 */
+	public AsyncModbusTCPMaster(String addr) {
+		try {
+			m_Connection = new TCPMasterConnection(InetAddress.getByName(addr));
+		} catch (UnknownHostException e) {
+			throw new RuntimeException(e.getMessage());
+		}
+		m_Queue = new ConcurrentLinkedQueue<PendingRequest>();
+		m_InFlight = new ConcurrentHashMap<Integer, PendingRequest>();
+		m_WriteLock = new ReentrantLock();
+		m_Connected = new AtomicInteger(0);
+		m_SendPending = new AtomicBoolean(false);
+		m_SendTask = new Runnable() {
+			public void run() {
+				m_SendPending.set(false);
+				sendQueued();
+			}
+		};
+	}// constructor
+
+	/**
+	 * Constructs a new asynchronous master facade instance for communication
+	 * with a given slave.
+	 *
+	 * @param addr
+	 *            an internet address as resolvable IP name or IP number,
+	 *            specifying the slave to communicate with.
+	 * @param port
+	 *            the port the slave is listening to.
+	 */
+	public AsyncModbusTCPMaster(String addr, int port) {
+		this(addr);
+		m_Connection.setPort(port);
+	}// constructor
+
+	/**
+	 * Sets the maximum number of requests that may be outstanding on the
+	 * connection. Takes effect on the next {@link #connect()}.
+	 *
+	 * @param size
+	 *            the window size as <tt>int</tt>, at least 1.
+	 */
+	public void setWindowSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Window size must be >= 1.");
+		}
+		m_WindowSize = size;
+	}// setWindowSize
+
+	/**
+	 * Returns the maximum number of requests that may be outstanding on the
+	 * connection.
+	 *
+	 * @return the window size as <tt>int</tt>.
+	 */
+	public int getWindowSize() {
+		return m_WindowSize;
+	}// getWindowSize
+
+	/**
+	 * Sets the default timeout for requests, measured from the moment the
+	 * request is written to the connection.
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds.
+	 */
+	public void setTimeout(int timeout) {
+		m_Timeout = timeout;
+	}// setTimeout
+
+	/**
+	 * Returns the default timeout for requests.
+	 *
+	 * @return the timeout in milliseconds.
+	 */
+	public int getTimeout() {
+		return m_Timeout;
+	}// getTimeout
+
+	/**
+	 * Tests if this master is connected.
+	 *
+	 * @return true if connected, false otherwise.
+	 */
+	public boolean isConnected() {
+		return m_Connected.get() != 0;
+	}// isConnected
+
+	/**
+	 * Connects this <tt>AsyncModbusTCPMaster</tt> with the slave and starts
+	 * the reader thread.
+	 *
+	 * @throws Exception
+	 *             if the connection cannot be established.
+	 */
+	public synchronized void connect() throws Exception {
+		if (m_Connected.get() != 0) {
+			return;
+		}
+		if (m_Reader != null && m_Reader != Thread.currentThread()) {
+			// the reader of the previous connection exits once its socket
+			// is closed
+			m_Reader.join();
+			m_Reader = null;
+		}
+		m_Connection.setTimeout(m_Timeout);
+		m_Connection.connect();
+		// the reader blocks until a response arrives, timeouts are tracked
+		// per request
+		m_Connection.setTimeout(0);
+		m_Transport = m_Connection.getModbusTransport();
+		m_Window = new Semaphore(m_WindowSize);
+		m_Timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AsyncModbusTCPMaster-timer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		m_Timer.setRemoveOnCancelPolicy(true);
+		m_Writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AsyncModbusTCPMaster-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		m_SendPending.set(false);
+		if (++m_Generation == 0) {
+			m_Generation = 1;
+		}
+		m_Connected.set(m_Generation);
+		m_Reader = new Thread(new ResponseReader(m_Transport, m_Generation),
+				"AsyncModbusTCPMaster-reader");
+		m_Reader.setDaemon(true);
+		m_Reader.start();
+	}// connect
+
+	/**
+	 * Disconnects this <tt>AsyncModbusTCPMaster</tt> from the slave. All
+	 * queued and outstanding requests fail with a <tt>ModbusIOException</tt>.
+	 */
+	public synchronized void disconnect() {
+		int gen = m_Connected.get();
+		if (gen != 0 && m_Connected.compareAndSet(gen, 0)) {
+			m_Connection.close();
+			m_Timer.shutdownNow();
+			m_Writer.shutdown();
+			failAll(new ModbusIOException("Connection closed."));
+		}
+	}// disconnect
+
+	/**
+	 * Executes the given request with the default timeout.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt> to be sent.
+	 * @return a future completing with the <tt>ModbusResponse</tt>.
+	 */
+	public CompletableFuture<ModbusResponse> execute(ModbusRequest request) {
+		return execute(request, m_Timeout);
+	}// execute
+
+	/**
+	 * Executes the given request with the given timeout.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt> to be sent.
+	 * @param timeout
+	 *            the time in milliseconds to wait for the response once the
+	 *            request has been sent.
+	 * @return a future completing with the <tt>ModbusResponse</tt>.
+	 */
+	public CompletableFuture<ModbusResponse> execute(ModbusRequest request,
+			int timeout) {
+		PendingRequest p = new PendingRequest(request, timeout);
+		if (m_Connected.get() == 0) {
+			p.m_Future.completeExceptionally(new ModbusIOException(
+					"Not connected."));
+			return p.m_Future;
+		}
+		m_Queue.offer(p);
+		if (m_Connected.get() == 0 && m_Queue.remove(p)) {
+			// disconnected meanwhile, failAll may have missed it
+			p.m_Future.completeExceptionally(new ModbusIOException(
+					"Not connected."));
+			return p.m_Future;
+		}
+		sendQueued();
+		return p.m_Future;
+	}// execute
+
+	/**
+	 * Reads a given number of coil states from the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the coil to start reading from.
+	 * @param count
+	 *            the number of coil states to be read.
+	 * @return a future completing with a <tt>BitVector</tt> holding the
+	 *         received coil states.
+	 */
+	public CompletableFuture<BitVector> readCoils(int unitid, int ref,
+			final int count) {
+		ReadCoilsRequest req = new ReadCoilsRequest(ref, count);
+		req.setUnitID(unitid);
+		return execute(req).thenApply(
+				new Function<ModbusResponse, BitVector>() {
+					public BitVector apply(ModbusResponse res) {
+						BitVector bv = ((ReadCoilsResponse) res).getCoils();
+						bv.forceSize(count);
+						return bv;
+					}
+				});
+	}// readCoils
+
+	/**
+	 * Writes a coil state to the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the coil to be written.
+	 * @param state
+	 *            the coil state to be written.
+	 * @return a future completing with the state of the coil as returned from
+	 *         the slave.
+	 */
+	public CompletableFuture<Boolean> writeCoil(int unitid, int ref,
+			boolean state) {
+		WriteCoilRequest req = new WriteCoilRequest(ref, state);
+		req.setUnitID(unitid);
+		return execute(req).thenApply(new Function<ModbusResponse, Boolean>() {
+			public Boolean apply(ModbusResponse res) {
+				return Boolean.valueOf(((WriteCoilResponse) res).getCoil());
+			}
+		});
+	}// writeCoil
+
+	/**
+	 * Writes a given number of coil states to the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the coil to start writing to.
+	 * @param coils
+	 *            a <tt>BitVector</tt> which holds the coil states to be
+	 *            written.
+	 * @return a future completing with the response.
+	 */
+	public CompletableFuture<ModbusResponse> writeMultipleCoils(int unitid,
+			int ref, BitVector coils) {
+		WriteMultipleCoilsRequest req = new WriteMultipleCoilsRequest(ref,
+				coils);
+		req.setUnitID(unitid);
+		return execute(req);
+	}// writeMultipleCoils
+
+	/**
+	 * Reads a given number of input discrete states from the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the input discrete to start reading from.
+	 * @param count
+	 *            the number of input discrete states to be read.
+	 * @return a future completing with a <tt>BitVector</tt> holding the
+	 *         received input discrete states.
+	 */
+	public CompletableFuture<BitVector> readInputDiscretes(int unitid,
+			int ref, final int count) {
+		ReadInputDiscretesRequest req = new ReadInputDiscretesRequest(ref,
+				count);
+		req.setUnitID(unitid);
+		return execute(req).thenApply(
+				new Function<ModbusResponse, BitVector>() {
+					public BitVector apply(ModbusResponse res) {
+						BitVector bv = ((ReadInputDiscretesResponse) res)
+								.getDiscretes();
+						bv.forceSize(count);
+						return bv;
+					}
+				});
+	}// readInputDiscretes
+
+	/**
+	 * Reads a given number of input registers from the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the input register to start reading from.
+	 * @param count
+	 *            the number of input registers to be read.
+	 * @return a future completing with the received input registers.
+	 */
+	public CompletableFuture<InputRegister[]> readInputRegisters(int unitid,
+			int ref, int count) {
+		ReadInputRegistersRequest req = new ReadInputRegistersRequest(ref,
+				count);
+		req.setUnitID(unitid);
+		return execute(req).thenApply(
+				new Function<ModbusResponse, InputRegister[]>() {
+					public InputRegister[] apply(ModbusResponse res) {
+						return ((ReadInputRegistersResponse) res)
+								.getRegisters();
+					}
+				});
+	}// readInputRegisters
+
+	/**
+	 * Reads a given number of registers from the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the register to start reading from.
+	 * @param count
+	 *            the number of registers to be read.
+	 * @return a future completing with the received registers.
+	 */
+	public CompletableFuture<Register[]> readMultipleRegisters(int unitid,
+			int ref, int count) {
+		ReadMultipleRegistersRequest req = new ReadMultipleRegistersRequest(
+				ref, count);
+		req.setUnitID(unitid);
+		return execute(req).thenApply(
+				new Function<ModbusResponse, Register[]>() {
+					public Register[] apply(ModbusResponse res) {
+						return ((ReadMultipleRegistersResponse) res)
+								.getRegisters();
+					}
+				});
+	}// readMultipleRegisters
+
+	/**
+	 * Writes a single register to the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the register to be written.
+	 * @param register
+	 *            a <tt>Register</tt> holding the value of the register to be
+	 *            written.
+	 * @return a future completing with the response.
+	 */
+	public CompletableFuture<ModbusResponse> writeSingleRegister(int unitid,
+			int ref, Register register) {
+		WriteSingleRegisterRequest req = new WriteSingleRegisterRequest(ref,
+				register);
+		req.setUnitID(unitid);
+		return execute(req);
+	}// writeSingleRegister
+
+	/**
+	 * Writes a number of registers to the slave.
+	 *
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the register to start writing to.
+	 * @param registers
+	 *            a <tt>Register[]</tt> holding the values of the registers to
+	 *            be written.
+	 * @return a future completing with the response.
+	 */
+	public CompletableFuture<ModbusResponse> writeMultipleRegisters(
+			int unitid, int ref, Register[] registers) {
+		WriteMultipleRegistersRequest req = new WriteMultipleRegistersRequest(
+				ref, registers);
+		req.setUnitID(unitid);
+		return execute(req);
+	}// writeMultipleRegisters
+
+	/**
+	 * Sends queued requests as long as the window has free slots.
+	 */
+	private void sendQueued() {
+		while (!m_Queue.isEmpty() && m_Connected.get() != 0
+				&& m_Window.tryAcquire()) {
+			PendingRequest p = m_Queue.poll();
+			if (p == null) {
+				m_Window.release();
+				return;
+			}
+			send(p);
+		}
+	}// sendQueued
+
+	/**
+	 * Lets the writer thread send the queued requests that fit into the
+	 * window.
+	 */
+	private void scheduleSend() {
+		if (!m_Queue.isEmpty() && m_SendPending.compareAndSet(false, true)) {
+			try {
+				m_Writer.execute(m_SendTask);
+			} catch (RejectedExecutionException ex) {
+				// disconnecting, the queued requests fail
+				m_SendPending.set(false);
+			}
+		}
+	}// scheduleSend
+
+	/**
+	 * Writes a request to the connection. The caller must hold a window
+	 * slot.
+	 *
+	 * @param p
+	 *            the <tt>PendingRequest</tt> to be sent.
+	 */
+	private void send(final PendingRequest p) {
+		int gen = m_Connected.get();
+		Integer tid = null;
+		m_WriteLock.lock();
+		try {
+			// pick the next id not used by an outstanding request
+			do {
+				if (m_TransactionID == Modbus.MAX_TRANSACTION_ID) {
+					m_TransactionID = 0;
+				}
+				m_TransactionID++;
+			} while (m_InFlight.containsKey(Integer.valueOf(m_TransactionID)));
+			final Integer id = Integer.valueOf(m_TransactionID);
+			tid = id;
+			p.m_Request.setTransactionID(m_TransactionID);
+			m_InFlight.put(id, p);
+			p.m_Timeout = m_Timer.schedule(new Runnable() {
+				public void run() {
+					if (m_InFlight.remove(id, p)) {
+						ModbusIOException ex = new ModbusIOException(
+								"Transaction " + id + " timed out.");
+						ex.setTimeout(true);
+						p.m_Future.completeExceptionally(ex);
+						m_Window.release();
+						scheduleSend();
+					}
+				}
+			}, p.m_TimeoutMillis, TimeUnit.MILLISECONDS);
+			m_Transport.writeMessage(p.m_Request);
+		} catch (ModbusIOException ex) {
+			sendFailed(p, tid, gen, ex);
+		} catch (RuntimeException ex) {
+			// timer rejected the task, i.e. we are disconnecting
+			sendFailed(p, tid, gen, new ModbusIOException(ex.getMessage()));
+		} finally {
+			m_WriteLock.unlock();
+		}
+	}// send
+
+	private void sendFailed(PendingRequest p, Integer tid, int gen,
+			ModbusIOException ex) {
+		connectionFailed(ex, gen);
+		// the request may have been registered after the others failed
+		if (tid != null && m_InFlight.remove(tid, p)) {
+			p.m_Future.completeExceptionally(ex);
+		}
+	}// sendFailed
+
+	/**
+	 * Completes the outstanding request matching the transaction identifier
+	 * of the given response.
+	 *
+	 * @param res
+	 *            the <tt>ModbusResponse</tt> received.
+	 */
+	private void dispatch(ModbusResponse res) {
+		PendingRequest p = m_InFlight.remove(Integer.valueOf(res
+				.getTransactionID()));
+		if (p == null) {
+			// late response of a timed out request
+			if (Modbus.debug)
+				System.out.println("Discarding response with unknown id "
+						+ res.getTransactionID());
+			return;
+		}
+		p.m_Timeout.cancel(false);
+		m_Window.release();
+		res.setReference(p.m_Request.getReference());
+		if (res instanceof ExceptionResponse) {
+			p.m_Future.completeExceptionally(new ModbusSlaveException(
+					((ExceptionResponse) res).getExceptionCode()));
+		} else {
+			p.m_Future.complete(res);
+		}
+		scheduleSend();
+	}// dispatch
+
+	/**
+	 * Closes the connection of the given generation, if it is still open,
+	 * and fails its requests.
+	 */
+	private void connectionFailed(ModbusIOException ex, int gen) {
+		if (gen != 0 && m_Connected.compareAndSet(gen, 0)) {
+			m_Connection.close();
+			m_Timer.shutdownNow();
+			m_Writer.shutdown();
+			failAll(ex);
+		}
+	}// connectionFailed
+
+	private void failAll(ModbusException ex) {
+		Iterator<PendingRequest> iter = m_InFlight.values().iterator();
+		while (iter.hasNext()) {
+			PendingRequest p = iter.next();
+			iter.remove();
+			p.m_Future.completeExceptionally(ex);
+		}
+		PendingRequest p;
+		while ((p = m_Queue.poll()) != null) {
+			p.m_Future.completeExceptionally(ex);
+		}
+	}// failAll
+
+	/**
+	 * Inner class holding a request and the future it completes.
+	 */
+	private static class PendingRequest {
+
+		final ModbusRequest m_Request;
+		final int m_TimeoutMillis;
+		final CompletableFuture<ModbusResponse> m_Future;
+		volatile ScheduledFuture<?> m_Timeout;
+
+		PendingRequest(ModbusRequest req, int timeout) {
+			m_Request = req;
+			m_TimeoutMillis = timeout;
+			m_Future = new CompletableFuture<ModbusResponse>();
+		}// constructor
+
+	}// inner class PendingRequest
+
+	/**
+	 * Inner class reading responses from one connection and dispatching them
+	 * to the outstanding requests. The reader exits once its connection is
+	 * closed, without touching later connections.
+	 */
+	private class ResponseReader implements Runnable {
+
+		private final ModbusTransport m_ReaderTransport;
+		private final int m_ReaderGeneration;
+
+		ResponseReader(ModbusTransport transport, int gen) {
+			m_ReaderTransport = transport;
+			m_ReaderGeneration = gen;
+		}// constructor
+
+		public void run() {
+			try {
+				while (m_Connected.get() == m_ReaderGeneration) {
+					ModbusResponse res = m_ReaderTransport.readResponse();
+					if (m_Connected.get() != m_ReaderGeneration) {
+						break;
+					}
+					dispatch(res);
+				}
+			} catch (ModbusIOException ex) {
+				connectionFailed(ex, m_ReaderGeneration);
+			}
+		}// run
+
+	}// inner class ResponseReader
+
+}// class AsyncModbusTCPMaster
@@ -0,0 +1,895 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+
+package net.wimpi.modbus.facade;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.io.BytesInputStream;
+import net.wimpi.modbus.io.BytesOutputStream;
+import net.wimpi.modbus.msg.ExceptionResponse;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.msg.ReadCoilsRequest;
+import net.wimpi.modbus.msg.ReadCoilsResponse;
+import net.wimpi.modbus.msg.ReadInputDiscretesRequest;
+import net.wimpi.modbus.msg.ReadInputDiscretesResponse;
+import net.wimpi.modbus.msg.ReadInputRegistersRequest;
+import net.wimpi.modbus.msg.ReadInputRegistersResponse;
+import net.wimpi.modbus.msg.ReadMultipleRegistersRequest;
+import net.wimpi.modbus.msg.ReadMultipleRegistersResponse;
+import net.wimpi.modbus.msg.WriteCoilRequest;
+import net.wimpi.modbus.msg.WriteCoilResponse;
+import net.wimpi.modbus.msg.WriteMultipleCoilsRequest;
+import net.wimpi.modbus.msg.WriteMultipleRegistersRequest;
+import net.wimpi.modbus.msg.WriteSingleRegisterRequest;
+import net.wimpi.modbus.procimg.InputRegister;
+import net.wimpi.modbus.procimg.Register;
+import net.wimpi.modbus.util.BitVector;
+
+/**
+ * Asynchronous Modbus/UDP Master facade.
+ * <p/>
+ * In contrast to the {@link ModbusUDPMaster}, which talks to a single slave
+ * and waits for each response, this master sends requests to any number of
+ * slaves over one <tt>DatagramChannel</tt>. A single I/O thread sends the
+ * requests, receives the responses and matches them to their requests by the
+ * address of the sender and the MBAP transaction identifier, so thousands of
+ * devices can be polled concurrently without a thread or socket per device.
+ * <p/>
+ * Up to {@link #getWindowSize()} requests are outstanding at any time;
+ * further requests are queued and sent as soon as a slot becomes available.
+ * Timeouts are tracked in a timer wheel driven by the I/O thread, with a
+ * resolution of {@link #TICK_MILLIS} milliseconds.
+ * <p/>
+ * Every request completes its future either with the response, with a
+ * <tt>ModbusSlaveException</tt> if the slave answered with an exception
+ * response, or with a <tt>ModbusIOException</tt> if it timed out or the
+ * channel failed. Futures are completed on the I/O thread, so dependent
+ * actions should not block.
+ * <p/>
+ * Note that the transaction identifier of a request is set when it is sent,
+ * so a <tt>ModbusRequest</tt> instance must not be executed again before its
+ * future has completed.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class AsyncModbusUDPMaster {
+
+	/**
+	 * Defines the default number of outstanding requests (=<tt>1024</tt>).
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 1024;
+
+	/**
+	 * Defines the resolution of the request timeouts in milliseconds
+	 * (=<tt>10</tt>).
+	 */
+	public static final int TICK_MILLIS = 10;
+
+	private int m_LocalPort = 0;
+	private int m_WindowSize = DEFAULT_WINDOW_SIZE;
+	private int m_Timeout = Modbus.DEFAULT_TIMEOUT;
+	private int m_ReceiveBufferSize = 0;
+	private int m_SendBufferSize = 0;
+
+	private DatagramChannel m_Channel;
+	private Selector m_Selector;
+	private Thread m_IOThread;
+	private final AtomicBoolean m_Connected;
+	private final AtomicBoolean m_WakeupPending;
+	private final ConcurrentLinkedQueue<PendingRequest> m_Submitted;
+
+	// only accessed by the I/O thread
+	private final ArrayDeque<PendingRequest> m_Queue;
+	private final HashMap<Key, PendingRequest> m_InFlight;
+	private final Key m_Probe;
+	private final TimerWheel m_Timers;
+	private final BytesOutputStream m_ByteOut;
+	private final BytesInputStream m_ByteIn;
+	private final ByteBuffer m_In;
+	private int m_TransactionID = Modbus.DEFAULT_TRANSACTION_ID;
+
+	/**
+	 * Constructs a new asynchronous master facade instance. The slaves are
+	 * addressed per request.
+	 */
+	public AsyncModbusUDPMaster() {
+		m_Connected = new AtomicBoolean(false);
+		m_WakeupPending = new AtomicBoolean(false);
+		m_Submitted = new ConcurrentLinkedQueue<PendingRequest>();
+		m_Queue = new ArrayDeque<PendingRequest>();
+		m_InFlight = new HashMap<Key, PendingRequest>();
+		m_Probe = new Key();
+		m_Timers = new TimerWheel(512);
+		m_ByteOut = new BytesOutputStream(Modbus.MAX_IP_MESSAGE_LENGTH);
+		m_ByteIn = new BytesInputStream(Modbus.MAX_IP_MESSAGE_LENGTH);
+		m_In = ByteBuffer.wrap(m_ByteIn.getBuffer());
+	}// constructor
+
+	/**
+	 * Sets the local port the channel is bound to. Takes effect on the next
+	 * {@link #connect()}.
+	 *
+	 * @param port
+	 *            the local port, or 0 for an ephemeral port.
+	 */
+	public void setLocalPort(int port) {
+		m_LocalPort = port;
+	}// setLocalPort
+
+	/**
+	 * Returns the local port the channel is bound to.
+	 *
+	 * @return the local port, or the configured one if not connected.
+	 */
+	public int getLocalPort() {
+		DatagramChannel ch = m_Channel;
+		if (ch != null && ch.isOpen()) {
+			return ch.socket().getLocalPort();
+		}
+		return m_LocalPort;
+	}// getLocalPort
+
+	/**
+	 * Sets the maximum number of requests that may be outstanding at the
+	 * same time, over all slaves. Takes effect on the next
+	 * {@link #connect()}.
+	 *
+	 * @param size
+	 *            the window size as <tt>int</tt>, at least 1.
+	 */
+	public void setWindowSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Window size must be >= 1.");
+		}
+		m_WindowSize = size;
+	}// setWindowSize
+
+	/**
+	 * Returns the maximum number of requests that may be outstanding.
+	 *
+	 * @return the window size as <tt>int</tt>.
+	 */
+	public int getWindowSize() {
+		return m_WindowSize;
+	}// getWindowSize
+
+	/**
+	 * Sets the default timeout for requests, measured from the moment the
+	 * request is sent.
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds.
+	 */
+	public void setTimeout(int timeout) {
+		m_Timeout = timeout;
+	}// setTimeout
+
+	/**
+	 * Returns the default timeout for requests.
+	 *
+	 * @return the timeout in milliseconds.
+	 */
+	public int getTimeout() {
+		return m_Timeout;
+	}// getTimeout
+
+	/**
+	 * Sets the size of the socket receive buffer. Takes effect on the next
+	 * {@link #connect()}.
+	 *
+	 * @param size
+	 *            the size in bytes, or 0 for the system default.
+	 */
+	public void setReceiveBufferSize(int size) {
+		m_ReceiveBufferSize = Math.max(size, 0);
+	}// setReceiveBufferSize
+
+	/**
+	 * Sets the size of the socket send buffer. Takes effect on the next
+	 * {@link #connect()}.
+	 *
+	 * @param size
+	 *            the size in bytes, or 0 for the system default.
+	 */
+	public void setSendBufferSize(int size) {
+		m_SendBufferSize = Math.max(size, 0);
+	}// setSendBufferSize
+
+	/**
+	 * Tests if this master is connected, i.e. its channel is open.
+	 *
+	 * @return true if connected, false otherwise.
+	 */
+	public boolean isConnected() {
+		return m_Connected.get();
+	}// isConnected
+
+	/**
+	 * Opens the channel of this <tt>AsyncModbusUDPMaster</tt> and starts the
+	 * I/O thread.
+	 *
+	 * @throws Exception
+	 *             if the channel cannot be opened.
+	 */
+	public synchronized void connect() throws Exception {
+		if (m_Connected.get()) {
+			return;
+		}
+		if (m_IOThread != null) {
+			// let the previous I/O thread release its channel
+			m_IOThread.join();
+		}
+		m_Channel = DatagramChannel.open();
+		try {
+			if (m_ReceiveBufferSize > 0) {
+				m_Channel.setOption(StandardSocketOptions.SO_RCVBUF,
+						m_ReceiveBufferSize);
+			}
+			if (m_SendBufferSize > 0) {
+				m_Channel.setOption(StandardSocketOptions.SO_SNDBUF,
+						m_SendBufferSize);
+			}
+			m_Channel.bind(new InetSocketAddress(m_LocalPort));
+			m_Channel.configureBlocking(false);
+			m_Selector = Selector.open();
+			m_Channel.register(m_Selector, SelectionKey.OP_READ);
+		} catch (IOException ex) {
+			m_Channel.close();
+			throw ex;
+		}
+		m_Connected.set(true);
+		m_IOThread = new Thread(new IOLoop(), "AsyncModbusUDPMaster-io");
+		m_IOThread.setDaemon(true);
+		m_IOThread.start();
+	}// connect
+
+	/**
+	 * Closes the channel of this <tt>AsyncModbusUDPMaster</tt>. All queued and
+	 * outstanding requests fail with a <tt>ModbusIOException</tt>.
+	 */
+	public synchronized void disconnect() {
+		if (m_Connected.compareAndSet(true, false)) {
+			m_Selector.wakeup();
+		}
+	}// disconnect
+
+	/**
+	 * Executes the given request with the default timeout.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param request
+	 *            the <tt>ModbusRequest</tt> to be sent.
+	 * @return a future completing with the <tt>ModbusResponse</tt>.
+	 */
+	public CompletableFuture<ModbusResponse> execute(InetSocketAddress slave,
+			ModbusRequest request) {
+		return execute(slave, request, m_Timeout);
+	}// execute
+
+	/**
+	 * Executes the given request with the given timeout.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param request
+	 *            the <tt>ModbusRequest</tt> to be sent.
+	 * @param timeout
+	 *            the time in milliseconds to wait for the response once the
+	 *            request has been sent.
+	 * @return a future completing with the <tt>ModbusResponse</tt>; it fails
+	 *         at once if the slave address is unresolved.
+	 */
+	public CompletableFuture<ModbusResponse> execute(InetSocketAddress slave,
+			ModbusRequest request, int timeout) {
+		PendingRequest p = new PendingRequest(slave, request, timeout);
+		if (slave == null || slave.isUnresolved()) {
+			p.m_Future.completeExceptionally(new ModbusIOException(
+					"Unresolved slave address: " + slave));
+			return p.m_Future;
+		}
+		if (!m_Connected.get()) {
+			p.m_Future.completeExceptionally(new ModbusIOException(
+					"Not connected."));
+			return p.m_Future;
+		}
+		m_Submitted.offer(p);
+		if (!m_Connected.get() && m_Submitted.remove(p)) {
+			// disconnected meanwhile, the I/O thread may be gone
+			p.m_Future.completeExceptionally(new ModbusIOException(
+					"Not connected."));
+		} else if (m_WakeupPending.compareAndSet(false, true)) {
+			m_Selector.wakeup();
+		}
+		return p.m_Future;
+	}// execute
+
+	/**
+	 * Reads a given number of coil states from the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the coil to start reading from.
+	 * @param count
+	 *            the number of coil states to be read.
+	 * @return a future completing with a <tt>BitVector</tt> holding the
+	 *         received coil states.
+	 */
+	public CompletableFuture<BitVector> readCoils(InetSocketAddress slave,
+			int unitid, int ref, final int count) {
+		ReadCoilsRequest req = new ReadCoilsRequest(ref, count);
+		req.setUnitID(unitid);
+		return execute(slave, req).thenApply(
+				new Function<ModbusResponse, BitVector>() {
+					public BitVector apply(ModbusResponse res) {
+						BitVector bv = ((ReadCoilsResponse) res).getCoils();
+						bv.forceSize(count);
+						return bv;
+					}
+				});
+	}// readCoils
+
+	/**
+	 * Writes a coil state to the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the coil to be written.
+	 * @param state
+	 *            the coil state to be written.
+	 * @return a future completing with the state of the coil as returned from
+	 *         the slave.
+	 */
+	public CompletableFuture<Boolean> writeCoil(InetSocketAddress slave,
+			int unitid, int ref, boolean state) {
+		WriteCoilRequest req = new WriteCoilRequest(ref, state);
+		req.setUnitID(unitid);
+		return execute(slave, req).thenApply(
+				new Function<ModbusResponse, Boolean>() {
+					public Boolean apply(ModbusResponse res) {
+						return Boolean.valueOf(((WriteCoilResponse) res)
+								.getCoil());
+					}
+				});
+	}// writeCoil
+
+	/**
+	 * Writes a given number of coil states to the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the coil to start writing to.
+	 * @param coils
+	 *            a <tt>BitVector</tt> which holds the coil states to be
+	 *            written.
+	 * @return a future completing with the response.
+	 */
+	public CompletableFuture<ModbusResponse> writeMultipleCoils(
+			InetSocketAddress slave, int unitid, int ref, BitVector coils) {
+		WriteMultipleCoilsRequest req = new WriteMultipleCoilsRequest(ref,
+				coils);
+		req.setUnitID(unitid);
+		return execute(slave, req);
+	}// writeMultipleCoils
+
+	/**
+	 * Reads a given number of input discrete states from the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the input discrete to start reading from.
+	 * @param count
+	 *            the number of input discrete states to be read.
+	 * @return a future completing with a <tt>BitVector</tt> holding the
+	 *         received input discrete states.
+	 */
+	public CompletableFuture<BitVector> readInputDiscretes(
+			InetSocketAddress slave, int unitid, int ref, final int count) {
+		ReadInputDiscretesRequest req = new ReadInputDiscretesRequest(ref,
+				count);
+		req.setUnitID(unitid);
+		return execute(slave, req).thenApply(
+				new Function<ModbusResponse, BitVector>() {
+					public BitVector apply(ModbusResponse res) {
+						BitVector bv = ((ReadInputDiscretesResponse) res)
+								.getDiscretes();
+						bv.forceSize(count);
+						return bv;
+					}
+				});
+	}// readInputDiscretes
+
+	/**
+	 * Reads a given number of input registers from the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the input register to start reading from.
+	 * @param count
+	 *            the number of input registers to be read.
+	 * @return a future completing with the received input registers.
+	 */
+	public CompletableFuture<InputRegister[]> readInputRegisters(
+			InetSocketAddress slave, int unitid, int ref, int count) {
+		ReadInputRegistersRequest req = new ReadInputRegistersRequest(ref,
+				count);
+		req.setUnitID(unitid);
+		return execute(slave, req).thenApply(
+				new Function<ModbusResponse, InputRegister[]>() {
+					public InputRegister[] apply(ModbusResponse res) {
+						return ((ReadInputRegistersResponse) res)
+								.getRegisters();
+					}
+				});
+	}// readInputRegisters
+
+	/**
+	 * Reads a given number of registers from the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the register to start reading from.
+	 * @param count
+	 *            the number of registers to be read.
+	 * @return a future completing with the received registers.
+	 */
+	public CompletableFuture<Register[]> readMultipleRegisters(
+			InetSocketAddress slave, int unitid, int ref, int count) {
+		ReadMultipleRegistersRequest req = new ReadMultipleRegistersRequest(
+				ref, count);
+		req.setUnitID(unitid);
+		return execute(slave, req).thenApply(
+				new Function<ModbusResponse, Register[]>() {
+					public Register[] apply(ModbusResponse res) {
+						return ((ReadMultipleRegistersResponse) res)
+								.getRegisters();
+					}
+				});
+	}// readMultipleRegisters
+
+	/**
+	 * Writes a single register to the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the register to be written.
+	 * @param register
+	 *            a <tt>Register</tt> holding the value of the register to be
+	 *            written.
+	 * @return a future completing with the response.
+	 */
+	public CompletableFuture<ModbusResponse> writeSingleRegister(
+			InetSocketAddress slave, int unitid, int ref, Register register) {
+		WriteSingleRegisterRequest req = new WriteSingleRegisterRequest(ref,
+				register);
+		req.setUnitID(unitid);
+		return execute(slave, req);
+	}// writeSingleRegister
+
+	/**
+	 * Writes a number of registers to the slave.
+	 *
+	 * @param slave
+	 *            the address of the slave.
+	 * @param unitid
+	 *            the slave unit id.
+	 * @param ref
+	 *            the offset of the register to start writing to.
+	 * @param registers
+	 *            a <tt>Register[]</tt> holding the values of the registers to
+	 *            be written.
+	 * @return a future completing with the response.
+	 */
+	public CompletableFuture<ModbusResponse> writeMultipleRegisters(
+			InetSocketAddress slave, int unitid, int ref,
+			Register[] registers) {
+		WriteMultipleRegistersRequest req = new WriteMultipleRegistersRequest(
+				ref, registers);
+		req.setUnitID(unitid);
+		return execute(slave, req);
+	}// writeMultipleRegisters
+
+	/*** I/O thread **************************************/
+
+	/**
+	 * Sends queued requests as long as the window has free slots and the
+	 * socket takes them.
+	 *
+	 * @param now
+	 *            the current time in milliseconds.
+	 * @return true if all sendable requests were sent, false if the socket
+	 *         is full.
+	 * @throws IOException
+	 *             if the channel fails.
+	 */
+	private boolean sendQueued(long now) throws IOException {
+		PendingRequest p;
+		while ((p = m_Submitted.poll()) != null) {
+			m_Queue.offer(p);
+		}
+		while (m_InFlight.size() < m_WindowSize
+				&& (p = m_Queue.peek()) != null) {
+			if (p.m_Future.isDone()) {
+				// cancelled while queued
+				m_Queue.poll();
+				continue;
+			}
+			assignTransactionID(p);
+			ByteBuffer out;
+			try {
+				out = encode(p.m_Request);
+			} catch (IOException ex) {
+				m_Queue.poll();
+				p.m_Future.completeExceptionally(new ModbusIOException(
+						"Encoding request failed."));
+				continue;
+			} catch (RuntimeException ex) {
+				m_Queue.poll();
+				p.m_Future.completeExceptionally(new ModbusIOException(
+						"Encoding request failed: " + ex));
+				continue;
+			}
+			try {
+				if (m_Channel.send(out, p.m_Key.m_Address) == 0) {
+					// socket buffer full, retry when writable
+					return false;
+				}
+			} catch (RuntimeException ex) {
+				// fails this request only, e.g. an unsupported address
+				m_Queue.poll();
+				p.m_Future.completeExceptionally(new ModbusIOException(
+						"Sending request failed: " + ex));
+				continue;
+			}
+			m_Queue.poll();
+			m_InFlight.put(p.m_Key, p);
+			m_Timers.schedule(p, now + p.m_TimeoutMillis);
+		}
+		return true;
+	}// sendQueued
+
+	/**
+	 * Picks the next identifier not used by an outstanding request to the
+	 * same slave.
+	 */
+	private void assignTransactionID(PendingRequest p) {
+		m_Probe.m_Address = p.m_Key.m_Address;
+		do {
+			if (m_TransactionID == Modbus.MAX_TRANSACTION_ID) {
+				m_TransactionID = 0;
+			}
+			m_TransactionID++;
+			m_Probe.m_TransactionID = m_TransactionID;
+		} while (m_InFlight.containsKey(m_Probe));
+		p.m_Key.m_TransactionID = m_TransactionID;
+		p.m_Request.setTransactionID(m_TransactionID);
+	}// assignTransactionID
+
+	private ByteBuffer encode(ModbusRequest req) throws IOException {
+		m_ByteOut.reset();
+		req.writeTo((DataOutput) m_ByteOut);
+		return ByteBuffer.wrap(m_ByteOut.getBuffer(), 0, m_ByteOut.size());
+	}// encode
+
+	/**
+	 * Receives all pending datagrams and completes the matching requests.
+	 *
+	 * @throws IOException
+	 *             if the channel fails.
+	 */
+	private void receive() throws IOException {
+		while (true) {
+			m_In.clear();
+			SocketAddress from = m_Channel.receive(m_In);
+			if (from == null) {
+				return;
+			}
+			int size = m_In.position();
+			if (size < 8
+					|| m_In.getShort(2) != Modbus.DEFAULT_PROTOCOL_ID
+					|| (m_In.getShort(4) & 0xffff) + 6 > size) {
+				if (Modbus.debug)
+					System.out.println("Discarding malformed datagram from "
+							+ from);
+				continue;
+			}
+			m_Probe.m_Address = from;
+			m_Probe.m_TransactionID = m_In.getShort(0) & 0xffff;
+			PendingRequest p = m_InFlight.remove(m_Probe);
+			if (p == null) {
+				// late response of a timed out request
+				if (Modbus.debug)
+					System.out.println("Discarding response with unknown id "
+							+ m_Probe.m_TransactionID + " from " + from);
+				continue;
+			}
+			m_Timers.cancel(p);
+			dispatch(p, size);
+		}
+	}// receive
+
+	private void dispatch(PendingRequest p, int size) {
+		ModbusResponse res;
+		try {
+			res = ModbusResponse.createModbusResponse(m_In.get(7) & 0xff);
+			m_ByteIn.reset(size);
+			res.readFrom(m_ByteIn);
+		} catch (Exception ex) {
+			p.m_Future.completeExceptionally(new ModbusIOException(
+					"I/O exception - failed to read."));
+			return;
+		}
+		res.setReference(p.m_Request.getReference());
+		if (res instanceof ExceptionResponse) {
+			p.m_Future.completeExceptionally(new ModbusSlaveException(
+					((ExceptionResponse) res).getExceptionCode()));
+		} else {
+			p.m_Future.complete(res);
+		}
+	}// dispatch
+
+	private void expired(PendingRequest p) {
+		m_InFlight.remove(p.m_Key);
+		ModbusIOException ex = new ModbusIOException("Transaction "
+				+ p.m_Key.m_TransactionID + " to " + p.m_Key.m_Address
+				+ " timed out.");
+		ex.setTimeout(true);
+		p.m_Future.completeExceptionally(ex);
+	}// expired
+
+	private void failAll(ModbusException ex) {
+		m_Timers.clear();
+		Iterator<PendingRequest> iter = m_InFlight.values().iterator();
+		while (iter.hasNext()) {
+			PendingRequest p = iter.next();
+			iter.remove();
+			p.m_Future.completeExceptionally(ex);
+		}
+		PendingRequest p;
+		while ((p = m_Queue.poll()) != null) {
+			p.m_Future.completeExceptionally(ex);
+		}
+		while ((p = m_Submitted.poll()) != null) {
+			p.m_Future.completeExceptionally(ex);
+		}
+	}// failAll
+
+	/**
+	 * Inner class implementing the I/O thread.
+	 */
+	private class IOLoop implements Runnable {
+
+		private final long m_Start = System.nanoTime();
+
+		public void run() {
+			ModbusIOException failure = new ModbusIOException(
+					"Connection closed.");
+			SelectionKey key = m_Channel.keyFor(m_Selector);
+			try {
+				long now = now();
+				while (m_Connected.get()) {
+					m_Selector.select(m_Timers.isEmpty() ? 0 : TICK_MILLIS);
+					m_WakeupPending.set(false);
+					m_Selector.selectedKeys().clear();
+					receive();
+					now = now();
+					m_Timers.advance(now);
+					boolean drained = sendQueued(now);
+					key.interestOps((drained) ? SelectionKey.OP_READ
+							: SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			} catch (IOException ex) {
+				if (m_Connected.get()) {
+					if (Modbus.debug)
+						ex.printStackTrace();
+					failure = new ModbusIOException(ex.getMessage());
+				}
+			} finally {
+				m_Connected.set(false);
+				try {
+					m_Selector.close();
+					m_Channel.close();
+				} catch (IOException ex) {
+					// ignore
+				}
+				failAll(failure);
+			}
+		}// run
+
+		private long now() {
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_Start);
+		}// now
+
+	}// inner class IOLoop
+
+	/**
+	 * Inner class identifying an outstanding request by the address of the
+	 * slave and the transaction identifier.
+	 */
+	private static class Key {
+
+		SocketAddress m_Address;
+		int m_TransactionID;
+
+		public int hashCode() {
+			return m_Address.hashCode() * 31 + m_TransactionID;
+		}// hashCode
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return m_TransactionID == k.m_TransactionID
+					&& m_Address.equals(k.m_Address);
+		}// equals
+
+	}// inner class Key
+
+	/**
+	 * Inner class holding a request, the future it completes and its links
+	 * in the timer wheel.
+	 */
+	private static class PendingRequest {
+
+		final Key m_Key;
+		final ModbusRequest m_Request;
+		final int m_TimeoutMillis;
+		final CompletableFuture<ModbusResponse> m_Future;
+		long m_DeadlineTick;
+		PendingRequest m_Prev;
+		PendingRequest m_Next;
+
+		PendingRequest(InetSocketAddress slave, ModbusRequest req,
+				int timeout) {
+			m_Key = new Key();
+			m_Key.m_Address = slave;
+			m_Request = req;
+			m_TimeoutMillis = timeout;
+			m_Future = new CompletableFuture<ModbusResponse>();
+		}// constructor
+
+	}// inner class PendingRequest
+
+	/**
+	 * Inner class implementing a hashed timer wheel. Requests are linked into
+	 * the bucket of their deadline tick; scheduling and cancelling are
+	 * constant time, and each tick only visits the requests of one bucket.
+	 * Deadlines more than one revolution ahead stay in their bucket until
+	 * they are due.
+	 */
+	private class TimerWheel {
+
+		private final PendingRequest[] m_Buckets;
+		private final int m_Mask;
+		private long m_Tick = -1;
+		private int m_Size;
+
+		TimerWheel(int buckets) {
+			m_Buckets = new PendingRequest[buckets];
+			m_Mask = buckets - 1;
+		}// constructor
+
+		void clear() {
+			Arrays.fill(m_Buckets, null);
+			m_Tick = -1;
+			m_Size = 0;
+		}// clear
+
+		boolean isEmpty() {
+			return m_Size == 0;
+		}// isEmpty
+
+		void schedule(PendingRequest p, long deadline) {
+			// round up, so requests never expire early
+			p.m_DeadlineTick = Math.max((deadline + TICK_MILLIS - 1)
+					/ TICK_MILLIS, m_Tick + 1);
+			int b = (int) p.m_DeadlineTick & m_Mask;
+			p.m_Prev = null;
+			p.m_Next = m_Buckets[b];
+			if (p.m_Next != null) {
+				p.m_Next.m_Prev = p;
+			}
+			m_Buckets[b] = p;
+			m_Size++;
+		}// schedule
+
+		void cancel(PendingRequest p) {
+			if (p.m_Prev != null) {
+				p.m_Prev.m_Next = p.m_Next;
+			} else {
+				m_Buckets[(int) p.m_DeadlineTick & m_Mask] = p.m_Next;
+			}
+			if (p.m_Next != null) {
+				p.m_Next.m_Prev = p.m_Prev;
+			}
+			p.m_Prev = null;
+			p.m_Next = null;
+			m_Size--;
+		}// cancel
+
+		/**
+		 * Expires the requests of all buckets passed since the last call.
+		 */
+		void advance(long now) {
+			long tick = now / TICK_MILLIS;
+			if (tick - m_Tick > m_Buckets.length) {
+				m_Tick = tick - m_Buckets.length;
+			}
+			while (m_Tick < tick && m_Size > 0) {
+				m_Tick++;
+				PendingRequest p = m_Buckets[(int) m_Tick & m_Mask];
+				while (p != null) {
+					PendingRequest next = p.m_Next;
+					if (p.m_DeadlineTick <= m_Tick) {
+						cancel(p);
+						expired(p);
+					}
+					p = next;
+				}
+			}
+			m_Tick = tick;
+		}// advance
+
+	}// inner class TimerWheel
+
+}// class AsyncModbusUDPMaster
@@ -23,6 +23,7 @@ import net.wimpi.modbus.msg.*;
 import net.wimpi.modbus.net.SerialConnection;
 import net.wimpi.modbus.procimg.InputRegister;
 import net.wimpi.modbus.procimg.Register;
+import net.wimpi.modbus.scan.ScanTarget;
 import net.wimpi.modbus.util.BitVector;
 import net.wimpi.modbus.util.SerialParameters;
 
@@ -34,7 +35,7 @@ import net.wimpi.modbus.util.SerialParameters;
  * 
  * @version @version@ (@date@)
  */
-public class ModbusSerialMaster {
+public class ModbusSerialMaster implements ScanTarget {
 
 	private SerialParameters m_CommParameters;
 	private SerialConnection m_Connection;
@@ -328,4 +329,18 @@ public class ModbusSerialMaster {
 		m_Transaction.execute();
 	}// writeMultipleRegisters
 
+	/**
+	 * Executes the given read plan, reading all of its points with as few
+	 * requests as planned.
+	 * 
+	 * @param plan
+	 *            a <tt>ReadPlan</tt> created by a <tt>ReadPlanner</tt>.
+	 * @throws ModbusException
+	 *             if an I/O error or a transaction error occurs. Slave
+	 *             exceptions are recorded in the affected points.
+	 */
+	public synchronized void read(ReadPlan plan) throws ModbusException {
+		plan.execute(m_Transaction);
+	}// read
+
 }// class ModbusSerialMaster
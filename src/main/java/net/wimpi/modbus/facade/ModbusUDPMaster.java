@@ -22,6 +22,7 @@ import net.wimpi.modbus.msg.*;
 import net.wimpi.modbus.net.UDPMasterConnection;
 import net.wimpi.modbus.procimg.InputRegister;
 import net.wimpi.modbus.procimg.Register;
+import net.wimpi.modbus.scan.ScanTarget;
 import net.wimpi.modbus.util.BitVector;
 
 import java.net.InetAddress;
@@ -33,7 +34,7 @@ import java.net.UnknownHostException;
  * @author Dieter Wimberger
  * @version @version@ (@date@)
  */
-public class ModbusUDPMaster {
+public class ModbusUDPMaster implements ScanTarget {
 
 	private UDPMasterConnection m_Connection;
 	private InetAddress m_SlaveAddress;
@@ -303,4 +304,18 @@ public class ModbusUDPMaster {
 		m_Transaction.execute();
 	}// writeMultipleRegisters
 
+	/**
+	 * Executes the given read plan, reading all of its points with as few
+	 * requests as planned.
+	 * 
+	 * @param plan
+	 *            a <tt>ReadPlan</tt> created by a <tt>ReadPlanner</tt>.
+	 * @throws ModbusException
+	 *             if an I/O error or a transaction error occurs. Slave
+	 *             exceptions are recorded in the affected points.
+	 */
+	public synchronized void read(ReadPlan plan) throws ModbusException {
+		plan.execute(m_Transaction);
+	}// read
+
 }// class ModbusUDPMaster
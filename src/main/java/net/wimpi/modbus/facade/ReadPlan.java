@@ -0,0 +1,322 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.facade;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.io.ModbusTransaction;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.msg.ReadCoilsRequest;
+import net.wimpi.modbus.msg.ReadCoilsResponse;
+import net.wimpi.modbus.msg.ReadInputDiscretesRequest;
+import net.wimpi.modbus.msg.ReadInputDiscretesResponse;
+import net.wimpi.modbus.msg.ReadInputRegistersRequest;
+import net.wimpi.modbus.msg.ReadInputRegistersResponse;
+import net.wimpi.modbus.msg.ReadMultipleRegistersRequest;
+import net.wimpi.modbus.msg.ReadMultipleRegistersResponse;
+
+/**
+ * Class holding the read requests planned by a {@link ReadPlanner}.
+ * <p>
+ * Executing the plan issues one request per block and scatters the values
+ * read back into the {@link ReadPoint}s. If the slave answers a block that
+ * merges several points with an exception (e.g. because a gap covers
+ * unmapped addresses), the points of the block are read one by one, so that
+ * only the offending points are flagged with the exception code.
+ * <p>
+ * A plan can be executed repeatedly, e.g. once per poll cycle, but is not
+ * thread safe.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ReadPlan {
+
+	private final List<Block> m_Blocks;
+	private final ReadPoint[] m_Points;
+	private ReadCoilsRequest m_ReadCoilsRequest;
+	private ReadInputDiscretesRequest m_ReadInputDiscretesRequest;
+	private ReadMultipleRegistersRequest m_ReadMultipleRegistersRequest;
+	private ReadInputRegistersRequest m_ReadInputRegistersRequest;
+
+	/**
+	 * Constructs a new <tt>ReadPlan</tt> instance.
+	 *
+	 * @param blocks
+	 *            the planned blocks.
+	 */
+	ReadPlan(List<Block> blocks) {
+		m_Blocks = Collections.unmodifiableList(blocks);
+		Map<ReadPoint, ReadPoint> points = new IdentityHashMap<ReadPoint, ReadPoint>();
+		for (Block b : blocks) {
+			for (ReadPoint p : b.m_Points) {
+				points.put(p, p);
+			}
+		}
+		m_Points = points.keySet().toArray(new ReadPoint[points.size()]);
+	}// constructor
+
+	/**
+	 * Returns the blocks of this plan, in the order they are read.
+	 *
+	 * @return an unmodifiable list of <tt>Block</tt>s.
+	 */
+	public List<Block> getBlocks() {
+		return m_Blocks;
+	}// getBlocks
+
+	/**
+	 * Returns the number of requests issued by one execution, unless blocks
+	 * have to be split up after exceptions.
+	 *
+	 * @return the number of requests.
+	 */
+	public int getRequestCount() {
+		return m_Blocks.size();
+	}// getRequestCount
+
+	/**
+	 * Executes this plan with the given transaction. Slave exceptions are
+	 * recorded in the affected points; all other errors abort the execution.
+	 *
+	 * @param transaction
+	 *            the <tt>ModbusTransaction</tt> to execute the requests with.
+	 * @throws ModbusException
+	 *             if an I/O error or a transaction error occurs.
+	 */
+	public void execute(ModbusTransaction transaction) throws ModbusException {
+		for (int i = 0; i < m_Points.length; i++) {
+			m_Points[i].reset();
+		}
+		for (int i = 0; i < m_Blocks.size(); i++) {
+			read(transaction, m_Blocks.get(i), true);
+		}
+	}// execute
+
+	private void read(ModbusTransaction transaction, Block block,
+			boolean split) throws ModbusException {
+		transaction.setRequest(prepareRequest(block));
+		try {
+			transaction.execute();
+		} catch (ModbusSlaveException ex) {
+			if (split && block.m_Points.size() > 1) {
+				if (Modbus.debug)
+					System.out.println("Splitting " + block + ": "
+							+ ex.getMessage());
+				for (ReadPoint p : block.m_Points) {
+					Block single = new Block(block.m_UnitID,
+							block.m_FunctionCode, Math.max(p.getReference(),
+									block.m_Reference), Math.min(p
+									.getReference()
+									+ p.getCount(), block.m_End));
+					single.addPoint(p);
+					read(transaction, single, false);
+				}
+			} else {
+				for (ReadPoint p : block.m_Points) {
+					p.setExceptionCode(ex.getType());
+				}
+			}
+			return;
+		}
+		scatter(block, transaction.getResponse());
+	}// read
+
+	private ModbusRequest prepareRequest(Block block) {
+		ModbusRequest req;
+		switch (block.m_FunctionCode) {
+		case Modbus.READ_COILS:
+			if (m_ReadCoilsRequest == null) {
+				m_ReadCoilsRequest = new ReadCoilsRequest();
+			}
+			m_ReadCoilsRequest.setBitCount(block.getCount());
+			req = m_ReadCoilsRequest;
+			break;
+		case Modbus.READ_INPUT_DISCRETES:
+			if (m_ReadInputDiscretesRequest == null) {
+				m_ReadInputDiscretesRequest = new ReadInputDiscretesRequest();
+			}
+			m_ReadInputDiscretesRequest.setBitCount(block.getCount());
+			req = m_ReadInputDiscretesRequest;
+			break;
+		case Modbus.READ_MULTIPLE_REGISTERS:
+			if (m_ReadMultipleRegistersRequest == null) {
+				m_ReadMultipleRegistersRequest = new ReadMultipleRegistersRequest();
+			}
+			m_ReadMultipleRegistersRequest.setWordCount(block.getCount());
+			req = m_ReadMultipleRegistersRequest;
+			break;
+		default:
+			if (m_ReadInputRegistersRequest == null) {
+				m_ReadInputRegistersRequest = new ReadInputRegistersRequest();
+			}
+			m_ReadInputRegistersRequest.setWordCount(block.getCount());
+			req = m_ReadInputRegistersRequest;
+		}
+		req.setUnitID(block.m_UnitID);
+		req.setReference(block.m_Reference);
+		return req;
+	}// prepareRequest
+
+	private void scatter(Block block, ModbusResponse response) {
+		int available;
+		switch (block.m_FunctionCode) {
+		case Modbus.READ_COILS:
+			available = ((ReadCoilsResponse) response).getBitCount();
+			break;
+		case Modbus.READ_INPUT_DISCRETES:
+			available = ((ReadInputDiscretesResponse) response).getBitCount();
+			break;
+		case Modbus.READ_MULTIPLE_REGISTERS:
+			available = ((ReadMultipleRegistersResponse) response)
+					.getWordCount();
+			break;
+		default:
+			available = ((ReadInputRegistersResponse) response).getWordCount();
+		}
+		// a short response leaves the uncovered points invalid
+		int end = Math.min(block.m_End, block.m_Reference + available);
+
+		for (ReadPoint p : block.m_Points) {
+			int from = Math.max(p.getReference(), block.m_Reference);
+			int to = Math.min(p.getReference() + p.getCount(), end);
+			for (int ref = from; ref < to; ref++) {
+				p.setValue(ref - p.getReference(), valueOf(block, response, ref
+						- block.m_Reference));
+			}
+			if (to > from) {
+				p.filled(to - from);
+			}
+		}
+	}// scatter
+
+	private static int valueOf(Block block, ModbusResponse response, int index) {
+		switch (block.m_FunctionCode) {
+		case Modbus.READ_COILS:
+			return ((ReadCoilsResponse) response).getCoilStatus(index) ? 1 : 0;
+		case Modbus.READ_INPUT_DISCRETES:
+			return ((ReadInputDiscretesResponse) response)
+					.getDiscreteStatus(index) ? 1 : 0;
+		case Modbus.READ_MULTIPLE_REGISTERS:
+			return ((ReadMultipleRegistersResponse) response)
+					.getRegisterValue(index);
+		default:
+			return ((ReadInputRegistersResponse) response)
+					.getRegisterValue(index);
+		}
+	}// valueOf
+
+	public String toString() {
+		return "ReadPlan" + m_Blocks;
+	}// toString
+
+	/**
+	 * Class representing a single read request of a plan.
+	 */
+	public static class Block {
+
+		private final int m_UnitID;
+		private final int m_FunctionCode;
+		private final int m_Reference;
+		private int m_End;
+		private final List<ReadPoint> m_Points;
+
+		Block(int unitid, int fc, int ref, int end) {
+			m_UnitID = unitid;
+			m_FunctionCode = fc;
+			m_Reference = ref;
+			m_End = end;
+			m_Points = new ArrayList<ReadPoint>();
+		}// constructor
+
+		/**
+		 * Returns the unit identifier the block is read from.
+		 *
+		 * @return the unit identifier as <tt>int</tt>.
+		 */
+		public int getUnitID() {
+			return m_UnitID;
+		}// getUnitID
+
+		/**
+		 * Returns the function code reading the block.
+		 *
+		 * @return the function code as <tt>int</tt>.
+		 */
+		public int getFunctionCode() {
+			return m_FunctionCode;
+		}// getFunctionCode
+
+		/**
+		 * Returns the reference of the first element of the block.
+		 *
+		 * @return the reference as <tt>int</tt>.
+		 */
+		public int getReference() {
+			return m_Reference;
+		}// getReference
+
+		/**
+		 * Returns the number of elements read by the block.
+		 *
+		 * @return the count as <tt>int</tt>.
+		 */
+		public int getCount() {
+			return m_End - m_Reference;
+		}// getCount
+
+		/**
+		 * Returns the points the block is scattered to.
+		 *
+		 * @return an unmodifiable list of <tt>ReadPoint</tt>s.
+		 */
+		public List<ReadPoint> getPoints() {
+			return Collections.unmodifiableList(m_Points);
+		}// getPoints
+
+		public String toString() {
+			return "Block[unit=" + m_UnitID + ",fc=" + m_FunctionCode
+					+ ",ref=" + m_Reference + ",count=" + getCount()
+					+ ",points=" + m_Points.size() + "]";
+		}// toString
+
+		int getEnd() {
+			return m_End;
+		}// getEnd
+
+		void extend(int end, ReadPoint p) {
+			m_End = Math.max(m_End, end);
+			addPoint(p);
+		}// extend
+
+		void addPoint(ReadPoint p) {
+			if (m_Points.isEmpty() || m_Points.get(m_Points.size() - 1) != p) {
+				m_Points.add(p);
+			}
+		}// addPoint
+
+	}// inner class Block
+
+}// class ReadPlan
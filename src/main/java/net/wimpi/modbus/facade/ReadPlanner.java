@@ -0,0 +1,259 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.facade;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import net.wimpi.modbus.Modbus;
+
+/**
+ * Class that merges a set of {@link ReadPoint}s into a {@link ReadPlan} with
+ * as few read requests as possible.
+ * <p>
+ * Points are grouped by unit and table, sorted by reference, and merged
+ * into blocks as long as the gap between them does not exceed the gap
+ * tolerance and the block does not exceed the maximum block size. Gaps are
+ * read along and discarded. Points larger than the maximum block size are
+ * split across several blocks.
+ * <p>
+ * The block sizes default to the protocol limits of
+ * <tt>Modbus.MAX_REGISTERS</tt> registers and <tt>Modbus.MAX_BITS</tt> bits,
+ * and can be lowered per unit for devices with smaller buffers.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ReadPlanner {
+
+	private int m_RegisterGap = 0;
+	private int m_BitGap = 0;
+	private final int[] m_MaxRegisters;
+	private final int[] m_MaxBits;
+
+	/**
+	 * Constructs a new <tt>ReadPlanner</tt> instance, without gap tolerance
+	 * and with the protocol limits as maximum block sizes.
+	 */
+	public ReadPlanner() {
+		m_MaxRegisters = new int[256];
+		m_MaxBits = new int[256];
+		Arrays.fill(m_MaxRegisters, Modbus.MAX_REGISTERS);
+		Arrays.fill(m_MaxBits, Modbus.MAX_BITS);
+	}// constructor
+
+	/**
+	 * Sets the number of unrequested registers that may be read along to
+	 * merge two points into one request.
+	 *
+	 * @param gap
+	 *            the gap tolerance in registers.
+	 */
+	public void setRegisterGap(int gap) {
+		m_RegisterGap = Math.max(gap, 0);
+	}// setRegisterGap
+
+	/**
+	 * Returns the gap tolerance for registers.
+	 *
+	 * @return the gap tolerance in registers.
+	 */
+	public int getRegisterGap() {
+		return m_RegisterGap;
+	}// getRegisterGap
+
+	/**
+	 * Sets the number of unrequested coils or discretes that may be read
+	 * along to merge two points into one request.
+	 *
+	 * @param gap
+	 *            the gap tolerance in bits.
+	 */
+	public void setBitGap(int gap) {
+		m_BitGap = Math.max(gap, 0);
+	}// setBitGap
+
+	/**
+	 * Returns the gap tolerance for coils and discretes.
+	 *
+	 * @return the gap tolerance in bits.
+	 */
+	public int getBitGap() {
+		return m_BitGap;
+	}// getBitGap
+
+	/**
+	 * Sets the maximum number of registers read by one request from the
+	 * given unit.
+	 *
+	 * @param unitid
+	 *            the unit identifier.
+	 * @param max
+	 *            the maximum block size, between 1 and
+	 *            <tt>Modbus.MAX_REGISTERS</tt>.
+	 * @throws IllegalArgumentException
+	 *             if the size is out of range.
+	 */
+	public void setMaxRegisters(int unitid, int max) {
+		if (max < 1 || max > Modbus.MAX_REGISTERS) {
+			throw new IllegalArgumentException("Invalid block size: " + max);
+		}
+		m_MaxRegisters[unitid & 0xff] = max;
+	}// setMaxRegisters
+
+	/**
+	 * Returns the maximum number of registers read by one request from the
+	 * given unit.
+	 *
+	 * @param unitid
+	 *            the unit identifier.
+	 * @return the maximum block size.
+	 */
+	public int getMaxRegisters(int unitid) {
+		return m_MaxRegisters[unitid & 0xff];
+	}// getMaxRegisters
+
+	/**
+	 * Sets the maximum number of coils or discretes read by one request from
+	 * the given unit.
+	 *
+	 * @param unitid
+	 *            the unit identifier.
+	 * @param max
+	 *            the maximum block size, between 1 and
+	 *            <tt>Modbus.MAX_BITS</tt>.
+	 * @throws IllegalArgumentException
+	 *             if the size is out of range.
+	 */
+	public void setMaxBits(int unitid, int max) {
+		if (max < 1 || max > Modbus.MAX_BITS) {
+			throw new IllegalArgumentException("Invalid block size: " + max);
+		}
+		m_MaxBits[unitid & 0xff] = max;
+	}// setMaxBits
+
+	/**
+	 * Returns the maximum number of coils or discretes read by one request
+	 * from the given unit.
+	 *
+	 * @param unitid
+	 *            the unit identifier.
+	 * @return the maximum block size.
+	 */
+	public int getMaxBits(int unitid) {
+		return m_MaxBits[unitid & 0xff];
+	}// getMaxBits
+
+	/**
+	 * Plans the reads of the given points.
+	 *
+	 * @param points
+	 *            the <tt>ReadPoint</tt>s to be read.
+	 * @return the <tt>ReadPlan</tt> reading all points.
+	 */
+	public ReadPlan plan(Collection<ReadPoint> points) {
+		ReadPoint[] sorted = points.toArray(new ReadPoint[points.size()]);
+		Arrays.sort(sorted, ORDER);
+		return new ReadPlan(merge(sorted));
+	}// plan
+
+	/**
+	 * Merges points sorted by unit, table and reference into blocks.
+	 */
+	private List<ReadPlan.Block> merge(ReadPoint[] sorted) {
+		List<ReadPlan.Block> blocks = new ArrayList<ReadPlan.Block>();
+		ReadPlan.Block block = null;
+		int group = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			ReadPoint p = sorted[i];
+			int unit = p.getUnitID();
+			int fc = p.getFunctionCode();
+			int gap = (p.isBits()) ? m_BitGap : m_RegisterGap;
+			int max = (p.isBits()) ? m_MaxBits[unit & 0xff]
+					: m_MaxRegisters[unit & 0xff];
+			int start = p.getReference();
+			int end = start + p.getCount();
+
+			if (block != null
+					&& (block.getUnitID() != unit || block.getFunctionCode() != fc)) {
+				block = null;
+			}
+			if (block == null) {
+				group = blocks.size();
+			}
+			while (start < end) {
+				if (block != null && start < block.getReference()) {
+					// lies within the blocks of a point split before
+					ReadPlan.Block b = find(blocks, group, start);
+					b.addPoint(p);
+					start = b.getEnd();
+					continue;
+				}
+				if (block != null && start - block.getEnd() <= gap) {
+					int limit = block.getReference() + max;
+					if (end <= limit) {
+						block.extend(end, p);
+						break;
+					}
+					if (start < block.getEnd()) {
+						// the overlapping part is read by this block
+						start = block.getEnd();
+						block.addPoint(p);
+						continue;
+					} else if (start < limit) {
+						// fill the block up and continue with a new one
+						block.extend(limit, p);
+						start = limit;
+						continue;
+					}
+				}
+				block = new ReadPlan.Block(unit, fc, start, Math.min(end, start
+						+ max));
+				block.addPoint(p);
+				blocks.add(block);
+				start = block.getEnd();
+			}
+		}
+		return blocks;
+	}// merge
+
+	private static ReadPlan.Block find(List<ReadPlan.Block> blocks, int from,
+			int ref) {
+		for (int i = blocks.size() - 1; i > from; i--) {
+			if (blocks.get(i).getReference() <= ref) {
+				return blocks.get(i);
+			}
+		}
+		return blocks.get(from);
+	}// find
+
+	private static final Comparator<ReadPoint> ORDER = new Comparator<ReadPoint>() {
+		public int compare(ReadPoint a, ReadPoint b) {
+			if (a.getUnitID() != b.getUnitID()) {
+				return a.getUnitID() - b.getUnitID();
+			}
+			if (a.getFunctionCode() != b.getFunctionCode()) {
+				return a.getFunctionCode() - b.getFunctionCode();
+			}
+			return a.getReference() - b.getReference();
+		}
+	};
+
+}// class ReadPlanner
@@ -0,0 +1,209 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.facade;
+
+import net.wimpi.modbus.Modbus;
+
+/**
+ * Class representing a range of coils, input discretes, registers or input
+ * registers of a unit, to be read through a {@link ReadPlan}.
+ * <p>
+ * The table is identified by the function code reading it, i.e. one of
+ * <tt>Modbus.READ_COILS</tt>, <tt>Modbus.READ_INPUT_DISCRETES</tt>,
+ * <tt>Modbus.READ_MULTIPLE_REGISTERS</tt> or
+ * <tt>Modbus.READ_INPUT_REGISTERS</tt>. After the plan has been executed, the
+ * point holds the values read, or the exception code the slave answered
+ * with.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ReadPoint {
+
+	private final int m_UnitID;
+	private final int m_FunctionCode;
+	private final int m_Reference;
+	private final int[] m_Values;
+	private int m_Filled;
+	private int m_ExceptionCode;
+
+	/**
+	 * Constructs a new <tt>ReadPoint</tt> instance.
+	 *
+	 * @param unitid
+	 *            the unit identifier of the slave.
+	 * @param fc
+	 *            the function code reading the table.
+	 * @param ref
+	 *            the reference of the first coil, discrete or register.
+	 * @param count
+	 *            the number of coils, discretes or registers.
+	 * @throws IllegalArgumentException
+	 *             if the function code is not a read function code, or the
+	 *             range is empty or exceeds the address space.
+	 */
+	public ReadPoint(int unitid, int fc, int ref, int count) {
+		if (!isBitTable(fc) && !isRegisterTable(fc)) {
+			throw new IllegalArgumentException("Not a read function code: "
+					+ fc);
+		}
+		if (count < 1 || ref < 0 || ref + count > 65536) {
+			throw new IllegalArgumentException("Invalid range: " + ref + "+"
+					+ count);
+		}
+		m_UnitID = unitid;
+		m_FunctionCode = fc;
+		m_Reference = ref;
+		m_Values = new int[count];
+	}// constructor
+
+	/**
+	 * Returns the unit identifier of the slave.
+	 *
+	 * @return the unit identifier as <tt>int</tt>.
+	 */
+	public int getUnitID() {
+		return m_UnitID;
+	}// getUnitID
+
+	/**
+	 * Returns the function code reading the table of this point.
+	 *
+	 * @return the function code as <tt>int</tt>.
+	 */
+	public int getFunctionCode() {
+		return m_FunctionCode;
+	}// getFunctionCode
+
+	/**
+	 * Returns the reference of the first coil, discrete or register.
+	 *
+	 * @return the reference as <tt>int</tt>.
+	 */
+	public int getReference() {
+		return m_Reference;
+	}// getReference
+
+	/**
+	 * Returns the number of coils, discretes or registers.
+	 *
+	 * @return the count as <tt>int</tt>.
+	 */
+	public int getCount() {
+		return m_Values.length;
+	}// getCount
+
+	/**
+	 * Tests if this point addresses coils or input discretes.
+	 *
+	 * @return true if bits are read, false if registers are read.
+	 */
+	public boolean isBits() {
+		return isBitTable(m_FunctionCode);
+	}// isBits
+
+	/**
+	 * Tests if all values of this point have been read by the last execution
+	 * of the plan.
+	 *
+	 * @return true if valid, false otherwise.
+	 */
+	public boolean isValid() {
+		return m_Filled == m_Values.length && m_ExceptionCode == 0;
+	}// isValid
+
+	/**
+	 * Returns the exception code the slave answered the read of this point
+	 * with.
+	 *
+	 * @return the exception code, or 0 if there was none.
+	 */
+	public int getExceptionCode() {
+		return m_ExceptionCode;
+	}// getExceptionCode
+
+	/**
+	 * Returns the unsigned value of the register at the given index.
+	 *
+	 * @param index
+	 *            the index relative to the reference of this point.
+	 * @return the register value as <tt>int</tt>.
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is out of bounds.
+	 */
+	public int getValue(int index) throws IndexOutOfBoundsException {
+		return m_Values[index];
+	}// getValue
+
+	/**
+	 * Returns the state of the coil or discrete at the given index.
+	 *
+	 * @param index
+	 *            the index relative to the reference of this point.
+	 * @return true if set, false otherwise.
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is out of bounds.
+	 */
+	public boolean getBit(int index) throws IndexOutOfBoundsException {
+		return m_Values[index] != 0;
+	}// getBit
+
+	/**
+	 * Returns the values of this point. Registers are returned as unsigned
+	 * values, bits as 0 or 1. The array is reused by later executions of the
+	 * plan.
+	 *
+	 * @return the values as <tt>int[]</tt>.
+	 */
+	public int[] getValues() {
+		return m_Values;
+	}// getValues
+
+	public String toString() {
+		return "ReadPoint[unit=" + m_UnitID + ",fc=" + m_FunctionCode
+				+ ",ref=" + m_Reference + ",count=" + m_Values.length + "]";
+	}// toString
+
+	/*** Plan execution **********************************/
+
+	void reset() {
+		m_Filled = 0;
+		m_ExceptionCode = 0;
+	}// reset
+
+	void setValue(int index, int value) {
+		m_Values[index] = value;
+	}// setValue
+
+	void filled(int count) {
+		m_Filled += count;
+	}// filled
+
+	void setExceptionCode(int code) {
+		m_ExceptionCode = code;
+	}// setExceptionCode
+
+	static boolean isBitTable(int fc) {
+		return fc == Modbus.READ_COILS || fc == Modbus.READ_INPUT_DISCRETES;
+	}// isBitTable
+
+	static boolean isRegisterTable(int fc) {
+		return fc == Modbus.READ_MULTIPLE_REGISTERS
+				|| fc == Modbus.READ_INPUT_REGISTERS;
+	}// isRegisterTable
+
+}// class ReadPoint
@@ -160,6 +160,21 @@ public class FastByteArrayOutputStream extends OutputStream {
 		buf[count++] = (byte) b;
 	}// write
 
+	/**
+	 * Appends the given number of bytes without writing them, so they can be
+	 * filled in place through {@link #getBuffer()}.
+	 * 
+	 * @param len
+	 *            the number of bytes to be reserved.
+	 * @return the offset of the reserved bytes in the buffer.
+	 */
+	public int reserve(int len) {
+		ensureCapacity(count + len);
+		int off = count;
+		count += len;
+		return off;
+	}// reserve
+
 	/**
 	 * Writes the complete contents of this <tt>FastByteArrayOutputStream</tt>
 	 * to the specified output stream argument.
@@ -193,7 +208,7 @@ public class FastByteArrayOutputStream extends OutputStream {
 	 *            the desired minimum capacity.
 	 */
 	public final void ensureCapacity(int minCapacity) {
-		if (minCapacity < buf.length) {
+		if (minCapacity <= buf.length) {
 			return;
 		} else {
 			byte[] newbuf = new byte[minCapacity];
@@ -17,7 +17,6 @@
 package net.wimpi.modbus.io;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.msg.ModbusMessage;
 import net.wimpi.modbus.msg.ModbusRequest;
@@ -26,6 +25,7 @@ import net.wimpi.modbus.util.ModbusUtil;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 import jssc.SerialInputStream;
 import jssc.SerialOutputStream;
@@ -123,13 +123,14 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					in = m_ByteIn.readUnsignedByte();
 					// check message with this slave unit identifier
-					if (in != ModbusCoupler.getReference().getUnitID()) {
+					if (!m_Context.isServing(in)) {
 						continue;
 					}
 					in = m_ByteIn.readUnsignedByte();
 					// create request
 					request = ModbusRequest.createModbusRequest(in);
 					request.setHeadless();
+					request.setContext(m_Context);
 					// read message
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					request.readFrom(m_ByteIn);
@@ -157,7 +158,7 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 				// 1. Skip to FRAME_START
 				while ((in = m_InputStream.read()) != FRAME_START) {
 					if (in == -1) {
-						throw new IOException(
+						throw new InterruptedIOException(
 								"readResponse: I/O exception - Serial port timeout.");
 					}
 				}
@@ -166,7 +167,7 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 					m_ByteInOut.reset();
 					while ((in = m_InputStream.read()) != FRAME_END) {
 						if (in == -1) {
-							throw new IOException(
+							throw new InterruptedIOException(
 									"I/O exception - Serial port timeout.");
 						}
 						m_ByteInOut.writeByte(in);
@@ -206,6 +207,7 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 					// create request
 					response = ModbusResponse.createModbusResponse(in);
 					response.setHeadless();
+					response.setContext(m_Context);
 					// read message
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					response.readFrom(m_ByteIn);
@@ -216,8 +218,10 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 		} catch (Exception ex) {
 			if (Modbus.debug)
 				System.out.println(ex.getMessage());
-			throw new ModbusIOException(
+			ModbusIOException mex = new ModbusIOException(
 					"readResponse I/O exception - failed to read.");
+			mex.setTimeout(ex instanceof InterruptedIOException);
+			throw mex;
 		}
 	}// readResponse
 
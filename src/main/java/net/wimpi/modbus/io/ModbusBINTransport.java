@@ -17,7 +17,6 @@
 package net.wimpi.modbus.io;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.util.ModbusUtil;
 import net.wimpi.modbus.msg.ModbusMessage;
@@ -121,13 +120,14 @@ public class ModbusBINTransport extends ModbusSerialTransport {
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					in = m_ByteIn.readUnsignedByte();
 					// check unit identifier
-					if (in != ModbusCoupler.getReference().getUnitID()) {
+					if (!m_Context.isServing(in)) {
 						continue;
 					}
 					in = m_ByteIn.readUnsignedByte();
 					// create request
 					request = ModbusRequest.createModbusRequest(in);
 					request.setHeadless();
+					request.setContext(m_Context);
 					// read message
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					request.readFrom(m_ByteIn);
@@ -173,19 +173,20 @@ public class ModbusBINTransport extends ModbusSerialTransport {
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					in = m_ByteIn.readUnsignedByte();
 					// check unit identifier
-					if (in != ModbusCoupler.getReference().getUnitID()) {
+					if (in != m_Context.getUnitID()) {
 						continue;
 					}
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					in = m_ByteIn.readUnsignedByte();
 					// check unit identifier
-					if (in != ModbusCoupler.getReference().getUnitID()) {
+					if (in != m_Context.getUnitID()) {
 						continue;
 					}
 					in = m_ByteIn.readUnsignedByte();
 					// create request
 					response = ModbusResponse.createModbusResponse(in);
 					response.setHeadless();
+					response.setContext(m_Context);
 					// read message
 					m_ByteIn.reset(m_InBuffer, m_ByteInOut.size());
 					response.readFrom(m_ByteIn);
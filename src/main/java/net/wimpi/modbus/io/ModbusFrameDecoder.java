@@ -0,0 +1,223 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+
+package net.wimpi.modbus.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.msg.ModbusFrame;
+
+/**
+ * Class implementing an incremental decoder of Modbus/TCP frames.
+ * <p>
+ * Data is accumulated from a stream or channel in whatever portions it
+ * arrives, and {@link #next()} hands out each complete frame as a
+ * {@link ModbusFrame} view of the internal buffer, without copying. Partial
+ * frames stay buffered across reads (and read timeouts), and pipelined
+ * frames are returned one after the other.
+ * <p>
+ * The MBAP header of every frame is validated: the protocol identifier has
+ * to be 0 and the length has to cover at least the unit identifier and
+ * function code, without exceeding <tt>Modbus.MAX_IP_MESSAGE_LENGTH</tt>. A
+ * malformed header either fails the decoder, so that the connection can be
+ * dropped, or, if resynchronizing, is skipped byte by byte until a plausible
+ * header is found.
+ * <p>
+ * A decoder serves a single connection and is not thread safe.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusFrameDecoder {
+
+	private final ByteBuffer m_Buffer;
+	private final ModbusFrame m_Frame;
+	private int m_Start = 0;
+	private int m_Consumed = 0;
+	private boolean m_Resynchronizing = false;
+	private long m_Discarded = 0;
+
+	/**
+	 * Constructs a new <tt>ModbusFrameDecoder</tt> instance with room for two
+	 * frames of maximum length.
+	 */
+	public ModbusFrameDecoder() {
+		this(2 * Modbus.MAX_IP_MESSAGE_LENGTH);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ModbusFrameDecoder</tt> instance. Larger buffers
+	 * take more pipelined frames per read.
+	 *
+	 * @param capacity
+	 *            the size of the buffer, at least
+	 *            <tt>Modbus.MAX_IP_MESSAGE_LENGTH</tt>.
+	 */
+	public ModbusFrameDecoder(int capacity) {
+		if (capacity < Modbus.MAX_IP_MESSAGE_LENGTH) {
+			throw new IllegalArgumentException("Capacity too small: "
+					+ capacity);
+		}
+		m_Buffer = ByteBuffer.allocate(capacity);
+		m_Frame = new ModbusFrame(m_Buffer);
+	}// constructor
+
+	/**
+	 * Sets the flag that controls whether malformed data is skipped until
+	 * the next plausible header, or fails the decoder.
+	 *
+	 * @param b
+	 *            true if resynchronizing, false otherwise.
+	 */
+	public void setResynchronizing(boolean b) {
+		m_Resynchronizing = b;
+	}// setResynchronizing
+
+	/**
+	 * Tests if malformed data is skipped rather than failing the decoder.
+	 *
+	 * @return true if resynchronizing, false otherwise.
+	 */
+	public boolean isResynchronizing() {
+		return m_Resynchronizing;
+	}// isResynchronizing
+
+	/**
+	 * Returns the number of bytes skipped while resynchronizing.
+	 *
+	 * @return the count as <tt>long</tt>.
+	 */
+	public long getDiscardedCount() {
+		return m_Discarded;
+	}// getDiscardedCount
+
+	/**
+	 * Returns the number of buffered bytes not yet returned as frames.
+	 *
+	 * @return the number of bytes as <tt>int</tt>.
+	 */
+	public int available() {
+		return m_Buffer.position() - m_Start - m_Consumed;
+	}// available
+
+	/**
+	 * Discards all buffered data.
+	 */
+	public void clear() {
+		m_Buffer.clear();
+		m_Start = 0;
+		m_Consumed = 0;
+	}// clear
+
+	/**
+	 * Reads the data available from the given stream, blocking only if none
+	 * is available.
+	 *
+	 * @param in
+	 *            the <tt>InputStream</tt> to read from.
+	 * @return the number of bytes read, or -1 at the end of the stream.
+	 * @throws IOException
+	 *             if the stream fails.
+	 */
+	public int read(InputStream in) throws IOException {
+		prepareRead();
+		int n = in.read(m_Buffer.array(), m_Buffer.arrayOffset()
+				+ m_Buffer.position(), m_Buffer.remaining());
+		if (n > 0) {
+			m_Buffer.position(m_Buffer.position() + n);
+		}
+		return n;
+	}// read
+
+	/**
+	 * Reads the data available from the given channel.
+	 *
+	 * @param ch
+	 *            the <tt>ReadableByteChannel</tt> to read from.
+	 * @return the number of bytes read, or -1 at the end of the stream.
+	 * @throws IOException
+	 *             if the channel fails.
+	 */
+	public int read(ReadableByteChannel ch) throws IOException {
+		prepareRead();
+		return ch.read(m_Buffer);
+	}// read
+
+	/**
+	 * Returns the next complete frame. The frame is a view of the internal
+	 * buffer and stays valid until the next call to <tt>next()</tt>,
+	 * <tt>read()</tt> or <tt>clear()</tt>.
+	 *
+	 * @return the <tt>ModbusFrame</tt>, or null if more data is needed.
+	 * @throws ModbusIOException
+	 *             if the buffered data does not start with a valid MBAP
+	 *             header and the decoder is not resynchronizing.
+	 */
+	public ModbusFrame next() throws ModbusIOException {
+		m_Start += m_Consumed;
+		m_Consumed = 0;
+		while (true) {
+			int available = m_Buffer.position() - m_Start;
+			if (available < 6) {
+				break;
+			}
+			m_Frame.wrap(m_Buffer, m_Start);
+			int length = m_Frame.getDataLength();
+			if (m_Frame.getProtocolID() != Modbus.DEFAULT_PROTOCOL_ID
+					|| length < 2
+					|| length + 6 > Modbus.MAX_IP_MESSAGE_LENGTH) {
+				if (!m_Resynchronizing) {
+					throw new ModbusIOException("Malformed MBAP header.");
+				}
+				m_Start++;
+				m_Discarded++;
+				continue;
+			}
+			if (available < length + 6) {
+				break;
+			}
+			m_Consumed = length + 6;
+			return m_Frame;
+		}
+		if (m_Start == m_Buffer.position()) {
+			m_Buffer.clear();
+			m_Start = 0;
+		}
+		return null;
+	}// next
+
+	/**
+	 * Moves a partial frame to the start of the buffer, so the buffer has
+	 * room for the rest of it.
+	 */
+	private void prepareRead() {
+		m_Start += m_Consumed;
+		m_Consumed = 0;
+		if (m_Start > 0) {
+			m_Buffer.flip();
+			m_Buffer.position(m_Start);
+			m_Buffer.compact();
+			m_Start = 0;
+		}
+	}// prepareRead
+
+}// class ModbusFrameDecoder
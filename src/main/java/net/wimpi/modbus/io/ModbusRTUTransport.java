@@ -22,14 +22,26 @@ import net.wimpi.modbus.msg.ModbusMessage;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
 import net.wimpi.modbus.util.ModbusUtil;
+import net.wimpi.modbus.util.SerialParameters;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 import jssc.SerialInputStream;
 import jssc.SerialOutputStream;
+import jssc.SerialPort;
+import jssc.SerialPortTimeoutException;
 
 /**
  * Class that implements the ModbusRTU transport flavor.
+ * <p>
+ * Frames are read directly into the input buffer. Their length is
+ * determined from the first bytes by a {@link RTUFrameLengthResolver}, so
+ * that frames, exception responses included, are complete as soon as their
+ * last byte arrives and the CRC matches. Frames of function codes the
+ * resolver does not know are delimited by the silent interval of 3.5
+ * character times that RTU requires between frames (see
+ * {@link #setSilentInterval(int)}).
  * 
  * @author John Charlton
  * @author Dieter Wimberger
@@ -43,9 +55,11 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 
 	private byte[] m_InBuffer;
 	private BytesInputStream m_ByteIn; // to read message from
-	private BytesOutputStream m_ByteInOut; // to buffer message to
 	private BytesOutputStream m_ByteOut; // write frames
 	private byte[] lastRequest = null;
+	private int m_SilentInterval = getSilentInterval(new SerialParameters());
+	private RTUFrameLengthResolver m_Resolver = RTUFrameLengthResolver
+			.getDefault();
 
 	public void writeMessage(ModbusMessage msg) throws ModbusIOException {
 		try {
@@ -59,10 +73,10 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 				msg.setHeadless();
 				msg.writeTo(m_ByteOut);
 				len = m_ByteOut.size();
-				int[] crc = ModbusUtil.calculateCRC(m_ByteOut.getBuffer(), 0,
+				int crc = ModbusUtil.calculateCRC16(m_ByteOut.getBuffer(), 0,
 						len);
-				m_ByteOut.writeByte(crc[0]);
-				m_ByteOut.writeByte(crc[1]);
+				m_ByteOut.writeByte(crc);
+				m_ByteOut.writeByte(crc >>> 8);
 				// write message
 				len = m_ByteOut.size();
 				byte buf[] = m_ByteOut.getBuffer();
@@ -86,11 +100,271 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 
 	}// writeMessage
 
-	// This is required for the slave that is not supported
+	/**
+	 * Sets the silent interval that delimits frames received as slave.
+	 * 
+	 * @param micros
+	 *            the interval in microseconds.
+	 * @see #getSilentInterval(SerialParameters)
+	 */
+	public void setSilentInterval(int micros) {
+		m_SilentInterval = micros;
+	}// setSilentInterval
+
+	/**
+	 * Returns the silent interval that delimits frames received as slave.
+	 * 
+	 * @return the interval in microseconds.
+	 */
+	public int getSilentInterval() {
+		return m_SilentInterval;
+	}// getSilentInterval
+
+	/**
+	 * Sets the resolver that determines the length of received frames, e.g.
+	 * to add rules for custom function codes.
+	 * 
+	 * @param resolver
+	 *            the <tt>RTUFrameLengthResolver</tt>.
+	 */
+	public void setFrameLengthResolver(RTUFrameLengthResolver resolver) {
+		m_Resolver = resolver;
+	}// setFrameLengthResolver
+
+	/**
+	 * Returns the resolver that determines the length of received frames.
+	 * 
+	 * @return the <tt>RTUFrameLengthResolver</tt>, by default the shared
+	 *         instance returned by {@link RTUFrameLengthResolver#getDefault()}.
+	 */
+	public RTUFrameLengthResolver getFrameLengthResolver() {
+		return m_Resolver;
+	}// getFrameLengthResolver
+
+	/**
+	 * Computes the silent interval of 3.5 character times for the given
+	 * serial parameters. As recommended by the Modbus over serial line
+	 * specification, a fixed interval of 1750 microseconds is used above
+	 * 19200 baud.
+	 * 
+	 * @param params
+	 *            the <tt>SerialParameters</tt> of the connection.
+	 * @return the interval in microseconds.
+	 */
+	public static int getSilentInterval(SerialParameters params) {
+		if (params.getBaudRate() > 19200) {
+			return 1750;
+		}
+		// start bit, data bits, parity bit and stop bits
+		int bits = 1 + params.getDatabits();
+		if (params.getParity() != SerialPort.PARITY_NONE) {
+			bits++;
+		}
+		bits += (params.getStopbits() == SerialPort.STOPBITS_1) ? 1 : 2;
+		return (int) ((3.5 * bits * 1000000L + params.getBaudRate() - 1) / params
+				.getBaudRate());
+	}// getSilentInterval
+
 	public ModbusRequest readRequest() throws ModbusIOException {
-		throw new RuntimeException("Operation not supported.");
+		try {
+			do {
+				int length;
+				synchronized (m_ByteIn) {
+					length = readFrame(true);
+					if (length < 4) {
+						continue;
+					}
+					if (Modbus.debug)
+						System.out.println("Request: "
+								+ ModbusUtil.toHex(m_InBuffer, 0, length));
+					// check CRC
+					if (!checkCRC(length)) {
+						if (Modbus.debug)
+							System.out.println("CRC Error in received frame");
+						continue;
+					}
+					// check message with this slave unit identifier
+					if (!m_Context.isServing(ModbusUtil
+							.unsignedByteToInt(m_InBuffer[0]))) {
+						continue;
+					}
+					// create and read request
+					ModbusRequest request = ModbusRequest
+							.createModbusRequest(ModbusUtil
+									.unsignedByteToInt(m_InBuffer[1]));
+					request.setHeadless();
+					request.setContext(m_Context);
+					m_ByteIn.reset(m_InBuffer, length - 2);
+					request.readFrom(m_ByteIn);
+					return request;
+				}
+			} while (true);
+		} catch (ModbusIOException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			if (Modbus.debug)
+				System.out.println(ex.getMessage());
+			throw new ModbusIOException(
+					"readRequest: I/O exception - failed to read.");
+		}
 	} // readRequest
 
+	/**
+	 * Reads a frame into the input buffer.
+	 * <p>
+	 * As soon as the length of the frame is known from the
+	 * {@link RTUFrameLengthResolver}, the remaining bytes are awaited with a
+	 * single read: up to the receive timeout for responses, and up to the
+	 * transmission time of the bytes plus the silent interval for requests.
+	 * Frames of unknown length, and frames that turn out shorter or
+	 * corrupted, are delimited by the silent interval.
+	 * 
+	 * @param request
+	 *            true if a request is read, false if a response is read.
+	 * @return the length of the frame, including the CRC, or 0 if the frame
+	 *         was discarded.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws InterruptedIOException
+	 *             if no response has been received within the timeout.
+	 * @throws ModbusIOException
+	 *             if the thread has been interrupted while waiting for a
+	 *             request.
+	 */
+	private int readFrame(boolean request) throws IOException,
+			ModbusIOException {
+		// 1. wait for the header
+		int length;
+		if (request) {
+			// poll with the receive timeout until the first byte arrives
+			while (true) {
+				try {
+					m_InBuffer[0] = (byte) m_InputStream.read();
+					break;
+				} catch (IOException ex) {
+					if (!isTimeout(ex)) {
+						throw ex;
+					}
+					if (Thread.currentThread().isInterrupted()) {
+						ModbusIOException mex = new ModbusIOException(
+								"readRequest: interrupted.");
+						mex.setTimeout(true);
+						throw mex;
+					}
+				}
+			}
+			length = 1;
+		} else {
+			// unit identifier, function code and the byte following it,
+			// which is part of every response
+			try {
+				waitFor(0, 3, timeout);
+			} catch (IOException ex) {
+				if (isTimeout(ex)) {
+					throw new InterruptedIOException("No response received.");
+				}
+				throw ex;
+			}
+			length = 3;
+		}
+
+		// 2. read the rest of the frame
+		int silence = Math.max(1, (m_SilentInterval + 999) / 1000);
+		boolean resolve = true;
+		boolean overrun = false;
+		while (true) {
+			if (resolve) {
+				int expected = (request) ? m_Resolver.getRequestLength(
+						m_InBuffer, length) : m_Resolver.getResponseLength(
+						m_InBuffer, length);
+				if (expected > 0 && length >= expected) {
+					if (length == expected && checkCRC(length)) {
+						return length;
+					}
+					// corrupted, delimit by silence
+					resolve = false;
+					continue;
+				}
+				int want = (expected > 0) ? expected - length : -expected
+						- length;
+				if (want > 0 && length + want <= m_InBuffer.length) {
+					// never read past the end of the frame, there may be
+					// further frames in the receive buffer; responses get
+					// the receive timeout, as slaves may pause mid-frame
+					// and serial adapters deliver in chunks
+					int ms = (request) ? silence
+							+ (want * m_SilentInterval * 2 / 7 + 999) / 1000
+							: timeout;
+					try {
+						waitFor(length, want, ms);
+						length += want;
+						continue;
+					} catch (IOException ex) {
+						if (!isTimeout(ex)) {
+							throw ex;
+						}
+					}
+				}
+				// unknown or shorter than expected, delimit by silence
+				resolve = false;
+			}
+			int avail = m_InputStream.available();
+			if (avail > 0) {
+				if (length + avail > m_InBuffer.length) {
+					// too long for a Modbus frame, discard up to the silence
+					m_InputStream.skip(avail);
+					overrun = true;
+					length = 0;
+				} else {
+					length += m_InputStream.read(m_InBuffer, length, avail);
+				}
+				continue;
+			}
+			int in;
+			try {
+				in = m_InputStream.read(silence);
+			} catch (IOException ex) {
+				if (isTimeout(ex)) {
+					// end of frame
+					return (overrun) ? 0 : length;
+				}
+				throw ex;
+			}
+			if (length < m_InBuffer.length) {
+				m_InBuffer[length++] = (byte) in;
+			} else {
+				overrun = true;
+				length = 0;
+			}
+		}
+	}// readFrame
+
+	/**
+	 * Waits for the given number of bytes and reads them into the input
+	 * buffer, without consuming any bytes if they do not arrive in time.
+	 */
+	private void waitFor(int off, int len, int ms) throws IOException {
+		if (ms > 0) {
+			m_InputStream.blockingRead(m_InBuffer, off, len, ms);
+		} else {
+			// no timeout, block for every byte
+			for (int i = 0; i < len; i++) {
+				m_InBuffer[off + i] = (byte) m_InputStream.read();
+			}
+		}
+	}// waitFor
+
+	private static boolean isTimeout(IOException ex) {
+		return ex.getCause() instanceof SerialPortTimeoutException;
+	}// isTimeout
+
+	private boolean checkCRC(int length) {
+		// the CRC is sent low byte first
+		int crc = ModbusUtil.calculateCRC16(m_InBuffer, 0, length - 2);
+		return (m_InBuffer[length - 2] & 0xff) == (crc & 0xff)
+				&& (m_InBuffer[length - 1] & 0xff) == (crc >>> 8);
+	}// checkCRC
+
 	/**
 	 * Clear the input if characters are found in the input stream.
 	 * 
@@ -108,77 +382,36 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 	}// cleanInput
 
 	public ModbusResponse readResponse() throws ModbusIOException {
-
-		boolean done = false;
-		ModbusResponse response = null;
-		int dlength = 0;
-
 		try {
-			do {
-				// 1. read to function code, create request and read function
-				// specific bytes
-				synchronized (m_ByteIn) {
-					int uid = m_InputStream.read();
-					if (uid != -1) {
-						int fc = m_InputStream.read();
-						m_ByteInOut.reset();
-						m_ByteInOut.writeByte(uid);
-						m_ByteInOut.writeByte(fc);
-
-						// create response to acquire length of message
-						response = ModbusResponse.createModbusResponse(fc);
-						response.setHeadless();
-
-						// With Modbus RTU, there is no end frame. Either we
-						// assume
-						// the message is complete as is or we must do function
-						// specific processing to know the correct length. To
-						// avoid
-						// moving frame timing to the serial input functions, we
-						// set the
-						// timeout and to message specific parsing to read a
-						// response.
-						getResponse(fc, m_ByteInOut);
-						dlength = m_ByteInOut.size() - 2; // less the crc
-						if (Modbus.debug)
-							System.out.println("Response: "
-									+ ModbusUtil.toHex(m_ByteInOut.getBuffer(),
-											0, dlength + 2));
-
-						m_ByteIn.reset(m_InBuffer, dlength);
-
-						// check CRC
-						int[] crc = ModbusUtil.calculateCRC(m_InBuffer, 0,
-								dlength); // does not include CRC
-						if (ModbusUtil.unsignedByteToInt(m_InBuffer[dlength]) != crc[0]
-								|| ModbusUtil
-										.unsignedByteToInt(m_InBuffer[dlength + 1]) != crc[1]) {
-							throw new IOException(
-									"CRC Error in received frame: "
-											+ dlength
-											+ " bytes: "
-											+ ModbusUtil.toHex(
-													m_ByteIn.getBuffer(), 0,
-													dlength));
-						}
-					} else {
-						throw new IOException("Error reading response");
-					}
-
-					// read response
-					m_ByteIn.reset(m_InBuffer, dlength);
-					if (response != null) {
-						response.readFrom(m_ByteIn);
-					}
-					done = true;
-				}// synchronized
-			} while (!done);
-			return response;
+			synchronized (m_ByteIn) {
+				int length = readFrame(false);
+				if (Modbus.debug)
+					System.out.println("Response: "
+							+ ModbusUtil.toHex(m_InBuffer, 0, length));
+				// check CRC
+				if (length < 5 || !checkCRC(length)) {
+					throw new IOException("CRC Error in received frame: "
+							+ length + " bytes: "
+							+ ModbusUtil.toHex(m_InBuffer, 0, length));
+				}
+				// create and read response, exception responses included
+				ModbusResponse response = ModbusResponse
+						.createModbusResponse(ModbusUtil
+								.unsignedByteToInt(m_InBuffer[1]));
+				response.setHeadless();
+				response.setContext(m_Context);
+				m_ByteIn.reset(m_InBuffer, length - 2);
+				response.readFrom(m_ByteIn);
+				return response;
+			}// synchronized
 		} catch (Exception ex) {
 			System.err
 					.println("Last request: " + ModbusUtil.toHex(lastRequest));
 			System.err.println(ex.getMessage());
-			throw new ModbusIOException("I/O exception - failed to read");
+			ModbusIOException mex = new ModbusIOException(
+					"I/O exception - failed to read");
+			mex.setTimeout(ex instanceof InterruptedIOException);
+			throw mex;
 		}
 	}// readResponse
 
@@ -200,7 +433,6 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 		m_ByteOut = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH);
 		m_InBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH];
 		m_ByteIn = new BytesInputStream(m_InBuffer);
-		m_ByteInOut = new BytesOutputStream(m_InBuffer);
 	} // prepareStreams
 
 	public void close() throws IOException {
@@ -208,72 +440,6 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 		m_OutputStream.close();
 	}// close
 
-	private void getResponse(int fn, BytesOutputStream out) throws IOException {
-		int bc = -1, bc2 = -1, bcw = -1;
-		int inpBytes = 0;
-		byte inpBuf[] = new byte[256];
-
-		try {
-			switch (fn) {
-			case 0x01:
-			case 0x02:
-			case 0x03:
-			case 0x04:
-			case 0x0C:
-			case 0x11: // report slave ID version and run/stop state
-			case 0x14: // read log entry (60000 memory reference)
-			case 0x15: // write log entry (60000 memory reference)
-			case 0x17:
-				// read the byte count;
-				bc = m_InputStream.read();
-				out.write(bc);
-				// now get the specified number of bytes and the 2 CRC bytes
-				inpBytes = m_InputStream.blockingRead(inpBuf, 0, bc + 2);
-				out.write(inpBuf, 0, inpBytes);
-				if (inpBytes != bc + 2) {
-					System.out.println("Error: looking for " + (bc + 2)
-							+ " bytes, received " + inpBytes);
-				}
-				break;
-			case 0x05:
-			case 0x06:
-			case 0x0B:
-			case 0x0F:
-			case 0x10:
-				// read status: only the CRC remains after address and function
-				// code
-				inpBytes = m_InputStream.blockingRead(inpBuf, 0, 6);
-				out.write(inpBuf, 0, inpBytes);
-				break;
-			case 0x07:
-			case 0x08:
-				// read status: only the CRC remains after address and function
-				// code
-				inpBytes = m_InputStream.blockingRead(inpBuf, 0, 3);
-				out.write(inpBuf, 0, inpBytes);
-				break;
-			case 0x16:
-				// eight bytes in addition to the address and function codes
-				inpBytes = m_InputStream.blockingRead(inpBuf, 0, 8);
-				out.write(inpBuf, 0, inpBytes);
-				break;
-			case 0x18:
-				// read the byte count word
-				bc = m_InputStream.read();
-				out.write(bc);
-				bc2 = m_InputStream.read();
-				out.write(bc2);
-				bcw = ModbusUtil.makeWord(bc, bc2);
-				// now get the specified number of bytes and the 2 CRC bytes
-				inpBytes = m_InputStream.blockingRead(inpBuf, 0, bcw + 2);
-				out.write(inpBuf, 0, inpBytes);
-				break;
-			}
-		} catch (IOException e) {
-			throw new IOException("getResponse serial port exception");
-		}
-	}// getResponse
-
 	@Override
 	public void flush() {
 		try {
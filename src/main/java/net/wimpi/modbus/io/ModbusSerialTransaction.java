@@ -23,6 +23,7 @@ import net.wimpi.modbus.Modbus;
 import net.wimpi.modbus.ModbusException;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.metrics.ModbusMetrics;
 import net.wimpi.modbus.msg.ExceptionResponse;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
@@ -50,9 +51,11 @@ public class ModbusSerialTransaction implements ModbusTransaction {
 	private boolean m_ValidityCheck = Modbus.DEFAULT_VALIDITYCHECK;
 	private int m_Retries = Modbus.DEFAULT_RETRIES;
 	private int m_TransDelayMS = Modbus.DEFAULT_TRANSMIT_DELAY;
+	private ModbusMetrics m_Metrics;
 	private SerialConnection m_SerialCon;
 
-	private Mutex m_TransactionLock = new Mutex();
+	private Mutex m_TransactionLock = new Mutex(true);
+	private int m_LockTimeout = 0;
 
 	/**
 	 * Constructs a new <tt>ModbusSerialTransaction</tt> instance.
@@ -130,6 +133,14 @@ public class ModbusSerialTransaction implements ModbusTransaction {
 		m_Retries = num;
 	}// setRetries
 
+	public int getLockTimeout() {
+		return m_LockTimeout;
+	}// getLockTimeout
+
+	public void setLockTimeout(int timeout) {
+		m_LockTimeout = timeout;
+	}// setLockTimeout
+
 	/**
 	 * Get the TransDelayMS value.
 	 * 
@@ -154,20 +165,15 @@ public class ModbusSerialTransaction implements ModbusTransaction {
 		// 1. assert executeability
 		assertExecutable();
 
+		// 2. Lock transaction, waiting threads are served in arrival order
+		lock();
 		try {
-			// 2. Lock transaction
-			/**
-			 * Note: The way this explicit synchronization is implemented at the
-			 * moment, there is no ordering of pending threads. The Mutex will
-			 * simply call notify() and the JVM will handle the rest.
-			 */
-			m_TransactionLock.acquire();
-
 			// 3. write request, and read response,
 			// while holding the lock on the IO object
 			synchronized (m_IO) {
 				int tries = 0;
 				boolean finished = false;
+				long start = (m_Metrics != null) ? System.nanoTime() : 0;
 
 				// toggle the id
 				m_Request.setTransactionID(c_TransactionID.increment());
@@ -190,12 +196,20 @@ public class ModbusSerialTransaction implements ModbusTransaction {
 						finished = true;
 					} catch (ModbusIOException e) {
 						if (++tries >= m_Retries) {
+							failed(e.isTimeout());
 							throw e;
 						}
+						retried(e.isTimeout());
 						System.err.println("execute try " + tries + " error: "
 								+ e.getMessage());
 					}
 				} while (!finished);
+				if (m_Metrics != null) {
+					m_Metrics.transactionCompleted(m_Request, m_Response, System
+								.nanoTime()
+								- start, m_Response.getOutputLength(), m_Request
+								.getOutputLength());
+				}
 			}
 
 			// 4. deal with exceptions
@@ -207,14 +221,34 @@ public class ModbusSerialTransaction implements ModbusTransaction {
 			if (isCheckingValidity()) {
 				checkValidity();
 			}
-		} catch (InterruptedException ex) {
-			throw new ModbusIOException(
-					"Thread acquiring lock was interrupted.");
 		} finally {
 			m_TransactionLock.release();
 		}
 	}// execute
 
+	/**
+	 * Acquires the transaction lock, waiting at most the lock timeout.
+	 * 
+	 * @throws ModbusIOException
+	 *             if the lock could not be acquired in time, or the thread
+	 *             was interrupted.
+	 */
+	private void lock() throws ModbusIOException {
+		try {
+			if (m_LockTimeout <= 0) {
+				m_TransactionLock.acquire();
+			} else if (!m_TransactionLock.attempt(m_LockTimeout)) {
+				ModbusIOException ex = new ModbusIOException(
+						"Timed out waiting for the transaction lock.");
+				ex.setTimeout(true);
+				throw ex;
+			}
+		} catch (InterruptedException ex) {
+			throw new ModbusIOException(
+					"Thread acquiring lock was interrupted.");
+		}
+	}// lock
+
 	/**
 	 * Asserts if this <tt>ModbusSerialTransaction</tt> is executable.
 	 * 
@@ -228,6 +262,41 @@ public class ModbusSerialTransaction implements ModbusTransaction {
 		}
 	}// assertExecuteable
 
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the transactions executed by
+	 * this <tt>ModbusSerialTransaction</tt>.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusSerialTransaction</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	private void retried(boolean timeout) {
+		if (m_Metrics != null) {
+			m_Metrics.transactionRetried(m_Request.getUnitID(), m_Request
+					.getFunctionCode(), timeout);
+		}
+	}// retried
+
+	private void failed(boolean timeout) {
+		if (m_Metrics != null) {
+			m_Metrics.transactionFailed(m_Request.getUnitID(), m_Request
+					.getFunctionCode(), timeout);
+		}
+	}// failed
+
 	/**
 	 * Checks the validity of the transaction, by checking if the values of the
 	 * response correspond to the values of the request.
@@ -20,6 +20,8 @@
 package net.wimpi.modbus.io;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.msg.ModbusMessage;
 import net.wimpi.modbus.msg.ModbusRequest;
@@ -47,6 +49,7 @@ abstract public class ModbusSerialTransport implements ModbusTransport {
 	protected SerialInputStream inputStream;
 	protected SerialOutputStream outputStream;
 	protected int timeout=0;
+	protected ModbusContext m_Context = ModbusCoupler.getReference();
 
 	/**
 	 * <code>readResponse</code> reads a response message from the slave
@@ -137,6 +140,14 @@ abstract public class ModbusSerialTransport implements ModbusTransport {
 		this.m_Echo = b;
 	}// setEcho
 
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
 	/**
 	 * 
 	 * 
@@ -23,6 +23,7 @@ import net.wimpi.modbus.Modbus;
 import net.wimpi.modbus.ModbusException;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.metrics.ModbusMetrics;
 import net.wimpi.modbus.msg.ExceptionResponse;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
@@ -50,8 +51,10 @@ public class ModbusTCPTransaction implements ModbusTransaction {
 	private boolean m_ValidityCheck = Modbus.DEFAULT_VALIDITYCHECK;
 	private boolean m_Reconnecting = Modbus.DEFAULT_RECONNECTING;
 	private int m_Retries = Modbus.DEFAULT_RETRIES;
+	private ModbusMetrics m_Metrics;
 
-	private Mutex m_TransactionLock = new Mutex();
+	private Mutex m_TransactionLock = new Mutex(true);
+	private int m_LockTimeout = 0;
 
 	/**
 	 * Constructs a new <tt>ModbusTCPTransaction</tt> instance.
@@ -154,27 +157,30 @@ public class ModbusTCPTransaction implements ModbusTransaction {
 		m_Retries = num;
 	}// setRetries
 
+	public int getLockTimeout() {
+		return m_LockTimeout;
+	}// getLockTimeout
+
+	public void setLockTimeout(int timeout) {
+		m_LockTimeout = timeout;
+	}// setLockTimeout
+
 	public void execute() throws ModbusIOException, ModbusSlaveException,
 			ModbusException {
 
 		// 1. check that the transaction can be executed
 		assertExecutable();
 
+		// 2. Lock transaction, waiting threads are served in arrival order
+		lock();
 		try {
-			// 2. Lock transaction
-			/**
-			 * Note: The way this explicit synchronization is implemented at the
-			 * moment, there is no ordering of pending threads. The Mutex will
-			 * simply call notify() and the JVM will handle the rest.
-			 */
-			m_TransactionLock.acquire();
-
 			// 3. open the connection if not connected
 			if (!m_Connection.isConnected()) {
 				try {
 					m_Connection.connect();
 					m_IO = m_Connection.getModbusTransport();
 				} catch (Exception ex) {
+					failed(false);
 					throw new ModbusIOException("Connecting failed.");
 				}
 			}
@@ -183,6 +189,7 @@ public class ModbusTCPTransaction implements ModbusTransaction {
 			// I/O Exception problems.
 			int retryCounter = 0;
 			int transactionId;
+			long start = (m_Metrics != null) ? System.nanoTime() : 0;
 			while (retryCounter < m_Retries) {
 				try {
 					// toggle and set the id
@@ -203,25 +210,35 @@ public class ModbusTCPTransaction implements ModbusTransaction {
 						break;
 					} else {
 						if (retryCounter == (m_Retries - 1)) {
+							failed(false);
 							throw new ModbusIOException(
 									"Executing transaction failed (tried "
 											+ m_Retries + " times)");
 						} else {
+							retried(false);
 							retryCounter++;
 							continue;
 						}
 					}
 				} catch (ModbusIOException ex) {
 					if (retryCounter == (m_Retries - 1)) {
+						failed(ex.isTimeout());
 						throw new ModbusIOException(
 								"Executing transaction failed (tried "
 										+ m_Retries + " times)");
 					} else {
+						retried(ex.isTimeout());
 						retryCounter++;
 						continue;
 					}
 				}
 			}
+			if (m_Metrics != null) {
+				m_Metrics.transactionCompleted(m_Request, m_Response, System
+						.nanoTime()
+						- start, m_Response.getOutputLength(), m_Request
+						.getOutputLength());
+			}
 
 			// 5. deal with "application level" exceptions
 			if (m_Response instanceof ExceptionResponse) {
@@ -239,14 +256,34 @@ public class ModbusTCPTransaction implements ModbusTransaction {
 				checkValidity();
 			}
 
-		} catch (InterruptedException ex) {
-			throw new ModbusIOException(
-					"Thread acquiring lock was interrupted.");
 		} finally {
 			m_TransactionLock.release();
 		}
 	}// execute
 
+	/**
+	 * Acquires the transaction lock, waiting at most the lock timeout.
+	 * 
+	 * @throws ModbusIOException
+	 *             if the lock could not be acquired in time, or the thread
+	 *             was interrupted.
+	 */
+	private void lock() throws ModbusIOException {
+		try {
+			if (m_LockTimeout <= 0) {
+				m_TransactionLock.acquire();
+			} else if (!m_TransactionLock.attempt(m_LockTimeout)) {
+				ModbusIOException ex = new ModbusIOException(
+						"Timed out waiting for the transaction lock.");
+				ex.setTimeout(true);
+				throw ex;
+			}
+		} catch (InterruptedException ex) {
+			throw new ModbusIOException(
+					"Thread acquiring lock was interrupted.");
+		}
+	}// lock
+
 	/**
 	 * Asserts if this <tt>ModbusTCPTransaction</tt> is executable.
 	 * 
@@ -260,6 +297,41 @@ public class ModbusTCPTransaction implements ModbusTransaction {
 		}
 	}// assertExecuteable
 
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the transactions executed by
+	 * this <tt>ModbusTCPTransaction</tt>.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusTCPTransaction</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	private void retried(boolean timeout) {
+		if (m_Metrics != null) {
+			m_Metrics.transactionRetried(m_Request.getUnitID(), m_Request
+					.getFunctionCode(), timeout);
+		}
+	}// retried
+
+	private void failed(boolean timeout) {
+		if (m_Metrics != null) {
+			m_Metrics.transactionFailed(m_Request.getUnitID(), m_Request
+					.getFunctionCode(), timeout);
+		}
+	}// failed
+
 	/**
 	 * Checks the validity of the transaction, by checking if the values of the
 	 * response correspond to the values of the request. Use an override to
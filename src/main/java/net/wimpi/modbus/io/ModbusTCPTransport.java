@@ -16,22 +16,25 @@
 
 package net.wimpi.modbus.io;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.msg.ModbusFrame;
 import net.wimpi.modbus.msg.ModbusMessage;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
-import net.wimpi.modbus.util.ModbusUtil;
 
 /**
  * Class that implements the Modbus transport flavor.
@@ -43,8 +46,16 @@ public class ModbusTCPTransport implements ModbusTransport {
 
 	// instance attributes
 	private DataInputStream m_Input; // input stream
-	private DataOutputStream m_Output; // output stream
+	private OutputStream m_Output; // output stream
+	// messages are encoded here and written with a single call
+	private BytesOutputStream m_ByteOut;
+	private final ReentrantLock m_WriteLock = new ReentrantLock();
+	private ModbusFrameDecoder m_Decoder;
 	private BytesInputStream m_ByteIn;
+	// guards m_ByteIn; not a monitor, so blocked readers do not pin
+	// virtual thread carriers
+	private final ReentrantLock m_ReadLock = new ReentrantLock();
+	private ModbusContext m_Context = ModbusCoupler.getReference();
 
 	/**
 	 * Constructs a new <tt>ModbusTransport</tt> instance, for a given
@@ -84,10 +95,24 @@ public class ModbusTCPTransport implements ModbusTransport {
 		m_Output.close();
 	}// close
 
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
 	public void writeMessage(ModbusMessage msg) throws ModbusIOException {
 		try {
-			msg.writeTo((DataOutput) m_Output);
-			m_Output.flush();
+			m_WriteLock.lock();
+			try {
+				m_ByteOut.reset();
+				msg.writeTo((DataOutput) m_ByteOut);
+				m_Output.write(m_ByteOut.getBuffer(), 0, m_ByteOut.size());
+			} finally {
+				m_WriteLock.unlock();
+			}
 			// write more sophisticated exception handling
 		} catch (Exception ex) {
 			throw new ModbusIOException("I/O exception - failed to write.");
@@ -100,50 +125,29 @@ public class ModbusTCPTransport implements ModbusTransport {
 		try {
 
 			ModbusRequest req = null;
-			synchronized (m_ByteIn) {
-				// use same buffer
-				byte[] buffer = m_ByteIn.getBuffer();
-
-				// read to byte length of message
-				if (m_Input.read(buffer, 0, 6) == -1) {
-					throw new EOFException(
-							"Premature end of stream (Header truncated).");
-				}
-				// extract length of bytes following in message
-				int bf = ModbusUtil.registerToShort(buffer, 4);
-				// read rest
-				if (m_Input.read(buffer, 6, bf) == -1) {
-					throw new ModbusIOException(
-							"Premature end of stream (Message truncated).");
-				}
-				m_ByteIn.reset(buffer, (6 + bf));
-				m_ByteIn.skip(7);
-				int functionCode = m_ByteIn.readUnsignedByte();
-				m_ByteIn.reset();
-				req = ModbusRequest.createModbusRequest(functionCode);
+			m_ReadLock.lock();
+			try {
+				ModbusFrame frame = nextFrame();
+				decode(frame);
+				req = ModbusRequest.createModbusRequest(frame
+						.getFunctionCode());
+				req.setContext(m_Context);
 				req.readFrom(m_ByteIn);
+			} finally {
+				m_ReadLock.unlock();
 			}
 			return req;
-			/*
-			 * int transactionID = m_Input.readUnsignedShort(); int protocolID =
-			 * m_Input.readUnsignedShort(); int dataLength =
-			 * m_Input.readUnsignedShort(); if (protocolID !=
-			 * Modbus.DEFAULT_PROTOCOL_ID || dataLength > 256) { throw new
-			 * ModbusIOException(); } int unitID = m_Input.readUnsignedByte();
-			 * int functionCode = m_Input.readUnsignedByte(); ModbusRequest
-			 * request = ModbusRequest.createModbusRequest(functionCode,
-			 * m_Input, false); if (request instanceof IllegalFunctionRequest) {
-			 * //skip rest of bytes for (int i = 0; i < dataLength - 2; i++) {
-			 * m_Input.readByte(); } } //set read parameters
-			 * request.setTransactionID(transactionID);
-			 * request.setProtocolID(protocolID); request.setUnitID(unitID);
-			 * return request;
-			 */
+		} catch (ModbusIOException ex) {
+			throw ex;
 		} catch (EOFException eoex) {
 			throw new ModbusIOException(true);
 		} catch (SocketException sockex) {
 			// connection reset by peer, also EOF
 			throw new ModbusIOException(true);
+		} catch (InterruptedIOException ioex) {
+			ModbusIOException mex = new ModbusIOException("Socket timed out.");
+			mex.setTimeout(true);
+			throw mex;
 		} catch (Exception ex) {
 			ex.printStackTrace();
 			throw new ModbusIOException("I/O exception - failed to read.");
@@ -151,10 +155,14 @@ public class ModbusTCPTransport implements ModbusTransport {
 	}// readRequest
 
 	public void flush() {
+		m_ReadLock.lock();
 		try {
+			m_Decoder.clear();
 			m_Input.skip(m_Input.available());
 		} catch (IOException e) {
 			// TODO: If flushing the buffer fails, what should we do?
+		} finally {
+			m_ReadLock.unlock();
 		}
 	}
 
@@ -164,55 +172,140 @@ public class ModbusTCPTransport implements ModbusTransport {
 		try {
 
 			ModbusResponse res = null;
-			synchronized (m_ByteIn) {
-				// use same buffer
-				byte[] buffer = m_ByteIn.getBuffer();
-
-				// read to byte length of message
-				if (m_Input.read(buffer, 0, 6) == -1) {
-					throw new ModbusIOException(
-							"Premature end of stream (Header truncated).");
-				}
-				// extract length of bytes following in message
-				int bf = ModbusUtil.registerToShort(buffer, 4);
-				// read rest
-				if (m_Input.read(buffer, 6, bf) == -1) {
-					throw new ModbusIOException(
-							"Premature end of stream (Message truncated).");
-				}
-				m_ByteIn.reset(buffer, (6 + bf));
-				m_ByteIn.skip(7);
-				int functionCode = m_ByteIn.readUnsignedByte();
-				m_ByteIn.reset();
-				res = ModbusResponse.createModbusResponse(functionCode);
+			m_ReadLock.lock();
+			try {
+				ModbusFrame frame = nextFrame();
+				decode(frame);
+				res = ModbusResponse.createModbusResponse(frame
+						.getFunctionCode());
+				res.setContext(m_Context);
 				res.readFrom(m_ByteIn);
+			} finally {
+				m_ReadLock.unlock();
 			}
 			return res;
-			/*
-			 * try { int transactionID = m_Input.readUnsignedShort();
-			 * //System.out.println("Read tid="+transactionID); int protocolID =
-			 * m_Input.readUnsignedShort();
-			 * //System.out.println("Read pid="+protocolID); int dataLength =
-			 * m_Input.readUnsignedShort();
-			 * //System.out.println("Read length="+dataLength); int unitID =
-			 * m_Input.readUnsignedByte();
-			 * //System.out.println("Read uid="+unitID); int functionCode =
-			 * m_Input.readUnsignedByte();
-			 * //System.out.println("Read fc="+functionCode); ModbusResponse
-			 * response = ModbusResponse.createModbusResponse(functionCode,
-			 * m_Input, false); if (response instanceof ExceptionResponse) {
-			 * //skip rest of bytes for (int i = 0; i < dataLength - 2; i++) {
-			 * m_Input.readByte(); } } //set read parameters
-			 * response.setTransactionID(transactionID);
-			 * response.setProtocolID(protocolID); response.setUnitID(unitID);
-			 * return response;
-			 */
+		} catch (ModbusIOException ex) {
+			throw ex;
+		} catch (EOFException eoex) {
+			throw new ModbusIOException(true);
+		} catch (SocketException sockex) {
+			// connection reset by peer, also EOF
+			throw new ModbusIOException(true);
+		} catch (InterruptedIOException ioex) {
+			ModbusIOException mex = new ModbusIOException("Socket timed out.");
+			mex.setTimeout(true);
+			throw mex;
 		} catch (Exception ex) {
 			ex.printStackTrace();
 			throw new ModbusIOException("I/O exception - failed to read.");
 		}
 	}// readResponse
 
+	/**
+	 * Reads the next frame. The returned <tt>ModbusFrame</tt> is a view of
+	 * the receive buffer of this transport and stays valid until the next
+	 * read. Together with {@link #writeFrame(ModbusFrame)} this allows
+	 * exchanging messages without creating any objects or copying data.
+	 *
+	 * @return the <tt>ModbusFrame</tt> read.
+	 * @throws ModbusIOException
+	 *             if the frame cannot be read; <tt>isEOF()</tt> will be true
+	 *             if the connection was closed.
+	 */
+	public ModbusFrame readFrame() throws ModbusIOException {
+		m_ReadLock.lock();
+		try {
+			return nextFrame();
+		} catch (ModbusIOException ex) {
+			throw ex;
+		} catch (EOFException eoex) {
+			throw new ModbusIOException(true);
+		} catch (SocketException sockex) {
+			// connection reset by peer, also EOF
+			throw new ModbusIOException(true);
+		} catch (InterruptedIOException ioex) {
+			ModbusIOException mex = new ModbusIOException("Socket timed out.");
+			mex.setTimeout(true);
+			throw mex;
+		} catch (IOException ex) {
+			throw new ModbusIOException("I/O exception - failed to read.");
+		} finally {
+			m_ReadLock.unlock();
+		}
+	}// readFrame
+
+	/**
+	 * Reads the next frame into the given <tt>ModbusFrame</tt>, which has to
+	 * be backed by an accessible array.
+	 *
+	 * @param frame
+	 *            the <tt>ModbusFrame</tt> receiving the frame.
+	 * @throws ModbusIOException
+	 *             if the frame cannot be read; <tt>isEOF()</tt> will be true
+	 *             if the connection was closed.
+	 */
+	public void readFrame(ModbusFrame frame) throws ModbusIOException {
+		m_ReadLock.lock();
+		try {
+			ModbusFrame f = readFrame();
+			System.arraycopy(f.getBuffer().array(), f.getBuffer()
+					.arrayOffset()
+					+ f.getOffset(), frame.getBuffer().array(), frame
+					.getBuffer().arrayOffset()
+					+ frame.getOffset(), f.getFrameLength());
+		} finally {
+			m_ReadLock.unlock();
+		}
+	}// readFrame
+
+	/**
+	 * Returns the next complete frame, reading from the input stream as long
+	 * as the decoder needs more data. The caller must hold the read lock.
+	 */
+	private ModbusFrame nextFrame() throws IOException, ModbusIOException {
+		ModbusFrame frame;
+		while ((frame = m_Decoder.next()) == null) {
+			if (m_Decoder.read(m_Input) < 0) {
+				throw new EOFException("Premature end of stream.");
+			}
+		}
+		return frame;
+	}// nextFrame
+
+	/**
+	 * Prepares <tt>m_ByteIn</tt> to parse the given frame.
+	 */
+	private void decode(ModbusFrame frame) {
+		ByteBuffer buf = frame.getBuffer();
+		m_ByteIn.reset(buf.array(), buf.arrayOffset() + frame.getOffset()
+				+ frame.getFrameLength());
+		m_ByteIn.skip(buf.arrayOffset() + frame.getOffset());
+	}// decode
+
+	/**
+	 * Writes the given <tt>ModbusFrame</tt>, which has to be backed by an
+	 * accessible array.
+	 *
+	 * @param frame
+	 *            the <tt>ModbusFrame</tt> to be written.
+	 * @throws ModbusIOException
+	 *             if the frame cannot be written.
+	 */
+	public void writeFrame(ModbusFrame frame) throws ModbusIOException {
+		try {
+			m_WriteLock.lock();
+			try {
+				m_Output.write(frame.getBuffer().array(), frame.getBuffer()
+						.arrayOffset()
+						+ frame.getOffset(), frame.getFrameLength());
+			} finally {
+				m_WriteLock.unlock();
+			}
+		} catch (IOException ex) {
+			throw new ModbusIOException("I/O exception - failed to write.");
+		}
+	}// writeFrame
+
 	/**
 	 * Prepares the input and output streams of this <tt>ModbusTCPTransport</tt>
 	 * instance based on the given socket.
@@ -224,10 +317,11 @@ public class ModbusTCPTransport implements ModbusTransport {
 	 */
 	private void prepareStreams(Socket socket) throws IOException {
 
-		m_Input = new DataInputStream(new BufferedInputStream(
-				socket.getInputStream()));
-		m_Output = new DataOutputStream(new BufferedOutputStream(
-				socket.getOutputStream()));
+		// the decoder and m_ByteOut do the buffering
+		m_Input = new DataInputStream(socket.getInputStream());
+		m_Output = socket.getOutputStream();
+		m_Decoder = new ModbusFrameDecoder();
+		m_ByteOut = new BytesOutputStream(Modbus.MAX_IP_MESSAGE_LENGTH);
 		m_ByteIn = new BytesInputStream(Modbus.MAX_IP_MESSAGE_LENGTH);
 	}// prepareStreams
 
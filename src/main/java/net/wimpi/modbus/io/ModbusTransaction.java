@@ -90,6 +90,32 @@ public interface ModbusTransaction {
 	 */
 	public int getRetries();
 
+	/**
+	 * Sets the time a thread executing this transaction waits for the
+	 * transaction lock, while another thread executes it. Waiting threads
+	 * acquire the lock in arrival order.
+	 * <p>
+	 * The default implementation ignores the timeout, for transactions that
+	 * do not support it.
+	 * 
+	 * @param timeout
+	 *            the timeout in milliseconds, or 0 to wait indefinitely.
+	 */
+	public default void setLockTimeout(int timeout) {
+	}// setLockTimeout
+
+	/**
+	 * Returns the time a thread executing this transaction waits for the
+	 * transaction lock.
+	 * <p>
+	 * The default implementation returns 0.
+	 * 
+	 * @return the timeout in milliseconds, 0 if waiting indefinitely.
+	 */
+	public default int getLockTimeout() {
+		return 0;
+	}// getLockTimeout
+
 	/**
 	 * Sets the flag that controls whether the validity of a transaction will be
 	 * checked.
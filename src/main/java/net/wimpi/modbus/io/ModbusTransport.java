@@ -18,6 +18,7 @@ package net.wimpi.modbus.io;
 
 import java.io.IOException;
 
+import net.wimpi.modbus.ModbusContext;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.msg.ModbusMessage;
 import net.wimpi.modbus.msg.ModbusRequest;
@@ -83,4 +84,21 @@ public interface ModbusTransport {
 	 */
 	public void flush();
 
+	/**
+	 * Sets the <tt>ModbusContext</tt> the messages read by this
+	 * <tt>ModbusTransport</tt> are decoded and served with.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context);
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this <tt>ModbusTransport</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext();
+
 }// class ModbusTransport
@@ -23,6 +23,7 @@ import net.wimpi.modbus.Modbus;
 import net.wimpi.modbus.ModbusException;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.metrics.ModbusMetrics;
 import net.wimpi.modbus.msg.ExceptionResponse;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
@@ -52,8 +53,10 @@ public class ModbusUDPTransaction implements ModbusTransaction {
 	private boolean m_ValidityCheck = Modbus.DEFAULT_VALIDITYCHECK;
 	private int m_Retries = Modbus.DEFAULT_RETRIES;
 	private int m_RetryCounter = 0;
+	private ModbusMetrics m_Metrics;
 
-	private Mutex m_TransactionLock = new Mutex();
+	private Mutex m_TransactionLock = new Mutex(true);
+	private int m_LockTimeout = 0;
 
 	/**
 	 * Constructs a new <tt>ModbusUDPTransaction</tt> instance.
@@ -145,27 +148,30 @@ public class ModbusUDPTransaction implements ModbusTransaction {
 		m_Retries = num;
 	}// setRetries
 
+	public int getLockTimeout() {
+		return m_LockTimeout;
+	}// getLockTimeout
+
+	public void setLockTimeout(int timeout) {
+		m_LockTimeout = timeout;
+	}// setLockTimeout
+
 	public void execute() throws ModbusIOException, ModbusSlaveException,
 			ModbusException {
 
 		// 1. assert executeability
 		assertExecutable();
 
+		// 2. Lock transaction, waiting threads are served in arrival order
+		lock();
 		try {
-			// 2. Lock transaction
-			/**
-			 * Note: The way this explicit synchronization is implemented at the
-			 * moment, there is no ordering of pending threads. The Mutex will
-			 * simply call notify() and the JVM will handle the rest.
-			 */
-			m_TransactionLock.acquire();
-
 			// 3. open the connection if not connected
 			if (!m_Terminal.isActive()) {
 				try {
 					m_Terminal.activate();
 					m_IO = m_Terminal.getModbusTransport();
 				} catch (Exception ex) {
+					failed(false);
 					throw new ModbusIOException("Activation failed.");
 
 				}
@@ -174,6 +180,9 @@ public class ModbusUDPTransaction implements ModbusTransaction {
 			// 3. Retry transaction m_Retries times, in case of
 			// I/O Exception problems.
 			m_RetryCounter = 0;
+			boolean finished = false;
+			boolean timeout = false;
+			long start = (m_Metrics != null) ? System.nanoTime() : 0;
 
 			while (m_RetryCounter <= m_Retries) {
 				try {
@@ -187,13 +196,30 @@ public class ModbusUDPTransaction implements ModbusTransaction {
 						// read response message
 						m_Response = m_IO.readResponse();
 						m_Response.setReference(m_Request.getReference());
+						finished = true;
 						break;
 					}
 				} catch (ModbusIOException ex) {
+					timeout = ex.isTimeout();
+					if (m_RetryCounter < m_Retries) {
+						retried(timeout);
+					}
 					m_RetryCounter++;
 					continue;
 				}
 			}
+			if (!finished) {
+				failed(timeout);
+				throw new ModbusIOException(
+						"Executing transaction failed (tried "
+								+ m_RetryCounter + " times)");
+			}
+			if (m_Metrics != null) {
+				m_Metrics.transactionCompleted(m_Request, m_Response, System
+						.nanoTime()
+						- start, m_Response.getOutputLength(), m_Request
+						.getOutputLength());
+			}
 
 			// 4. deal with "application level" exceptions
 			if (m_Response instanceof ExceptionResponse) {
@@ -204,15 +230,35 @@ public class ModbusUDPTransaction implements ModbusTransaction {
 			if (isCheckingValidity()) {
 				checkValidity();
 			}
-		} catch (InterruptedException ex) {
-			throw new ModbusIOException(
-					"Thread acquiring lock was interrupted.");
 		} finally {
 			m_TransactionLock.release();
 		}
 
 	}// execute
 
+	/**
+	 * Acquires the transaction lock, waiting at most the lock timeout.
+	 * 
+	 * @throws ModbusIOException
+	 *             if the lock could not be acquired in time, or the thread
+	 *             was interrupted.
+	 */
+	private void lock() throws ModbusIOException {
+		try {
+			if (m_LockTimeout <= 0) {
+				m_TransactionLock.acquire();
+			} else if (!m_TransactionLock.attempt(m_LockTimeout)) {
+				ModbusIOException ex = new ModbusIOException(
+						"Timed out waiting for the transaction lock.");
+				ex.setTimeout(true);
+				throw ex;
+			}
+		} catch (InterruptedException ex) {
+			throw new ModbusIOException(
+					"Thread acquiring lock was interrupted.");
+		}
+	}// lock
+
 	/**
 	 * Asserts if this <tt>ModbusTCPTransaction</tt> is executable.
 	 * 
@@ -226,6 +272,41 @@ public class ModbusUDPTransaction implements ModbusTransaction {
 		}
 	}// assertExecuteable
 
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the transactions executed by
+	 * this <tt>ModbusUDPTransaction</tt>.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusUDPTransaction</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	private void retried(boolean timeout) {
+		if (m_Metrics != null) {
+			m_Metrics.transactionRetried(m_Request.getUnitID(), m_Request
+					.getFunctionCode(), timeout);
+		}
+	}// retried
+
+	private void failed(boolean timeout) {
+		if (m_Metrics != null) {
+			m_Metrics.transactionFailed(m_Request.getUnitID(), m_Request
+					.getFunctionCode(), timeout);
+		}
+	}// failed
+
 	/**
 	 * Checks the validity of the transaction, by checking if the values of the
 	 * response correspond to the values of the request. Use an override to
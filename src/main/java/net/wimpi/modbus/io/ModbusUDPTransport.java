@@ -21,6 +21,8 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.msg.ModbusMessage;
 import net.wimpi.modbus.msg.ModbusRequest;
@@ -39,6 +41,7 @@ public class ModbusUDPTransport implements ModbusTransport {
 	private UDPTerminal m_Terminal;
 	private BytesOutputStream m_ByteOut;
 	private BytesInputStream m_ByteIn;
+	private ModbusContext m_Context = ModbusCoupler.getReference();
 
 	/**
 	 * Constructs a new <tt>ModbusTransport</tt> instance, for a given
@@ -58,6 +61,14 @@ public class ModbusUDPTransport implements ModbusTransport {
 		// ?
 	}// close
 
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
 	public void writeMessage(ModbusMessage msg) throws ModbusIOException {
 		try {
 			synchronized (m_ByteOut) {
@@ -79,6 +90,7 @@ public class ModbusUDPTransport implements ModbusTransport {
 				int functionCode = m_ByteIn.readUnsignedByte();
 				m_ByteIn.reset();
 				req = ModbusRequest.createModbusRequest(functionCode);
+				req.setContext(m_Context);
 				req.readFrom(m_ByteIn);
 			}
 			return req;
@@ -97,11 +109,14 @@ public class ModbusUDPTransport implements ModbusTransport {
 				int functionCode = m_ByteIn.readUnsignedByte();
 				m_ByteIn.reset();
 				res = ModbusResponse.createModbusResponse(functionCode);
+				res.setContext(m_Context);
 				res.readFrom(m_ByteIn);
 			}
 			return res;
 		} catch (InterruptedIOException ioex) {
-			throw new ModbusIOException("Socket timed out.");
+			ModbusIOException mex = new ModbusIOException("Socket timed out.");
+			mex.setTimeout(true);
+			throw mex;
 		} catch (Exception ex) {
 			ex.printStackTrace();
 			throw new ModbusIOException("I/O exception - failed to read.");
@@ -0,0 +1,278 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.io;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.wimpi.modbus.Modbus;
+
+/**
+ * Class that determines the length of Modbus RTU frames from their first
+ * bytes.
+ * <p>
+ * RTU frames carry no length field and no end delimiter, so the length has
+ * to be derived from the function code, and for some function codes from a
+ * byte count within the frame. This class holds one {@link Rule} per
+ * function code for requests and one for responses. Exception responses
+ * (function code with the exception offset added) always have five bytes.
+ * Rules for custom function codes can be registered at runtime; frames of
+ * function codes without a rule are delimited by the silent interval.
+ * <p>
+ * All lengths include the unit identifier, the function code and the CRC.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class RTUFrameLengthResolver {
+
+	/**
+	 * Interface defining the length rule of a function code.
+	 */
+	public interface Rule {
+
+		/**
+		 * Returns the length of the frame in the given buffer.
+		 *
+		 * @param frame
+		 *            the buffer holding the received bytes, starting with the
+		 *            unit identifier.
+		 * @param received
+		 *            the number of bytes received, at least 2.
+		 * @return the length of the frame, or the negated number of bytes
+		 *         that have to be received to determine it.
+		 */
+		public int getLength(byte[] frame, int received);
+
+	}// interface Rule
+
+	private static final RTUFrameLengthResolver c_Default = new RTUFrameLengthResolver();
+
+	private final AtomicReferenceArray<Rule> m_Requests;
+	private final AtomicReferenceArray<Rule> m_Responses;
+
+	/**
+	 * Constructs a new <tt>RTUFrameLengthResolver</tt> instance with the rules
+	 * of the public function codes.
+	 */
+	public RTUFrameLengthResolver() {
+		m_Requests = new AtomicReferenceArray<Rule>(Modbus.EXCEPTION_OFFSET);
+		m_Responses = new AtomicReferenceArray<Rule>(Modbus.EXCEPTION_OFFSET);
+
+		Rule fixed4 = fixed(4);
+		Rule fixed8 = fixed(8);
+		Rule data = byteCount(2);
+
+		// reads and single writes
+		for (int fc = Modbus.READ_COILS; fc <= Modbus.WRITE_SINGLE_REGISTER; fc++) {
+			setRequestRule(fc, fixed8);
+		}
+		setResponseRule(Modbus.READ_COILS, data);
+		setResponseRule(Modbus.READ_INPUT_DISCRETES, data);
+		setResponseRule(Modbus.READ_MULTIPLE_REGISTERS, data);
+		setResponseRule(Modbus.READ_INPUT_REGISTERS, data);
+		setResponseRule(Modbus.WRITE_COIL, fixed8);
+		setResponseRule(Modbus.WRITE_SINGLE_REGISTER, fixed8);
+		// read exception status
+		setRequestRule(0x07, fixed4);
+		setResponseRule(0x07, fixed(5));
+		// diagnostics
+		setRequestRule(0x08, fixed8);
+		setResponseRule(0x08, fixed8);
+		// get comm event counter and log
+		setRequestRule(0x0B, fixed4);
+		setResponseRule(0x0B, fixed8);
+		setRequestRule(0x0C, fixed4);
+		setResponseRule(0x0C, data);
+		// multiple writes
+		setRequestRule(Modbus.WRITE_MULTIPLE_COILS, byteCount(6));
+		setResponseRule(Modbus.WRITE_MULTIPLE_COILS, fixed8);
+		setRequestRule(Modbus.WRITE_MULTIPLE_REGISTERS, byteCount(6));
+		setResponseRule(Modbus.WRITE_MULTIPLE_REGISTERS, fixed8);
+		// report slave id
+		setRequestRule(0x11, fixed4);
+		setResponseRule(0x11, data);
+		// read and write file record
+		setRequestRule(0x14, data);
+		setResponseRule(0x14, data);
+		setRequestRule(0x15, data);
+		setResponseRule(0x15, data);
+		// mask write register
+		setRequestRule(0x16, fixed(10));
+		setResponseRule(0x16, fixed(10));
+		// read/write multiple registers
+		setRequestRule(0x17, byteCount(10));
+		setResponseRule(0x17, data);
+		// read FIFO queue
+		setRequestRule(0x18, fixed(6));
+		setResponseRule(0x18, wordCount(2));
+	}// constructor
+
+	/**
+	 * Returns the shared default instance, used by all
+	 * <tt>ModbusRTUTransport</tt> instances unless set otherwise.
+	 *
+	 * @return the default <tt>RTUFrameLengthResolver</tt>.
+	 */
+	public static RTUFrameLengthResolver getDefault() {
+		return c_Default;
+	}// getDefault
+
+	/**
+	 * Sets the rule for requests of the given function code.
+	 *
+	 * @param fc
+	 *            the function code, below <tt>Modbus.EXCEPTION_OFFSET</tt>.
+	 * @param rule
+	 *            the <tt>Rule</tt>, or null to delimit the frames by silence.
+	 */
+	public void setRequestRule(int fc, Rule rule) {
+		m_Requests.set(fc, rule);
+	}// setRequestRule
+
+	/**
+	 * Returns the rule for requests of the given function code.
+	 *
+	 * @param fc
+	 *            the function code.
+	 * @return the <tt>Rule</tt>, or null if there is none.
+	 */
+	public Rule getRequestRule(int fc) {
+		return (fc < Modbus.EXCEPTION_OFFSET) ? m_Requests.get(fc) : null;
+	}// getRequestRule
+
+	/**
+	 * Sets the rule for responses of the given function code.
+	 *
+	 * @param fc
+	 *            the function code, below <tt>Modbus.EXCEPTION_OFFSET</tt>.
+	 * @param rule
+	 *            the <tt>Rule</tt>, or null to delimit the frames by silence.
+	 */
+	public void setResponseRule(int fc, Rule rule) {
+		m_Responses.set(fc, rule);
+	}// setResponseRule
+
+	/**
+	 * Returns the rule for responses of the given function code.
+	 *
+	 * @param fc
+	 *            the function code.
+	 * @return the <tt>Rule</tt>, or null if there is none.
+	 */
+	public Rule getResponseRule(int fc) {
+		return (fc < Modbus.EXCEPTION_OFFSET) ? m_Responses.get(fc) : null;
+	}// getResponseRule
+
+	/**
+	 * Returns the length of the request frame in the given buffer.
+	 *
+	 * @param frame
+	 *            the buffer holding the received bytes.
+	 * @param received
+	 *            the number of bytes received.
+	 * @return the length of the frame, the negated number of bytes that have
+	 *         to be received to determine it, or 0 if it has to be delimited
+	 *         by silence.
+	 */
+	public int getRequestLength(byte[] frame, int received) {
+		if (received < 2) {
+			return -2;
+		}
+		Rule rule = getRequestRule(frame[1] & 0xff);
+		return (rule == null) ? 0 : rule.getLength(frame, received);
+	}// getRequestLength
+
+	/**
+	 * Returns the length of the response frame in the given buffer.
+	 *
+	 * @param frame
+	 *            the buffer holding the received bytes.
+	 * @param received
+	 *            the number of bytes received.
+	 * @return the length of the frame, the negated number of bytes that have
+	 *         to be received to determine it, or 0 if it has to be delimited
+	 *         by silence.
+	 */
+	public int getResponseLength(byte[] frame, int received) {
+		if (received < 2) {
+			return -2;
+		}
+		int fc = frame[1] & 0xff;
+		if (fc >= Modbus.EXCEPTION_OFFSET) {
+			// unit, function code, exception code and CRC
+			return 5;
+		}
+		Rule rule = m_Responses.get(fc);
+		return (rule == null) ? 0 : rule.getLength(frame, received);
+	}// getResponseLength
+
+	/**
+	 * Returns a rule for frames of a fixed length.
+	 *
+	 * @param length
+	 *            the length of the frames.
+	 * @return the <tt>Rule</tt>.
+	 */
+	public static Rule fixed(final int length) {
+		return new Rule() {
+			public int getLength(byte[] frame, int received) {
+				return length;
+			}
+		};
+	}// fixed
+
+	/**
+	 * Returns a rule for frames whose data ends with a block of bytes, that
+	 * is preceded by a byte holding its length.
+	 *
+	 * @param offset
+	 *            the offset of the byte count within the frame.
+	 * @return the <tt>Rule</tt>.
+	 */
+	public static Rule byteCount(final int offset) {
+		return new Rule() {
+			public int getLength(byte[] frame, int received) {
+				if (received <= offset) {
+					return -(offset + 1);
+				}
+				return offset + 1 + (frame[offset] & 0xff) + 2;
+			}
+		};
+	}// byteCount
+
+	/**
+	 * Returns a rule for frames whose data ends with a block of bytes, that
+	 * is preceded by a word holding its length.
+	 *
+	 * @param offset
+	 *            the offset of the byte count within the frame.
+	 * @return the <tt>Rule</tt>.
+	 */
+	public static Rule wordCount(final int offset) {
+		return new Rule() {
+			public int getLength(byte[] frame, int received) {
+				if (received <= offset + 1) {
+					return -(offset + 2);
+				}
+				return offset + 2
+						+ (((frame[offset] & 0xff) << 8) | (frame[offset + 1] & 0xff))
+						+ 2;
+			}
+		};
+	}// wordCount
+
+}// class RTUFrameLengthResolver
@@ -0,0 +1,166 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class implementing a lock-free histogram of latencies in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is split into
+ * eight sub-buckets, which bounds the relative error of the reported
+ * percentiles to 12.5%. Recording a value is a handful of arithmetic
+ * operations and one atomic increment; it never allocates or blocks.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray m_Buckets;
+	private final LongAdder m_Count;
+	private final LongAdder m_Sum;
+	private final AtomicLong m_Max;
+
+	/**
+	 * Constructs a new, empty <tt>LatencyHistogram</tt>.
+	 */
+	public LatencyHistogram() {
+		m_Buckets = new AtomicLongArray(BUCKETS);
+		m_Count = new LongAdder();
+		m_Sum = new LongAdder();
+		m_Max = new AtomicLong();
+	}// constructor
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos
+	 *            the latency in nanoseconds; negative values are recorded as
+	 *            0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		m_Buckets.incrementAndGet(indexOf(nanos));
+		m_Count.increment();
+		m_Sum.add(nanos);
+		long max = m_Max.get();
+		while (nanos > max && !m_Max.compareAndSet(max, nanos)) {
+			max = m_Max.get();
+		}
+	}// record
+
+	/**
+	 * Returns the number of recorded latencies.
+	 *
+	 * @return the count as <tt>long</tt>.
+	 */
+	public long getCount() {
+		return m_Count.sum();
+	}// getCount
+
+	/**
+	 * Returns the mean of the recorded latencies.
+	 *
+	 * @return the mean in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long count = m_Count.sum();
+		return (count == 0) ? 0 : (double) m_Sum.sum() / count;
+	}// getMean
+
+	/**
+	 * Returns the largest recorded latency.
+	 *
+	 * @return the maximum in nanoseconds.
+	 */
+	public long getMax() {
+		return m_Max.get();
+	}// getMax
+
+	/**
+	 * Returns the given percentile of the recorded latencies. The result is
+	 * the upper bound of the bucket holding the percentile, but never larger
+	 * than the maximum.
+	 *
+	 * @param percentile
+	 *            the percentile in the range 0 to 100.
+	 * @return the percentile in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += m_Buckets.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * Math.min(percentile, 100) / 100);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += m_Buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), m_Max.get());
+			}
+		}
+		return m_Max.get();
+	}// getPercentile
+
+	/**
+	 * Clears all recorded latencies. Values recorded concurrently with the
+	 * reset may or may not be cleared.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			m_Buckets.set(i, 0);
+		}
+		m_Count.reset();
+		m_Sum.reset();
+		m_Max.set(0);
+	}// reset
+
+	private static int indexOf(long v) {
+		if (v < SUB_COUNT) {
+			return (int) v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) | sub;
+	}// indexOf
+
+	private static long upperBoundOf(int idx) {
+		if (idx < SUB_COUNT) {
+			return idx;
+		}
+		int exp = (idx >>> SUB_BITS) + SUB_BITS - 1;
+		long sub = idx & (SUB_COUNT - 1);
+		long lower = (1L << exp) | (sub << (exp - SUB_BITS));
+		return lower + (1L << (exp - SUB_BITS)) - 1;
+	}// upperBoundOf
+
+}// class LatencyHistogram
@@ -0,0 +1,82 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.metrics;
+
+/**
+ * Interface defining a listener for the events recorded by a
+ * <tt>ModbusMetrics</tt> instance.
+ * <p>
+ * Listeners are called synchronously from the thread executing the
+ * transaction, so implementations should return quickly and must not block.
+ * All events are passed as primitives, so that no objects are created per
+ * transaction.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ * @see ModbusMetrics#addListener(MetricsListener)
+ */
+public interface MetricsListener {
+
+	/**
+	 * Called when a transaction has completed with a response.
+	 *
+	 * @param unitID
+	 *            the unit identifier of the request.
+	 * @param functionCode
+	 *            the function code of the request.
+	 * @param exceptionCode
+	 *            the exception code if the response was an exception
+	 *            response, 0 otherwise.
+	 * @param nanos
+	 *            the latency of the transaction in nanoseconds.
+	 * @param bytesIn
+	 *            the number of bytes received.
+	 * @param bytesOut
+	 *            the number of bytes sent.
+	 */
+	public void transactionCompleted(int unitID, int functionCode,
+			int exceptionCode, long nanos, int bytesIn, int bytesOut);
+
+	/**
+	 * Called when an attempt of a transaction failed and the transaction is
+	 * retried.
+	 *
+	 * @param unitID
+	 *            the unit identifier of the request.
+	 * @param functionCode
+	 *            the function code of the request.
+	 * @param timeout
+	 *            true if the attempt failed with a timeout.
+	 */
+	public void transactionRetried(int unitID, int functionCode,
+			boolean timeout);
+
+	/**
+	 * Called when a transaction failed without a response, after all retries
+	 * have been used up.
+	 *
+	 * @param unitID
+	 *            the unit identifier of the request.
+	 * @param functionCode
+	 *            the function code of the request.
+	 * @param timeout
+	 *            true if the last attempt failed with a timeout.
+	 */
+	public void transactionFailed(int unitID, int functionCode,
+			boolean timeout);
+
+}// interface MetricsListener
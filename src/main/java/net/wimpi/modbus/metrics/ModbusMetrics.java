@@ -0,0 +1,365 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.wimpi.modbus.msg.ExceptionResponse;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+
+/**
+ * Class collecting transaction metrics of masters and slaves.
+ * <p>
+ * An instance can be set on the transactions and listeners (see their
+ * <tt>setMetrics()</tt> methods), and may be shared between several of them.
+ * It counts requests per function code and unit identifier, exception
+ * responses per exception code, retries, timeouts, failed transactions and
+ * transferred bytes, and keeps a {@link LatencyHistogram} of the transaction
+ * latencies. All counters are lock-free and recording does not allocate, so
+ * the metrics can stay enabled at full polling rates.
+ * <p>
+ * The metrics can be registered as MBean with the platform MBean server, and
+ * all events are forwarded to the registered {@link MetricsListener}s.
+ * <p>
+ * For masters the bytes sent are requests and the bytes received responses;
+ * for slaves it is the other way round. Byte counts refer to the encoded
+ * messages, excluding serial framing (checksums and delimiters).
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusMetrics implements MetricsListener, ModbusMetricsMBean {
+
+	/**
+	 * Defines the domain of the names the metrics are registered under.
+	 */
+	public static final String JMX_DOMAIN = "net.wimpi.modbus";
+
+	private static final MetricsListener[] NO_LISTENERS = new MetricsListener[0];
+
+	private final AtomicLongArray m_FunctionCodes;
+	private final AtomicLongArray m_Units;
+	private final AtomicLongArray m_ExceptionCodes;
+	private final LongAdder m_Requests;
+	private final LongAdder m_Exceptions;
+	private final LongAdder m_Retries;
+	private final LongAdder m_Timeouts;
+	private final LongAdder m_Failures;
+	private final LongAdder m_BytesIn;
+	private final LongAdder m_BytesOut;
+	private final LatencyHistogram m_Latency;
+
+	private volatile MetricsListener[] m_Listeners = NO_LISTENERS;
+	private ObjectName m_Name;
+
+	/**
+	 * Constructs a new <tt>ModbusMetrics</tt> instance.
+	 */
+	public ModbusMetrics() {
+		m_FunctionCodes = new AtomicLongArray(256);
+		m_Units = new AtomicLongArray(256);
+		m_ExceptionCodes = new AtomicLongArray(256);
+		m_Requests = new LongAdder();
+		m_Exceptions = new LongAdder();
+		m_Retries = new LongAdder();
+		m_Timeouts = new LongAdder();
+		m_Failures = new LongAdder();
+		m_BytesIn = new LongAdder();
+		m_BytesOut = new LongAdder();
+		m_Latency = new LatencyHistogram();
+	}// constructor
+
+	/*** Listeners ***************************************/
+
+	/**
+	 * Adds a listener that will be notified about every recorded event.
+	 *
+	 * @param l
+	 *            a <tt>MetricsListener</tt>.
+	 */
+	public synchronized void addListener(MetricsListener l) {
+		MetricsListener[] ls = new MetricsListener[m_Listeners.length + 1];
+		System.arraycopy(m_Listeners, 0, ls, 0, m_Listeners.length);
+		ls[ls.length - 1] = l;
+		m_Listeners = ls;
+	}// addListener
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param l
+	 *            the <tt>MetricsListener</tt> to be removed.
+	 */
+	public synchronized void removeListener(MetricsListener l) {
+		MetricsListener[] ls = m_Listeners;
+		for (int i = 0; i < ls.length; i++) {
+			if (ls[i] == l) {
+				MetricsListener[] nls = new MetricsListener[ls.length - 1];
+				System.arraycopy(ls, 0, nls, 0, i);
+				System.arraycopy(ls, i + 1, nls, i, nls.length - i);
+				m_Listeners = nls;
+				return;
+			}
+		}
+	}// removeListener
+
+	/*** Recording ***************************************/
+
+	public void transactionCompleted(int unitID, int functionCode,
+			int exceptionCode, long nanos, int bytesIn, int bytesOut) {
+		m_Requests.increment();
+		m_FunctionCodes.incrementAndGet(functionCode & 0xff);
+		m_Units.incrementAndGet(unitID & 0xff);
+		if (exceptionCode != 0) {
+			m_Exceptions.increment();
+			m_ExceptionCodes.incrementAndGet(exceptionCode & 0xff);
+		}
+		m_BytesIn.add(bytesIn);
+		m_BytesOut.add(bytesOut);
+		m_Latency.record(nanos);
+
+		MetricsListener[] ls = m_Listeners;
+		for (int i = 0; i < ls.length; i++) {
+			ls[i].transactionCompleted(unitID, functionCode, exceptionCode,
+					nanos, bytesIn, bytesOut);
+		}
+	}// transactionCompleted
+
+	/**
+	 * Records a transaction made of the given request and response.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt> received or sent.
+	 * @param response
+	 *            the <tt>ModbusResponse</tt> sent or received.
+	 * @param nanos
+	 *            the latency of the transaction in nanoseconds.
+	 * @param bytesIn
+	 *            the number of bytes received.
+	 * @param bytesOut
+	 *            the number of bytes sent.
+	 */
+	public void transactionCompleted(ModbusRequest request,
+			ModbusResponse response, long nanos, int bytesIn, int bytesOut) {
+		int code = 0;
+		if (response instanceof ExceptionResponse) {
+			code = ((ExceptionResponse) response).getExceptionCode();
+		}
+		transactionCompleted(request.getUnitID(), request.getFunctionCode(),
+				code, nanos, bytesIn, bytesOut);
+	}// transactionCompleted
+
+	public void transactionRetried(int unitID, int functionCode,
+			boolean timeout) {
+		m_Retries.increment();
+		if (timeout) {
+			m_Timeouts.increment();
+		}
+		MetricsListener[] ls = m_Listeners;
+		for (int i = 0; i < ls.length; i++) {
+			ls[i].transactionRetried(unitID, functionCode, timeout);
+		}
+	}// transactionRetried
+
+	public void transactionFailed(int unitID, int functionCode,
+			boolean timeout) {
+		m_Failures.increment();
+		if (timeout) {
+			m_Timeouts.increment();
+		}
+		MetricsListener[] ls = m_Listeners;
+		for (int i = 0; i < ls.length; i++) {
+			ls[i].transactionFailed(unitID, functionCode, timeout);
+		}
+	}// transactionFailed
+
+	/*** Statistics **************************************/
+
+	public long getRequestCount() {
+		return m_Requests.sum();
+	}// getRequestCount
+
+	/**
+	 * Returns the number of requests with the given function code.
+	 *
+	 * @param fc
+	 *            the function code.
+	 * @return the count as <tt>long</tt>.
+	 */
+	public long getRequestCount(int fc) {
+		return m_FunctionCodes.get(fc & 0xff);
+	}// getRequestCount
+
+	/**
+	 * Returns the number of requests for the given unit.
+	 *
+	 * @param unitID
+	 *            the unit identifier.
+	 * @return the count as <tt>long</tt>.
+	 */
+	public long getUnitRequestCount(int unitID) {
+		return m_Units.get(unitID & 0xff);
+	}// getUnitRequestCount
+
+	public long getExceptionCount() {
+		return m_Exceptions.sum();
+	}// getExceptionCount
+
+	/**
+	 * Returns the number of exception responses with the given code.
+	 *
+	 * @param code
+	 *            the exception code.
+	 * @return the count as <tt>long</tt>.
+	 */
+	public long getExceptionCount(int code) {
+		return m_ExceptionCodes.get(code & 0xff);
+	}// getExceptionCount
+
+	public long getRetryCount() {
+		return m_Retries.sum();
+	}// getRetryCount
+
+	public long getTimeoutCount() {
+		return m_Timeouts.sum();
+	}// getTimeoutCount
+
+	public long getFailureCount() {
+		return m_Failures.sum();
+	}// getFailureCount
+
+	public long getBytesIn() {
+		return m_BytesIn.sum();
+	}// getBytesIn
+
+	public long getBytesOut() {
+		return m_BytesOut.sum();
+	}// getBytesOut
+
+	public long[] getFunctionCodeCounts() {
+		return toArray(m_FunctionCodes);
+	}// getFunctionCodeCounts
+
+	public long[] getUnitCounts() {
+		return toArray(m_Units);
+	}// getUnitCounts
+
+	public long[] getExceptionCodeCounts() {
+		return toArray(m_ExceptionCodes);
+	}// getExceptionCodeCounts
+
+	/**
+	 * Returns the histogram of the transaction latencies.
+	 *
+	 * @return the <tt>LatencyHistogram</tt>.
+	 */
+	public LatencyHistogram getLatency() {
+		return m_Latency;
+	}// getLatency
+
+	public double getLatencyMean() {
+		return m_Latency.getMean() / 1000;
+	}// getLatencyMean
+
+	public double getLatencyMax() {
+		return m_Latency.getMax() / 1000.0;
+	}// getLatencyMax
+
+	public double getLatency50thPercentile() {
+		return m_Latency.getPercentile(50) / 1000.0;
+	}// getLatency50thPercentile
+
+	public double getLatency90thPercentile() {
+		return m_Latency.getPercentile(90) / 1000.0;
+	}// getLatency90thPercentile
+
+	public double getLatency99thPercentile() {
+		return m_Latency.getPercentile(99) / 1000.0;
+	}// getLatency99thPercentile
+
+	public double getLatency999thPercentile() {
+		return m_Latency.getPercentile(99.9) / 1000.0;
+	}// getLatency999thPercentile
+
+	public void reset() {
+		for (int i = 0; i < 256; i++) {
+			m_FunctionCodes.set(i, 0);
+			m_Units.set(i, 0);
+			m_ExceptionCodes.set(i, 0);
+		}
+		m_Requests.reset();
+		m_Exceptions.reset();
+		m_Retries.reset();
+		m_Timeouts.reset();
+		m_Failures.reset();
+		m_BytesIn.reset();
+		m_BytesOut.reset();
+		m_Latency.reset();
+	}// reset
+
+	/*** JMX *********************************************/
+
+	/**
+	 * Registers this instance with the platform MBean server, under the name
+	 * <tt>net.wimpi.modbus:type=ModbusMetrics,name=&lt;name&gt;</tt>.
+	 *
+	 * @param name
+	 *            the name distinguishing this instance.
+	 * @throws JMException
+	 *             if the registration fails.
+	 */
+	public synchronized void register(String name) throws JMException {
+		unregister();
+		ObjectName on = new ObjectName(JMX_DOMAIN + ":type=ModbusMetrics,name="
+				+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		m_Name = on;
+	}// register
+
+	/**
+	 * Unregisters this instance from the platform MBean server, if it was
+	 * registered.
+	 *
+	 * @throws JMException
+	 *             if the unregistration fails.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (m_Name != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(m_Name)) {
+				server.unregisterMBean(m_Name);
+			}
+			m_Name = null;
+		}
+	}// unregister
+
+	private static long[] toArray(AtomicLongArray a) {
+		long[] l = new long[a.length()];
+		for (int i = 0; i < l.length; i++) {
+			l[i] = a.get(i);
+		}
+		return l;
+	}// toArray
+
+}// class ModbusMetrics
@@ -0,0 +1,82 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.metrics;
+
+/**
+ * Management interface of {@link ModbusMetrics}, exposing the counters and
+ * latency statistics through JMX.
+ * <p>
+ * Latencies are reported in microseconds.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public interface ModbusMetricsMBean {
+
+	public long getRequestCount();
+
+	public long getExceptionCount();
+
+	public long getRetryCount();
+
+	public long getTimeoutCount();
+
+	public long getFailureCount();
+
+	public long getBytesIn();
+
+	public long getBytesOut();
+
+	/**
+	 * Returns the request counts indexed by function code.
+	 *
+	 * @return a <tt>long[256]</tt>.
+	 */
+	public long[] getFunctionCodeCounts();
+
+	/**
+	 * Returns the request counts indexed by unit identifier.
+	 *
+	 * @return a <tt>long[256]</tt>.
+	 */
+	public long[] getUnitCounts();
+
+	/**
+	 * Returns the exception response counts indexed by exception code.
+	 *
+	 * @return a <tt>long[256]</tt>.
+	 */
+	public long[] getExceptionCodeCounts();
+
+	public double getLatencyMean();
+
+	public double getLatencyMax();
+
+	public double getLatency50thPercentile();
+
+	public double getLatency90thPercentile();
+
+	public double getLatency99thPercentile();
+
+	public double getLatency999thPercentile();
+
+	/**
+	 * Resets all counters and the latency histogram.
+	 */
+	public void reset();
+
+}// interface ModbusMetricsMBean
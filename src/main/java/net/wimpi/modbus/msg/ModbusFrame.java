@@ -0,0 +1,363 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.msg;
+
+import java.nio.ByteBuffer;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.util.ModbusUtil;
+
+/**
+ * Class implementing a flyweight view of a Modbus/TCP frame (MBAP header and
+ * PDU) stored in a <tt>ByteBuffer</tt>.
+ * <p>
+ * A frame does not copy any data; all accessors read and write the wrapped
+ * buffer directly (using absolute positions, so the buffer position is left
+ * untouched). Instances are meant to be allocated once per connection and
+ * re-wrapped for every transaction, which allows encoding and decoding
+ * messages without creating any objects.
+ * <p>
+ * Data offsets used with {@link #getUnsignedByte(int)},
+ * {@link #getUnsignedShort(int)} and the corresponding put methods are
+ * relative to the first byte following the function code.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public final class ModbusFrame {
+
+	/**
+	 * Defines the length of the MBAP header including the function code.
+	 */
+	public static final int HEADER_LENGTH = 8;
+
+	private ByteBuffer m_Buffer;
+	private int m_Offset;
+
+	/**
+	 * Constructs a new <tt>ModbusFrame</tt> instance backed by a newly
+	 * allocated buffer large enough for any Modbus/TCP frame.
+	 */
+	public ModbusFrame() {
+		m_Buffer = ByteBuffer.allocate(Modbus.MAX_IP_MESSAGE_LENGTH);
+		m_Offset = 0;
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ModbusFrame</tt> instance wrapping the given buffer
+	 * at offset 0.
+	 *
+	 * @param buf
+	 *            the <tt>ByteBuffer</tt> holding the frame.
+	 */
+	public ModbusFrame(ByteBuffer buf) {
+		wrap(buf, 0);
+	}// constructor
+
+	/**
+	 * Wraps this frame around the given buffer.
+	 *
+	 * @param buf
+	 *            the <tt>ByteBuffer</tt> holding the frame.
+	 * @param offset
+	 *            the absolute position of the first byte of the frame.
+	 * @return this <tt>ModbusFrame</tt>.
+	 */
+	public ModbusFrame wrap(ByteBuffer buf, int offset) {
+		m_Buffer = buf;
+		m_Offset = offset;
+		return this;
+	}// wrap
+
+	/**
+	 * Returns the buffer wrapped by this <tt>ModbusFrame</tt>.
+	 *
+	 * @return the wrapped <tt>ByteBuffer</tt>.
+	 */
+	public ByteBuffer getBuffer() {
+		return m_Buffer;
+	}// getBuffer
+
+	/**
+	 * Returns the absolute position of this frame in the wrapped buffer.
+	 *
+	 * @return the offset as <tt>int</tt>.
+	 */
+	public int getOffset() {
+		return m_Offset;
+	}// getOffset
+
+	/*** MBAP Header *************************************/
+
+	public int getTransactionID() {
+		return m_Buffer.getShort(m_Offset) & 0xffff;
+	}// getTransactionID
+
+	public void setTransactionID(int tid) {
+		m_Buffer.putShort(m_Offset, (short) tid);
+	}// setTransactionID
+
+	public int getProtocolID() {
+		return m_Buffer.getShort(m_Offset + 2) & 0xffff;
+	}// getProtocolID
+
+	public void setProtocolID(int pid) {
+		m_Buffer.putShort(m_Offset + 2, (short) pid);
+	}// setProtocolID
+
+	/**
+	 * Returns the number of bytes following the length field, as given by the
+	 * MBAP header (i.e. unit identifier, function code and data).
+	 *
+	 * @return the length field as <tt>int</tt>.
+	 */
+	public int getDataLength() {
+		return m_Buffer.getShort(m_Offset + 4) & 0xffff;
+	}// getDataLength
+
+	public void setDataLength(int length) {
+		m_Buffer.putShort(m_Offset + 4, (short) length);
+	}// setDataLength
+
+	/**
+	 * Returns the total length of this frame in bytes, as given by the MBAP
+	 * header.
+	 *
+	 * @return the frame length as <tt>int</tt>.
+	 */
+	public int getFrameLength() {
+		return getDataLength() + 6;
+	}// getFrameLength
+
+	public int getUnitID() {
+		return m_Buffer.get(m_Offset + 6) & 0xff;
+	}// getUnitID
+
+	public void setUnitID(int unit) {
+		m_Buffer.put(m_Offset + 6, (byte) unit);
+	}// setUnitID
+
+	public int getFunctionCode() {
+		return m_Buffer.get(m_Offset + 7) & 0xff;
+	}// getFunctionCode
+
+	public void setFunctionCode(int fc) {
+		m_Buffer.put(m_Offset + 7, (byte) fc);
+	}// setFunctionCode
+
+	/**
+	 * Tests if this frame holds an exception response.
+	 *
+	 * @return true if the function code has the exception bit set.
+	 */
+	public boolean isException() {
+		return getFunctionCode() >= Modbus.EXCEPTION_OFFSET;
+	}// isException
+
+	/**
+	 * Returns the exception code of an exception response.
+	 *
+	 * @return the exception code as <tt>int</tt>.
+	 */
+	public int getExceptionCode() {
+		return getUnsignedByte(0);
+	}// getExceptionCode
+
+	/*** Data ********************************************/
+
+	public int getUnsignedByte(int idx) {
+		return m_Buffer.get(m_Offset + HEADER_LENGTH + idx) & 0xff;
+	}// getUnsignedByte
+
+	public void putByte(int idx, int v) {
+		m_Buffer.put(m_Offset + HEADER_LENGTH + idx, (byte) v);
+	}// putByte
+
+	public int getUnsignedShort(int idx) {
+		return m_Buffer.getShort(m_Offset + HEADER_LENGTH + idx) & 0xffff;
+	}// getUnsignedShort
+
+	public void putShort(int idx, int v) {
+		m_Buffer.putShort(m_Offset + HEADER_LENGTH + idx, (short) v);
+	}// putShort
+
+	/**
+	 * Returns the reference (start address) of a request, which is the first
+	 * data word for all standard function codes.
+	 *
+	 * @return the reference as <tt>int</tt>.
+	 */
+	public int getReference() {
+		return getUnsignedShort(0);
+	}// getReference
+
+	/**
+	 * Returns the second data word of a request, which is the number of bits
+	 * or words for range requests, and the value for single writes.
+	 *
+	 * @return the count or value as <tt>int</tt>.
+	 */
+	public int getCount() {
+		return getUnsignedShort(2);
+	}// getCount
+
+	/**
+	 * Returns the byte count of a read response.
+	 *
+	 * @return the byte count as <tt>int</tt>.
+	 */
+	public int getByteCount() {
+		return getUnsignedByte(0);
+	}// getByteCount
+
+	/**
+	 * Returns the value of a register from a register read response.
+	 *
+	 * @param index
+	 *            the index of the register in the response.
+	 * @return the unsigned register value.
+	 */
+	public int getRegisterValue(int index) {
+		return getUnsignedShort(1 + 2 * index);
+	}// getRegisterValue
+
+	/**
+	 * Returns the state of a bit from a coil or input discrete read response.
+	 *
+	 * @param index
+	 *            the index of the bit in the response.
+	 * @return true if the bit is set, false otherwise.
+	 */
+	public boolean getBit(int index) {
+		return (getUnsignedByte(1 + (index >>> 3)) & (1 << (index & 7))) != 0;
+	}// getBit
+
+	/*** Encoding ****************************************/
+
+	/**
+	 * Encodes a request made of a reference and a second data word, which
+	 * covers the read requests (count), as well as the single coil and single
+	 * register write requests (value).
+	 *
+	 * @param tid
+	 *            the transaction identifier.
+	 * @param unit
+	 *            the unit identifier.
+	 * @param fc
+	 *            the function code.
+	 * @param ref
+	 *            the reference.
+	 * @param value
+	 *            the count or value.
+	 * @return this <tt>ModbusFrame</tt>.
+	 */
+	public ModbusFrame encodeRequest(int tid, int unit, int fc, int ref,
+			int value) {
+		setHeader(tid, unit, fc, 6);
+		putShort(0, ref);
+		putShort(2, value);
+		return this;
+	}// encodeRequest
+
+	/**
+	 * Encodes a write multiple registers request.
+	 *
+	 * @param tid
+	 *            the transaction identifier.
+	 * @param unit
+	 *            the unit identifier.
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param values
+	 *            the register values.
+	 * @param off
+	 *            the index of the first value to be written.
+	 * @param count
+	 *            the number of registers to be written.
+	 * @return this <tt>ModbusFrame</tt>.
+	 */
+	public ModbusFrame encodeWriteMultipleRegisters(int tid, int unit,
+			int ref, int[] values, int off, int count) {
+		setHeader(tid, unit, Modbus.WRITE_MULTIPLE_REGISTERS, 7 + 2 * count);
+		putShort(0, ref);
+		putShort(2, count);
+		putByte(4, 2 * count);
+		for (int i = 0; i < count; i++) {
+			putShort(5 + 2 * i, values[off + i]);
+		}
+		return this;
+	}// encodeWriteMultipleRegisters
+
+	/**
+	 * Encodes an exception response for the request with the given header
+	 * fields.
+	 *
+	 * @param tid
+	 *            the transaction identifier.
+	 * @param unit
+	 *            the unit identifier.
+	 * @param fc
+	 *            the function code of the request.
+	 * @param code
+	 *            the exception code.
+	 * @return this <tt>ModbusFrame</tt>.
+	 */
+	public ModbusFrame encodeException(int tid, int unit, int fc, int code) {
+		setHeader(tid, unit, fc | Modbus.EXCEPTION_OFFSET, 3);
+		putByte(0, code);
+		return this;
+	}// encodeException
+
+	/**
+	 * Writes the MBAP header and function code of this frame.
+	 *
+	 * @param tid
+	 *            the transaction identifier.
+	 * @param unit
+	 *            the unit identifier.
+	 * @param fc
+	 *            the function code.
+	 * @param length
+	 *            the number of bytes following the length field.
+	 */
+	public void setHeader(int tid, int unit, int fc, int length) {
+		setTransactionID(tid);
+		setProtocolID(Modbus.DEFAULT_PROTOCOL_ID);
+		setDataLength(length);
+		setUnitID(unit);
+		setFunctionCode(fc);
+	}// setHeader
+
+	/**
+	 * Returns this frame as hex encoded string, for debug output.
+	 *
+	 * @return the hex encoded frame.
+	 */
+	public String toHex() {
+		if (m_Buffer.hasArray()) {
+			int off = m_Buffer.arrayOffset() + m_Offset;
+			return ModbusUtil.toHex(m_Buffer.array(), off, off
+					+ getFrameLength());
+		}
+		byte[] data = new byte[getFrameLength()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = m_Buffer.get(m_Offset + i);
+		}
+		return ModbusUtil.toHex(data);
+	}// toHex
+
+}// class ModbusFrame
@@ -0,0 +1,406 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.msg;
+
+import java.nio.ByteBuffer;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.metrics.ModbusMetrics;
+import net.wimpi.modbus.procimg.BulkProcessImage;
+import net.wimpi.modbus.procimg.ChangeNotifier;
+import net.wimpi.modbus.procimg.IllegalAddressException;
+import net.wimpi.modbus.procimg.ProcessImage;
+import net.wimpi.modbus.util.BitVector;
+
+/**
+ * Class that serves Modbus/TCP request frames directly from the process image
+ * of its <tt>ModbusContext</tt> (or the image registered for the unit of the
+ * request), without creating message objects.
+ * <p>
+ * The function codes implemented by the <tt>ModbusRequest</tt> classes (1, 2,
+ * 3, 4, 5, 6, 15 and 16) are decoded and encoded in place, using
+ * {@link ModbusFrame} views on the request and response buffers. If the
+ * process image implements <tt>BulkProcessImage</tt>, ranges are copied in
+ * bulk. All other function codes are answered with an illegal function
+ * exception, as done by <tt>IllegalFunctionRequest</tt>.
+ * <p>
+ * Instances hold reusable scratch state and are not thread safe; use one
+ * instance per connection. If a <tt>ModbusMetrics</tt> instance is set, the
+ * time spent processing each frame is recorded as its latency.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusFrameProcessor {
+
+	private final ModbusFrame m_Response = new ModbusFrame(null);
+	private final BitVector m_Bits = new BitVector(Modbus.MAX_BITS);
+	// stages register ranges of direct buffers for bulk process images
+	private final byte[] m_Scratch = new byte[2 * Modbus.MAX_REGISTERS];
+	private ModbusMetrics m_Metrics;
+	private ModbusContext m_Context = ModbusCoupler.getReference();
+
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the frames processed by this
+	 * <tt>ModbusFrameProcessor</tt>.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusFrameProcessor</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this <tt>ModbusFrameProcessor</tt>
+	 * serves requests from.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this
+	 * <tt>ModbusFrameProcessor</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
+	/**
+	 * Processes the given request frame and appends the response frame to the
+	 * given buffer, starting at its position. The position is advanced past
+	 * the response.
+	 *
+	 * @param request
+	 *            the <tt>ModbusFrame</tt> holding a complete request.
+	 * @param out
+	 *            the <tt>ByteBuffer</tt> receiving the response; it must have
+	 *            room for <tt>Modbus.MAX_IP_MESSAGE_LENGTH</tt> bytes.
+	 */
+	public void process(ModbusFrame request, ByteBuffer out) {
+		long start = (m_Metrics != null) ? System.nanoTime() : 0;
+		ModbusFrame response = m_Response.wrap(out, out.position());
+		int fc = request.getFunctionCode();
+		int code;
+
+		if (Modbus.debug)
+			System.out.println("Request:" + request.toHex());
+
+		ModbusContext context = m_Context;
+		ProcessImage procimg = context.getProcessImage(request.getUnitID());
+		if (procimg == null) {
+			code = (context.isMultiUnit())
+					? Modbus.GATEWAY_TARGET_FAILED_EXCEPTION
+					: Modbus.ILLEGAL_FUNCTION_EXCEPTION;
+		} else if (request.getDataLength() < 6) {
+			// too short for any of the standard requests
+			code = (isSupported(fc)) ? Modbus.ILLEGAL_VALUE_EXCEPTION
+					: Modbus.ILLEGAL_FUNCTION_EXCEPTION;
+		} else {
+			try {
+				switch (fc) {
+				case Modbus.READ_COILS:
+				case Modbus.READ_INPUT_DISCRETES:
+					code = readBits(procimg, request, response);
+					break;
+				case Modbus.READ_MULTIPLE_REGISTERS:
+				case Modbus.READ_INPUT_REGISTERS:
+					code = readRegisters(procimg, request, response);
+					break;
+				case Modbus.WRITE_COIL:
+					code = writeCoil(procimg, request, response);
+					break;
+				case Modbus.WRITE_SINGLE_REGISTER:
+					code = writeRegister(procimg, request, response);
+					break;
+				case Modbus.WRITE_MULTIPLE_COILS:
+					code = writeCoils(procimg, request, response);
+					break;
+				case Modbus.WRITE_MULTIPLE_REGISTERS:
+					code = writeRegisters(procimg, request, response);
+					break;
+				default:
+					code = Modbus.ILLEGAL_FUNCTION_EXCEPTION;
+				}
+			} catch (IllegalAddressException iaex) {
+				code = Modbus.ILLEGAL_ADDRESS_EXCEPTION;
+			}
+		}
+		if (code != 0) {
+			response.encodeException(request.getTransactionID(), request
+					.getUnitID(), fc, code);
+		}
+		response.setProtocolID(request.getProtocolID());
+
+		if (Modbus.debug)
+			System.out.println("Response:" + response.toHex());
+		out.position(out.position() + response.getFrameLength());
+		if (m_Metrics != null) {
+			m_Metrics.transactionCompleted(request.getUnitID(), fc, code,
+					System.nanoTime() - start, request.getFrameLength(),
+					response.getFrameLength());
+		}
+	}// process
+
+	private int readBits(ProcessImage procimg, ModbusFrame request,
+			ModbusFrame response) throws IllegalAddressException {
+		int ref = request.getReference();
+		int count = request.getCount();
+		boolean coils = request.getFunctionCode() == Modbus.READ_COILS;
+		if (count < 1 || count > Modbus.MAX_BITS) {
+			return Modbus.ILLEGAL_VALUE_EXCEPTION;
+		}
+		if (ref + count > ((coils) ? procimg.getDigitalOutCount() : procimg
+				.getDigitalInCount())) {
+			return Modbus.ILLEGAL_ADDRESS_EXCEPTION;
+		}
+		int bytes = (count + 7) / 8;
+		response.setHeader(request.getTransactionID(), request.getUnitID(),
+				request.getFunctionCode(), 3 + bytes);
+		response.putByte(0, bytes);
+		if (procimg instanceof BulkProcessImage) {
+			BulkProcessImage bulk = (BulkProcessImage) procimg;
+			m_Bits.forceSize(count);
+			if (coils) {
+				bulk.readDigitalOuts(ref, count, m_Bits);
+			} else {
+				bulk.readDigitalIns(ref, count, m_Bits);
+			}
+			byte[] data = m_Bits.getBytes();
+			for (int i = 0; i < bytes; i++) {
+				response.putByte(1 + i, data[i]);
+			}
+		} else {
+			for (int i = 0; i < bytes; i++) {
+				int b = 0;
+				for (int j = 0, n = Math.min(8, count - i * 8); j < n; j++) {
+					int r = ref + i * 8 + j;
+					boolean set = (coils) ? procimg.getDigitalOut(r).isSet()
+							: procimg.getDigitalIn(r).isSet();
+					if (set) {
+						b |= 1 << j;
+					}
+				}
+				response.putByte(1 + i, b);
+			}
+		}
+		return 0;
+	}// readBits
+
+	private int readRegisters(ProcessImage procimg, ModbusFrame request,
+			ModbusFrame response) throws IllegalAddressException {
+		int ref = request.getReference();
+		int count = request.getCount();
+		boolean holding = request.getFunctionCode() == Modbus.READ_MULTIPLE_REGISTERS;
+		if (count < 1 || count > Modbus.MAX_REGISTERS) {
+			return Modbus.ILLEGAL_VALUE_EXCEPTION;
+		}
+		if (ref + count > ((holding) ? procimg.getRegisterCount() : procimg
+				.getInputRegisterCount())) {
+			return Modbus.ILLEGAL_ADDRESS_EXCEPTION;
+		}
+		response.setHeader(request.getTransactionID(), request.getUnitID(),
+				request.getFunctionCode(), 3 + 2 * count);
+		response.putByte(0, 2 * count);
+		ByteBuffer buf = response.getBuffer();
+		if (procimg instanceof BulkProcessImage) {
+			BulkProcessImage bulk = (BulkProcessImage) procimg;
+			int idx = response.getOffset() + ModbusFrame.HEADER_LENGTH + 1;
+			byte[] data = (buf.hasArray()) ? buf.array() : m_Scratch;
+			int off = (buf.hasArray()) ? buf.arrayOffset() + idx : 0;
+			if (holding) {
+				bulk.readRegisters(ref, count, data, off);
+			} else {
+				bulk.readInputRegisters(ref, count, data, off);
+			}
+			if (!buf.hasArray()) {
+				copy(m_Scratch, buf, idx, 2 * count);
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				int v = (holding) ? procimg.getRegister(ref + i).getValue()
+						: procimg.getInputRegister(ref + i).getValue();
+				response.putShort(1 + 2 * i, v);
+			}
+		}
+		return 0;
+	}// readRegisters
+
+	private int writeCoil(ProcessImage procimg, ModbusFrame request,
+			ModbusFrame response) throws IllegalAddressException {
+		int value = request.getCount();
+		if (value != 0xff00 && value != 0) {
+			return Modbus.ILLEGAL_VALUE_EXCEPTION;
+		}
+		procimg.getDigitalOut(request.getReference()).set(value != 0);
+		echo(request, response, 4);
+		return 0;
+	}// writeCoil
+
+	private int writeRegister(ProcessImage procimg, ModbusFrame request,
+			ModbusFrame response) throws IllegalAddressException {
+		procimg.getRegister(request.getReference()).setValue(
+				request.getCount());
+		echo(request, response, 4);
+		return 0;
+	}// writeRegister
+
+	private int writeCoils(ProcessImage procimg, ModbusFrame request,
+			ModbusFrame response) throws IllegalAddressException {
+		int ref = request.getReference();
+		int count = request.getCount();
+		int bytes = request.getUnsignedByte(4);
+		if (count < 1 || count > Modbus.MAX_BITS || bytes != (count + 7) / 8
+				|| request.getDataLength() < 7 + bytes) {
+			return Modbus.ILLEGAL_VALUE_EXCEPTION;
+		}
+		if (ref + count > procimg.getDigitalOutCount()) {
+			return Modbus.ILLEGAL_ADDRESS_EXCEPTION;
+		}
+		if (procimg instanceof BulkProcessImage) {
+			byte[] data = m_Bits.getBytes();
+			for (int i = 0; i < bytes; i++) {
+				data[i] = (byte) request.getUnsignedByte(5 + i);
+			}
+			m_Bits.forceSize(count);
+			((BulkProcessImage) procimg).writeDigitalOuts(ref, m_Bits);
+		} else {
+			ChangeNotifier.beginBatch();
+			try {
+				for (int i = 0; i < count; i++) {
+					int bits = request.getUnsignedByte(5 + (i >>> 3));
+					procimg.getDigitalOut(ref + i).set(
+							(bits & (1 << (i & 7))) != 0);
+				}
+			} finally {
+				ChangeNotifier.endBatch();
+			}
+		}
+		echo(request, response, 4);
+		return 0;
+	}// writeCoils
+
+	private int writeRegisters(ProcessImage procimg, ModbusFrame request,
+			ModbusFrame response) throws IllegalAddressException {
+		int ref = request.getReference();
+		int count = request.getCount();
+		int bytes = request.getUnsignedByte(4);
+		if (count < 1 || count > Modbus.MAX_WRITE_REGISTERS
+				|| bytes != 2 * count
+				|| request.getDataLength() < 7 + bytes) {
+			return Modbus.ILLEGAL_VALUE_EXCEPTION;
+		}
+		if (ref + count > procimg.getRegisterCount()) {
+			return Modbus.ILLEGAL_ADDRESS_EXCEPTION;
+		}
+		ByteBuffer buf = request.getBuffer();
+		if (procimg instanceof BulkProcessImage) {
+			int idx = request.getOffset() + ModbusFrame.HEADER_LENGTH + 5;
+			byte[] data = m_Scratch;
+			int off = 0;
+			if (buf.hasArray()) {
+				data = buf.array();
+				off = buf.arrayOffset() + idx;
+			} else {
+				copy(buf, idx, m_Scratch, 2 * count);
+			}
+			((BulkProcessImage) procimg).writeRegisters(ref, data, off, count);
+		} else {
+			ChangeNotifier.beginBatch();
+			try {
+				for (int i = 0; i < count; i++) {
+					procimg.getRegister(ref + i).setValue(
+							request.getUnsignedShort(5 + 2 * i));
+				}
+			} finally {
+				ChangeNotifier.endBatch();
+			}
+		}
+		echo(request, response, 4);
+		return 0;
+	}// writeRegisters
+
+	/**
+	 * Copies the header and the first data bytes of the request into the
+	 * response.
+	 */
+	private void echo(ModbusFrame request, ModbusFrame response, int length) {
+		response.setHeader(request.getTransactionID(), request.getUnitID(),
+				request.getFunctionCode(), 2 + length);
+		for (int i = 0; i < length; i++) {
+			response.putByte(i, request.getUnsignedByte(i));
+		}
+	}// echo
+
+	/**
+	 * Copies bytes into a buffer at the given index, leaving its position
+	 * untouched.
+	 */
+	private static void copy(byte[] src, ByteBuffer dst, int idx, int len) {
+		int pos = dst.position();
+		dst.position(idx);
+		dst.put(src, 0, len);
+		dst.position(pos);
+	}// copy
+
+	/**
+	 * Copies bytes from a buffer at the given index, leaving its position
+	 * untouched.
+	 */
+	private static void copy(ByteBuffer src, int idx, byte[] dst, int len) {
+		int pos = src.position();
+		src.position(idx);
+		src.get(dst, 0, len);
+		src.position(pos);
+	}// copy
+
+	private static boolean isSupported(int fc) {
+		switch (fc) {
+		case Modbus.READ_COILS:
+		case Modbus.READ_INPUT_DISCRETES:
+		case Modbus.READ_MULTIPLE_REGISTERS:
+		case Modbus.READ_INPUT_REGISTERS:
+		case Modbus.WRITE_COIL:
+		case Modbus.WRITE_SINGLE_REGISTER:
+		case Modbus.WRITE_MULTIPLE_COILS:
+		case Modbus.WRITE_MULTIPLE_REGISTERS:
+			return true;
+		default:
+			return false;
+		}
+	}// isSupported
+
+}// class ModbusFrameProcessor
@@ -24,6 +24,8 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.util.ModbusUtil;
 
 /**
@@ -44,6 +46,31 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
 	private int m_Reference = 0;
 	private boolean m_Headless = false; // flag for headerless (serial)
 										// transport
+	private ModbusContext m_Context;
+
+	/*** Context *****************************************/
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this message is decoded and served
+	 * with. Transports set the context of the messages they read.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>, or null to use the
+	 *            <tt>ModbusCoupler</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this message.
+	 * 
+	 * @return the <tt>ModbusContext</tt> set, or the <tt>ModbusCoupler</tt>
+	 *         if none was set.
+	 */
+	public ModbusContext getContext() {
+		return (m_Context != null) ? m_Context : ModbusCoupler.getReference();
+	}// getContext
 
 	/*** Header ******************************************/
 
@@ -66,7 +93,7 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
 	 * @param b
 	 *            true if headless, false otherwise.
 	 */
-	protected void setHeadless(boolean b) {
+	public void setHeadless(boolean b) {
 		m_Headless = b;
 	}// setHeadless
 
@@ -230,7 +257,8 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
 	public abstract void readData(DataInput din) throws IOException;
 
 	public int getOutputLength() {
-		int l = 2 + getDataLength();
+		// the data length already includes unit identifier and function code
+		int l = getDataLength();
 		if (!isHeadless()) {
 			l = l + 6;
 		}
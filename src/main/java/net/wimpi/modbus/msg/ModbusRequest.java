@@ -20,6 +20,7 @@
 package net.wimpi.modbus.msg;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.procimg.ProcessImage;
 
 /**
  * Abstract class implementing a <tt>ModbusRequest</tt>. This class provides
@@ -52,6 +53,24 @@ public abstract class ModbusRequest extends ModbusMessageImpl {
 	 */
 	public abstract ModbusResponse createResponse();
 
+	/**
+	 * Returns the <tt>ModbusResponse</tt> that represents the answer to this
+	 * <tt>ModbusRequest</tt>, served from the given process image instead of
+	 * the one set with the <tt>ModbusCoupler</tt>.
+	 * <p>
+	 * Slaves serving several units use this method to answer each request
+	 * from the image registered for its unit identifier. The default
+	 * implementation ignores the image and delegates to
+	 * {@link #createResponse()}.
+	 * 
+	 * @param procimg
+	 *            the <tt>ProcessImage</tt> to serve the request from.
+	 * @return the corresponding <tt>ModbusResponse</tt>.
+	 */
+	public ModbusResponse createResponse(ProcessImage procimg) {
+		return createResponse();
+	}// createResponse
+
 	/**
 	 * Factory method for creating exception responses with the given exception
 	 * code.
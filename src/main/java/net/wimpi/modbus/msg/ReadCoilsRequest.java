@@ -24,7 +24,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.procimg.BulkProcessImage;
 import net.wimpi.modbus.procimg.DigitalOut;
 import net.wimpi.modbus.procimg.IllegalAddressException;
 import net.wimpi.modbus.procimg.ProcessImage;
@@ -75,19 +75,31 @@ public final class ReadCoilsRequest extends ModbusRequest {
 	}// constructor
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		ReadCoilsResponse response = null;
 		DigitalOut[] douts = null;
 
-		// 1. get process image
-		ProcessImage procimg = ModbusCoupler.getReference().getProcessImage();
-		// 2. get coil range
+		// 1. get coil range
 		try {
-			douts = procimg.getDigitalOutRange(this.getReference(),
-					this.getBitCount());
+			if (procimg instanceof BulkProcessImage) {
+				response = new ReadCoilsResponse(this.getBitCount());
+				((BulkProcessImage) procimg).readDigitalOuts(
+						this.getReference(), this.getBitCount(),
+						response.getCoils());
+			} else {
+				douts = procimg.getDigitalOutRange(this.getReference(),
+						this.getBitCount());
+				response = new ReadCoilsResponse(douts.length);
+				for (int i = 0; i < douts.length; i++) {
+					response.setCoilStatus(i, douts[i].isSet());
+				}
+			}
 		} catch (IllegalAddressException iaex) {
 			return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
 		}
-		response = new ReadCoilsResponse(douts.length);
 
 		// transfer header data
 		if (!isHeadless()) {
@@ -100,9 +112,6 @@ public final class ReadCoilsRequest extends ModbusRequest {
 		response.setFunctionCode(this.getFunctionCode());
 		response.setReference(m_Reference);
 
-		for (int i = 0; i < douts.length; i++) {
-			response.setCoilStatus(i, douts[i].isSet());
-		}
 		return response;
 	}// createResponse
 
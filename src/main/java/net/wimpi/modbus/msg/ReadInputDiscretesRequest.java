@@ -24,7 +24,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.procimg.BulkProcessImage;
 import net.wimpi.modbus.procimg.DigitalIn;
 import net.wimpi.modbus.procimg.IllegalAddressException;
 import net.wimpi.modbus.procimg.ProcessImage;
@@ -82,19 +82,31 @@ public final class ReadInputDiscretesRequest extends ModbusRequest {
 	 */
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		ReadInputDiscretesResponse response = null;
 		DigitalIn[] dins = null;
 
-		// 1. get process image
-		ProcessImage procimg = ModbusCoupler.getReference().getProcessImage();
-		// 2. get inputdiscretes range
+		// 1. get inputdiscretes range
 		try {
-			dins = procimg.getDigitalInRange(this.getReference(),
-					this.getBitCount());
+			if (procimg instanceof BulkProcessImage) {
+				response = new ReadInputDiscretesResponse(this.getBitCount());
+				((BulkProcessImage) procimg).readDigitalIns(
+						this.getReference(), this.getBitCount(),
+						response.getDiscretes());
+			} else {
+				dins = procimg.getDigitalInRange(this.getReference(),
+						this.getBitCount());
+				response = new ReadInputDiscretesResponse(dins.length);
+				for (int i = 0; i < dins.length; i++) {
+					response.setDiscreteStatus(i, dins[i].isSet());
+				}
+			}
 		} catch (IllegalAddressException iaex) {
 			return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
 		}
-		response = new ReadInputDiscretesResponse(dins.length);
 		// transfer header data
 		if (!isHeadless()) {
 			response.setTransactionID(this.getTransactionID());
@@ -106,9 +118,6 @@ public final class ReadInputDiscretesRequest extends ModbusRequest {
 		response.setFunctionCode(this.getFunctionCode());
 		response.setReference(m_Reference);
 
-		for (int i = 0; i < dins.length; i++) {
-			response.setDiscreteStatus(i, dins[i].isSet());
-		}
 		return response;
 	}// createResponse
 
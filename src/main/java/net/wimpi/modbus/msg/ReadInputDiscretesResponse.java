@@ -146,7 +146,7 @@ public final class ReadInputDiscretesResponse extends ModbusResponse {
 
 		// decode bytes into bitvector
 		m_Discretes = BitVector.createBitVector(data);
-		m_BitCount = count;
+		m_BitCount = m_Discretes.size();
 
 		// update data length
 		setDataLength(count + 1);
@@ -24,7 +24,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.procimg.BulkProcessImage;
 import net.wimpi.modbus.procimg.IllegalAddressException;
 import net.wimpi.modbus.procimg.InputRegister;
 import net.wimpi.modbus.procimg.ProcessImage;
@@ -73,19 +73,31 @@ public final class ReadInputRegistersRequest extends ModbusRequest {
 	}// constructor
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		ReadInputRegistersResponse response = null;
 		InputRegister[] inpregs = null;
 
-		// 1. get process image
-		ProcessImage procimg = ModbusCoupler.getReference().getProcessImage();
-		// 2. get input registers range
+		// 1. get input registers range
 		try {
-			inpregs = procimg.getInputRegisterRange(this.getReference(),
-					this.getWordCount());
+			if (procimg instanceof BulkProcessImage) {
+				// the values are copied when the response is written
+				BulkProcessImage bulk = (BulkProcessImage) procimg;
+				if (!bulk.hasInputRegisters(getReference(), getWordCount())) {
+					throw new IllegalAddressException();
+				}
+				response = new ReadInputRegistersResponse(bulk,
+						getReference(), getWordCount());
+			} else {
+				inpregs = procimg.getInputRegisterRange(this.getReference(),
+						this.getWordCount());
+				response = new ReadInputRegistersResponse(inpregs);
+			}
 		} catch (IllegalAddressException iaex) {
 			return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
 		}
-		response = new ReadInputRegistersResponse(inpregs);
 		// transfer header data
 		if (!isHeadless()) {
 			response.setTransactionID(this.getTransactionID());
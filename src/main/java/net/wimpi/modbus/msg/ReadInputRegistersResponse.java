@@ -19,9 +19,10 @@
 
 package net.wimpi.modbus.msg;
 
+import net.wimpi.modbus.io.BytesOutputStream;
+import net.wimpi.modbus.procimg.BulkProcessImage;
 import net.wimpi.modbus.procimg.InputRegister;
 import net.wimpi.modbus.procimg.ProcessImageFactory;
-import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.Modbus;
 
 import java.io.DataInput;
@@ -42,6 +43,11 @@ public final class ReadInputRegistersResponse extends ModbusResponse {
 	private int m_ByteCount;
 	// private int[] m_RegisterValues;
 	private InputRegister[] m_Registers;
+	// raw register data, if not backed by register instances
+	private byte[] m_Data;
+	// image the values are copied from when written, if not read yet
+	private BulkProcessImage m_Image;
+	private int m_ImageRef;
 
 	/**
 	 * Constructs a new <tt>ReadInputRegistersResponse</tt> instance.
@@ -66,6 +72,53 @@ public final class ReadInputRegistersResponse extends ModbusResponse {
 		setDataLength(m_ByteCount + 1);
 	}// constructor
 
+	/**
+	 * Constructs a new <tt>ReadInputRegistersResponse</tt> instance from raw
+	 * register data.<br>
+	 * The <tt>InputRegister</tt> instances are only created if requested
+	 * through {@link #getRegisters()}.
+	 * 
+	 * @param data
+	 *            the register values as <tt>byte[]</tt>, two bytes per
+	 *            register.
+	 */
+	public ReadInputRegistersResponse(byte[] data) {
+		super();
+		m_Data = data;
+		m_ByteCount = data.length;
+		setFunctionCode(Modbus.READ_INPUT_REGISTERS);
+		// set correct data length excluding unit id and fc
+		setDataLength(m_ByteCount + 1);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ReadInputRegistersResponse</tt> instance that
+	 * samples a range of input registers when it is sent.<br>
+	 * Nothing is read from the process image here; the input register
+	 * values are copied when the response is written, straight into the
+	 * buffer of a <tt>BytesOutputStream</tt> through
+	 * {@link BulkProcessImage#readInputRegisters(int, int, byte[], int)}.
+	 * Calling {@link #getRegisters()} or {@link #getRegisterValue(int)}
+	 * before samples them once and keeps that copy.
+	 * 
+	 * @param procimg
+	 *            the <tt>BulkProcessImage</tt> holding the input registers.
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param count
+	 *            the number of registers.
+	 */
+	public ReadInputRegistersResponse(BulkProcessImage procimg, int ref,
+			int count) {
+		super();
+		m_Image = procimg;
+		m_ImageRef = ref;
+		m_ByteCount = count * 2;
+		setFunctionCode(Modbus.READ_INPUT_REGISTERS);
+		// set correct data length excluding unit id and fc
+		setDataLength(m_ByteCount + 1);
+	}// constructor
+
 	/**
 	 * Returns the number of bytes that have been read.
 	 * <p/>
@@ -115,7 +168,7 @@ public final class ReadInputRegistersResponse extends ModbusResponse {
 		if (index >= getWordCount()) {
 			throw new IndexOutOfBoundsException();
 		} else {
-			return m_Registers[index];
+			return getRegisters()[index];
 		}
 	}// getRegister
 
@@ -132,9 +185,12 @@ public final class ReadInputRegistersResponse extends ModbusResponse {
 	 *             if the index is out of bounds.
 	 */
 	public int getRegisterValue(int index) throws IndexOutOfBoundsException {
-
+		snapshot();
 		if (index >= getWordCount()) {
 			throw new IndexOutOfBoundsException();
+		} else if (m_Registers == null && m_Data != null) {
+			return ((m_Data[2 * index] & 0xff) << 8)
+					| (m_Data[2 * index + 1] & 0xff);
 		} else {
 			return m_Registers[index].toUnsignedShort();
 		}
@@ -146,31 +202,64 @@ public final class ReadInputRegistersResponse extends ModbusResponse {
 	 * @return a <tt>InputRegister[]</tt> instance.
 	 */
 	public InputRegister[] getRegisters() {
+		snapshot();
+		if (m_Registers == null && m_Data != null) {
+			InputRegister[] regs = new InputRegister[getWordCount()];
+			ProcessImageFactory pimf = getContext().getProcessImageFactory();
+			for (int k = 0; k < regs.length; k++) {
+				regs[k] = pimf.createInputRegister(m_Data[2 * k],
+						m_Data[2 * k + 1]);
+			}
+			m_Registers = regs;
+		}
 		return m_Registers;
 	}// getRegisters
 
 	public void writeData(DataOutput dout) throws IOException {
 		dout.writeByte(m_ByteCount);
+		if (m_Image != null && dout instanceof BytesOutputStream) {
+			BytesOutputStream bout = (BytesOutputStream) dout;
+			int off = bout.reserve(m_ByteCount);
+			m_Image.readInputRegisters(m_ImageRef, getWordCount(),
+					bout.getBuffer(), off);
+			return;
+		}
+		snapshot();
+		if (m_Data != null) {
+			dout.write(m_Data, 0, m_ByteCount);
+			return;
+		}
 		for (int k = 0; k < getWordCount(); k++) {
-			dout.write(m_Registers[k].toBytes());
+			dout.writeShort(m_Registers[k].toUnsignedShort());
 		}
 	}// writeData
 
 	public void readData(DataInput din) throws IOException {
 		setByteCount(din.readUnsignedByte());
-
-		InputRegister[] registers = new InputRegister[getWordCount()];
-		ProcessImageFactory pimf = ModbusCoupler.getReference()
-				.getProcessImageFactory();
-		for (int k = 0; k < getWordCount(); k++) {
-			registers[k] = pimf.createInputRegister(din.readByte(),
-					din.readByte());
+		// keep the raw values, registers are created on demand
+		if (m_Data == null || m_Data.length != getByteCount()) {
+			m_Data = new byte[getByteCount()];
 		}
-		m_Registers = registers;
+		din.readFully(m_Data);
+		m_Registers = null;
+		m_Image = null;
+
 		// update data length
 		setDataLength(getByteCount() + 1);
 	}// readData
 
+	/**
+	 * Copies the values from the process image, if not done yet.
+	 */
+	private void snapshot() {
+		if (m_Image != null) {
+			byte[] data = new byte[m_ByteCount];
+			m_Image.readInputRegisters(m_ImageRef, getWordCount(), data, 0);
+			m_Data = data;
+			m_Image = null;
+		}
+	}// snapshot
+
 	public String toString() {
 		return "ReadInputRegisterResponse - Words: " + getWordCount();
 	}
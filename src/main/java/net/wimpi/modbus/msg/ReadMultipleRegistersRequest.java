@@ -24,7 +24,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.procimg.BulkProcessImage;
 import net.wimpi.modbus.procimg.IllegalAddressException;
 import net.wimpi.modbus.procimg.ProcessImage;
 import net.wimpi.modbus.procimg.Register;
@@ -73,19 +73,31 @@ public final class ReadMultipleRegistersRequest extends ModbusRequest {
 	}// constructor
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		ReadMultipleRegistersResponse response = null;
 		Register[] regs = null;
 
-		// 1. get process image
-		ProcessImage procimg = ModbusCoupler.getReference().getProcessImage();
-		// 2. get input registers range
+		// 1. get registers range
 		try {
-			regs = procimg.getRegisterRange(this.getReference(),
-					this.getWordCount());
+			if (procimg instanceof BulkProcessImage) {
+				// the values are copied when the response is written
+				BulkProcessImage bulk = (BulkProcessImage) procimg;
+				if (!bulk.hasRegisters(getReference(), getWordCount())) {
+					throw new IllegalAddressException();
+				}
+				response = new ReadMultipleRegistersResponse(bulk,
+						getReference(), getWordCount());
+			} else {
+				regs = procimg.getRegisterRange(this.getReference(),
+						this.getWordCount());
+				response = new ReadMultipleRegistersResponse(regs);
+			}
 		} catch (IllegalAddressException iaex) {
 			return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
 		}
-		response = new ReadMultipleRegistersResponse(regs);
 		// transfer header data
 		if (!isHeadless()) {
 			response.setTransactionID(this.getTransactionID());
@@ -23,9 +23,10 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import net.wimpi.modbus.io.BytesOutputStream;
+import net.wimpi.modbus.procimg.BulkProcessImage;
 import net.wimpi.modbus.procimg.Register;
 import net.wimpi.modbus.procimg.ProcessImageFactory;
-import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.Modbus;
 
 /**
@@ -41,6 +42,11 @@ public final class ReadMultipleRegistersResponse extends ModbusResponse {
 	// instance attributes
 	private int m_ByteCount;
 	private Register[] m_Registers;
+	// raw register data, if not backed by register instances
+	private byte[] m_Data;
+	// image the values are copied from when written, if not read yet
+	private BulkProcessImage m_Image;
+	private int m_ImageRef;
 
 	/**
 	 * Constructs a new <tt>ReadMultipleRegistersResponse</tt> instance.
@@ -65,6 +71,53 @@ public final class ReadMultipleRegistersResponse extends ModbusResponse {
 		setDataLength(m_ByteCount + 1);
 	}// constructor
 
+	/**
+	 * Constructs a new <tt>ReadMultipleRegistersResponse</tt> instance from raw
+	 * register data.<br>
+	 * The <tt>Register</tt> instances are only created if requested
+	 * through {@link #getRegisters()}.
+	 * 
+	 * @param data
+	 *            the register values as <tt>byte[]</tt>, two bytes per
+	 *            register.
+	 */
+	public ReadMultipleRegistersResponse(byte[] data) {
+		super();
+		m_Data = data;
+		m_ByteCount = data.length;
+		setFunctionCode(Modbus.READ_MULTIPLE_REGISTERS);
+		// set correct data length excluding unit id and fc
+		setDataLength(m_ByteCount + 1);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ReadMultipleRegistersResponse</tt> instance
+	 * for a range of holding registers, without reading them yet.<br>
+	 * The register values are copied from the process image only when the
+	 * response is written, so writes by other masters handled meanwhile are
+	 * included. A <tt>BytesOutputStream</tt> receives them in place through
+	 * {@link BulkProcessImage#readRegisters(int, int, byte[], int)}; calling
+	 * {@link #getRegisters()} or {@link #getRegisterValue(int)} earlier
+	 * fixes the values at that point.
+	 * 
+	 * @param procimg
+	 *            the <tt>BulkProcessImage</tt> holding the registers.
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param count
+	 *            the number of registers.
+	 */
+	public ReadMultipleRegistersResponse(BulkProcessImage procimg, int ref,
+			int count) {
+		super();
+		m_Image = procimg;
+		m_ImageRef = ref;
+		m_ByteCount = count * 2;
+		setFunctionCode(Modbus.READ_MULTIPLE_REGISTERS);
+		// set correct data length excluding unit id and fc
+		setDataLength(m_ByteCount + 1);
+	}// constructor
+
 	/**
 	 * Returns the number of bytes that have been read.
 	 * <p>
@@ -113,6 +166,14 @@ public final class ReadMultipleRegistersResponse extends ModbusResponse {
 	 *             if the index is out of bounds.
 	 */
 	public int getRegisterValue(int index) throws IndexOutOfBoundsException {
+		snapshot();
+		if (m_Registers == null && m_Data != null) {
+			if (index >= getWordCount()) {
+				throw new IndexOutOfBoundsException();
+			}
+			return ((m_Data[2 * index] & 0xff) << 8)
+					| (m_Data[2 * index + 1] & 0xff);
+		}
 		return m_Registers[index].toUnsignedShort();
 	}// getRegisterValue
 
@@ -134,7 +195,7 @@ public final class ReadMultipleRegistersResponse extends ModbusResponse {
 		if (index >= getWordCount()) {
 			throw new IndexOutOfBoundsException();
 		} else {
-			return m_Registers[index];
+			return getRegisters()[index];
 		}
 	}// getRegister
 
@@ -144,32 +205,63 @@ public final class ReadMultipleRegistersResponse extends ModbusResponse {
 	 * @return a <tt>Register[]</tt> instance.
 	 */
 	public Register[] getRegisters() {
+		snapshot();
+		if (m_Registers == null && m_Data != null) {
+			Register[] regs = new Register[getWordCount()];
+			ProcessImageFactory pimf = getContext().getProcessImageFactory();
+			for (int k = 0; k < regs.length; k++) {
+				regs[k] = pimf.createRegister(m_Data[2 * k], m_Data[2 * k + 1]);
+			}
+			m_Registers = regs;
+		}
 		return m_Registers;
 	}// getRegisters
 
 	public void writeData(DataOutput dout) throws IOException {
 		dout.writeByte(m_ByteCount);
+		if (m_Image != null && dout instanceof BytesOutputStream) {
+			BytesOutputStream bout = (BytesOutputStream) dout;
+			int off = bout.reserve(m_ByteCount);
+			m_Image.readRegisters(m_ImageRef, getWordCount(),
+					bout.getBuffer(), off);
+			return;
+		}
+		snapshot();
+		if (m_Data != null) {
+			dout.write(m_Data, 0, m_ByteCount);
+			return;
+		}
 		for (int k = 0; k < getWordCount(); k++) {
-			dout.write(m_Registers[k].toBytes());
+			dout.writeShort(m_Registers[k].toUnsignedShort());
 		}
 	}// writeData
 
 	public void readData(DataInput din) throws IOException {
 		setByteCount(din.readUnsignedByte());
-
-		m_Registers = new Register[getWordCount()];
-		ProcessImageFactory pimf = ModbusCoupler.getReference()
-				.getProcessImageFactory();
-
-		for (int k = 0; k < getWordCount(); k++) {
-			m_Registers[k] = pimf
-					.createRegister(din.readByte(), din.readByte());
+		// keep the raw values, registers are created on demand
+		if (m_Data == null || m_Data.length != getByteCount()) {
+			m_Data = new byte[getByteCount()];
 		}
+		din.readFully(m_Data);
+		m_Registers = null;
+		m_Image = null;
 
 		// update data length
 		setDataLength(getByteCount() + 1);
 	}// readData
 
+	/**
+	 * Copies the values from the process image, if not done yet.
+	 */
+	private void snapshot() {
+		if (m_Image != null) {
+			byte[] data = new byte[m_ByteCount];
+			m_Image.readRegisters(m_ImageRef, getWordCount(), data, 0);
+			m_Data = data;
+			m_Image = null;
+		}
+	}// snapshot
+
 	public String toString() {
 		return "ReadMultipleRegistersResponse - Words: " + getWordCount();
 	}
@@ -24,7 +24,6 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.procimg.DigitalOut;
 import net.wimpi.modbus.procimg.IllegalAddressException;
 import net.wimpi.modbus.procimg.ProcessImage;
@@ -73,15 +72,17 @@ public final class WriteCoilRequest extends ModbusRequest {
 	}// constructor
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		WriteCoilResponse response = null;
 		DigitalOut dout = null;
 
-		// 1. get process image
-		ProcessImage procimg = ModbusCoupler.getReference().getProcessImage();
-		// 2. get coil
+		// 1. get coil
 		try {
 			dout = procimg.getDigitalOut(this.getReference());
-			// 3. set coil
+			// 2. set coil
 			dout.set(this.getCoil());
 			// if(Modbus.debug)
 			// System.out.println("set coil ref="+this.getReference()+" state="
@@ -20,7 +20,8 @@
 package net.wimpi.modbus.msg;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.procimg.BulkProcessImage;
+import net.wimpi.modbus.procimg.ChangeNotifier;
 import net.wimpi.modbus.procimg.DigitalOut;
 import net.wimpi.modbus.procimg.IllegalAddressException;
 import net.wimpi.modbus.procimg.ProcessImage;
@@ -90,17 +91,30 @@ public final class WriteMultipleCoilsRequest extends ModbusRequest {
 	}// constructor
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		WriteMultipleCoilsResponse response = null;
 		DigitalOut douts[] = null;
 
-		// 1. get process image
-		ProcessImage procimg = ModbusCoupler.getReference().getProcessImage();
-		// 2. get coil range
+		// 1. get coil range
 		try {
-			douts = procimg.getDigitalOutRange(m_Reference, m_Coils.size());
-			// 3. set coils
-			for (int i = 0; i < douts.length; i++) {
-				douts[i].set(m_Coils.getBit(i));
+			if (procimg instanceof BulkProcessImage) {
+				((BulkProcessImage) procimg).writeDigitalOuts(m_Reference,
+						m_Coils);
+			} else {
+				douts = procimg.getDigitalOutRange(m_Reference,
+						m_Coils.size());
+				// 2. set coils, reporting the changes as one batch
+				ChangeNotifier.beginBatch();
+				try {
+					for (int i = 0; i < douts.length; i++) {
+						douts[i].set(m_Coils.getBit(i));
+					}
+				} finally {
+					ChangeNotifier.endBatch();
+				}
 			}
 		} catch (IllegalAddressException iaex) {
 			return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
@@ -24,7 +24,6 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.io.NonWordDataHandler;
 import net.wimpi.modbus.procimg.*;
 
@@ -70,27 +69,45 @@ public final class WriteMultipleRegistersRequest extends ModbusRequest {
 	}// constructor
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		WriteMultipleRegistersResponse response = null;
 
 		if (m_NonWordDataHandler == null) {
 			Register[] regs = null;
-			// 1. get process image
-			ProcessImage procimg = ModbusCoupler.getReference()
-					.getProcessImage();
-			// 2. get registers
+			// 1. get registers
 			try {
-				// TODO: realize a setRegisterRange()?
-				regs = procimg.getRegisterRange(this.getReference(),
-						this.getWordCount());
-				// 3. set Register values
-				for (int i = 0; i < regs.length; i++) {
-					regs[i].setValue(this.getRegister(i).toBytes());
+				if (procimg instanceof BulkProcessImage) {
+					// 2. set Register values in one go
+					byte[] data = new byte[this.getWordCount() * 2];
+					for (int i = 0; i < m_Registers.length; i++) {
+						int val = m_Registers[i].getValue();
+						data[2 * i] = (byte) (val >> 8);
+						data[2 * i + 1] = (byte) val;
+					}
+					((BulkProcessImage) procimg).writeRegisters(
+							this.getReference(), data, 0, m_Registers.length);
+				} else {
+					regs = procimg.getRegisterRange(this.getReference(),
+							this.getWordCount());
+					// 2. set Register values, reporting the changes as one
+					// batch
+					ChangeNotifier.beginBatch();
+					try {
+						for (int i = 0; i < regs.length; i++) {
+							regs[i].setValue(this.getRegister(i).toBytes());
+						}
+					} finally {
+						ChangeNotifier.endBatch();
+					}
 				}
 			} catch (IllegalAddressException iaex) {
 				return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
 			}
 			response = new WriteMultipleRegistersResponse(this.getReference(),
-					regs.length);
+					this.getWordCount());
 		} else {
 			int result = m_NonWordDataHandler.commitUpdate();
 			if (result > 0) {
@@ -269,8 +286,7 @@ public final class WriteMultipleRegistersRequest extends ModbusRequest {
 		// read values
 		if (m_NonWordDataHandler == null) {
 			m_Registers = new Register[wc];
-			ProcessImageFactory pimf = ModbusCoupler.getReference()
-					.getProcessImageFactory();
+			ProcessImageFactory pimf = getContext().getProcessImageFactory();
 			for (int i = 0; i < wc; i++) {
 				m_Registers[i] = pimf.createRegister(din.readByte(),
 						din.readByte());
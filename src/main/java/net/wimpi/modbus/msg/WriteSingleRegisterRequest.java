@@ -20,7 +20,6 @@
 package net.wimpi.modbus.msg;
 
 import net.wimpi.modbus.Modbus;
-import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.procimg.IllegalAddressException;
 import net.wimpi.modbus.procimg.ProcessImage;
 import net.wimpi.modbus.procimg.Register;
@@ -73,15 +72,17 @@ public final class WriteSingleRegisterRequest extends ModbusRequest {
 	}// constructor
 
 	public ModbusResponse createResponse() {
+		return createResponse(getContext().getProcessImage());
+	}// createResponse
+
+	public ModbusResponse createResponse(ProcessImage procimg) {
 		WriteSingleRegisterResponse response = null;
 		Register reg = null;
 
-		// 1. get process image
-		ProcessImage procimg = ModbusCoupler.getReference().getProcessImage();
-		// 2. get register
+		// 1. get register
 		try {
 			reg = procimg.getRegister(m_Reference);
-			// 3. set Register
+			// 2. set Register
 			reg.setValue(m_Register.toBytes());
 		} catch (IllegalAddressException iaex) {
 			return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
@@ -154,7 +155,7 @@ public final class WriteSingleRegisterRequest extends ModbusRequest {
 
 	public void readData(DataInput din) throws IOException {
 		m_Reference = din.readUnsignedShort();
-		m_Register = ModbusCoupler.getReference().getProcessImageFactory()
+		m_Register = getContext().getProcessImageFactory()
 				.createRegister(din.readByte(), din.readByte());
 	}// readData
 
@@ -0,0 +1,505 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.io.ModbusFrameDecoder;
+import net.wimpi.modbus.metrics.ModbusMetrics;
+import net.wimpi.modbus.msg.ModbusFrame;
+import net.wimpi.modbus.msg.ModbusFrameProcessor;
+
+/**
+ * Class that implements a non-blocking Modbus/TCP listener.<br>
+ * In contrast to the {@link ModbusTCPListener}, connections do not occupy a
+ * thread for their lifetime. Accepted channels are distributed over a small,
+ * fixed number of I/O threads, each multiplexing its channels with a
+ * <tt>Selector</tt>. MBAP frames are assembled incrementally per channel and
+ * handed to a {@link ModbusFrameProcessor} as soon as they are complete, so a single slave can serve a large number of mostly idle polling
+ * connections.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusNIOTCPListener implements Runnable {
+
+	private ServerSocketChannel m_ServerChannel = null;
+	private IOWorker[] m_Workers;
+	private int m_NextWorker = 0;
+	private Thread m_Listener;
+	private int m_Port = Modbus.DEFAULT_PORT;
+	private int m_FloodProtection = 50;
+	private final AtomicBoolean m_Listening;
+	private InetAddress m_Address = null;
+	private volatile ModbusMetrics m_Metrics;
+	private volatile ModbusContext m_Context = ModbusCoupler.getReference();
+
+	/**
+	 * Constructs a new <tt>ModbusNIOTCPListener</tt> instance.<br>
+	 *
+	 * @param iothreads
+	 *            the number of I/O threads used to serve the connections.
+	 */
+	public ModbusNIOTCPListener(int iothreads) {
+		this(iothreads, null);
+		try {
+			m_Address = InetAddress.getLocalHost();
+		} catch (UnknownHostException ex) {
+			if (Modbus.debug)
+				System.out.println("Couldn't get the local address: "
+						+ ex.toString());
+		}
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ModbusNIOTCPListener</tt> instance.<br>
+	 *
+	 * @param iothreads
+	 *            the number of I/O threads used to serve the connections.
+	 * @param addr
+	 *            the interface to use for listening.
+	 */
+	public ModbusNIOTCPListener(int iothreads, InetAddress addr) {
+		if (iothreads < 1) {
+			throw new IllegalArgumentException("At least one I/O thread.");
+		}
+		m_Listening = new AtomicBoolean(false);
+		m_Workers = new IOWorker[iothreads];
+		m_Address = addr;
+	}// constructor
+
+	/**
+	 * Sets the port to be listened to.
+	 *
+	 * @param port
+	 *            the number of the IP port as <tt>int</tt>.
+	 */
+	public void setPort(int port) {
+		m_Port = port;
+	}// setPort
+
+	/**
+	 * Returns the port this listener is bound to.
+	 *
+	 * @return the number of the IP port as <tt>int</tt>.
+	 */
+	public int getPort() {
+		return m_Port;
+	}// getPort
+
+	/**
+	 * Sets the address of the interface to be listened to.
+	 *
+	 * @param addr
+	 *            an <tt>InetAddress</tt> instance.
+	 */
+	public void setAddress(InetAddress addr) {
+		m_Address = addr;
+	}// setAddress
+
+	/**
+	 * Gets the address of the listening interface.
+	 *
+	 * @return The address of the listening interface.
+	 */
+	public InetAddress getAddress() {
+		return m_Address;
+	}// getAddress
+
+	/**
+	 * Sets the size of the backlog of pending connections of the server
+	 * socket. Takes effect on the next {@link #start()}.
+	 *
+	 * @param backlog
+	 *            the backlog as <tt>int</tt>.
+	 */
+	public void setBacklog(int backlog) {
+		m_FloodProtection = backlog;
+	}// setBacklog
+
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the requests served by this
+	 * <tt>ModbusNIOTCPListener</tt>. It applies to
+	 * connections accepted afterwards.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusNIOTCPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this <tt>ModbusNIOTCPListener</tt> serves
+	 * requests from. Connections accepted later are served from the new
+	 * context.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this <tt>ModbusNIOTCPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
+	/**
+	 * Starts this <tt>ModbusNIOTCPListener</tt>.
+	 */
+	public void start() {
+		m_Listening.set(true);
+		for (int i = 0; i < m_Workers.length; i++) {
+			try {
+				m_Workers[i] = new IOWorker();
+			} catch (IOException ex) {
+				System.err.println("Couldn't open selector:");
+				ex.printStackTrace();
+				m_Listening.set(false);
+				stopWorkers();
+				return;
+			}
+			Thread t = new Thread(m_Workers[i], "ModbusNIOTCPListener-io-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		m_Listener = new Thread(this, "ModbusNIOTCPListener-accept");
+		m_Listener.start();
+	}// start
+
+	/**
+	 * Stops this <tt>ModbusNIOTCPListener</tt>, closing all connections.
+	 */
+	public void stop() {
+		m_Listening.set(false);
+		if (m_ServerChannel != null) {
+			try {
+				m_ServerChannel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (m_Listener != null) {
+			m_Listener.interrupt();
+		}
+		stopWorkers();
+	}// stop
+
+	/**
+	 * Wakes up the I/O threads, which close their connections and selectors
+	 * once they find the listener stopped.
+	 */
+	private void stopWorkers() {
+		for (int i = 0; i < m_Workers.length; i++) {
+			if (m_Workers[i] != null) {
+				m_Workers[i].m_Selector.wakeup();
+			}
+		}
+	}// stopWorkers
+
+	/**
+	 * Tests if this <tt>ModbusNIOTCPListener</tt> is listening and accepting
+	 * incoming connections.
+	 *
+	 * @return true if listening (and accepting incoming connections), false
+	 *         otherwise.
+	 */
+	public boolean isListening() {
+		return m_Listening.get();
+	}// isListening
+
+	/**
+	 * Accepts incoming connections and hands them to the I/O threads in a
+	 * round robin fashion.
+	 */
+	public void run() {
+		try {
+			m_ServerChannel = ServerSocketChannel.open();
+			m_ServerChannel.socket().setReuseAddress(true);
+			m_ServerChannel.socket().bind(
+					new InetSocketAddress(m_Address, m_Port),
+					m_FloodProtection);
+			if (Modbus.debug)
+				System.out.println("Listening to "
+						+ m_ServerChannel.toString() + "(Port " + m_Port + ")");
+		} catch (IOException e1) {
+			System.err.println("Couldn't start NIO TCP listener:");
+			e1.printStackTrace();
+			m_Listening.set(false);
+			if (m_ServerChannel != null) {
+				try {
+					m_ServerChannel.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			stopWorkers();
+		}
+
+		while (m_Listening.get()) {
+			try {
+				SocketChannel incoming = m_ServerChannel.accept();
+				if (Modbus.debug)
+					System.out.println("Making new connection "
+							+ incoming.toString());
+				if (m_Listening.get()) {
+					incoming.socket().setTcpNoDelay(true);
+					m_Workers[m_NextWorker].register(incoming);
+					m_NextWorker = (m_NextWorker + 1) % m_Workers.length;
+				} else {
+					incoming.close();
+				}
+				// We can get these exceptions while quitting. If so, hide the
+				// error message.
+			} catch (ClosedByInterruptException ex) {
+				// stopped
+			} catch (ClosedChannelException ex) {
+				// stopped
+			} catch (IOException e) {
+				if (m_Listening.get()) {
+					e.printStackTrace();
+				}
+			}
+		}// while listening
+
+		if (Modbus.debug)
+			System.out.println("ModbusNIOTCPListener is quitting");
+	}// run
+
+	/**
+	 * Inner class implementing an I/O thread that multiplexes a set of
+	 * connections with a <tt>Selector</tt>.
+	 */
+	private class IOWorker implements Runnable {
+
+		private final Selector m_Selector;
+		private final ConcurrentLinkedQueue<SocketChannel> m_Pending;
+
+		IOWorker() throws IOException {
+			m_Selector = Selector.open();
+			m_Pending = new ConcurrentLinkedQueue<SocketChannel>();
+		}// constructor
+
+		/**
+		 * Queues a newly accepted channel for registration with this worker's
+		 * selector.
+		 *
+		 * @param ch
+		 *            the accepted <tt>SocketChannel</tt>.
+		 */
+		void register(SocketChannel ch) {
+			m_Pending.offer(ch);
+			m_Selector.wakeup();
+		}// register
+
+		public void run() {
+			try {
+				while (m_Listening.get()) {
+					m_Selector.select();
+					registerPending();
+					Iterator<SelectionKey> iter = m_Selector.selectedKeys()
+							.iterator();
+					while (iter.hasNext()) {
+						SelectionKey key = iter.next();
+						iter.remove();
+						NIOConnection con = (NIOConnection) key.attachment();
+						try {
+							if (key.isValid() && key.isWritable()) {
+								con.handleWrite();
+							}
+							if (key.isValid() && key.isReadable()) {
+								con.handleRead();
+							}
+						} catch (IOException ex) {
+							if (Modbus.debug)
+								ex.printStackTrace();
+							con.close();
+						} catch (RuntimeException ex) {
+							// e.g. from a process image; only this
+							// connection is dropped
+							if (Modbus.debug)
+								ex.printStackTrace();
+							con.close();
+						}
+					}
+				}
+			} catch (IOException ex) {
+				if (m_Listening.get()) {
+					ex.printStackTrace();
+				}
+			} finally {
+				shutdown();
+			}
+		}// run
+
+		private void registerPending() {
+			SocketChannel ch;
+			while ((ch = m_Pending.poll()) != null) {
+				try {
+					ch.configureBlocking(false);
+					SelectionKey key = ch.register(m_Selector,
+							SelectionKey.OP_READ);
+					key.attach(new NIOConnection(key, m_Metrics, m_Context));
+				} catch (IOException ex) {
+					try {
+						ch.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}
+		}// registerPending
+
+		private void shutdown() {
+			SocketChannel ch;
+			while ((ch = m_Pending.poll()) != null) {
+				try {
+					ch.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			for (SelectionKey key : m_Selector.keys()) {
+				((NIOConnection) key.attachment()).close();
+			}
+			try {
+				m_Selector.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}// shutdown
+
+	}// inner class IOWorker
+
+	/**
+	 * Inner class holding the state of a single non-blocking connection. The
+	 * buffers are allocated once per connection and reused for every frame.
+	 */
+	private static class NIOConnection {
+
+		private final SelectionKey m_Key;
+		private final SocketChannel m_Channel;
+		private final ModbusFrameDecoder m_Decoder;
+		private final ByteBuffer m_Out;
+		private final ModbusFrameProcessor m_Processor;
+
+		NIOConnection(SelectionKey key, ModbusMetrics metrics,
+				ModbusContext context) {
+			m_Key = key;
+			m_Channel = (SocketChannel) key.channel();
+			m_Decoder = new ModbusFrameDecoder();
+			m_Out = ByteBuffer.allocate(Modbus.MAX_IP_MESSAGE_LENGTH);
+			m_Out.flip();
+			m_Processor = new ModbusFrameProcessor();
+			m_Processor.setMetrics(metrics);
+			m_Processor.setContext(context);
+		}// constructor
+
+		void handleRead() throws IOException {
+			if (m_Decoder.read(m_Channel) < 0) {
+				close();
+				return;
+			}
+			processFrames();
+		}// handleRead
+
+		void handleWrite() throws IOException {
+			m_Channel.write(m_Out);
+			if (!m_Out.hasRemaining()) {
+				m_Key.interestOps(SelectionKey.OP_READ);
+				// frames may have queued up while we were blocked
+				processFrames();
+			}
+		}// handleWrite
+
+		/**
+		 * Handles all complete frames in the input buffer, as long as the
+		 * responses can be written out without blocking.
+		 *
+		 * @throws IOException
+		 *             if the frame is malformed or the channel fails.
+		 */
+		private void processFrames() throws IOException {
+			ModbusFrame frame;
+			try {
+				while (!m_Out.hasRemaining()
+						&& (frame = m_Decoder.next()) != null) {
+					handleFrame(frame);
+				}
+			} catch (ModbusIOException ex) {
+				throw new IOException(ex.getMessage());
+			}
+		}// processFrames
+
+		private void handleFrame(ModbusFrame request) throws IOException {
+			m_Out.clear();
+			m_Processor.process(request, m_Out);
+			m_Out.flip();
+			m_Channel.write(m_Out);
+			if (m_Out.hasRemaining()) {
+				// wait for the socket to drain before reading on
+				m_Key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}// handleFrame
+
+		void close() {
+			m_Key.cancel();
+			try {
+				m_Channel.close();
+			} catch (IOException ex) {
+				if (Modbus.debug)
+					ex.printStackTrace();
+			}
+		}// close
+
+	}// inner class NIOConnection
+
+}// class ModbusNIOTCPListener
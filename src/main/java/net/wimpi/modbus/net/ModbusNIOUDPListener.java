@@ -0,0 +1,480 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+
+package net.wimpi.modbus.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.metrics.ModbusMetrics;
+import net.wimpi.modbus.msg.ModbusFrame;
+import net.wimpi.modbus.msg.ModbusFrameProcessor;
+import net.wimpi.modbus.util.ThreadPool;
+
+/**
+ * Class that implements a Modbus/UDP listener on a <tt>DatagramChannel</tt>.
+ * <br>
+ * In contrast to the {@link ModbusUDPListener}, datagrams are received
+ * directly into pooled direct buffers, processed with a
+ * {@link ModbusFrameProcessor}, and answered from the same slot to the
+ * address they came from. No per-packet objects are allocated, and replies
+ * do not depend on the transaction identifiers of different masters being
+ * distinct.
+ * <p>
+ * Requests are handled inline by the receiving thread unless a number of
+ * workers is set; then they are handed to a small pool. The number of
+ * requests in flight is bounded by the number of slots; datagrams arriving
+ * while all slots are busy are dropped and counted, leaving the retry to
+ * the master as usual with UDP.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusNIOUDPListener implements Runnable {
+
+	private volatile DatagramChannel m_Channel;
+	private Thread m_Listener;
+	private volatile ThreadPool m_Pool;
+	private int m_Port = Modbus.DEFAULT_PORT;
+	private InetAddress m_Address;
+	private int m_Workers = 0;
+	private int m_MaxSlots = 64;
+	private int m_ReceiveBufferSize = 0;
+	private int m_SendBufferSize = 0;
+	private final AtomicBoolean m_Listening;
+	private final ConcurrentLinkedQueue<Slot> m_Slots;
+	private final AtomicInteger m_SlotCount;
+	private final LongAdder m_Dropped;
+	private volatile ModbusMetrics m_Metrics;
+	private volatile ModbusContext m_Context = ModbusCoupler.getReference();
+
+	/**
+	 * Constructs a new <tt>ModbusNIOUDPListener</tt> instance listening to all
+	 * interfaces.
+	 */
+	public ModbusNIOUDPListener() {
+		this(null);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ModbusNIOUDPListener</tt> instance.
+	 *
+	 * @param addr
+	 *            the interface to use for listening, or null for all.
+	 */
+	public ModbusNIOUDPListener(InetAddress addr) {
+		m_Address = addr;
+		m_Listening = new AtomicBoolean(false);
+		m_Slots = new ConcurrentLinkedQueue<Slot>();
+		m_SlotCount = new AtomicInteger();
+		m_Dropped = new LongAdder();
+	}// constructor
+
+	/**
+	 * Sets the port to be listened to.
+	 *
+	 * @param port
+	 *            the number of the IP port as <tt>int</tt>.
+	 */
+	public void setPort(int port) {
+		m_Port = port;
+	}// setPort
+
+	/**
+	 * Returns the port this listener is bound to.
+	 *
+	 * @return the number of the IP port as <tt>int</tt>.
+	 */
+	public int getPort() {
+		return m_Port;
+	}// getPort
+
+	/**
+	 * Sets the address of the interface to be listened to.
+	 *
+	 * @param addr
+	 *            an <tt>InetAddress</tt> instance, or null for all.
+	 */
+	public void setAddress(InetAddress addr) {
+		m_Address = addr;
+	}// setAddress
+
+	/**
+	 * Gets the address of the listening interface.
+	 *
+	 * @return The address of the listening interface.
+	 */
+	public InetAddress getAddress() {
+		return m_Address;
+	}// getAddress
+
+	/**
+	 * Sets the number of worker threads handling requests. With 0 workers,
+	 * requests are handled by the receiving thread, which is the fastest
+	 * option as long as the process image does not block. Takes effect on the
+	 * next {@link #start()}.
+	 *
+	 * @param workers
+	 *            the number of workers as <tt>int</tt>.
+	 */
+	public void setWorkers(int workers) {
+		m_Workers = Math.max(workers, 0);
+	}// setWorkers
+
+	/**
+	 * Returns the number of worker threads handling requests.
+	 *
+	 * @return the number of workers, 0 if handled inline.
+	 */
+	public int getWorkers() {
+		return m_Workers;
+	}// getWorkers
+
+	/**
+	 * Sets the maximum number of buffer slots, i.e. of requests being
+	 * received, queued or handled at the same time.
+	 *
+	 * @param max
+	 *            the maximum number of slots as <tt>int</tt>.
+	 */
+	public void setMaxSlots(int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("At least one slot.");
+		}
+		m_MaxSlots = max;
+	}// setMaxSlots
+
+	/**
+	 * Returns the maximum number of buffer slots.
+	 *
+	 * @return the maximum number of slots as <tt>int</tt>.
+	 */
+	public int getMaxSlots() {
+		return m_MaxSlots;
+	}// getMaxSlots
+
+	/**
+	 * Sets the size of the socket receive buffer. Takes effect on the next
+	 * {@link #start()}.
+	 *
+	 * @param size
+	 *            the size in bytes, or 0 for the system default.
+	 */
+	public void setReceiveBufferSize(int size) {
+		m_ReceiveBufferSize = Math.max(size, 0);
+	}// setReceiveBufferSize
+
+	/**
+	 * Returns the requested size of the socket receive buffer.
+	 *
+	 * @return the size in bytes, or 0 for the system default.
+	 */
+	public int getReceiveBufferSize() {
+		return m_ReceiveBufferSize;
+	}// getReceiveBufferSize
+
+	/**
+	 * Sets the size of the socket send buffer. Takes effect on the next
+	 * {@link #start()}.
+	 *
+	 * @param size
+	 *            the size in bytes, or 0 for the system default.
+	 */
+	public void setSendBufferSize(int size) {
+		m_SendBufferSize = Math.max(size, 0);
+	}// setSendBufferSize
+
+	/**
+	 * Returns the requested size of the socket send buffer.
+	 *
+	 * @return the size in bytes, or 0 for the system default.
+	 */
+	public int getSendBufferSize() {
+		return m_SendBufferSize;
+	}// getSendBufferSize
+
+	/**
+	 * Returns the number of datagrams dropped, because they were malformed or
+	 * all slots were busy.
+	 *
+	 * @return the count as <tt>long</tt>.
+	 */
+	public long getDroppedCount() {
+		return m_Dropped.sum();
+	}// getDroppedCount
+
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the requests served by this
+	 * <tt>ModbusNIOUDPListener</tt>. It applies to slots created afterwards.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusNIOUDPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this <tt>ModbusNIOUDPListener</tt> serves
+	 * requests from. It applies to slots created afterwards.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this <tt>ModbusNIOUDPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
+	/**
+	 * Starts this <tt>ModbusNIOUDPListener</tt>.
+	 */
+	public void start() {
+		// slots are created lazily with the current metrics and context
+		m_Slots.clear();
+		m_SlotCount.set(0);
+		if (m_Workers > 0) {
+			m_Pool = new ThreadPool(m_Workers);
+		}
+		m_Listening.set(true);
+		m_Listener = new Thread(this, "ModbusNIOUDPListener");
+		m_Listener.start();
+	}// start
+
+	/**
+	 * Stops this <tt>ModbusNIOUDPListener</tt>.
+	 */
+	public void stop() {
+		m_Listening.set(false);
+		if (m_Channel != null) {
+			try {
+				m_Channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (m_Pool != null) {
+			m_Pool.shutdown();
+			m_Pool = null;
+		}
+	}// stop
+
+	/**
+	 * Tests if this <tt>ModbusNIOUDPListener</tt> is listening.
+	 *
+	 * @return true if listening, false otherwise.
+	 */
+	public boolean isListening() {
+		return m_Listening.get();
+	}// isListening
+
+	/**
+	 * Receives datagrams and handles them inline or hands them to the workers.
+	 */
+	public void run() {
+		try {
+			m_Channel = DatagramChannel.open();
+			m_Channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			if (m_ReceiveBufferSize > 0) {
+				m_Channel.setOption(StandardSocketOptions.SO_RCVBUF,
+						m_ReceiveBufferSize);
+			}
+			if (m_SendBufferSize > 0) {
+				m_Channel.setOption(StandardSocketOptions.SO_SNDBUF,
+						m_SendBufferSize);
+			}
+			m_Channel.bind(new InetSocketAddress(m_Address, m_Port));
+			if (Modbus.debug)
+				System.out.println("Listening to " + m_Channel.toString()
+						+ "(Port " + m_Port + ")");
+		} catch (IOException e1) {
+			System.err.println("Couldn't start NIO UDP listener:");
+			e1.printStackTrace();
+			m_Listening.set(false);
+		}
+
+		// receives into while all slots are busy
+		ByteBuffer discard = ByteBuffer.allocateDirect(
+				Modbus.MAX_IP_MESSAGE_LENGTH);
+		while (m_Listening.get()) {
+			Slot slot = acquire();
+			try {
+				if (slot == null) {
+					discard.clear();
+					m_Channel.receive(discard);
+					m_Dropped.increment();
+					continue;
+				}
+				if (!slot.receive(m_Channel)) {
+					m_Dropped.increment();
+					release(slot);
+				} else if (m_Pool == null) {
+					slot.run();
+				} else {
+					dispatch(slot);
+				}
+			} catch (ClosedChannelException ex) {
+				// stopped
+			} catch (IOException e) {
+				if (slot != null) {
+					release(slot);
+				}
+				if (m_Listening.get()) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		if (Modbus.debug)
+			System.out.println("ModbusNIOUDPListener is quitting");
+	}// run
+
+	private void dispatch(Slot slot) {
+		ThreadPool pool = m_Pool;
+		try {
+			if (pool != null) {
+				pool.execute(slot);
+				return;
+			}
+		} catch (RejectedExecutionException ex) {
+			// stopped
+		}
+		m_Dropped.increment();
+		release(slot);
+	}// dispatch
+
+	/**
+	 * Takes a free slot, creating one if the maximum has not been reached.
+	 *
+	 * @return a <tt>Slot</tt>, or null if all are busy.
+	 */
+	private Slot acquire() {
+		Slot slot = m_Slots.poll();
+		if (slot == null) {
+			if (m_SlotCount.incrementAndGet() <= m_MaxSlots) {
+				slot = new Slot(m_Metrics, m_Context);
+			} else {
+				m_SlotCount.decrementAndGet();
+			}
+		}
+		return slot;
+	}// acquire
+
+	private void release(Slot slot) {
+		m_Slots.offer(slot);
+	}// release
+
+	/**
+	 * Inner class holding the buffers and the processor for one request at a
+	 * time. The buffers are direct, so the channel transfers the datagrams
+	 * without an intermediate copy.
+	 */
+	private class Slot implements Runnable {
+
+		private final ByteBuffer m_In;
+		private final ByteBuffer m_Out;
+		private final ModbusFrame m_Request;
+		private final ModbusFrameProcessor m_Processor;
+		private SocketAddress m_Source;
+
+		Slot(ModbusMetrics metrics, ModbusContext context) {
+			m_In = ByteBuffer.allocateDirect(Modbus.MAX_IP_MESSAGE_LENGTH);
+			m_Out = ByteBuffer.allocateDirect(Modbus.MAX_IP_MESSAGE_LENGTH);
+			m_Request = new ModbusFrame(m_In);
+			m_Processor = new ModbusFrameProcessor();
+			m_Processor.setMetrics(metrics);
+			m_Processor.setContext(context);
+		}// constructor
+
+		/**
+		 * Receives the next datagram and validates its MBAP header.
+		 *
+		 * @param ch
+		 *            the <tt>DatagramChannel</tt> to receive from.
+		 * @return true if the datagram holds a complete frame, false if it
+		 *         has to be dropped.
+		 * @throws IOException
+		 *             if the channel fails.
+		 */
+		boolean receive(DatagramChannel ch) throws IOException {
+			m_In.clear();
+			m_Source = ch.receive(m_In);
+			int size = m_In.position();
+			if (m_Source == null || size < ModbusFrame.HEADER_LENGTH) {
+				return false;
+			}
+			int length = m_Request.getDataLength();
+			return m_Request.getProtocolID() == Modbus.DEFAULT_PROTOCOL_ID
+					&& length >= 2 && length + 6 <= size;
+		}// receive
+
+		public void run() {
+			try {
+				m_Out.clear();
+				m_Processor.process(m_Request, m_Out);
+				m_Out.flip();
+				m_Channel.send(m_Out, m_Source);
+			} catch (IOException ex) {
+				if (Modbus.debug)
+					ex.printStackTrace();
+			} catch (RuntimeException ex) {
+				// e.g. from a process image; only this datagram is dropped
+				if (Modbus.debug)
+					ex.printStackTrace();
+				m_Dropped.increment();
+			} finally {
+				m_Source = null;
+				release(this);
+			}
+		}// run
+
+	}// inner class Slot
+
+}// class ModbusNIOUDPListener
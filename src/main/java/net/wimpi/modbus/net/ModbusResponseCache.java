@@ -0,0 +1,350 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.net;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.io.BytesInputStream;
+import net.wimpi.modbus.io.BytesOutputStream;
+import net.wimpi.modbus.msg.ExceptionResponse;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.msg.ReadCoilsRequest;
+import net.wimpi.modbus.msg.ReadInputDiscretesRequest;
+import net.wimpi.modbus.msg.ReadInputRegistersRequest;
+import net.wimpi.modbus.msg.ReadMultipleRegistersRequest;
+import net.wimpi.modbus.msg.WriteCoilRequest;
+import net.wimpi.modbus.msg.WriteMultipleCoilsRequest;
+import net.wimpi.modbus.msg.WriteMultipleRegistersRequest;
+import net.wimpi.modbus.msg.WriteSingleRegisterRequest;
+
+/**
+ * Class implementing a read-through cache of read responses, used by a
+ * {@link SerialBus} to serve identical polls of several clients from memory.
+ * <p>
+ * Responses of the four read function codes are cached under the unit
+ * identifier, function code, reference and count of the request, for a time
+ * to live that can be set per range (see
+ * {@link #setTTL(int, int, int, int, int)}). Writes to coils or registers
+ * invalidate all cached reads of the unit that overlap the written range.
+ * Exception responses are not cached.
+ * <p>
+ * Responses are stored encoded, so every hit returns a new instance that the
+ * caller may modify.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusResponseCache {
+
+	private final ConcurrentHashMap<Long, Entry> m_Entries;
+	private final CopyOnWriteArrayList<Rule> m_Rules;
+	private volatile int m_DefaultTTL;
+	private final LongAdder m_Hits = new LongAdder();
+	private final LongAdder m_Misses = new LongAdder();
+
+	/**
+	 * Constructs a new <tt>ModbusResponseCache</tt> instance.
+	 *
+	 * @param ttl
+	 *            the default time to live of entries in milliseconds; 0
+	 *            disables caching of ranges without a rule.
+	 */
+	public ModbusResponseCache(int ttl) {
+		m_Entries = new ConcurrentHashMap<Long, Entry>();
+		m_Rules = new CopyOnWriteArrayList<Rule>();
+		m_DefaultTTL = ttl;
+	}// constructor
+
+	/**
+	 * Sets the default time to live of entries.
+	 *
+	 * @param ms
+	 *            the time to live in milliseconds; 0 disables caching.
+	 */
+	public void setDefaultTTL(int ms) {
+		m_DefaultTTL = ms;
+	}// setDefaultTTL
+
+	/**
+	 * Returns the default time to live of entries.
+	 *
+	 * @return the time to live in milliseconds.
+	 */
+	public int getDefaultTTL() {
+		return m_DefaultTTL;
+	}// getDefaultTTL
+
+	/**
+	 * Sets the time to live of reads within the given range. Rules are
+	 * matched in the order they were set; reads not entirely within the range
+	 * of a rule use the default.
+	 *
+	 * @param unitid
+	 *            the unit identifier.
+	 * @param fc
+	 *            the read function code.
+	 * @param ref
+	 *            the reference of the first element of the range.
+	 * @param count
+	 *            the number of elements of the range.
+	 * @param ms
+	 *            the time to live in milliseconds; 0 disables caching.
+	 */
+	public void setTTL(int unitid, int fc, int ref, int count, int ms) {
+		m_Rules.add(new Rule(unitid, fc, ref, ref + count, ms));
+	}// setTTL
+
+	/**
+	 * Returns a cached response to the given request.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt>.
+	 * @return a new <tt>ModbusResponse</tt> instance, or null if there is no
+	 *         valid entry.
+	 */
+	public ModbusResponse get(ModbusRequest request) {
+		long key = keyOf(request);
+		if (key < 0) {
+			return null;
+		}
+		Entry e = m_Entries.get(key);
+		if (e != null && e.m_Expires - System.nanoTime() > 0) {
+			m_Hits.increment();
+			ModbusResponse response = decode(e.m_Frame);
+			response.setReference(request.getReference());
+			return response;
+		}
+		if (e != null) {
+			m_Entries.remove(key, e);
+		}
+		m_Misses.increment();
+		return null;
+	}// get
+
+	/**
+	 * Records the response to the given request. Responses to reads are
+	 * cached; writes invalidate the overlapping entries of the unit.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt> executed.
+	 * @param response
+	 *            the <tt>ModbusResponse</tt> received.
+	 */
+	public void put(ModbusRequest request, ModbusResponse response) {
+		long key = keyOf(request);
+		if (key < 0) {
+			invalidate(request);
+			return;
+		}
+		if (response instanceof ExceptionResponse) {
+			return;
+		}
+		int ttl = getTTL(request.getUnitID(), request.getFunctionCode(),
+				request.getReference(), countOf(request));
+		if (ttl > 0) {
+			m_Entries.put(key, new Entry(encode(response), System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(ttl)));
+		}
+	}// put
+
+	/**
+	 * Removes the entries overlapping the range written by the given request.
+	 * Requests with unknown effect invalidate all entries of the unit.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt>.
+	 */
+	public void invalidate(ModbusRequest request) {
+		int unitid = request.getUnitID();
+		int ref = request.getReference();
+		int fc;
+		int count;
+		if (request instanceof WriteCoilRequest) {
+			fc = Modbus.READ_COILS;
+			count = 1;
+		} else if (request instanceof WriteMultipleCoilsRequest) {
+			fc = Modbus.READ_COILS;
+			count = ((WriteMultipleCoilsRequest) request).getBitCount();
+		} else if (request instanceof WriteSingleRegisterRequest) {
+			fc = Modbus.READ_MULTIPLE_REGISTERS;
+			count = 1;
+		} else if (request instanceof WriteMultipleRegistersRequest) {
+			fc = Modbus.READ_MULTIPLE_REGISTERS;
+			count = ((WriteMultipleRegistersRequest) request).getWordCount();
+		} else {
+			fc = -1;
+			count = 0;
+		}
+		int end = ref + count;
+		for (Iterator<Long> iter = m_Entries.keySet().iterator(); iter
+				.hasNext();) {
+			long key = iter.next();
+			if ((int) (key >>> 40) != unitid) {
+				continue;
+			}
+			int kref = (int) (key >>> 16) & 0xffff;
+			int kend = kref + (int) (key & 0xffff);
+			if (fc < 0
+					|| (((int) (key >>> 32) & 0xff) == fc && kref < end && ref < kend)) {
+				iter.remove();
+			}
+		}
+	}// invalidate
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		m_Entries.clear();
+	}// clear
+
+	/**
+	 * Returns the number of requests served from the cache.
+	 *
+	 * @return the number of hits.
+	 */
+	public long getHitCount() {
+		return m_Hits.sum();
+	}// getHitCount
+
+	/**
+	 * Returns the number of cacheable requests not served from the cache.
+	 *
+	 * @return the number of misses.
+	 */
+	public long getMissCount() {
+		return m_Misses.sum();
+	}// getMissCount
+
+	/**
+	 * Returns the key of the given request, if it is a cacheable read.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt>.
+	 * @return the key, or -1 if the request is not cacheable.
+	 */
+	static long keyOf(ModbusRequest request) {
+		int count = countOf(request);
+		if (count < 0) {
+			return -1;
+		}
+		return ((long) (request.getUnitID() & 0xff) << 40)
+				| ((long) request.getFunctionCode() << 32)
+				| ((long) (request.getReference() & 0xffff) << 16)
+				| (count & 0xffff);
+	}// keyOf
+
+	private static int countOf(ModbusRequest request) {
+		if (request instanceof ReadCoilsRequest) {
+			return ((ReadCoilsRequest) request).getBitCount();
+		} else if (request instanceof ReadInputDiscretesRequest) {
+			return ((ReadInputDiscretesRequest) request).getBitCount();
+		} else if (request instanceof ReadMultipleRegistersRequest) {
+			return ((ReadMultipleRegistersRequest) request).getWordCount();
+		} else if (request instanceof ReadInputRegistersRequest) {
+			return ((ReadInputRegistersRequest) request).getWordCount();
+		}
+		return -1;
+	}// countOf
+
+	private int getTTL(int unitid, int fc, int ref, int count) {
+		for (Rule r : m_Rules) {
+			if (r.m_UnitID == unitid && r.m_FunctionCode == fc
+					&& r.m_Reference <= ref && ref + count <= r.m_End) {
+				return r.m_TTL;
+			}
+		}
+		return m_DefaultTTL;
+	}// getTTL
+
+	/**
+	 * Encodes the given response without header.
+	 *
+	 * @param response
+	 *            the <tt>ModbusResponse</tt>.
+	 * @return the encoded response.
+	 */
+	static byte[] encode(ModbusResponse response) {
+		BytesOutputStream out = new BytesOutputStream(
+				Modbus.MAX_MESSAGE_LENGTH);
+		try {
+			response.setHeadless();
+			response.writeTo(out);
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex.getMessage());
+		}
+		return Arrays.copyOf(out.getBuffer(), out.size());
+	}// encode
+
+	/**
+	 * Decodes a response encoded with {@link #encode(ModbusResponse)}.
+	 *
+	 * @param frame
+	 *            the encoded response.
+	 * @return a new <tt>ModbusResponse</tt> instance.
+	 */
+	static ModbusResponse decode(byte[] frame) {
+		ModbusResponse response = ModbusResponse
+				.createModbusResponse(frame[1] & 0xff);
+		response.setHeadless();
+		try {
+			response.readFrom(new BytesInputStream(frame));
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex.getMessage());
+		}
+		return response;
+	}// decode
+
+	private static class Entry {
+
+		final byte[] m_Frame;
+		final long m_Expires;
+
+		Entry(byte[] frame, long expires) {
+			m_Frame = frame;
+			m_Expires = expires;
+		}// constructor
+
+	}// inner class Entry
+
+	private static class Rule {
+
+		final int m_UnitID;
+		final int m_FunctionCode;
+		final int m_Reference;
+		final int m_End;
+		final int m_TTL;
+
+		Rule(int unitid, int fc, int ref, int end, int ttl) {
+			m_UnitID = unitid;
+			m_FunctionCode = fc;
+			m_Reference = ref;
+			m_End = end;
+			m_TTL = ttl;
+		}// constructor
+
+	}// inner class Rule
+
+}// class ModbusResponseCache
@@ -19,11 +19,14 @@ package net.wimpi.modbus.net;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
 import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.io.ModbusTransport;
+import net.wimpi.modbus.metrics.ModbusMetrics;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.procimg.ProcessImage;
 import net.wimpi.modbus.util.SerialParameters;
 
 /**
@@ -39,6 +42,8 @@ public class ModbusSerialListener implements Runnable {
 	private final AtomicBoolean m_Listening;
 	private SerialConnection m_SerialCon;
 	private Thread m_Listener;
+	private volatile ModbusMetrics m_Metrics;
+	private volatile ModbusContext m_Context = ModbusCoupler.getReference();
 
 	/**
 	 * Constructs a new <tt>ModbusSerialListener</tt> instance.
@@ -51,6 +56,48 @@ public class ModbusSerialListener implements Runnable {
 		m_SerialCon = new SerialConnection(params);
 	}// constructor
 
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the requests served by this
+	 * <tt>ModbusSerialListener</tt>.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusSerialListener</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this <tt>ModbusSerialListener</tt> serves
+	 * requests from. It has to be set before the listener is started.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this <tt>ModbusSerialListener</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
 	/**
 	 * Starts this <tt>ModbusTCPListener</tt>.
 	 */
@@ -76,18 +123,25 @@ public class ModbusSerialListener implements Runnable {
 			m_SerialCon.open();
 			// System.out.println("Opened Serial connection.");
 			ModbusTransport transport = m_SerialCon.getModbusTransport();
+			transport.setContext(m_Context);
 			while (m_Listening.get()) {
 				try {
 					// 1. read the request
 					ModbusRequest request = transport.readRequest();
+					long start = System.nanoTime();
 					ModbusResponse response = null;
 
-					// test if Process image exists
-					if (ModbusCoupler.getReference().getProcessImage() == null) {
-						response = request
-								.createExceptionResponse(Modbus.ILLEGAL_FUNCTION_EXCEPTION);
+					// get the process image serving the unit
+					ModbusContext context = request.getContext();
+					ProcessImage procimg = context.getProcessImage(request
+							.getUnitID());
+					if (procimg == null) {
+						int code = (context.isMultiUnit())
+								? Modbus.GATEWAY_TARGET_FAILED_EXCEPTION
+								: Modbus.ILLEGAL_FUNCTION_EXCEPTION;
+						response = request.createExceptionResponse(code);
 					} else {
-						response = request.createResponse();
+						response = request.createResponse(procimg);
 					}
 
 					if (Modbus.debug)
@@ -98,6 +152,13 @@ public class ModbusSerialListener implements Runnable {
 								+ response.getHexMessage());
 
 					transport.writeMessage(response);
+					ModbusMetrics metrics = m_Metrics;
+					if (metrics != null) {
+						metrics.transactionCompleted(request, response, System
+								.nanoTime()
+								- start, request.getOutputLength(), response
+								.getOutputLength());
+					}
 
 				} catch (ModbusIOException ex) {
 					ex.printStackTrace();
@@ -0,0 +1,375 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.io.ModbusTransport;
+import net.wimpi.modbus.msg.ExceptionResponse;
+import net.wimpi.modbus.msg.IllegalFunctionRequest;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.util.ExecutorUtil;
+
+/**
+ * Class that implements a Modbus/TCP to serial gateway.
+ * <p>
+ * The gateway accepts Modbus/TCP connections and routes every request by its
+ * unit identifier to a {@link SerialBus}, which serializes the requests of
+ * all clients onto its line. The response is sent back to the client with
+ * the transaction identifier of the request. If no bus is routed for the
+ * unit, the gateway answers with a <tt>gateway path unavailable</tt>
+ * exception. If the request times out, it answers with a <tt>gateway target
+ * device failed to respond</tt> exception. If the queue of the bus is full,
+ * it answers with a <tt>slave device busy</tt> exception.
+ * <p>
+ * Each connection is handled by a task of the executor. It waits for the
+ * response to its current request while the bus serves others. The gateway
+ * starts and stops the routed buses along with itself.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ModbusTCPGateway implements Runnable {
+
+	private ServerSocket m_ServerSocket = null;
+	private final Executor m_Executor;
+	private final boolean m_OwnsExecutor;
+	private Thread m_Listener;
+	private int m_Port = Modbus.DEFAULT_PORT;
+	private int m_FloodProtection = 50;
+	private InetAddress m_Address = null;
+	private int m_Timeout = Modbus.DEFAULT_TIMEOUT;
+	private final AtomicBoolean m_Listening;
+	private final AtomicReferenceArray<SerialBus> m_Routes;
+	private final Set<TCPSlaveConnection> m_Connections;
+
+	/**
+	 * Constructs a new <tt>ModbusTCPGateway</tt> instance.<br>
+	 * Connections are handled by a per-task executor, which uses virtual
+	 * threads where the JVM supports them.
+	 *
+	 * @see ExecutorUtil#newPerTaskExecutor()
+	 */
+	public ModbusTCPGateway() {
+		this(ExecutorUtil.newPerTaskExecutor(), true);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ModbusTCPGateway</tt> instance that hands
+	 * connections to the given <tt>Executor</tt>.<br>
+	 * The executor is owned by the caller and will not be shut down when the
+	 * gateway stops.
+	 *
+	 * @param executor
+	 *            the <tt>Executor</tt> running the connection handlers.
+	 */
+	public ModbusTCPGateway(Executor executor) {
+		this(executor, false);
+	}// constructor
+
+	private ModbusTCPGateway(Executor executor, boolean owned) {
+		m_Executor = executor;
+		m_OwnsExecutor = owned;
+		m_Listening = new AtomicBoolean(false);
+		m_Routes = new AtomicReferenceArray<SerialBus>(256);
+		m_Connections = ConcurrentHashMap.newKeySet();
+	}// constructor
+
+	/**
+	 * Sets the port to be listened to.
+	 *
+	 * @param port
+	 *            the number of the IP port as <tt>int</tt>.
+	 */
+	public void setPort(int port) {
+		m_Port = port;
+	}// setPort
+
+	/**
+	 * Returns the port to be listened to.
+	 *
+	 * @return the number of the IP port as <tt>int</tt>.
+	 */
+	public int getPort() {
+		return m_Port;
+	}// getPort
+
+	/**
+	 * Sets the address of the interface to be listened to.
+	 *
+	 * @param addr
+	 *            an <tt>InetAddress</tt> instance, or null for all
+	 *            interfaces.
+	 */
+	public void setAddress(InetAddress addr) {
+		m_Address = addr;
+	}// setAddress
+
+	/**
+	 * Gets the address of the listening interface.
+	 *
+	 * @return the address of the listening interface.
+	 */
+	public InetAddress getAddress() {
+		return m_Address;
+	}// getAddress
+
+	/**
+	 * Sets the time a request may take, from its arrival until the response
+	 * from the serial line, including the time it waits for the line.
+	 *
+	 * @param ms
+	 *            the timeout in milliseconds.
+	 */
+	public void setTimeout(int ms) {
+		m_Timeout = ms;
+	}// setTimeout
+
+	/**
+	 * Returns the time a request may take.
+	 *
+	 * @return the timeout in milliseconds.
+	 */
+	public int getTimeout() {
+		return m_Timeout;
+	}// getTimeout
+
+	/**
+	 * Routes the requests for the given units to the given bus.
+	 *
+	 * @param bus
+	 *            the <tt>SerialBus</tt> the units are attached to.
+	 * @param unitids
+	 *            the unit identifiers.
+	 */
+	public void addRoute(SerialBus bus, int... unitids) {
+		for (int i = 0; i < unitids.length; i++) {
+			m_Routes.set(unitids[i] & 0xff, bus);
+		}
+		if (m_Listening.get()) {
+			bus.start();
+		}
+	}// addRoute
+
+	/**
+	 * Removes the route of the given unit.
+	 *
+	 * @param unitid
+	 *            the unit identifier.
+	 */
+	public void removeRoute(int unitid) {
+		m_Routes.set(unitid & 0xff, null);
+	}// removeRoute
+
+	/**
+	 * Returns the bus the requests for the given unit are routed to.
+	 *
+	 * @param unitid
+	 *            the unit identifier.
+	 * @return the <tt>SerialBus</tt>, or null if the unit is not routed.
+	 */
+	public SerialBus getRoute(int unitid) {
+		return m_Routes.get(unitid & 0xff);
+	}// getRoute
+
+	/**
+	 * Starts this <tt>ModbusTCPGateway</tt> and the routed buses.
+	 */
+	public void start() {
+		m_Listening.set(true);
+		for (int i = 0; i < m_Routes.length(); i++) {
+			SerialBus bus = m_Routes.get(i);
+			if (bus != null) {
+				bus.start();
+			}
+		}
+		m_Listener = new Thread(this, "ModbusTCPGateway");
+		m_Listener.start();
+	}// start
+
+	/**
+	 * Stops this <tt>ModbusTCPGateway</tt> and the routed buses, closing all
+	 * connections.
+	 */
+	public void stop() {
+		m_Listening.set(false);
+		if (m_ServerSocket != null) {
+			try {
+				m_ServerSocket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (m_Listener != null) {
+			m_Listener.interrupt();
+		}
+		for (TCPSlaveConnection con : m_Connections) {
+			con.close();
+		}
+		for (int i = 0; i < m_Routes.length(); i++) {
+			SerialBus bus = m_Routes.get(i);
+			if (bus != null) {
+				bus.stop();
+			}
+		}
+	}// stop
+
+	/**
+	 * Tests if this <tt>ModbusTCPGateway</tt> is listening and accepting
+	 * incoming connections.
+	 *
+	 * @return true if listening, false otherwise.
+	 */
+	public boolean isListening() {
+		return m_Listening.get();
+	}// isListening
+
+	/**
+	 * Accepts incoming connections and hands them to the executor.
+	 */
+	public void run() {
+		try {
+			m_ServerSocket = new ServerSocket(m_Port, m_FloodProtection,
+					m_Address);
+			if (Modbus.debug)
+				System.out.println("Listening to " + m_ServerSocket.toString()
+						+ "(Port " + m_Port + ")");
+		} catch (IOException e1) {
+			System.err.println("Couldn't start TCP gateway:");
+			e1.printStackTrace();
+			m_Listening.set(false);
+		}
+
+		while (m_Listening.get()) {
+			try {
+				Socket incoming = m_ServerSocket.accept();
+				if (Modbus.debug)
+					System.out.println("Making new connection "
+							+ incoming.toString());
+				if (m_Listening.get()) {
+					incoming.setTcpNoDelay(true);
+					m_Executor.execute(new ConnectionHandler(
+							new TCPSlaveConnection(incoming)));
+				} else {
+					incoming.close();
+				}
+			} catch (IOException e) {
+				// we can get these exceptions while quitting
+				if (m_Listening.get()) {
+					e.printStackTrace();
+				}
+			}
+		}// while listening
+
+		if (Modbus.debug)
+			System.out.println("ModbusTCPGateway is quitting");
+
+		if (m_OwnsExecutor && m_Executor instanceof ExecutorService) {
+			((ExecutorService) m_Executor).shutdownNow();
+		}
+	}// run
+
+	/**
+	 * Forwards the given request and waits for the response.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt> received from a client.
+	 * @return the <tt>ModbusResponse</tt> to be sent back.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting.
+	 */
+	private ModbusResponse forward(ModbusRequest request)
+			throws InterruptedException {
+		if (request instanceof IllegalFunctionRequest) {
+			return request.createResponse();
+		}
+		int fc = request.getFunctionCode();
+		SerialBus bus = m_Routes.get(request.getUnitID());
+		if (bus == null) {
+			return new ExceptionResponse(fc,
+					Modbus.GATEWAY_PATH_UNAVAILABLE_EXCEPTION);
+		}
+		SerialBus.Job job = bus.submit(request, System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(m_Timeout));
+		if (job == null) {
+			return new ExceptionResponse(fc, Modbus.SLAVE_DEVICE_BUSY_EXCEPTION);
+		}
+		ModbusResponse response = job.await();
+		if (response == null) {
+			return new ExceptionResponse(fc,
+					Modbus.GATEWAY_TARGET_FAILED_EXCEPTION);
+		}
+		return response;
+	}// forward
+
+	/**
+	 * Inner class handling the requests of one client connection.
+	 */
+	private class ConnectionHandler implements Runnable {
+
+		private final TCPSlaveConnection m_Connection;
+
+		ConnectionHandler(TCPSlaveConnection con) {
+			m_Connection = con;
+		}// constructor
+
+		public void run() {
+			m_Connections.add(m_Connection);
+			ModbusTransport transport = m_Connection.getModbusTransport();
+			try {
+				while (m_Listening.get()) {
+					ModbusRequest request = transport.readRequest();
+					// the serial transaction overwrites the identifiers
+					int tid = request.getTransactionID();
+					int unitid = request.getUnitID();
+
+					ModbusResponse response = forward(request);
+					response.setHeadless(false);
+					response.setTransactionID(tid);
+					response.setProtocolID(Modbus.DEFAULT_PROTOCOL_ID);
+					response.setUnitID(unitid);
+					transport.writeMessage(response);
+				}
+			} catch (ModbusIOException ex) {
+				if (!ex.isEOF() && m_Listening.get()) {
+					// other troubles, output for debug
+					ex.printStackTrace();
+				}
+			} catch (InterruptedException ex) {
+				// stopped
+			} finally {
+				m_Connections.remove(m_Connection);
+				m_Connection.close();
+			}
+		}// run
+
+	}// inner class ConnectionHandler
+
+}// class ModbusTCPGateway
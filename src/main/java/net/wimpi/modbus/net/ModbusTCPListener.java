@@ -25,9 +25,16 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
+import net.wimpi.modbus.ModbusCoupler;
+import net.wimpi.modbus.metrics.ModbusMetrics;
+import net.wimpi.modbus.util.ExecutorUtil;
 import net.wimpi.modbus.util.ThreadPool;
 
 /**
@@ -40,30 +47,40 @@ import net.wimpi.modbus.util.ThreadPool;
 public class ModbusTCPListener implements Runnable {
 
 	private ServerSocket m_ServerSocket = null;
-	private ThreadPool m_ThreadPool;
+	private Executor m_Executor;
+	private boolean m_OwnsExecutor;
 	private Thread m_Listener;
 	private int m_Port = Modbus.DEFAULT_PORT;
 	private int m_FloodProtection = 5;
 	private final AtomicBoolean m_Listening;
 	private InetAddress m_Address = null;
+	private volatile ModbusMetrics m_Metrics;
+	private volatile ModbusContext m_Context = ModbusCoupler.getReference();
+	private volatile boolean m_FrameProcessing;
+
+	/**
+	 * Constructs a ModbusTCPListener instance.<br>
+	 * Incoming connections are handled by a per-task executor, which uses
+	 * virtual threads where the JVM supports them.
+	 * 
+	 * @see ExecutorUtil#newPerTaskExecutor()
+	 */
+	public ModbusTCPListener() {
+		this(ExecutorUtil.newPerTaskExecutor(), true);
+		m_Address = getLocalHost();
+	}// constructor
 
 	/**
 	 * Constructs a ModbusTCPListener instance.<br>
 	 * 
 	 * @param poolsize
 	 *            the size of the <tt>ThreadPool</tt> used to handle incoming
-	 *            requests.
+	 *            requests. This is also the maximum number of concurrently
+	 *            served connections.
 	 */
 	public ModbusTCPListener(int poolsize) {
-		m_Listening = new AtomicBoolean(false);
-		m_ThreadPool = new ThreadPool(poolsize);
-		try {
-			m_Address = InetAddress.getLocalHost();
-		} catch (UnknownHostException ex) {
-			if (Modbus.debug)
-				System.out.println("Couldn't get the local address: "
-						+ ex.toString());
-		}
+		this(new ThreadPool(poolsize), true);
+		m_Address = getLocalHost();
 	}// constructor
 
 	/**
@@ -71,16 +88,63 @@ public class ModbusTCPListener implements Runnable {
 	 * 
 	 * @param poolsize
 	 *            the size of the <tt>ThreadPool</tt> used to handle incoming
-	 *            requests.
+	 *            requests. This is also the maximum number of concurrently
+	 *            served connections.
 	 * @param addr
 	 *            the interface to use for listening.
 	 */
 	public ModbusTCPListener(int poolsize, InetAddress addr) {
-		m_Listening = new AtomicBoolean(false);
-		m_ThreadPool = new ThreadPool(poolsize);
+		this(new ThreadPool(poolsize), true);
 		m_Address = addr;
 	}// constructor
 
+	/**
+	 * Constructs a ModbusTCPListener instance that hands incoming connections
+	 * to the given <tt>Executor</tt>.<br>
+	 * The executor is owned by the caller and will not be shut down when this
+	 * listener stops.
+	 * 
+	 * @param executor
+	 *            the <tt>Executor</tt> running the connection handlers.
+	 */
+	public ModbusTCPListener(Executor executor) {
+		this(executor, false);
+		m_Address = getLocalHost();
+	}// constructor
+
+	/**
+	 * Constructs a ModbusTCPListener instance that hands incoming connections
+	 * to the given <tt>Executor</tt>.<br>
+	 * The executor is owned by the caller and will not be shut down when this
+	 * listener stops.
+	 * 
+	 * @param executor
+	 *            the <tt>Executor</tt> running the connection handlers.
+	 * @param addr
+	 *            the interface to use for listening.
+	 */
+	public ModbusTCPListener(Executor executor, InetAddress addr) {
+		this(executor, false);
+		m_Address = addr;
+	}// constructor
+
+	private ModbusTCPListener(Executor executor, boolean owned) {
+		m_Listening = new AtomicBoolean(false);
+		m_Executor = executor;
+		m_OwnsExecutor = owned;
+	}// constructor
+
+	private static InetAddress getLocalHost() {
+		try {
+			return InetAddress.getLocalHost();
+		} catch (UnknownHostException ex) {
+			if (Modbus.debug)
+				System.out.println("Couldn't get the local address: "
+						+ ex.toString());
+			return null;
+		}
+	}// getLocalHost
+
 	/**
 	 * Sets the port to be listened to.
 	 * 
@@ -91,6 +155,73 @@ public class ModbusTCPListener implements Runnable {
 		m_Port = port;
 	}// setPort
 
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the requests served by this
+	 * <tt>ModbusTCPListener</tt>. It applies to connections accepted
+	 * afterwards.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusTCPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this <tt>ModbusTCPListener</tt> serves
+	 * requests from. Connections accepted later are served from the new
+	 * context.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this <tt>ModbusTCPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
+	/**
+	 * Sets whether connections accepted afterwards are served with reusable
+	 * frames by a {@link net.wimpi.modbus.msg.ModbusFrameProcessor} instead
+	 * of request and response objects. See
+	 * {@link TCPConnectionHandler#setFrameProcessing(boolean)}.
+	 * 
+	 * @param b
+	 *            true to serve connections with frames, false otherwise.
+	 */
+	public void setFrameProcessing(boolean b) {
+		m_FrameProcessing = b;
+	}// setFrameProcessing
+
+	/**
+	 * Tests if this <tt>ModbusTCPListener</tt> serves connections with
+	 * reusable frames.
+	 * 
+	 * @return true if serving with frames, false otherwise (default).
+	 */
+	public boolean isFrameProcessing() {
+		return m_FrameProcessing;
+	}// isFrameProcessing
+
 	/**
 	 * Sets the address of the interface to be listened to.
 	 * 
@@ -168,9 +299,19 @@ public class ModbusTCPListener implements Runnable {
 					System.out.println("Making new connection "
 							+ incoming.toString());
 				if (m_Listening.get()) {
-					// FIXME: Replace with object pool due to resource issues
-					m_ThreadPool.execute(new TCPConnectionHandler(
-							new TCPSlaveConnection(incoming)));
+					TCPConnectionHandler handler = new TCPConnectionHandler(
+							new TCPSlaveConnection(incoming));
+					handler.setMetrics(m_Metrics);
+					handler.setContext(m_Context);
+					handler.setFrameProcessing(m_FrameProcessing);
+					try {
+						m_Executor.execute(handler);
+					} catch (RejectedExecutionException ex) {
+						if (Modbus.debug)
+							System.out.println("Rejected connection "
+									+ incoming.toString());
+						incoming.close();
+					}
 				}
 				
 				// We can get these exceptions while quitting. If so, hide the
@@ -198,7 +339,9 @@ public class ModbusTCPListener implements Runnable {
 			}
 		}
 		
-		m_ThreadPool.killPool();
+		if (m_OwnsExecutor && m_Executor instanceof ExecutorService) {
+			((ExecutorService) m_Executor).shutdownNow();
+		}
 	}// run
 
 	/**
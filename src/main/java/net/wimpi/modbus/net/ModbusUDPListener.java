@@ -20,11 +20,14 @@ import java.net.InetAddress;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
 import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.io.ModbusUDPTransport;
+import net.wimpi.modbus.metrics.ModbusMetrics;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.procimg.ProcessImage;
 
 /**
  * Class that implements a ModbusUDPListener.<br>
@@ -40,6 +43,8 @@ public class ModbusUDPListener {
 	private int m_Port = Modbus.DEFAULT_PORT;
 	private final AtomicBoolean m_Listening;
 	private InetAddress m_Interface;
+	private volatile ModbusMetrics m_Metrics;
+	private volatile ModbusContext m_Context = ModbusCoupler.getReference();
 
 	/**
 	 * Constructs a new ModbusUDPListener instance.
@@ -81,6 +86,48 @@ public class ModbusUDPListener {
 		m_Port = ((port > 0) ? port : Modbus.DEFAULT_PORT);
 	}// setPort
 
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the requests served by this
+	 * <tt>ModbusUDPListener</tt>.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>ModbusUDPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this <tt>ModbusUDPListener</tt> serves
+	 * requests from. It has to be set before the listener is started.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this <tt>ModbusUDPListener</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
 	/**
 	 * Starts this <tt>ModbusUDPListener</tt>.
 	 */
@@ -95,6 +142,7 @@ public class ModbusUDPListener {
 			}
 			m_Terminal.setLocalPort(m_Port);
 			m_Terminal.activate();
+			m_Terminal.getModbusTransport().setContext(m_Context);
 
 			m_Handler = new ModbusUDPHandler(m_Terminal.getModbusTransport());
 			m_HandlerThread = new Thread(m_Handler);
@@ -142,6 +190,7 @@ public class ModbusUDPListener {
 				do {
 					// 1. read the request
 					ModbusRequest request = m_Transport.readRequest();
+					long start = System.nanoTime();
 					// System.out.println("Request:" + request.getHexMessage());
 					ModbusResponse response = null;
 					
@@ -151,12 +200,17 @@ public class ModbusUDPListener {
 						break;
 					}
 
-					// test if Process image exists
-					if (ModbusCoupler.getReference().getProcessImage() == null) {
-						response = request
-								.createExceptionResponse(Modbus.ILLEGAL_FUNCTION_EXCEPTION);
+					// get the process image serving the unit
+					ModbusContext context = request.getContext();
+					ProcessImage procimg = context.getProcessImage(request
+							.getUnitID());
+					if (procimg == null) {
+						int code = (context.isMultiUnit())
+								? Modbus.GATEWAY_TARGET_FAILED_EXCEPTION
+								: Modbus.ILLEGAL_FUNCTION_EXCEPTION;
+						response = request.createExceptionResponse(code);
 					} else {
-						response = request.createResponse();
+						response = request.createResponse(procimg);
 					}
 					/* DEBUG */
 					if (Modbus.debug)
@@ -169,6 +223,13 @@ public class ModbusUDPListener {
 					// System.out.println("Response:" +
 					// response.getHexMessage());
 					m_Transport.writeMessage(response);
+					ModbusMetrics metrics = m_Metrics;
+					if (metrics != null) {
+						metrics.transactionCompleted(request, response, System
+								.nanoTime()
+								- start, request.getOutputLength(), response
+								.getOutputLength());
+					}
 				} while (m_Continue.get());
 			} catch (ModbusIOException ex) {
 				if (!ex.isEOF()) {
@@ -0,0 +1,539 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.net;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.io.ModbusRTUTransport;
+import net.wimpi.modbus.io.ModbusSerialTransaction;
+import net.wimpi.modbus.metrics.ModbusMetrics;
+import net.wimpi.modbus.msg.ModbusRequest;
+import net.wimpi.modbus.msg.ModbusResponse;
+
+/**
+ * Class that serializes the requests of several clients onto one serial
+ * line, as used by the {@link ModbusTCPGateway}.
+ * <p>
+ * Requests are queued in a bounded priority queue and executed one after
+ * the other by a single thread owning the line. Write requests jump ahead of
+ * reads, requests of equal priority are served first come, first served.
+ * Between two transactions the line is kept silent for the inter-frame
+ * delay, which defaults to the RTU silent interval of the connection.
+ * Requests whose deadline has passed before they are sent are dropped.
+ * <p>
+ * With a {@link ModbusResponseCache} set, reads are served from the cache while
+ * their entry is valid, and identical reads arriving while one is queued or
+ * on the line share its response instead of being sent again.
+ * <p>
+ * The connection has to be opened before the bus is started, and its
+ * receive timeout is set to the time left for each request.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class SerialBus implements Runnable {
+
+	/**
+	 * Defines the default capacity of the request queue.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final SerialConnection m_Connection;
+	private final ModbusSerialTransaction m_Transaction;
+	private final int m_Capacity;
+	private final ReentrantLock m_Lock = new ReentrantLock();
+	private final Condition m_NotEmpty = m_Lock.newCondition();
+	private final PriorityQueue<Job> m_Queue = new PriorityQueue<Job>(11,
+			PRIORITY);
+	private final Map<Long, Job> m_InFlight = new HashMap<Long, Job>();
+	private long m_Sequence;
+	private volatile ModbusResponseCache m_Cache;
+	private int m_InterFrameDelay = -1;
+	private long m_LastFrame;
+	private Thread m_Thread;
+	private volatile boolean m_Running;
+
+	/**
+	 * Constructs a new <tt>SerialBus</tt> instance with a queue of
+	 * {@link #DEFAULT_CAPACITY}.
+	 *
+	 * @param con
+	 *            the <tt>SerialConnection</tt> of the line.
+	 */
+	public SerialBus(SerialConnection con) {
+		this(con, DEFAULT_CAPACITY);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>SerialBus</tt> instance.
+	 *
+	 * @param con
+	 *            the <tt>SerialConnection</tt> of the line.
+	 * @param capacity
+	 *            the maximum number of queued requests.
+	 */
+	public SerialBus(SerialConnection con, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		m_Connection = con;
+		m_Capacity = capacity;
+		m_Transaction = new ModbusSerialTransaction();
+		m_Transaction.setRetries(1);
+		m_Transaction.setCheckingValidity(false);
+	}// constructor
+
+	/**
+	 * Returns the <tt>SerialConnection</tt> of this bus.
+	 *
+	 * @return the <tt>SerialConnection</tt>.
+	 */
+	public SerialConnection getConnection() {
+		return m_Connection;
+	}// getConnection
+
+	/**
+	 * Sets the time the line is kept silent between the response of one
+	 * transaction and the request of the next.
+	 *
+	 * @param micros
+	 *            the delay in microseconds.
+	 */
+	public void setInterFrameDelay(int micros) {
+		m_InterFrameDelay = Math.max(micros, 0);
+	}// setInterFrameDelay
+
+	/**
+	 * Returns the time the line is kept silent between two transactions.
+	 *
+	 * @return the delay in microseconds; by default the silent interval of
+	 *         an RTU transport, 0 otherwise.
+	 */
+	public int getInterFrameDelay() {
+		if (m_InterFrameDelay < 0) {
+			if (m_Connection.getModbusTransport() instanceof ModbusRTUTransport) {
+				return ((ModbusRTUTransport) m_Connection.getModbusTransport())
+						.getSilentInterval();
+			}
+			return 0;
+		}
+		return m_InterFrameDelay;
+	}// getInterFrameDelay
+
+	/**
+	 * Sets the number of tries for each request; 1 by default, leaving
+	 * retries to the clients.
+	 *
+	 * @param retries
+	 *            the number of tries.
+	 */
+	public void setRetries(int retries) {
+		m_Transaction.setRetries(retries);
+	}// setRetries
+
+	/**
+	 * Returns the number of tries for each request.
+	 *
+	 * @return the number of tries.
+	 */
+	public int getRetries() {
+		return m_Transaction.getRetries();
+	}// getRetries
+
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the transactions on the line.
+	 *
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Transaction.setMetrics(metrics);
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> recording the transactions on the
+	 * line.
+	 *
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Transaction.getMetrics();
+	}// getMetrics
+
+	/**
+	 * Sets the cache serving repeated reads.
+	 *
+	 * @param cache
+	 *            a <tt>ModbusResponseCache</tt>, or null to send every request.
+	 */
+	public void setCache(ModbusResponseCache cache) {
+		m_Cache = cache;
+	}// setCache
+
+	/**
+	 * Returns the cache serving repeated reads.
+	 *
+	 * @return the <tt>ModbusResponseCache</tt>, or null if there is none.
+	 */
+	public ModbusResponseCache getCache() {
+		return m_Cache;
+	}// getCache
+
+	/**
+	 * Returns the maximum number of queued requests.
+	 *
+	 * @return the capacity as <tt>int</tt>.
+	 */
+	public int getCapacity() {
+		return m_Capacity;
+	}// getCapacity
+
+	/**
+	 * Returns the number of requests waiting for the line.
+	 *
+	 * @return the number of queued requests.
+	 */
+	public int getQueueSize() {
+		m_Lock.lock();
+		try {
+			return m_Queue.size();
+		} finally {
+			m_Lock.unlock();
+		}
+	}// getQueueSize
+
+	/**
+	 * Starts the thread serving this bus.
+	 */
+	public synchronized void start() {
+		if (m_Running) {
+			return;
+		}
+		m_Transaction.setSerialConnection(m_Connection);
+		m_Running = true;
+		m_Thread = new Thread(this, "SerialBus-"
+				+ ((m_Connection.getSerialPort() != null) ? m_Connection
+						.getSerialPort().getPortName() : "?"));
+		m_Thread.setDaemon(true);
+		m_Thread.start();
+	}// start
+
+	/**
+	 * Stops the thread serving this bus. Queued requests fail.
+	 */
+	public synchronized void stop() {
+		if (!m_Running) {
+			return;
+		}
+		m_Running = false;
+		List<Job> queued = new ArrayList<Job>(m_Queue.size());
+		m_Lock.lock();
+		try {
+			Job job;
+			while ((job = m_Queue.poll()) != null) {
+				queued.add(job);
+			}
+			m_NotEmpty.signal();
+		} finally {
+			m_Lock.unlock();
+		}
+		for (Job job : queued) {
+			finish(job, null);
+		}
+		m_Thread.interrupt();
+		m_Thread = null;
+	}// stop
+
+	/**
+	 * Tests if this bus is serving requests.
+	 *
+	 * @return true if running, false otherwise.
+	 */
+	public boolean isRunning() {
+		return m_Running;
+	}// isRunning
+
+	/**
+	 * Queues a request for the line.
+	 *
+	 * @param request
+	 *            the <tt>ModbusRequest</tt>.
+	 * @param deadline
+	 *            the <tt>System.nanoTime()</tt> after which the request is
+	 *            not sent anymore.
+	 * @return the <tt>Job</tt>, or null if the queue is full or the bus is
+	 *         not running.
+	 */
+	Job submit(ModbusRequest request, long deadline) {
+		ModbusResponseCache cache = m_Cache;
+		long key = -1;
+		if (cache != null) {
+			ModbusResponse response = cache.get(request);
+			if (response != null) {
+				Job job = new Job(request, deadline, -1, -1);
+				job.complete(response);
+				return job;
+			}
+			key = ModbusResponseCache.keyOf(request);
+		}
+		m_Lock.lock();
+		try {
+			if (!m_Running) {
+				return null;
+			}
+			if (key >= 0) {
+				Job leader = m_InFlight.get(key);
+				if (leader != null) {
+					// share the response of the identical read
+					Job job = new Job(request, deadline, -1, -1);
+					leader.m_Followers.add(job);
+					leader.m_Deadline = Math.max(leader.m_Deadline, deadline);
+					return job;
+				}
+			}
+			if (m_Queue.size() >= m_Capacity) {
+				return null;
+			}
+			Job job = new Job(request, deadline, m_Sequence++, key);
+			if (key >= 0) {
+				m_InFlight.put(key, job);
+			}
+			m_Queue.offer(job);
+			m_NotEmpty.signal();
+			return job;
+		} finally {
+			m_Lock.unlock();
+		}
+	}// submit
+
+	public void run() {
+		try {
+			Job job;
+			while ((job = take()) != null) {
+				if (!job.start() && !hasFollowers(job)) {
+					// abandoned by the client
+					finish(job, null);
+					continue;
+				}
+				long left = job.m_Deadline - System.nanoTime();
+				long delay = m_LastFrame + getInterFrameDelay() * 1000L
+						- System.nanoTime();
+				if (left - delay < TimeUnit.MILLISECONDS.toNanos(1)) {
+					if (Modbus.debug)
+						System.out.println("Dropping expired request "
+								+ job.m_Request.getHexMessage());
+					finish(job, null);
+					continue;
+				}
+				if (delay > 0) {
+					TimeUnit.NANOSECONDS.sleep(delay);
+				}
+				ModbusResponse response = execute(job.m_Request, left
+						- Math.max(delay, 0));
+				ModbusResponseCache cache = m_Cache;
+				if (cache != null) {
+					if (ModbusResponseCache.keyOf(job.m_Request) < 0) {
+						// a write may have been applied even if it failed
+						cache.invalidate(job.m_Request);
+					} else if (response != null) {
+						cache.put(job.m_Request, response);
+					}
+				}
+				finish(job, response);
+			}
+		} catch (InterruptedException ex) {
+			// stopped
+		}
+	}// run
+
+	private ModbusResponse execute(ModbusRequest request, long nanos) {
+		m_Connection.setReceiveTimeout((int) Math.max(1, TimeUnit.NANOSECONDS
+				.toMillis(nanos)));
+		m_Transaction.setRequest(request);
+		try {
+			m_Transaction.execute();
+			return m_Transaction.getResponse();
+		} catch (ModbusSlaveException ex) {
+			// forwarded as is
+			return m_Transaction.getResponse();
+		} catch (ModbusException ex) {
+			if (Modbus.debug)
+				System.out.println("Request failed: " + ex.getMessage());
+			return null;
+		} finally {
+			m_LastFrame = System.nanoTime();
+		}
+	}// execute
+
+	private boolean hasFollowers(Job job) {
+		m_Lock.lock();
+		try {
+			return !job.m_Followers.isEmpty();
+		} finally {
+			m_Lock.unlock();
+		}
+	}// hasFollowers
+
+	/**
+	 * Completes the given job and the jobs sharing its response.
+	 */
+	private void finish(Job job, ModbusResponse response) {
+		List<Job> followers;
+		m_Lock.lock();
+		try {
+			if (job.m_Key >= 0) {
+				m_InFlight.remove(job.m_Key);
+			}
+			followers = job.m_Followers;
+		} finally {
+			m_Lock.unlock();
+		}
+		if (followers.isEmpty()) {
+			job.complete(response);
+			return;
+		}
+		// every client gets its own instance
+		byte[] frame = (response != null) ? ModbusResponseCache.encode(response)
+				: null;
+		job.complete(response);
+		for (Job f : followers) {
+			f.complete((frame != null) ? ModbusResponseCache.decode(frame)
+					: null);
+		}
+	}// finish
+
+	private Job take() throws InterruptedException {
+		m_Lock.lock();
+		try {
+			while (m_Running && m_Queue.isEmpty()) {
+				m_NotEmpty.await();
+			}
+			return (m_Running) ? m_Queue.poll() : null;
+		} finally {
+			m_Lock.unlock();
+		}
+	}// take
+
+	/**
+	 * Tests if the given function code writes to the slave.
+	 *
+	 * @param fc
+	 *            the function code.
+	 * @return true if a write, false otherwise.
+	 */
+	static boolean isWrite(int fc) {
+		switch (fc) {
+		case Modbus.WRITE_COIL:
+		case Modbus.WRITE_SINGLE_REGISTER:
+		case Modbus.WRITE_MULTIPLE_COILS:
+		case Modbus.WRITE_MULTIPLE_REGISTERS:
+		case 0x15: // write file record
+		case 0x16: // mask write register
+		case 0x17: // read/write multiple registers
+			return true;
+		default:
+			return false;
+		}
+	}// isWrite
+
+	/**
+	 * Class representing a request queued for the line.
+	 */
+	static final class Job {
+
+		private static final int QUEUED = 0;
+		private static final int RUNNING = 1;
+		private static final int ABANDONED = 2;
+
+		private final ModbusRequest m_Request;
+		private final boolean m_Write;
+		private final long m_Sequence;
+		private final long m_Key;
+		private final List<Job> m_Followers = new ArrayList<Job>(0);
+		private final long m_Expires;
+		// the latest deadline of this job and its followers
+		private volatile long m_Deadline;
+		private final AtomicInteger m_State = new AtomicInteger(QUEUED);
+		private final CountDownLatch m_Done = new CountDownLatch(1);
+		private volatile ModbusResponse m_Response;
+
+		Job(ModbusRequest request, long deadline, long sequence, long key) {
+			m_Request = request;
+			m_Write = isWrite(request.getFunctionCode());
+			m_Expires = deadline;
+			m_Deadline = deadline;
+			m_Sequence = sequence;
+			m_Key = key;
+		}// constructor
+
+		/**
+		 * Waits for the response until the deadline. If the request has not
+		 * been sent by then, it is abandoned.
+		 *
+		 * @return the <tt>ModbusResponse</tt>, or null if the request failed
+		 *         or timed out.
+		 * @throws InterruptedException
+		 *             if the waiting thread is interrupted.
+		 */
+		ModbusResponse await() throws InterruptedException {
+			try {
+				if (m_Done.await(m_Expires - System.nanoTime(),
+						TimeUnit.NANOSECONDS)) {
+					return m_Response;
+				}
+			} finally {
+				m_State.compareAndSet(QUEUED, ABANDONED);
+			}
+			return null;
+		}// await
+
+		private boolean start() {
+			return m_State.compareAndSet(QUEUED, RUNNING);
+		}// start
+
+		private void complete(ModbusResponse response) {
+			m_Response = response;
+			m_Done.countDown();
+		}// complete
+
+	}// inner class Job
+
+	private static final Comparator<Job> PRIORITY = new Comparator<Job>() {
+		public int compare(Job a, Job b) {
+			if (a.m_Write != b.m_Write) {
+				return (a.m_Write) ? -1 : 1;
+			}
+			return (a.m_Sequence < b.m_Sequence) ? -1
+					: ((a.m_Sequence == b.m_Sequence) ? 0 : 1);
+		}
+	};
+
+}// class SerialBus
@@ -102,7 +102,10 @@ public class SerialConnection {
 			m_Transport = new ModbusASCIITransport();
 		} else if (Modbus.SERIAL_ENCODING_RTU
 				.equals(m_Parameters.getEncoding())) {
-			m_Transport = new ModbusRTUTransport();
+			ModbusRTUTransport rtu = new ModbusRTUTransport();
+			rtu.setSilentInterval(ModbusRTUTransport
+					.getSilentInterval(m_Parameters));
+			m_Transport = rtu;
 			setReceiveTimeout(m_Parameters.getReceiveTimeout());
 																
 		} else if (Modbus.SERIAL_ENCODING_BIN
@@ -17,11 +17,17 @@
 package net.wimpi.modbus.net;
 
 import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusContext;
 import net.wimpi.modbus.ModbusCoupler;
 import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.io.ModbusTCPTransport;
 import net.wimpi.modbus.io.ModbusTransport;
+import net.wimpi.modbus.metrics.ModbusMetrics;
+import net.wimpi.modbus.msg.ModbusFrame;
+import net.wimpi.modbus.msg.ModbusFrameProcessor;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
+import net.wimpi.modbus.procimg.ProcessImage;
 
 /**
  * Class implementing a handler for incoming Modbus/TCP requests.
@@ -33,6 +39,9 @@ public class TCPConnectionHandler implements Runnable {
 
 	private TCPSlaveConnection m_Connection;
 	private ModbusTransport m_Transport;
+	private ModbusMetrics m_Metrics;
+	private ModbusContext m_Context = ModbusCoupler.getReference();
+	private boolean m_FrameProcessing;
 
 	/**
 	 * Constructs a new <tt>TCPConnectionHandler</tt> instance.
@@ -54,22 +63,105 @@ public class TCPConnectionHandler implements Runnable {
 	public void setConnection(TCPSlaveConnection con) {
 		m_Connection = con;
 		m_Transport = m_Connection.getModbusTransport();
+		m_Transport.setContext(m_Context);
 	}// setConnection
 
+	/**
+	 * Sets the <tt>ModbusMetrics</tt> recording the requests served by this
+	 * <tt>TCPConnectionHandler</tt>.
+	 * 
+	 * @param metrics
+	 *            a <tt>ModbusMetrics</tt> instance, or null to disable
+	 *            recording.
+	 */
+	public void setMetrics(ModbusMetrics metrics) {
+		m_Metrics = metrics;
+	}// setMetrics
+
+	/**
+	 * Returns the <tt>ModbusMetrics</tt> of this <tt>TCPConnectionHandler</tt>.
+	 * 
+	 * @return the <tt>ModbusMetrics</tt>, or null if not recording.
+	 */
+	public ModbusMetrics getMetrics() {
+		return m_Metrics;
+	}// getMetrics
+
+	/**
+	 * Sets the <tt>ModbusContext</tt> this <tt>TCPConnectionHandler</tt>
+	 * serves requests from.
+	 * 
+	 * @param context
+	 *            a <tt>ModbusContext</tt>.
+	 */
+	public void setContext(ModbusContext context) {
+		m_Context = context;
+		m_Transport.setContext(context);
+	}// setContext
+
+	/**
+	 * Returns the <tt>ModbusContext</tt> of this <tt>TCPConnectionHandler</tt>.
+	 * 
+	 * @return the <tt>ModbusContext</tt>, by default the
+	 *         <tt>ModbusCoupler</tt>.
+	 */
+	public ModbusContext getContext() {
+		return m_Context;
+	}// getContext
+
+	/**
+	 * Sets whether this <tt>TCPConnectionHandler</tt> serves the connection
+	 * with reusable frames and a {@link ModbusFrameProcessor}, so that no
+	 * objects are created per transaction.
+	 * <p>
+	 * The processor answers the standard data access function codes itself,
+	 * reading and writing the process image point by point (or by range
+	 * copies if it is a <tt>BulkProcessImage</tt>). Custom request classes,
+	 * range semantics of the process image and deferred responses are
+	 * bypassed, so this is off by default.
+	 * 
+	 * @param b
+	 *            true to serve with frames, false to serve with request and
+	 *            response objects.
+	 */
+	public void setFrameProcessing(boolean b) {
+		m_FrameProcessing = b;
+	}// setFrameProcessing
+
+	/**
+	 * Tests if this <tt>TCPConnectionHandler</tt> serves the connection with
+	 * reusable frames.
+	 * 
+	 * @return true if serving with frames, false otherwise (default).
+	 */
+	public boolean isFrameProcessing() {
+		return m_FrameProcessing;
+	}// isFrameProcessing
+
 	public void run() {
+		if (m_FrameProcessing && m_Transport instanceof ModbusTCPTransport) {
+			runFrames((ModbusTCPTransport) m_Transport);
+			return;
+		}
 		try {
 			do {
 				// 1. read the request
 				ModbusRequest request = m_Transport.readRequest();
+				long start = (m_Metrics != null) ? System.nanoTime() : 0;
 				// System.out.println("Request:" + request.getHexMessage());
 				ModbusResponse response = null;
 
-				// test if Process image exists
-				if (ModbusCoupler.getReference().getProcessImage() == null) {
-					response = request
-							.createExceptionResponse(Modbus.ILLEGAL_FUNCTION_EXCEPTION);
+				// get the process image serving the unit
+				ModbusContext context = request.getContext();
+				ProcessImage procimg = context.getProcessImage(request
+						.getUnitID());
+				if (procimg == null) {
+					int code = (context.isMultiUnit())
+							? Modbus.GATEWAY_TARGET_FAILED_EXCEPTION
+							: Modbus.ILLEGAL_FUNCTION_EXCEPTION;
+					response = request.createExceptionResponse(code);
 				} else {
-					response = request.createResponse();
+					response = request.createResponse(procimg);
 				}
 				/* DEBUG */
 				if (Modbus.debug)
@@ -79,6 +171,12 @@ public class TCPConnectionHandler implements Runnable {
 
 				// System.out.println("Response:" + response.getHexMessage());
 				m_Transport.writeMessage(response);
+				if (m_Metrics != null) {
+					m_Metrics.transactionCompleted(request, response, System
+							.nanoTime()
+							- start, request.getOutputLength(), response
+							.getOutputLength());
+				}
 			} while (true);
 		} catch (ModbusIOException ex) {
 			if (!ex.isEOF()) {
@@ -95,5 +193,38 @@ public class TCPConnectionHandler implements Runnable {
 		}
 	}// run
 
+	/**
+	 * Serves the connection using reusable frames, so that no objects are
+	 * created per transaction.
+	 * 
+	 * @param transport
+	 *            the <tt>ModbusTCPTransport</tt> of the connection.
+	 */
+	private void runFrames(ModbusTCPTransport transport) {
+		ModbusFrame response = new ModbusFrame();
+		ModbusFrameProcessor processor = new ModbusFrameProcessor();
+		processor.setMetrics(m_Metrics);
+		processor.setContext(m_Context);
+		try {
+			do {
+				ModbusFrame request = transport.readFrame();
+				response.getBuffer().clear();
+				processor.process(request, response.getBuffer());
+				transport.writeFrame(response);
+			} while (true);
+		} catch (ModbusIOException ex) {
+			if (!ex.isEOF()) {
+				// other troubles, output for debug
+				ex.printStackTrace();
+			}
+		} finally {
+			try {
+				m_Connection.close();
+			} catch (Exception ex) {
+				// ignore
+			}
+		}
+	}// runFrames
+
 }// TCPConnectionHandler
 
@@ -21,13 +21,13 @@ package net.wimpi.modbus.net;
 
 import net.wimpi.modbus.Modbus;
 import net.wimpi.modbus.io.ModbusUDPTransport;
-import net.wimpi.modbus.util.LinkedQueue;
 import net.wimpi.modbus.util.ModbusUtil;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.util.Hashtable;
+import java.util.concurrent.LinkedTransferQueue;
 
 /**
  * Class implementing a <tt>UDPSlaveTerminal</tt>.
@@ -46,8 +46,8 @@ class UDPSlaveTerminal implements UDPTerminal {
 	protected ModbusUDPTransport m_ModbusTransport;
 	// private int m_Retries = Modbus.DEFAULT_RETRIES;
 
-	private LinkedQueue m_SendQueue;
-	private LinkedQueue m_ReceiveQueue;
+	private LinkedTransferQueue<byte[]> m_SendQueue;
+	private LinkedTransferQueue<byte[]> m_ReceiveQueue;
 	private PacketSender m_PacketSender;
 	private PacketReceiver m_PacketReceiver;
 	private Thread m_Receiver;
@@ -56,15 +56,15 @@ class UDPSlaveTerminal implements UDPTerminal {
 	protected Hashtable<Integer, DatagramPacket> m_Requests;
 
 	protected UDPSlaveTerminal() {
-		m_SendQueue = new LinkedQueue();
-		m_ReceiveQueue = new LinkedQueue();
+		m_SendQueue = new LinkedTransferQueue<byte[]>();
+		m_ReceiveQueue = new LinkedTransferQueue<byte[]>();
 		m_Requests = new Hashtable<Integer, DatagramPacket>(342);
 	}// constructor
 
 	protected UDPSlaveTerminal(InetAddress localaddress) {
 		m_LocalAddress = localaddress;
-		m_SendQueue = new LinkedQueue();
-		m_ReceiveQueue = new LinkedQueue();
+		m_SendQueue = new LinkedTransferQueue<byte[]>();
+		m_ReceiveQueue = new LinkedTransferQueue<byte[]>();
 		m_Requests = new Hashtable<Integer, DatagramPacket>(342);
 	}// constructor
 
@@ -214,7 +214,7 @@ class UDPSlaveTerminal implements UDPTerminal {
 	}// sendPackage
 
 	public byte[] receiveMessage() throws Exception {
-		return (byte[]) m_ReceiveQueue.take();
+		return m_ReceiveQueue.take();
 	}// receiveMessage
 
 	class PacketSender implements Runnable {
@@ -229,7 +229,7 @@ class UDPSlaveTerminal implements UDPTerminal {
 			do {
 				try {
 					// 1. pickup the message and corresponding request
-					byte[] message = (byte[]) m_SendQueue.take();
+					byte[] message = m_SendQueue.take();
 					DatagramPacket req = (DatagramPacket) m_Requests
 							.remove(new Integer(ModbusUtil
 									.registersToInt(message)));
@@ -0,0 +1,1154 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.procimg;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import net.wimpi.modbus.util.BitVector;
+
+/**
+ * Class implementing a process image that stores its values in primitive
+ * arrays.
+ * <p>
+ * Registers and input registers are kept in <tt>short[]</tt>, coils and input
+ * discretes are packed into <tt>long[]</tt> bit sets, so that a process image
+ * of the full Modbus address space takes a few hundred kilobytes and no
+ * per-point objects. The request implementations use the
+ * {@link BulkProcessImage} methods to copy whole ranges at once.
+ * <p>
+ * For callers working with the object model, <tt>Register</tt>,
+ * <tt>InputRegister</tt>, <tt>DigitalOut</tt> and <tt>DigitalIn</tt> instances
+ * are created on demand as views onto the arrays. Note that the
+ * <tt>add*()</tt> and <tt>set*()</tt> methods of the
+ * <tt>ProcessImageImplementation</tt> interface copy the value of the given
+ * point; the point instance itself is not retained. Points cannot be removed.
+ * <p>
+ * Single values are read without locking. Writes that modify bits are
+ * serialized, as they change the whole word holding the bit.
+ * <p>
+ * The register tables are guarded by sequence locks (<tt>StampedLock</tt>):
+ * writers serialize among each other, while range reads copy optimistically
+ * and retry if a write happened meanwhile. Readers never block writers, and
+ * a range (e.g. a 32-bit value spanning two registers) is always read as
+ * written by a single write operation. {@link #writeRegisterValues} and the
+ * typed accessors like {@link #setRegisterFloat} update several registers
+ * at once; {@link #getRegisterFloat} and its companions read them back
+ * consistently. Multi-register values use the big-endian word order of
+ * <tt>ModbusUtil</tt>.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ArrayProcessImage implements ProcessImageImplementation,
+		BulkProcessImage {
+
+	// optimistic reads retried before yielding
+	private static final int SPIN_RETRIES = 8;
+
+	// instance attributes; the arrays are always published before the
+	// counts, and readers read the count first
+	private volatile long[] m_DigitalOuts;
+	private volatile int m_DigitalOutCount;
+	private volatile long[] m_DigitalIns;
+	private volatile int m_DigitalInCount;
+	private volatile short[] m_InputRegisters;
+	private volatile int m_InputRegisterCount;
+	private volatile short[] m_Registers;
+	private volatile int m_RegisterCount;
+	private final Object m_BitLock = new Object();
+	private final StampedLock m_InputRegisterLock = new StampedLock();
+	private final StampedLock m_RegisterLock = new StampedLock();
+	protected boolean m_Locked = false;
+
+	/**
+	 * Constructs a new, empty <tt>ArrayProcessImage</tt> instance.
+	 */
+	public ArrayProcessImage() {
+		this(0, 0, 0, 0);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ArrayProcessImage</tt> instance with the given
+	 * number of points, all initialized to zero (respectively not set).
+	 *
+	 * @param digitalOuts
+	 *            the number of digital outs (coils).
+	 * @param digitalIns
+	 *            the number of digital ins (input discretes).
+	 * @param inputRegisters
+	 *            the number of input registers.
+	 * @param registers
+	 *            the number of registers.
+	 */
+	public ArrayProcessImage(int digitalOuts, int digitalIns,
+			int inputRegisters, int registers) {
+		m_DigitalOuts = new long[wordsFor(digitalOuts)];
+		m_DigitalOutCount = digitalOuts;
+		m_DigitalIns = new long[wordsFor(digitalIns)];
+		m_DigitalInCount = digitalIns;
+		m_InputRegisters = new short[inputRegisters];
+		m_InputRegisterCount = inputRegisters;
+		m_Registers = new short[registers];
+		m_RegisterCount = registers;
+	}// constructor
+
+	public boolean isLocked() {
+		return m_Locked;
+	}// isLocked
+
+	public void setLocked(boolean locked) {
+		m_Locked = locked;
+	}// setLocked
+
+	/*** Digital Outs ************************************/
+
+	/**
+	 * Tests if the digital out at the given reference is set.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return true if set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public boolean getDigitalOutState(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalOutCount);
+		return getBit(m_DigitalOuts, ref);
+	}// getDigitalOutState
+
+	/**
+	 * Sets the state of the digital out at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param b
+	 *            true if to be set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setDigitalOutState(int ref, boolean b)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalOutCount);
+		synchronized (m_BitLock) {
+			setBit(m_DigitalOuts, ref, b);
+		}
+	}// setDigitalOutState
+
+	public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalOutCount);
+		return new DigitalOutView(ref);
+	}// getDigitalOut
+
+	public int getDigitalOutCount() {
+		return m_DigitalOutCount;
+	}// getDigitalOutCount
+
+	public DigitalOut[] getDigitalOutRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalOutCount);
+		DigitalOut[] douts = new DigitalOut[count];
+		for (int i = 0; i < douts.length; i++) {
+			douts[i] = new DigitalOutView(ref + i);
+		}
+		return douts;
+	}// getDigitalOutRange
+
+	public void setDigitalOut(int ref, DigitalOut _do)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setDigitalOutState(ref, _do.isSet());
+		}
+	}// setDigitalOut
+
+	public void addDigitalOut(DigitalOut _do) {
+		if (!isLocked()) {
+			synchronized (m_BitLock) {
+				int ref = m_DigitalOutCount;
+				m_DigitalOuts = ensureBits(m_DigitalOuts, ref + 1);
+				setBit(m_DigitalOuts, ref, _do.isSet());
+				m_DigitalOutCount = ref + 1;
+			}
+		}
+	}// addDigitalOut
+
+	public void removeDigitalOut(DigitalOut _do) {
+		throw new UnsupportedOperationException();
+	}// removeDigitalOut
+
+	public void readDigitalOuts(int ref, int count, BitVector dest)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalOutCount);
+		copyBits(m_DigitalOuts, ref, count, dest);
+	}// readDigitalOuts
+
+	public void writeDigitalOuts(int ref, BitVector src)
+			throws IllegalAddressException {
+		int count = src.size();
+		checkRange(ref, count, m_DigitalOutCount);
+		synchronized (m_BitLock) {
+			long[] bits = m_DigitalOuts;
+			for (int i = 0; i < count; i++) {
+				setBit(bits, ref + i, src.getBit(i));
+			}
+		}
+	}// writeDigitalOuts
+
+	/*** Digital Ins *************************************/
+
+	/**
+	 * Tests if the digital in at the given reference is set.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return true if set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public boolean getDigitalInState(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalInCount);
+		return getBit(m_DigitalIns, ref);
+	}// getDigitalInState
+
+	/**
+	 * Sets the state of the digital in at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param b
+	 *            true if to be set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setDigitalInState(int ref, boolean b)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalInCount);
+		synchronized (m_BitLock) {
+			setBit(m_DigitalIns, ref, b);
+		}
+	}// setDigitalInState
+
+	public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalInCount);
+		return new DigitalInView(ref);
+	}// getDigitalIn
+
+	public int getDigitalInCount() {
+		return m_DigitalInCount;
+	}// getDigitalInCount
+
+	public DigitalIn[] getDigitalInRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalInCount);
+		DigitalIn[] dins = new DigitalIn[count];
+		for (int i = 0; i < dins.length; i++) {
+			dins[i] = new DigitalInView(ref + i);
+		}
+		return dins;
+	}// getDigitalInRange
+
+	public void setDigitalIn(int ref, DigitalIn di)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setDigitalInState(ref, di.isSet());
+		}
+	}// setDigitalIn
+
+	public void addDigitalIn(DigitalIn di) {
+		if (!isLocked()) {
+			synchronized (m_BitLock) {
+				int ref = m_DigitalInCount;
+				m_DigitalIns = ensureBits(m_DigitalIns, ref + 1);
+				setBit(m_DigitalIns, ref, di.isSet());
+				m_DigitalInCount = ref + 1;
+			}
+		}
+	}// addDigitalIn
+
+	public void removeDigitalIn(DigitalIn di) {
+		throw new UnsupportedOperationException();
+	}// removeDigitalIn
+
+	public void readDigitalIns(int ref, int count, BitVector dest)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalInCount);
+		copyBits(m_DigitalIns, ref, count, dest);
+	}// readDigitalIns
+
+	/*** Input Registers *********************************/
+
+	/**
+	 * Returns the value of the input register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public int getInputRegisterValue(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_InputRegisterCount);
+		return m_InputRegisters[ref] & 0xffff;
+	}// getInputRegisterValue
+
+	/**
+	 * Sets the value of the input register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param v
+	 *            the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setInputRegisterValue(int ref, int v)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_InputRegisterCount);
+		long stamp = m_InputRegisterLock.writeLock();
+		try {
+			m_InputRegisters[ref] = (short) v;
+		} finally {
+			m_InputRegisterLock.unlockWrite(stamp);
+		}
+	}// setInputRegisterValue
+
+	public InputRegister getInputRegister(int ref)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_InputRegisterCount);
+		return new InputRegisterView(ref);
+	}// getInputRegister
+
+	public int getInputRegisterCount() {
+		return m_InputRegisterCount;
+	}// getInputRegisterCount
+
+	public InputRegister[] getInputRegisterRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		InputRegister[] iregs = new InputRegister[count];
+		for (int i = 0; i < iregs.length; i++) {
+			iregs[i] = new InputRegisterView(ref + i);
+		}
+		return iregs;
+	}// getInputRegisterRange
+
+	public void setInputRegister(int ref, InputRegister reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setInputRegisterValue(ref, reg.getValue());
+		}
+	}// setInputRegister
+
+	public void addInputRegister(InputRegister reg) {
+		if (!isLocked()) {
+			long stamp = m_InputRegisterLock.writeLock();
+			try {
+				int ref = m_InputRegisterCount;
+				m_InputRegisters = ensureWords(m_InputRegisters, ref + 1);
+				m_InputRegisters[ref] = (short) reg.getValue();
+				m_InputRegisterCount = ref + 1;
+			} finally {
+				m_InputRegisterLock.unlockWrite(stamp);
+			}
+		}
+	}// addInputRegister
+
+	public void removeInputRegister(InputRegister reg) {
+		throw new UnsupportedOperationException();
+	}// removeInputRegister
+
+	public boolean hasInputRegisters(int ref, int count) {
+		return ref >= 0 && count >= 0 && ref + count <= m_InputRegisterCount;
+	}// hasInputRegisters
+
+	public void readInputRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		for (int n = 0;; n++) {
+			long stamp = m_InputRegisterLock.tryOptimisticRead();
+			if (stamp != 0) {
+				copyWords(m_InputRegisters, ref, count, dest, off);
+				if (m_InputRegisterLock.validate(stamp)) {
+					return;
+				}
+			}
+			backoff(n);
+		}
+	}// readInputRegisters
+
+	/**
+	 * Sets the values of a range of input registers from the given raw data,
+	 * as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param src
+	 *            the buffer holding <tt>2*count</tt> bytes.
+	 * @param off
+	 *            the offset in the buffer.
+	 * @param count
+	 *            the number of input registers to be set.
+	 * @throws IllegalAddressException
+	 *             if the range from ref to ref+count is non existant.
+	 */
+	public void writeInputRegisters(int ref, byte[] src, int off, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		long stamp = m_InputRegisterLock.writeLock();
+		try {
+			setWords(m_InputRegisters, ref, src, off, count);
+		} finally {
+			m_InputRegisterLock.unlockWrite(stamp);
+		}
+	}// writeInputRegisters
+
+	/**
+	 * Sets the values of consecutive input registers as a single atomic
+	 * update.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param values
+	 *            the values as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void writeInputRegisterValues(int ref, int[] values)
+			throws IllegalAddressException {
+		checkRange(ref, values.length, m_InputRegisterCount);
+		long stamp = m_InputRegisterLock.writeLock();
+		try {
+			setWords(m_InputRegisters, ref, values);
+		} finally {
+			m_InputRegisterLock.unlockWrite(stamp);
+		}
+	}// writeInputRegisterValues
+
+	/**
+	 * Copies the values of consecutive input registers into the given array,
+	 * consistent with respect to concurrent writes.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param dest
+	 *            the array receiving the values as unsigned short.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void readInputRegisterValues(int ref, int[] dest)
+			throws IllegalAddressException {
+		checkRange(ref, dest.length, m_InputRegisterCount);
+		for (int n = 0;; n++) {
+			long stamp = m_InputRegisterLock.tryOptimisticRead();
+			if (stamp != 0) {
+				getWords(m_InputRegisters, ref, dest);
+				if (m_InputRegisterLock.validate(stamp)) {
+					return;
+				}
+			}
+			backoff(n);
+		}
+	}// readInputRegisterValues
+
+	/**
+	 * Returns the 32-bit value held by the two input registers at the given
+	 * reference.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the high word.
+	 * @return the value as <tt>int</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public int getInputRegisterInt(int ref) throws IllegalAddressException {
+		return (int) readInputRegisterBits(ref, 2);
+	}// getInputRegisterInt
+
+	/**
+	 * Sets the two input registers at the given reference to a 32-bit value, as
+	 * a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the high word.
+	 * @param v
+	 *            the value as <tt>int</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setInputRegisterInt(int ref, int v)
+			throws IllegalAddressException {
+		writeInputRegisterBits(ref, 2, v);
+	}// setInputRegisterInt
+
+	/**
+	 * Returns the single precision float held by the two input registers at the
+	 * given reference.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the high word.
+	 * @return the value as <tt>float</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public float getInputRegisterFloat(int ref)
+			throws IllegalAddressException {
+		return Float.intBitsToFloat(getInputRegisterInt(ref));
+	}// getInputRegisterFloat
+
+	/**
+	 * Sets the two input registers at the given reference to a single precision
+	 * float, as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the high word.
+	 * @param f
+	 *            the value as <tt>float</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setInputRegisterFloat(int ref, float f)
+			throws IllegalAddressException {
+		setInputRegisterInt(ref, Float.floatToIntBits(f));
+	}// setInputRegisterFloat
+
+	/**
+	 * Returns the 64-bit value held by the four input registers at the given
+	 * reference.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the highest word.
+	 * @return the value as <tt>long</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public long getInputRegisterLong(int ref) throws IllegalAddressException {
+		return readInputRegisterBits(ref, 4);
+	}// getInputRegisterLong
+
+	/**
+	 * Sets the four input registers at the given reference to a 64-bit value,
+	 * as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the highest word.
+	 * @param v
+	 *            the value as <tt>long</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setInputRegisterLong(int ref, long v)
+			throws IllegalAddressException {
+		writeInputRegisterBits(ref, 4, v);
+	}// setInputRegisterLong
+
+	/**
+	 * Returns the double precision float held by the four input registers at
+	 * the given reference.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the highest word.
+	 * @return the value as <tt>double</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public double getInputRegisterDouble(int ref)
+			throws IllegalAddressException {
+		return Double.longBitsToDouble(getInputRegisterLong(ref));
+	}// getInputRegisterDouble
+
+	/**
+	 * Sets the four input registers at the given reference to a double
+	 * precision float, as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the input register holding the highest word.
+	 * @param d
+	 *            the value as <tt>double</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setInputRegisterDouble(int ref, double d)
+			throws IllegalAddressException {
+		setInputRegisterLong(ref, Double.doubleToLongBits(d));
+	}// setInputRegisterDouble
+
+	private long readInputRegisterBits(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		for (int n = 0;; n++) {
+			long stamp = m_InputRegisterLock.tryOptimisticRead();
+			if (stamp != 0) {
+				long v = getBits(m_InputRegisters, ref, count);
+				if (m_InputRegisterLock.validate(stamp)) {
+					return v;
+				}
+			}
+			backoff(n);
+		}
+	}// readInputRegisterBits
+
+	private void writeInputRegisterBits(int ref, int count, long v)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		long stamp = m_InputRegisterLock.writeLock();
+		try {
+			setBits(m_InputRegisters, ref, count, v);
+		} finally {
+			m_InputRegisterLock.unlockWrite(stamp);
+		}
+	}// writeInputRegisterBits
+
+	/*** Registers ***************************************/
+
+	/**
+	 * Returns the value of the register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public int getRegisterValue(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_RegisterCount);
+		return m_Registers[ref] & 0xffff;
+	}// getRegisterValue
+
+	/**
+	 * Sets the value of the register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param v
+	 *            the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setRegisterValue(int ref, int v)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_RegisterCount);
+		long stamp = m_RegisterLock.writeLock();
+		try {
+			m_Registers[ref] = (short) v;
+		} finally {
+			m_RegisterLock.unlockWrite(stamp);
+		}
+	}// setRegisterValue
+
+	public Register getRegister(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_RegisterCount);
+		return new RegisterView(ref);
+	}// getRegister
+
+	public int getRegisterCount() {
+		return m_RegisterCount;
+	}// getRegisterCount
+
+	public Register[] getRegisterRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		Register[] regs = new Register[count];
+		for (int i = 0; i < regs.length; i++) {
+			regs[i] = new RegisterView(ref + i);
+		}
+		return regs;
+	}// getRegisterRange
+
+	public void setRegister(int ref, Register reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setRegisterValue(ref, reg.getValue());
+		}
+	}// setRegister
+
+	public void addRegister(Register reg) {
+		if (!isLocked()) {
+			long stamp = m_RegisterLock.writeLock();
+			try {
+				int ref = m_RegisterCount;
+				m_Registers = ensureWords(m_Registers, ref + 1);
+				m_Registers[ref] = (short) reg.getValue();
+				m_RegisterCount = ref + 1;
+			} finally {
+				m_RegisterLock.unlockWrite(stamp);
+			}
+		}
+	}// addRegister
+
+	public void removeRegister(Register reg) {
+		throw new UnsupportedOperationException();
+	}// removeRegister
+
+	public boolean hasRegisters(int ref, int count) {
+		return ref >= 0 && count >= 0 && ref + count <= m_RegisterCount;
+	}// hasRegisters
+
+	public void readRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		for (int n = 0;; n++) {
+			long stamp = m_RegisterLock.tryOptimisticRead();
+			if (stamp != 0) {
+				copyWords(m_Registers, ref, count, dest, off);
+				if (m_RegisterLock.validate(stamp)) {
+					return;
+				}
+			}
+			backoff(n);
+		}
+	}// readRegisters
+
+	public void writeRegisters(int ref, byte[] src, int off, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		long stamp = m_RegisterLock.writeLock();
+		try {
+			setWords(m_Registers, ref, src, off, count);
+		} finally {
+			m_RegisterLock.unlockWrite(stamp);
+		}
+	}// writeRegisters
+
+	/**
+	 * Sets the values of consecutive registers as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param values
+	 *            the values as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void writeRegisterValues(int ref, int[] values)
+			throws IllegalAddressException {
+		checkRange(ref, values.length, m_RegisterCount);
+		long stamp = m_RegisterLock.writeLock();
+		try {
+			setWords(m_Registers, ref, values);
+		} finally {
+			m_RegisterLock.unlockWrite(stamp);
+		}
+	}// writeRegisterValues
+
+	/**
+	 * Copies the values of consecutive registers into the given array,
+	 * consistent with respect to concurrent writes.
+	 *
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param dest
+	 *            the array receiving the values as unsigned short.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void readRegisterValues(int ref, int[] dest)
+			throws IllegalAddressException {
+		checkRange(ref, dest.length, m_RegisterCount);
+		for (int n = 0;; n++) {
+			long stamp = m_RegisterLock.tryOptimisticRead();
+			if (stamp != 0) {
+				getWords(m_Registers, ref, dest);
+				if (m_RegisterLock.validate(stamp)) {
+					return;
+				}
+			}
+			backoff(n);
+		}
+	}// readRegisterValues
+
+	/**
+	 * Returns the 32-bit value held by the two registers at the given
+	 * reference.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the high word.
+	 * @return the value as <tt>int</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public int getRegisterInt(int ref) throws IllegalAddressException {
+		return (int) readRegisterBits(ref, 2);
+	}// getRegisterInt
+
+	/**
+	 * Sets the two registers at the given reference to a 32-bit value, as a
+	 * single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the high word.
+	 * @param v
+	 *            the value as <tt>int</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setRegisterInt(int ref, int v)
+			throws IllegalAddressException {
+		writeRegisterBits(ref, 2, v);
+	}// setRegisterInt
+
+	/**
+	 * Returns the single precision float held by the two registers at the given
+	 * reference.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the high word.
+	 * @return the value as <tt>float</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public float getRegisterFloat(int ref) throws IllegalAddressException {
+		return Float.intBitsToFloat(getRegisterInt(ref));
+	}// getRegisterFloat
+
+	/**
+	 * Sets the two registers at the given reference to a single precision
+	 * float, as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the high word.
+	 * @param f
+	 *            the value as <tt>float</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setRegisterFloat(int ref, float f)
+			throws IllegalAddressException {
+		setRegisterInt(ref, Float.floatToIntBits(f));
+	}// setRegisterFloat
+
+	/**
+	 * Returns the 64-bit value held by the four registers at the given
+	 * reference.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the highest word.
+	 * @return the value as <tt>long</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public long getRegisterLong(int ref) throws IllegalAddressException {
+		return readRegisterBits(ref, 4);
+	}// getRegisterLong
+
+	/**
+	 * Sets the four registers at the given reference to a 64-bit value, as a
+	 * single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the highest word.
+	 * @param v
+	 *            the value as <tt>long</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setRegisterLong(int ref, long v)
+			throws IllegalAddressException {
+		writeRegisterBits(ref, 4, v);
+	}// setRegisterLong
+
+	/**
+	 * Returns the double precision float held by the four registers at the
+	 * given reference.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the highest word.
+	 * @return the value as <tt>double</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public double getRegisterDouble(int ref) throws IllegalAddressException {
+		return Double.longBitsToDouble(getRegisterLong(ref));
+	}// getRegisterDouble
+
+	/**
+	 * Sets the four registers at the given reference to a double precision
+	 * float, as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the highest word.
+	 * @param d
+	 *            the value as <tt>double</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setRegisterDouble(int ref, double d)
+			throws IllegalAddressException {
+		setRegisterLong(ref, Double.doubleToLongBits(d));
+	}// setRegisterDouble
+
+	private long readRegisterBits(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		for (int n = 0;; n++) {
+			long stamp = m_RegisterLock.tryOptimisticRead();
+			if (stamp != 0) {
+				long v = getBits(m_Registers, ref, count);
+				if (m_RegisterLock.validate(stamp)) {
+					return v;
+				}
+			}
+			backoff(n);
+		}
+	}// readRegisterBits
+
+	private void writeRegisterBits(int ref, int count, long v)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		long stamp = m_RegisterLock.writeLock();
+		try {
+			setBits(m_Registers, ref, count, v);
+		} finally {
+			m_RegisterLock.unlockWrite(stamp);
+		}
+	}// writeRegisterBits
+
+	/*** Helpers *****************************************/
+
+	private static void checkRange(int ref, int count, int size)
+			throws IllegalAddressException {
+		if (ref < 0 || count < 0 || ref + count > size) {
+			throw new IllegalAddressException();
+		}
+	}// checkRange
+
+	private static int wordsFor(int bits) {
+		return (bits + 63) >>> 6;
+	}// wordsFor
+
+	private static long[] ensureBits(long[] bits, int size) {
+		if (wordsFor(size) > bits.length) {
+			return Arrays.copyOf(bits, Math.max(wordsFor(size),
+					bits.length * 2));
+		}
+		return bits;
+	}// ensureBits
+
+	private static short[] ensureWords(short[] words, int size) {
+		if (size > words.length) {
+			return Arrays.copyOf(words, Math.max(size, words.length * 2));
+		}
+		return words;
+	}// ensureWords
+
+	private static boolean getBit(long[] bits, int idx) {
+		return (bits[idx >>> 6] & (1L << idx)) != 0;
+	}// getBit
+
+	private static void setBit(long[] bits, int idx, boolean b) {
+		if (b) {
+			bits[idx >>> 6] |= (1L << idx);
+		} else {
+			bits[idx >>> 6] &= ~(1L << idx);
+		}
+	}// setBit
+
+	/**
+	 * Copies a range of bits into a <tt>BitVector</tt>, a byte at a time if
+	 * the vector uses the default LSB first access.
+	 */
+	private static void copyBits(long[] bits, int ref, int count,
+			BitVector dest) {
+		if (dest.isMSBAccess()) {
+			for (int i = 0; i < count; i++) {
+				dest.setBit(i, getBit(bits, ref + i));
+			}
+			return;
+		}
+		byte[] data = dest.getBytes();
+		for (int j = 0, pos = ref; j * 8 < count; j++, pos += 8) {
+			int wi = pos >>> 6;
+			int sh = pos & 63;
+			long v = bits[wi] >>> sh;
+			if (sh > 56 && wi + 1 < bits.length) {
+				v |= bits[wi + 1] << (64 - sh);
+			}
+			int n = Math.min(8, count - j * 8);
+			data[j] = (byte) (v & ((1 << n) - 1));
+		}
+	}// copyBits
+
+	private static void copyWords(short[] words, int ref, int count,
+			byte[] dest, int off) {
+		for (int i = ref, end = ref + count; i < end; i++) {
+			short v = words[i];
+			dest[off++] = (byte) (v >> 8);
+			dest[off++] = (byte) v;
+		}
+	}// copyWords
+
+	private static void setWords(short[] words, int ref, byte[] src, int off,
+			int count) {
+		for (int i = ref, end = ref + count; i < end; i++, off += 2) {
+			words[i] = (short) ((src[off] << 8) | (src[off + 1] & 0xff));
+		}
+	}// setWords
+
+	private static void getWords(short[] words, int ref, int[] dest) {
+		for (int i = 0; i < dest.length; i++) {
+			dest[i] = words[ref + i] & 0xffff;
+		}
+	}// getWords
+
+	private static void setWords(short[] words, int ref, int[] values) {
+		for (int i = 0; i < values.length; i++) {
+			words[ref + i] = (short) values[i];
+		}
+	}// setWords
+
+	/**
+	 * Returns <tt>count</tt> words as one value, high word first.
+	 */
+	private static long getBits(short[] words, int ref, int count) {
+		long v = 0;
+		for (int i = ref, end = ref + count; i < end; i++) {
+			v = (v << 16) | (words[i] & 0xffff);
+		}
+		return v;
+	}// getBits
+
+	private static void setBits(short[] words, int ref, int count, long v) {
+		for (int i = ref + count - 1; i >= ref; i--, v >>>= 16) {
+			words[i] = (short) v;
+		}
+	}// setBits
+
+	/**
+	 * Called after a failed optimistic read; spins for a few attempts and
+	 * then yields to the writer.
+	 */
+	private static void backoff(int attempt) {
+		if (attempt >= SPIN_RETRIES) {
+			Thread.yield();
+		}
+	}// backoff
+
+	/*** Views *******************************************/
+
+	/**
+	 * Inner class implementing a <tt>DigitalOut</tt> view.
+	 */
+	private class DigitalOutView implements DigitalOut {
+
+		private final int m_Ref;
+
+		DigitalOutView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public boolean isSet() {
+			return getBit(m_DigitalOuts, m_Ref);
+		}// isSet
+
+		public void set(boolean b) {
+			setDigitalOutState(m_Ref, b);
+		}// set
+
+	}// inner class DigitalOutView
+
+	/**
+	 * Inner class implementing a <tt>DigitalIn</tt> view.
+	 */
+	private class DigitalInView implements DigitalIn {
+
+		private final int m_Ref;
+
+		DigitalInView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public boolean isSet() {
+			return getBit(m_DigitalIns, m_Ref);
+		}// isSet
+
+	}// inner class DigitalInView
+
+	/**
+	 * Inner class implementing an <tt>InputRegister</tt> view.
+	 */
+	private class InputRegisterView implements InputRegister {
+
+		private final int m_Ref;
+
+		InputRegisterView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public int getValue() {
+			return m_InputRegisters[m_Ref] & 0xffff;
+		}// getValue
+
+		public int toUnsignedShort() {
+			return m_InputRegisters[m_Ref] & 0xffff;
+		}// toUnsignedShort
+
+		public short toShort() {
+			return m_InputRegisters[m_Ref];
+		}// toShort
+
+		public byte[] toBytes() {
+			short v = m_InputRegisters[m_Ref];
+			return new byte[] { (byte) (v >> 8), (byte) v };
+		}// toBytes
+
+	}// inner class InputRegisterView
+
+	/**
+	 * Inner class implementing a <tt>Register</tt> view.
+	 */
+	private class RegisterView implements Register {
+
+		private final int m_Ref;
+
+		RegisterView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public int getValue() {
+			return m_Registers[m_Ref] & 0xffff;
+		}// getValue
+
+		public int toUnsignedShort() {
+			return m_Registers[m_Ref] & 0xffff;
+		}// toUnsignedShort
+
+		public short toShort() {
+			return m_Registers[m_Ref];
+		}// toShort
+
+		public byte[] toBytes() {
+			short v = m_Registers[m_Ref];
+			return new byte[] { (byte) (v >> 8), (byte) v };
+		}// toBytes
+
+		public void setValue(int v) {
+			setRegisterValue(m_Ref, v);
+		}// setValue
+
+		public void setValue(short s) {
+			setRegisterValue(m_Ref, s);
+		}// setValue
+
+		public void setValue(byte[] bytes) {
+			if (bytes.length < 2) {
+				throw new IllegalArgumentException();
+			}
+			writeRegisters(m_Ref, bytes, 0, 1);
+		}// setValue
+
+	}// inner class RegisterView
+
+}// class ArrayProcessImage
@@ -0,0 +1,163 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.procimg;
+
+import net.wimpi.modbus.util.BitVector;
+
+/**
+ * Interface defining bulk access to the values of a <tt>ProcessImage</tt>.
+ * <p>
+ * Process images implementing this interface allow the request
+ * implementations to copy whole ranges of values without going through the
+ * per-point objects. Register values are exchanged in their raw big-endian
+ * representation (two bytes per register), which is the representation used
+ * on the wire. Bits are exchanged through <tt>BitVector</tt> instances, using
+ * the default LSB first ordering of Modbus.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public interface BulkProcessImage extends ProcessImage {
+
+	/**
+	 * Copies the states of a range of digital outputs (coils) into the given
+	 * <tt>BitVector</tt>, starting with bit 0.
+	 *
+	 * @param ref
+	 *            the reference of the first digital out.
+	 * @param count
+	 *            the number of states to be copied.
+	 * @param dest
+	 *            the <tt>BitVector</tt> receiving the states.
+	 * @throws IllegalAddressException
+	 *             if the range from ref to ref+count is non existant.
+	 */
+	public void readDigitalOuts(int ref, int count, BitVector dest)
+			throws IllegalAddressException;
+
+	/**
+	 * Sets the states of a range of digital outputs (coils) from the given
+	 * <tt>BitVector</tt>. The number of outputs is given by the size of the
+	 * vector.
+	 *
+	 * @param ref
+	 *            the reference of the first digital out.
+	 * @param src
+	 *            the <tt>BitVector</tt> holding the states to be set.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void writeDigitalOuts(int ref, BitVector src)
+			throws IllegalAddressException;
+
+	/**
+	 * Copies the states of a range of digital inputs (input discretes) into
+	 * the given <tt>BitVector</tt>, starting with bit 0.
+	 *
+	 * @param ref
+	 *            the reference of the first digital in.
+	 * @param count
+	 *            the number of states to be copied.
+	 * @param dest
+	 *            the <tt>BitVector</tt> receiving the states.
+	 * @throws IllegalAddressException
+	 *             if the range from ref to ref+count is non existant.
+	 */
+	public void readDigitalIns(int ref, int count, BitVector dest)
+			throws IllegalAddressException;
+
+	/**
+	 * Tests if all input registers of the given range exist, so that they
+	 * can be read with {@link #readInputRegisters}. Input registers must not
+	 * be removed from a process image implementing this interface, as
+	 * responses may copy a tested range later on.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param count
+	 *            the number of input registers.
+	 * @return true if the range exists, false otherwise.
+	 */
+	public boolean hasInputRegisters(int ref, int count);
+
+	/**
+	 * Copies the raw values of a range of input registers into the given
+	 * buffer.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param count
+	 *            the number of registers to be copied.
+	 * @param dest
+	 *            the buffer receiving <tt>2*count</tt> bytes.
+	 * @param off
+	 *            the offset in the buffer.
+	 * @throws IllegalAddressException
+	 *             if the range from ref to ref+count is non existant.
+	 */
+	public void readInputRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException;
+
+	/**
+	 * Tests if all registers of the given range exist, so that they can be
+	 * read with {@link #readRegisters}. Registers must not be removed from a
+	 * process image implementing this interface, as responses may copy a
+	 * tested range later on.
+	 *
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param count
+	 *            the number of registers.
+	 * @return true if the range exists, false otherwise.
+	 */
+	public boolean hasRegisters(int ref, int count);
+
+	/**
+	 * Copies the raw values of a range of registers into the given buffer.
+	 *
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param count
+	 *            the number of registers to be copied.
+	 * @param dest
+	 *            the buffer receiving <tt>2*count</tt> bytes.
+	 * @param off
+	 *            the offset in the buffer.
+	 * @throws IllegalAddressException
+	 *             if the range from ref to ref+count is non existant.
+	 */
+	public void readRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException;
+
+	/**
+	 * Sets the values of a range of registers from the given raw data.
+	 *
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param src
+	 *            the buffer holding <tt>2*count</tt> bytes.
+	 * @param off
+	 *            the offset in the buffer.
+	 * @param count
+	 *            the number of registers to be set.
+	 * @throws IllegalAddressException
+	 *             if the range from ref to ref+count is non existant.
+	 */
+	public void writeRegisters(int ref, byte[] src, int off, int count)
+			throws IllegalAddressException;
+
+}// interface BulkProcessImage
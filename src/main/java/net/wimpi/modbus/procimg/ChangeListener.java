@@ -0,0 +1,38 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.procimg;
+
+/**
+ * Interface defining a listener for the change sets reported by a
+ * {@link ChangeNotifier}.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public interface ChangeListener {
+
+	/**
+	 * Called on the dispatching thread of the <tt>ChangeNotifier</tt> with
+	 * the changes of a request or of a time window. Listeners are called one
+	 * after the other, so they should not block for long.
+	 *
+	 * @param changes
+	 *            the <tt>ChangeSet</tt> holding the changed points.
+	 */
+	public void changed(ChangeSet changes);
+
+}// interface ChangeListener
@@ -0,0 +1,363 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.procimg;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.wimpi.modbus.Modbus;
+
+/**
+ * Class implementing the batched notification of changes of digital outs
+ * (coils) and registers.
+ * <p>
+ * Points report their changes with {@link #coilChanged} and
+ * {@link #registerChanged}; {@link ObservableDigitalOut} and
+ * {@link ObservableRegister} do so once attached (see
+ * {@link #attach(ProcessImage)}). The changes are collected into
+ * {@link ChangeSet}s, which are handed to the registered
+ * {@link ChangeListener}s on a dedicated thread, so that listeners do not
+ * add latency to the writes:
+ * <ul>
+ * <li>changes made between {@link #beginBatch()} and {@link #endBatch()} on
+ * a thread form one change set; the write requests use this to report all
+ * points written by a request at once.</li>
+ * <li>other changes are collected for the time window set with
+ * {@link #setWindow(long)}, or reported one by one if the window is 0 (the
+ * default).</li>
+ * </ul>
+ * Change sets are dispatched in the order they were completed. The
+ * listener list is copy-on-write, so listeners may be added and removed
+ * while changes are dispatched.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ChangeNotifier {
+
+	private static final ThreadLocal<Batch> c_Batch = new ThreadLocal<Batch>() {
+		protected Batch initialValue() {
+			return new Batch();
+		}// initialValue
+	};
+
+	// instance attributes
+	private final CopyOnWriteArrayList<ChangeListener> m_Listeners =
+			new CopyOnWriteArrayList<ChangeListener>();
+	private final ScheduledExecutorService m_Executor;
+	private final boolean m_OwnExecutor;
+	private volatile long m_Window = 0;
+	private ChangeSet m_Pending; // guarded by this
+
+	/**
+	 * Constructs a new <tt>ChangeNotifier</tt> instance dispatching on a
+	 * daemon thread of its own.
+	 */
+	public ChangeNotifier() {
+		this(Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ChangeNotifier");
+				t.setDaemon(true);
+				return t;
+			}// newThread
+		}), true);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ChangeNotifier</tt> instance dispatching on the
+	 * given executor. The executor should use a single thread, otherwise
+	 * change sets may be dispatched out of order.
+	 *
+	 * @param executor
+	 *            the <tt>ScheduledExecutorService</tt> used for dispatching.
+	 */
+	public ChangeNotifier(ScheduledExecutorService executor) {
+		this(executor, false);
+	}// constructor
+
+	private ChangeNotifier(ScheduledExecutorService executor, boolean own) {
+		m_Executor = executor;
+		m_OwnExecutor = own;
+	}// constructor
+
+	/**
+	 * Adds a listener, if it is not registered already.
+	 *
+	 * @param l
+	 *            the <tt>ChangeListener</tt> to be added.
+	 */
+	public void addListener(ChangeListener l) {
+		m_Listeners.addIfAbsent(l);
+	}// addListener
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param l
+	 *            the <tt>ChangeListener</tt> to be removed.
+	 */
+	public void removeListener(ChangeListener l) {
+		m_Listeners.remove(l);
+	}// removeListener
+
+	/**
+	 * Returns the time window for collecting changes made outside of a
+	 * batch.
+	 *
+	 * @return the window in milliseconds.
+	 */
+	public long getWindow() {
+		return m_Window;
+	}// getWindow
+
+	/**
+	 * Sets the time window for collecting changes made outside of a batch.
+	 * The first change starts the window; all changes until it ends are
+	 * reported as one change set.
+	 *
+	 * @param window
+	 *            the window in milliseconds; 0 reports each change on its
+	 *            own.
+	 */
+	public void setWindow(long window) {
+		m_Window = window;
+	}// setWindow
+
+	/**
+	 * Attaches the observable digital outs and registers of the given
+	 * process image to this <tt>ChangeNotifier</tt>, using their references
+	 * in the image. References that are not defined in the image (e.g. the
+	 * gaps of a {@link SparseProcessImage}) are skipped.
+	 *
+	 * @param procimg
+	 *            the <tt>ProcessImage</tt>.
+	 */
+	public void attach(ProcessImage procimg) {
+		for (int i = 0, n = procimg.getDigitalOutCount(); i < n; i++) {
+			DigitalOut dout;
+			try {
+				dout = procimg.getDigitalOut(i);
+			} catch (IllegalAddressException ex) {
+				continue;
+			}
+			if (dout instanceof ObservableDigitalOut) {
+				((ObservableDigitalOut) dout).setChangeNotifier(this, i);
+			}
+		}
+		for (int i = 0, n = procimg.getRegisterCount(); i < n; i++) {
+			Register reg;
+			try {
+				reg = procimg.getRegister(i);
+			} catch (IllegalAddressException ex) {
+				continue;
+			}
+			if (reg instanceof ObservableRegister) {
+				((ObservableRegister) reg).setChangeNotifier(this, i);
+			}
+		}
+	}// attach
+
+	/**
+	 * Reports a change of the digital out at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param oldState
+	 *            the state before the change.
+	 * @param newState
+	 *            the state after the change.
+	 */
+	public void coilChanged(int ref, boolean oldState, boolean newState) {
+		changed(true, ref, oldState ? 1 : 0, newState ? 1 : 0);
+	}// coilChanged
+
+	/**
+	 * Reports a change of the register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param oldValue
+	 *            the value before the change.
+	 * @param newValue
+	 *            the value after the change.
+	 */
+	public void registerChanged(int ref, int oldValue, int newValue) {
+		changed(false, ref, oldValue & 0xffff, newValue & 0xffff);
+	}// registerChanged
+
+	private void changed(boolean coil, int ref, int oldValue, int newValue) {
+		if (m_Listeners.isEmpty()) {
+			return;
+		}
+		Batch batch = c_Batch.get();
+		if (batch.m_Depth > 0) {
+			batch.get(this).add(coil, ref, oldValue, newValue);
+			return;
+		}
+		long window = m_Window;
+		if (window <= 0) {
+			ChangeSet changes = new ChangeSet();
+			changes.add(coil, ref, oldValue, newValue);
+			submit(changes);
+			return;
+		}
+		synchronized (this) {
+			if (m_Pending == null) {
+				m_Pending = new ChangeSet();
+				try {
+					m_Executor.schedule(new Runnable() {
+						public void run() {
+							ChangeSet pending = takePending();
+							if (pending != null) {
+								dispatch(pending);
+							}
+						}// run
+					}, window, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException ex) {
+					m_Pending = null;
+					return;
+				}
+			}
+			m_Pending.add(coil, ref, oldValue, newValue);
+		}
+	}// changed
+
+	private synchronized ChangeSet takePending() {
+		ChangeSet pending = m_Pending;
+		m_Pending = null;
+		return pending;
+	}// takePending
+
+	/**
+	 * Hands a complete change set to the dispatching thread, after the
+	 * changes waiting for the end of the window.
+	 */
+	private void submit(final ChangeSet changes) {
+		final ChangeSet pending = takePending();
+		try {
+			m_Executor.execute(new Runnable() {
+				public void run() {
+					if (pending != null) {
+						dispatch(pending);
+					}
+					dispatch(changes);
+				}// run
+			});
+		} catch (RejectedExecutionException ex) {
+			// stopped
+		}
+	}// submit
+
+	private void dispatch(ChangeSet changes) {
+		changes.seal();
+		if (changes.isEmpty()) {
+			return;
+		}
+		for (ChangeListener l : m_Listeners) {
+			try {
+				l.changed(changes);
+			} catch (RuntimeException ex) {
+				if (Modbus.debug)
+					System.out.println("ChangeListener failed: "
+							+ ex.toString());
+			}
+		}
+	}// dispatch
+
+	/**
+	 * Stops this <tt>ChangeNotifier</tt>. Changes waiting for the end of the
+	 * window are dispatched, and the dispatching thread is shut down if it
+	 * is owned by this instance.
+	 */
+	public void stop() {
+		final ChangeSet pending = takePending();
+		if (pending != null) {
+			try {
+				m_Executor.execute(new Runnable() {
+					public void run() {
+						dispatch(pending);
+					}// run
+				});
+			} catch (RejectedExecutionException ex) {
+				// stopped already
+			}
+		}
+		if (m_OwnExecutor) {
+			m_Executor.shutdown();
+		}
+	}// stop
+
+	/**
+	 * Starts a batch on the calling thread. All changes reported to any
+	 * <tt>ChangeNotifier</tt> until the matching {@link #endBatch()} are
+	 * dispatched as one change set per notifier. Batches may be nested; the
+	 * outermost one counts.
+	 */
+	public static void beginBatch() {
+		c_Batch.get().m_Depth++;
+	}// beginBatch
+
+	/**
+	 * Ends a batch started with {@link #beginBatch()} on the calling thread.
+	 * Should be called in a <tt>finally</tt> block.
+	 */
+	public static void endBatch() {
+		Batch batch = c_Batch.get();
+		if (batch.m_Depth > 0 && --batch.m_Depth == 0) {
+			batch.submit();
+		}
+	}// endBatch
+
+	/**
+	 * Inner class holding the change sets of a batch, one per notifier.
+	 */
+	private static final class Batch {
+
+		int m_Depth;
+		private final ArrayList<ChangeNotifier> m_Notifiers =
+				new ArrayList<ChangeNotifier>(2);
+		private final ArrayList<ChangeSet> m_Changes =
+				new ArrayList<ChangeSet>(2);
+
+		ChangeSet get(ChangeNotifier notifier) {
+			for (int i = 0; i < m_Notifiers.size(); i++) {
+				if (m_Notifiers.get(i) == notifier) {
+					return m_Changes.get(i);
+				}
+			}
+			ChangeSet changes = new ChangeSet();
+			m_Notifiers.add(notifier);
+			m_Changes.add(changes);
+			return changes;
+		}// get
+
+		void submit() {
+			for (int i = 0; i < m_Notifiers.size(); i++) {
+				m_Notifiers.get(i).submit(m_Changes.get(i));
+			}
+			m_Notifiers.clear();
+			m_Changes.clear();
+		}// submit
+
+	}// inner class Batch
+
+}// class ChangeNotifier
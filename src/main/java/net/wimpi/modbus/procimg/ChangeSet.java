@@ -0,0 +1,226 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.procimg;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class holding the changes of digital outs (coils) and registers that are
+ * reported together by a {@link ChangeNotifier}.
+ * <p>
+ * Changes of the same point are coalesced, keeping the value before the
+ * first and after the last change; points ending up with their original
+ * value are dropped. The changes are presented as ranges of consecutive
+ * references, in ascending order with the coils first.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ChangeSet {
+
+	// reference -> { old value, new value }, until sealed
+	private TreeMap<Integer, int[]> m_Coils;
+	private TreeMap<Integer, int[]> m_Registers;
+	private ArrayList<Range> m_Ranges;
+
+	/**
+	 * Constructs a new, empty <tt>ChangeSet</tt> instance.
+	 */
+	ChangeSet() {
+	}// constructor
+
+	/**
+	 * Adds a change of the point at the given reference.
+	 */
+	void add(boolean coil, int ref, int oldValue, int newValue) {
+		TreeMap<Integer, int[]> map;
+		if (coil) {
+			if (m_Coils == null) {
+				m_Coils = new TreeMap<Integer, int[]>();
+			}
+			map = m_Coils;
+		} else {
+			if (m_Registers == null) {
+				m_Registers = new TreeMap<Integer, int[]>();
+			}
+			map = m_Registers;
+		}
+		int[] change = map.get(ref);
+		if (change == null) {
+			map.put(ref, new int[] { oldValue, newValue });
+		} else {
+			change[1] = newValue;
+		}
+	}// add
+
+	/**
+	 * Builds the ranges; no changes can be added afterwards.
+	 */
+	void seal() {
+		m_Ranges = new ArrayList<Range>();
+		addRanges(true, m_Coils);
+		addRanges(false, m_Registers);
+		m_Coils = null;
+		m_Registers = null;
+	}// seal
+
+	private void addRanges(boolean coils, TreeMap<Integer, int[]> map) {
+		if (map == null) {
+			return;
+		}
+		// drop the points that have their original value
+		for (Iterator<int[]> iter = map.values().iterator(); iter.hasNext();) {
+			int[] change = iter.next();
+			if (change[0] == change[1]) {
+				iter.remove();
+			}
+		}
+		Iterator<Map.Entry<Integer, int[]>> iter = map.entrySet().iterator();
+		Map.Entry<Integer, int[]> entry = iter.hasNext() ? iter.next() : null;
+		while (entry != null) {
+			int ref = entry.getKey();
+			int count = 1;
+			Map.Entry<Integer, int[]> next = iter.hasNext() ? iter.next()
+					: null;
+			while (next != null && next.getKey() == ref + count) {
+				count++;
+				next = iter.hasNext() ? iter.next() : null;
+			}
+			Range range = new Range(coils, ref, count);
+			for (Map.Entry<Integer, int[]> e : map.subMap(ref, ref + count)
+					.entrySet()) {
+				int idx = e.getKey() - ref;
+				range.m_Old[idx] = e.getValue()[0];
+				range.m_New[idx] = e.getValue()[1];
+			}
+			m_Ranges.add(range);
+			entry = next;
+		}
+	}// addRanges
+
+	/**
+	 * Tests if this <tt>ChangeSet</tt> holds no changes.
+	 *
+	 * @return true if empty, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return m_Ranges.isEmpty();
+	}// isEmpty
+
+	/**
+	 * Returns the number of ranges of this <tt>ChangeSet</tt>.
+	 *
+	 * @return the number of ranges.
+	 */
+	public int getRangeCount() {
+		return m_Ranges.size();
+	}// getRangeCount
+
+	/**
+	 * Returns the range with the given index.
+	 *
+	 * @param idx
+	 *            the index of the range.
+	 * @return the <tt>Range</tt>.
+	 */
+	public Range getRange(int idx) {
+		return m_Ranges.get(idx);
+	}// getRange
+
+	public String toString() {
+		return "ChangeSet" + m_Ranges;
+	}// toString
+
+	/**
+	 * Class holding the changes of a range of consecutive points. Values of
+	 * coils are 1 if set and 0 otherwise, values of registers are unsigned
+	 * shorts.
+	 */
+	public static final class Range {
+
+		private final boolean m_Coils;
+		private final int m_Reference;
+		private final int[] m_Old;
+		private final int[] m_New;
+
+		Range(boolean coils, int ref, int count) {
+			m_Coils = coils;
+			m_Reference = ref;
+			m_Old = new int[count];
+			m_New = new int[count];
+		}// constructor
+
+		/**
+		 * Tests if this range holds coils or registers.
+		 *
+		 * @return true if coils, false if registers.
+		 */
+		public boolean isCoils() {
+			return m_Coils;
+		}// isCoils
+
+		/**
+		 * Returns the reference of the first point of this range.
+		 *
+		 * @return the reference.
+		 */
+		public int getReference() {
+			return m_Reference;
+		}// getReference
+
+		/**
+		 * Returns the number of points of this range.
+		 *
+		 * @return the number of points.
+		 */
+		public int getCount() {
+			return m_Old.length;
+		}// getCount
+
+		/**
+		 * Returns the value of a point before the changes.
+		 *
+		 * @param idx
+		 *            the index of the point within this range.
+		 * @return the old value.
+		 */
+		public int getOldValue(int idx) {
+			return m_Old[idx];
+		}// getOldValue
+
+		/**
+		 * Returns the value of a point after the changes.
+		 *
+		 * @param idx
+		 *            the index of the point within this range.
+		 * @return the new value.
+		 */
+		public int getNewValue(int idx) {
+			return m_New[idx];
+		}// getNewValue
+
+		public String toString() {
+			return (m_Coils ? "coils " : "registers ") + m_Reference + "+"
+					+ m_Old.length;
+		}// toString
+
+	}// inner class Range
+
+}// class ChangeSet
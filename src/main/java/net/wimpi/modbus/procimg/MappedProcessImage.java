@@ -0,0 +1,1005 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.procimg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.wimpi.modbus.util.BitVector;
+
+/**
+ * Class implementing a process image that is kept in a memory-mapped file,
+ * so that other processes mapping the same file can exchange values with
+ * the slave through plain memory accesses.
+ * <p>
+ * The file has a fixed layout, with all values big-endian:
+ *
+ * <pre>
+ * offset  size  content
+ *      0     4  magic number 0x4A4D4F44 (&quot;JMOD&quot;)
+ *      4     4  layout version (1)
+ *      8     8  sequence number, odd while a write is in progress
+ *     16     4  number of digital outs (coils)
+ *     20     4  number of digital ins (input discretes)
+ *     24     4  number of input registers
+ *     28     4  number of registers
+ *     32    32  reserved
+ *     64        digital outs, packed 8 per byte, lowest reference in bit 0
+ *               digital ins, packed likewise
+ *               input registers, 2 bytes each
+ *               registers, 2 bytes each
+ * </pre>
+ *
+ * Each section starts at a multiple of 8 bytes. Bits and registers use the
+ * representation of the Modbus protocol, so ranges are copied to and from
+ * the messages without conversion.
+ * <p>
+ * The sequence number works as a sequence lock shared by all processes: a
+ * writer makes it odd with a compare-and-set, modifies the values and makes
+ * it even again. Readers read the sequence number, copy the values and retry
+ * if the number was odd or has changed meanwhile, so they never block
+ * writers and always see the result of complete writes. Producers in other
+ * processes have to follow the same protocol, using atomic operations on
+ * the sequence number; a writer that dies during a write leaves the image
+ * locked. {@link #getVersion()} returns the sequence number, which lets
+ * consumers detect updates.
+ * <p>
+ * The number of points is fixed when the file is created; the
+ * <tt>add*()</tt> and <tt>remove*()</tt> methods are not supported.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class MappedProcessImage implements ProcessImageImplementation,
+		BulkProcessImage {
+
+	/**
+	 * The magic number identifying a mapped process image file.
+	 */
+	public static final int MAGIC = 0x4A4D4F44;
+
+	/**
+	 * The version of the layout described above.
+	 */
+	public static final int LAYOUT_VERSION = 1;
+
+	/**
+	 * The size of the header in bytes.
+	 */
+	public static final int HEADER_SIZE = 64;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int SEQUENCE_OFFSET = 8;
+	private static final int COUNTS_OFFSET = 16;
+
+	// optimistic reads retried before yielding
+	private static final int SPIN_RETRIES = 8;
+
+	private static final VarHandle c_Sequence = MethodHandles
+			.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	// instance attributes
+	private final MappedByteBuffer m_Buffer;
+	private final int m_DigitalOutCount;
+	private final int m_DigitalInCount;
+	private final int m_InputRegisterCount;
+	private final int m_RegisterCount;
+	private final int m_DigitalOutBase;
+	private final int m_DigitalInBase;
+	private final int m_InputRegisterBase;
+	private final int m_RegisterBase;
+	protected boolean m_Locked = false;
+
+	/**
+	 * Constructs a new <tt>MappedProcessImage</tt> instance mapping an
+	 * existing process image file. The layout is taken from the header.
+	 *
+	 * @param file
+	 *            the process image file.
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a process image of
+	 *             a supported layout version.
+	 */
+	public MappedProcessImage(File file) throws IOException {
+		this(file, -1, -1, -1, -1);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>MappedProcessImage</tt> instance mapping the given
+	 * file. An empty or non existing file is initialized with the given
+	 * number of points, all initialized to zero (respectively not set); an
+	 * existing process image has to match the given numbers.
+	 *
+	 * @param file
+	 *            the process image file.
+	 * @param digitalOuts
+	 *            the number of digital outs (coils).
+	 * @param digitalIns
+	 *            the number of digital ins (input discretes).
+	 * @param inputRegisters
+	 *            the number of input registers.
+	 * @param registers
+	 *            the number of registers.
+	 * @throws IOException
+	 *             if the file cannot be mapped or holds a process image with
+	 *             a different layout.
+	 */
+	public MappedProcessImage(File file, int digitalOuts, int digitalIns,
+			int inputRegisters, int registers) throws IOException {
+		boolean create = digitalOuts >= 0;
+		if (create
+				&& (digitalIns < 0 || inputRegisters < 0 || registers < 0)) {
+			throw new IllegalArgumentException();
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			boolean init = channel.size() == 0;
+			if (init && !create) {
+				throw new IOException("Empty process image file.");
+			}
+			if (!init) {
+				if (channel.size() < HEADER_SIZE) {
+					throw new IOException("Invalid process image file.");
+				}
+				MappedByteBuffer header = channel.map(
+						FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+				if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+					throw new IOException("Invalid process image file.");
+				}
+				if (header.getInt(VERSION_OFFSET) != LAYOUT_VERSION) {
+					throw new IOException(
+							"Unsupported process image layout version "
+									+ header.getInt(VERSION_OFFSET) + ".");
+				}
+				int[] counts = new int[4];
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] = header.getInt(COUNTS_OFFSET + 4 * i);
+				}
+				if (create
+						&& (counts[0] != digitalOuts
+								|| counts[1] != digitalIns
+								|| counts[2] != inputRegisters
+								|| counts[3] != registers)) {
+					throw new IOException("Process image layout mismatch.");
+				}
+				digitalOuts = counts[0];
+				digitalIns = counts[1];
+				inputRegisters = counts[2];
+				registers = counts[3];
+			}
+			m_DigitalOutCount = digitalOuts;
+			m_DigitalInCount = digitalIns;
+			m_InputRegisterCount = inputRegisters;
+			m_RegisterCount = registers;
+			m_DigitalOutBase = HEADER_SIZE;
+			m_DigitalInBase = align(m_DigitalOutBase + (digitalOuts + 7) / 8);
+			m_InputRegisterBase = align(m_DigitalInBase + (digitalIns + 7) / 8);
+			m_RegisterBase = align(m_InputRegisterBase + 2 * inputRegisters);
+			long size = align(m_RegisterBase + 2 * registers);
+			if (!init && channel.size() < size) {
+				throw new IOException("Truncated process image file.");
+			}
+			// mapping extends an empty file to the required size
+			m_Buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (init) {
+				m_Buffer.putInt(VERSION_OFFSET, LAYOUT_VERSION);
+				m_Buffer.putInt(COUNTS_OFFSET, digitalOuts);
+				m_Buffer.putInt(COUNTS_OFFSET + 4, digitalIns);
+				m_Buffer.putInt(COUNTS_OFFSET + 8, inputRegisters);
+				m_Buffer.putInt(COUNTS_OFFSET + 12, registers);
+				VarHandle.releaseFence();
+				m_Buffer.putInt(MAGIC_OFFSET, MAGIC);
+			}
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}// constructor
+
+	public boolean isLocked() {
+		return m_Locked;
+	}// isLocked
+
+	public void setLocked(boolean locked) {
+		m_Locked = locked;
+	}// setLocked
+
+	/**
+	 * Returns the sequence number of this process image. The number is
+	 * incremented twice by each write, and is odd while a write is in
+	 * progress.
+	 *
+	 * @return the sequence number.
+	 */
+	public long getVersion() {
+		return (long) c_Sequence.getAcquire(m_Buffer, SEQUENCE_OFFSET);
+	}// getVersion
+
+	/**
+	 * Writes the content of this process image to the storage device
+	 * holding the file. This is not required for the exchange with other
+	 * processes, which share the memory of the mapping.
+	 */
+	public void force() {
+		m_Buffer.force();
+	}// force
+
+	/*** Digital Outs ************************************/
+
+	/**
+	 * Tests if the digital out at the given reference is set.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return true if set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public boolean getDigitalOutState(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalOutCount);
+		return getBit(m_DigitalOutBase, ref);
+	}// getDigitalOutState
+
+	/**
+	 * Sets the state of the digital out at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param b
+	 *            true if to be set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setDigitalOutState(int ref, boolean b)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalOutCount);
+		long seq = beginWrite();
+		try {
+			setBit(m_DigitalOutBase, ref, b);
+		} finally {
+			endWrite(seq);
+		}
+	}// setDigitalOutState
+
+	public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalOutCount);
+		return new DigitalOutView(ref);
+	}// getDigitalOut
+
+	public int getDigitalOutCount() {
+		return m_DigitalOutCount;
+	}// getDigitalOutCount
+
+	public DigitalOut[] getDigitalOutRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalOutCount);
+		DigitalOut[] douts = new DigitalOut[count];
+		for (int i = 0; i < douts.length; i++) {
+			douts[i] = new DigitalOutView(ref + i);
+		}
+		return douts;
+	}// getDigitalOutRange
+
+	public void setDigitalOut(int ref, DigitalOut _do)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setDigitalOutState(ref, _do.isSet());
+		}
+	}// setDigitalOut
+
+	public void addDigitalOut(DigitalOut _do) {
+		throw new UnsupportedOperationException();
+	}// addDigitalOut
+
+	public void removeDigitalOut(DigitalOut _do) {
+		throw new UnsupportedOperationException();
+	}// removeDigitalOut
+
+	public void readDigitalOuts(int ref, int count, BitVector dest)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalOutCount);
+		readBits(m_DigitalOutBase, m_DigitalInBase, ref, count, dest);
+	}// readDigitalOuts
+
+	public void writeDigitalOuts(int ref, BitVector src)
+			throws IllegalAddressException {
+		int count = src.size();
+		checkRange(ref, count, m_DigitalOutCount);
+		long seq = beginWrite();
+		try {
+			for (int i = 0; i < count; i++) {
+				setBit(m_DigitalOutBase, ref + i, src.getBit(i));
+			}
+		} finally {
+			endWrite(seq);
+		}
+	}// writeDigitalOuts
+
+	/*** Digital Ins *************************************/
+
+	/**
+	 * Tests if the digital in at the given reference is set.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return true if set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public boolean getDigitalInState(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalInCount);
+		return getBit(m_DigitalInBase, ref);
+	}// getDigitalInState
+
+	/**
+	 * Sets the state of the digital in at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param b
+	 *            true if to be set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setDigitalInState(int ref, boolean b)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalInCount);
+		long seq = beginWrite();
+		try {
+			setBit(m_DigitalInBase, ref, b);
+		} finally {
+			endWrite(seq);
+		}
+	}// setDigitalInState
+
+	public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_DigitalInCount);
+		return new DigitalInView(ref);
+	}// getDigitalIn
+
+	public int getDigitalInCount() {
+		return m_DigitalInCount;
+	}// getDigitalInCount
+
+	public DigitalIn[] getDigitalInRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalInCount);
+		DigitalIn[] dins = new DigitalIn[count];
+		for (int i = 0; i < dins.length; i++) {
+			dins[i] = new DigitalInView(ref + i);
+		}
+		return dins;
+	}// getDigitalInRange
+
+	public void setDigitalIn(int ref, DigitalIn di)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setDigitalInState(ref, di.isSet());
+		}
+	}// setDigitalIn
+
+	public void addDigitalIn(DigitalIn di) {
+		throw new UnsupportedOperationException();
+	}// addDigitalIn
+
+	public void removeDigitalIn(DigitalIn di) {
+		throw new UnsupportedOperationException();
+	}// removeDigitalIn
+
+	public void readDigitalIns(int ref, int count, BitVector dest)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_DigitalInCount);
+		readBits(m_DigitalInBase, m_InputRegisterBase, ref, count, dest);
+	}// readDigitalIns
+
+	/*** Input Registers *********************************/
+
+	/**
+	 * Returns the value of the input register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public int getInputRegisterValue(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_InputRegisterCount);
+		return (int) readWords(m_InputRegisterBase, ref, 1);
+	}// getInputRegisterValue
+
+	/**
+	 * Sets the value of the input register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param v
+	 *            the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setInputRegisterValue(int ref, int v)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_InputRegisterCount);
+		writeWords(m_InputRegisterBase, ref, 1, v);
+	}// setInputRegisterValue
+
+	public InputRegister getInputRegister(int ref)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_InputRegisterCount);
+		return new InputRegisterView(ref);
+	}// getInputRegister
+
+	public int getInputRegisterCount() {
+		return m_InputRegisterCount;
+	}// getInputRegisterCount
+
+	public InputRegister[] getInputRegisterRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		InputRegister[] iregs = new InputRegister[count];
+		for (int i = 0; i < iregs.length; i++) {
+			iregs[i] = new InputRegisterView(ref + i);
+		}
+		return iregs;
+	}// getInputRegisterRange
+
+	public void setInputRegister(int ref, InputRegister reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setInputRegisterValue(ref, reg.getValue());
+		}
+	}// setInputRegister
+
+	public void addInputRegister(InputRegister reg) {
+		throw new UnsupportedOperationException();
+	}// addInputRegister
+
+	public void removeInputRegister(InputRegister reg) {
+		throw new UnsupportedOperationException();
+	}// removeInputRegister
+
+	public boolean hasInputRegisters(int ref, int count) {
+		return ref >= 0 && count >= 0 && ref + count <= m_InputRegisterCount;
+	}// hasInputRegisters
+
+	public void readInputRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		readBytes(m_InputRegisterBase + 2 * ref, dest, off, 2 * count);
+	}// readInputRegisters
+
+	/**
+	 * Sets the values of a range of input registers from the given raw data,
+	 * as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param src
+	 *            the buffer holding <tt>2*count</tt> bytes.
+	 * @param off
+	 *            the offset in the buffer.
+	 * @param count
+	 *            the number of input registers to be set.
+	 * @throws IllegalAddressException
+	 *             if the range from ref to ref+count is non existant.
+	 */
+	public void writeInputRegisters(int ref, byte[] src, int off, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_InputRegisterCount);
+		writeBytes(m_InputRegisterBase + 2 * ref, src, off, 2 * count);
+	}// writeInputRegisters
+
+	public int getInputRegisterInt(int ref) throws IllegalAddressException {
+		checkRange(ref, 2, m_InputRegisterCount);
+		return (int) readWords(m_InputRegisterBase, ref, 2);
+	}// getInputRegisterInt
+
+	public void setInputRegisterInt(int ref, int v)
+			throws IllegalAddressException {
+		checkRange(ref, 2, m_InputRegisterCount);
+		writeWords(m_InputRegisterBase, ref, 2, v);
+	}// setInputRegisterInt
+
+	public float getInputRegisterFloat(int ref)
+			throws IllegalAddressException {
+		return Float.intBitsToFloat(getInputRegisterInt(ref));
+	}// getInputRegisterFloat
+
+	public void setInputRegisterFloat(int ref, float f)
+			throws IllegalAddressException {
+		setInputRegisterInt(ref, Float.floatToIntBits(f));
+	}// setInputRegisterFloat
+
+	public long getInputRegisterLong(int ref) throws IllegalAddressException {
+		checkRange(ref, 4, m_InputRegisterCount);
+		return readWords(m_InputRegisterBase, ref, 4);
+	}// getInputRegisterLong
+
+	public void setInputRegisterLong(int ref, long v)
+			throws IllegalAddressException {
+		checkRange(ref, 4, m_InputRegisterCount);
+		writeWords(m_InputRegisterBase, ref, 4, v);
+	}// setInputRegisterLong
+
+	public double getInputRegisterDouble(int ref)
+			throws IllegalAddressException {
+		return Double.longBitsToDouble(getInputRegisterLong(ref));
+	}// getInputRegisterDouble
+
+	public void setInputRegisterDouble(int ref, double d)
+			throws IllegalAddressException {
+		setInputRegisterLong(ref, Double.doubleToLongBits(d));
+	}// setInputRegisterDouble
+
+	/*** Registers ***************************************/
+
+	/**
+	 * Returns the value of the register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public int getRegisterValue(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_RegisterCount);
+		return (int) readWords(m_RegisterBase, ref, 1);
+	}// getRegisterValue
+
+	/**
+	 * Sets the value of the register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param v
+	 *            the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setRegisterValue(int ref, int v)
+			throws IllegalAddressException {
+		checkRange(ref, 1, m_RegisterCount);
+		writeWords(m_RegisterBase, ref, 1, v);
+	}// setRegisterValue
+
+	public Register getRegister(int ref) throws IllegalAddressException {
+		checkRange(ref, 1, m_RegisterCount);
+		return new RegisterView(ref);
+	}// getRegister
+
+	public int getRegisterCount() {
+		return m_RegisterCount;
+	}// getRegisterCount
+
+	public Register[] getRegisterRange(int ref, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		Register[] regs = new Register[count];
+		for (int i = 0; i < regs.length; i++) {
+			regs[i] = new RegisterView(ref + i);
+		}
+		return regs;
+	}// getRegisterRange
+
+	public void setRegister(int ref, Register reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setRegisterValue(ref, reg.getValue());
+		}
+	}// setRegister
+
+	public void addRegister(Register reg) {
+		throw new UnsupportedOperationException();
+	}// addRegister
+
+	public void removeRegister(Register reg) {
+		throw new UnsupportedOperationException();
+	}// removeRegister
+
+	public boolean hasRegisters(int ref, int count) {
+		return ref >= 0 && count >= 0 && ref + count <= m_RegisterCount;
+	}// hasRegisters
+
+	public void readRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		readBytes(m_RegisterBase + 2 * ref, dest, off, 2 * count);
+	}// readRegisters
+
+	public void writeRegisters(int ref, byte[] src, int off, int count)
+			throws IllegalAddressException {
+		checkRange(ref, count, m_RegisterCount);
+		writeBytes(m_RegisterBase + 2 * ref, src, off, 2 * count);
+	}// writeRegisters
+
+	/**
+	 * Returns the 32-bit value held by the two registers at the given
+	 * reference.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the high word.
+	 * @return the value as <tt>int</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public int getRegisterInt(int ref) throws IllegalAddressException {
+		checkRange(ref, 2, m_RegisterCount);
+		return (int) readWords(m_RegisterBase, ref, 2);
+	}// getRegisterInt
+
+	/**
+	 * Sets the two registers at the given reference to a 32-bit value, as a
+	 * single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the high word.
+	 * @param v
+	 *            the value as <tt>int</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setRegisterInt(int ref, int v)
+			throws IllegalAddressException {
+		checkRange(ref, 2, m_RegisterCount);
+		writeWords(m_RegisterBase, ref, 2, v);
+	}// setRegisterInt
+
+	public float getRegisterFloat(int ref) throws IllegalAddressException {
+		return Float.intBitsToFloat(getRegisterInt(ref));
+	}// getRegisterFloat
+
+	public void setRegisterFloat(int ref, float f)
+			throws IllegalAddressException {
+		setRegisterInt(ref, Float.floatToIntBits(f));
+	}// setRegisterFloat
+
+	/**
+	 * Returns the 64-bit value held by the four registers at the given
+	 * reference.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the highest word.
+	 * @return the value as <tt>long</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public long getRegisterLong(int ref) throws IllegalAddressException {
+		checkRange(ref, 4, m_RegisterCount);
+		return readWords(m_RegisterBase, ref, 4);
+	}// getRegisterLong
+
+	/**
+	 * Sets the four registers at the given reference to a 64-bit value, as a
+	 * single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the register holding the highest word.
+	 * @param v
+	 *            the value as <tt>long</tt>.
+	 * @throws IllegalAddressException
+	 *             if the range is non existant.
+	 */
+	public void setRegisterLong(int ref, long v)
+			throws IllegalAddressException {
+		checkRange(ref, 4, m_RegisterCount);
+		writeWords(m_RegisterBase, ref, 4, v);
+	}// setRegisterLong
+
+	public double getRegisterDouble(int ref) throws IllegalAddressException {
+		return Double.longBitsToDouble(getRegisterLong(ref));
+	}// getRegisterDouble
+
+	public void setRegisterDouble(int ref, double d)
+			throws IllegalAddressException {
+		setRegisterLong(ref, Double.doubleToLongBits(d));
+	}// setRegisterDouble
+
+	/*** Sequence lock ***********************************/
+
+	/**
+	 * Waits for a stable (even) sequence number and returns it.
+	 */
+	private long beginRead() {
+		for (int n = 0;; n++) {
+			long seq = (long) c_Sequence.getAcquire(m_Buffer, SEQUENCE_OFFSET);
+			if ((seq & 1) == 0) {
+				return seq;
+			}
+			backoff(n);
+		}
+	}// beginRead
+
+	/**
+	 * Tests if no write happened since {@link #beginRead()} returned the
+	 * given sequence number.
+	 */
+	private boolean validate(long seq) {
+		VarHandle.acquireFence();
+		return (long) c_Sequence.getAcquire(m_Buffer, SEQUENCE_OFFSET) == seq;
+	}// validate
+
+	/**
+	 * Makes the sequence number odd, waiting for other writers (in this or
+	 * another process) to complete, and returns it.
+	 */
+	private long beginWrite() {
+		for (int n = 0;; n++) {
+			long seq = (long) c_Sequence.getVolatile(m_Buffer, SEQUENCE_OFFSET);
+			if ((seq & 1) == 0
+					&& c_Sequence.compareAndSet(m_Buffer, SEQUENCE_OFFSET, seq,
+							seq + 1)) {
+				return seq + 1;
+			}
+			backoff(n);
+		}
+	}// beginWrite
+
+	private void endWrite(long seq) {
+		c_Sequence.setRelease(m_Buffer, SEQUENCE_OFFSET, seq + 1);
+	}// endWrite
+
+	/*** Helpers *****************************************/
+
+	private static void checkRange(int ref, int count, int size)
+			throws IllegalAddressException {
+		if (ref < 0 || count < 0 || ref + count > size) {
+			throw new IllegalAddressException();
+		}
+	}// checkRange
+
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}// align
+
+	/**
+	 * Called after a failed optimistic read; spins for a few attempts and
+	 * then yields to the writer.
+	 */
+	private static void backoff(int attempt) {
+		if (attempt >= SPIN_RETRIES) {
+			Thread.yield();
+		}
+	}// backoff
+
+	private boolean getBit(int base, int idx) {
+		// a single byte is always read as written
+		return (m_Buffer.get(base + (idx >>> 3)) & (1 << (idx & 7))) != 0;
+	}// getBit
+
+	private void setBit(int base, int idx, boolean b) {
+		int pos = base + (idx >>> 3);
+		int v = m_Buffer.get(pos);
+		if (b) {
+			v |= 1 << (idx & 7);
+		} else {
+			v &= ~(1 << (idx & 7));
+		}
+		m_Buffer.put(pos, (byte) v);
+	}// setBit
+
+	/**
+	 * Copies a range of bits into a <tt>BitVector</tt>, a byte at a time if
+	 * the vector uses the default LSB first access.
+	 */
+	private void readBits(int base, int end, int ref, int count,
+			BitVector dest) {
+		for (int n = 0;; n++) {
+			long seq = beginRead();
+			if (dest.isMSBAccess()) {
+				for (int i = 0; i < count; i++) {
+					dest.setBit(i, getBit(base, ref + i));
+				}
+			} else {
+				byte[] data = dest.getBytes();
+				int sh = ref & 7;
+				int pos = base + (ref >>> 3);
+				for (int j = 0; j * 8 < count; j++, pos++) {
+					int v = (m_Buffer.get(pos) & 0xff) >>> sh;
+					if (sh > 0 && pos + 1 < end) {
+						v |= m_Buffer.get(pos + 1) << (8 - sh);
+					}
+					int k = Math.min(8, count - j * 8);
+					data[j] = (byte) (v & ((1 << k) - 1));
+				}
+			}
+			if (validate(seq)) {
+				return;
+			}
+			backoff(n);
+		}
+	}// readBits
+
+	private void readBytes(int pos, byte[] dest, int off, int len) {
+		for (int n = 0;; n++) {
+			long seq = beginRead();
+			for (int i = 0; i < len; i++) {
+				dest[off + i] = m_Buffer.get(pos + i);
+			}
+			if (validate(seq)) {
+				return;
+			}
+			backoff(n);
+		}
+	}// readBytes
+
+	private void writeBytes(int pos, byte[] src, int off, int len) {
+		long seq = beginWrite();
+		try {
+			for (int i = 0; i < len; i++) {
+				m_Buffer.put(pos + i, src[off + i]);
+			}
+		} finally {
+			endWrite(seq);
+		}
+	}// writeBytes
+
+	/**
+	 * Returns <tt>count</tt> registers as one value, high word first.
+	 */
+	private long readWords(int base, int ref, int count) {
+		for (int n = 0;; n++) {
+			long seq = beginRead();
+			long v = 0;
+			for (int i = 0, pos = base + 2 * ref; i < count; i++, pos += 2) {
+				v = (v << 16) | (m_Buffer.getShort(pos) & 0xffff);
+			}
+			if (validate(seq)) {
+				return v;
+			}
+			backoff(n);
+		}
+	}// readWords
+
+	private void writeWords(int base, int ref, int count, long v) {
+		long seq = beginWrite();
+		try {
+			int first = base + 2 * ref;
+			for (int pos = first + 2 * (count - 1); pos >= first; pos -= 2) {
+				m_Buffer.putShort(pos, (short) v);
+				v >>>= 16;
+			}
+		} finally {
+			endWrite(seq);
+		}
+	}// writeWords
+
+	/*** Views *******************************************/
+
+	/**
+	 * Inner class implementing a <tt>DigitalOut</tt> view.
+	 */
+	private class DigitalOutView implements DigitalOut {
+
+		private final int m_Ref;
+
+		DigitalOutView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public boolean isSet() {
+			return getBit(m_DigitalOutBase, m_Ref);
+		}// isSet
+
+		public void set(boolean b) {
+			setDigitalOutState(m_Ref, b);
+		}// set
+
+	}// inner class DigitalOutView
+
+	/**
+	 * Inner class implementing a <tt>DigitalIn</tt> view.
+	 */
+	private class DigitalInView implements DigitalIn {
+
+		private final int m_Ref;
+
+		DigitalInView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public boolean isSet() {
+			return getBit(m_DigitalInBase, m_Ref);
+		}// isSet
+
+	}// inner class DigitalInView
+
+	/**
+	 * Inner class implementing an <tt>InputRegister</tt> view.
+	 */
+	private class InputRegisterView implements InputRegister {
+
+		private final int m_Ref;
+
+		InputRegisterView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public int getValue() {
+			return (int) readWords(m_InputRegisterBase, m_Ref, 1);
+		}// getValue
+
+		public int toUnsignedShort() {
+			return getValue();
+		}// toUnsignedShort
+
+		public short toShort() {
+			return (short) getValue();
+		}// toShort
+
+		public byte[] toBytes() {
+			int v = getValue();
+			return new byte[] { (byte) (v >> 8), (byte) v };
+		}// toBytes
+
+	}// inner class InputRegisterView
+
+	/**
+	 * Inner class implementing a <tt>Register</tt> view.
+	 */
+	private class RegisterView implements Register {
+
+		private final int m_Ref;
+
+		RegisterView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public int getValue() {
+			return (int) readWords(m_RegisterBase, m_Ref, 1);
+		}// getValue
+
+		public int toUnsignedShort() {
+			return getValue();
+		}// toUnsignedShort
+
+		public short toShort() {
+			return (short) getValue();
+		}// toShort
+
+		public byte[] toBytes() {
+			int v = getValue();
+			return new byte[] { (byte) (v >> 8), (byte) v };
+		}// toBytes
+
+		public void setValue(int v) {
+			writeWords(m_RegisterBase, m_Ref, 1, v);
+		}// setValue
+
+		public void setValue(short s) {
+			writeWords(m_RegisterBase, m_Ref, 1, s);
+		}// setValue
+
+		public void setValue(byte[] bytes) {
+			if (bytes.length < 2) {
+				throw new IllegalArgumentException();
+			}
+			writeBytes(m_RegisterBase + 2 * m_Ref, bytes, 0, 2);
+		}// setValue
+
+	}// inner class RegisterView
+
+}// class MappedProcessImage
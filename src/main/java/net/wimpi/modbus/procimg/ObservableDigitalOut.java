@@ -20,6 +20,11 @@ import net.wimpi.modbus.util.Observable;
 
 /**
  * Class implementing an observable digital output.
+ * <p>
+ * Besides the observers, which are notified on the writing thread, changes
+ * are reported to the <tt>ChangeNotifier</tt> set with
+ * {@link #setChangeNotifier(ChangeNotifier, int)}, which dispatches them in
+ * batches on a thread of its own.
  * 
  * @author Dieter Wimberger
  * @version @version@ (@date@)
@@ -31,13 +36,39 @@ public class ObservableDigitalOut extends Observable implements DigitalOut {
 	 */
 	protected boolean m_Set;
 
+	private volatile ChangeNotifier m_Notifier;
+	private int m_Reference;
+
+	/**
+	 * Sets the <tt>ChangeNotifier</tt> changes of this digital out are
+	 * reported to.
+	 * 
+	 * @param notifier
+	 *            the <tt>ChangeNotifier</tt>, or null to stop reporting.
+	 * @param ref
+	 *            the reference of this digital out in the process image.
+	 */
+	public synchronized void setChangeNotifier(ChangeNotifier notifier,
+			int ref) {
+		m_Reference = ref;
+		m_Notifier = notifier;
+	}// setChangeNotifier
+
 	public boolean isSet() {
 		return m_Set;
 	}// isSet
 
 	public void set(boolean b) {
-		m_Set = b;
+		boolean old;
+		synchronized (this) {
+			old = m_Set;
+			m_Set = b;
+		}
 		notifyObservers("value");
+		ChangeNotifier notifier = m_Notifier;
+		if (notifier != null) {
+			notifier.coilChanged(m_Reference, old, b);
+		}
 	}// set
 
 }// class ObservableDigitalIn
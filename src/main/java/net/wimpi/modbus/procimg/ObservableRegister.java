@@ -20,6 +20,11 @@ import net.wimpi.modbus.util.Observable;
 
 /**
  * Class implementing an observable register.
+ * <p>
+ * Besides the observers, which are notified on the writing thread, changes
+ * are reported to the <tt>ChangeNotifier</tt> set with
+ * {@link #setChangeNotifier(ChangeNotifier, int)}, which dispatches them in
+ * batches on a thread of its own.
  * 
  * @author Dieter Wimberger
  * @version @version@ (@date@)
@@ -31,6 +36,24 @@ public class ObservableRegister extends Observable implements Register {
 	 */
 	protected byte[] m_Register = new byte[2];
 
+	private volatile ChangeNotifier m_Notifier;
+	private int m_Reference;
+
+	/**
+	 * Sets the <tt>ChangeNotifier</tt> changes of this register are reported
+	 * to.
+	 * 
+	 * @param notifier
+	 *            the <tt>ChangeNotifier</tt>, or null to stop reporting.
+	 * @param ref
+	 *            the reference of this register in the process image.
+	 */
+	public synchronized void setChangeNotifier(ChangeNotifier notifier,
+			int ref) {
+		m_Reference = ref;
+		m_Notifier = notifier;
+	}// setChangeNotifier
+
 	public int getValue() {
 		return ((m_Register[0] & 0xff) << 8 | (m_Register[1] & 0xff));
 	}// getValue
@@ -40,9 +63,10 @@ public class ObservableRegister extends Observable implements Register {
 	}// toUnsignedShort
 
 	public final synchronized void setValue(int v) {
+		int old = toUnsignedShort();
 		m_Register[0] = (byte) (0xff & (v >> 8));
 		m_Register[1] = (byte) (0xff & v);
-		notifyObservers("value");
+		changed(old);
 	}// setValue
 
 	public final short toShort() {
@@ -50,18 +74,20 @@ public class ObservableRegister extends Observable implements Register {
 	}// toShort
 
 	public final synchronized void setValue(short s) {
+		int old = toUnsignedShort();
 		m_Register[0] = (byte) (0xff & (s >> 8));
 		m_Register[1] = (byte) (0xff & s);
-		notifyObservers("value");
+		changed(old);
 	}// setValue
 
 	public final synchronized void setValue(byte[] bytes) {
 		if (bytes.length < 2) {
 			throw new IllegalArgumentException();
 		} else {
+			int old = toUnsignedShort();
 			m_Register[0] = bytes[0];
 			m_Register[1] = bytes[1];
-			notifyObservers("value");
+			changed(old);
 		}
 	}// setValue
 
@@ -69,4 +95,12 @@ public class ObservableRegister extends Observable implements Register {
 		return m_Register;
 	}// toBytes
 
+	private void changed(int old) {
+		notifyObservers("value");
+		ChangeNotifier notifier = m_Notifier;
+		if (notifier != null) {
+			notifier.registerChanged(m_Reference, old, toUnsignedShort());
+		}
+	}// changed
+
 }// class ObservableRegister
@@ -0,0 +1,950 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.procimg;
+
+import java.util.concurrent.locks.StampedLock;
+
+import net.wimpi.modbus.util.BitVector;
+
+/**
+ * Class implementing a process image for devices with scattered point maps.
+ * <p>
+ * Points are defined at arbitrary references of the 16-bit address space,
+ * for example registers at 0, 1000, 30000 and 40000. Values are stored in
+ * primitive pages of 256 points, which are only allocated for the populated
+ * parts of the address space, so that memory is proportional to the defined
+ * points rather than to the highest reference. Ranges are read in time
+ * proportional to their length.
+ * <p>
+ * Reading an undefined point (a gap) throws an
+ * <tt>IllegalAddressException</tt>, which the requests answer with an
+ * illegal address exception response. With {@link #setFillGaps(boolean)},
+ * gaps read as a configurable fill value (respectively not set) instead;
+ * writing a gap always fails. The counts returned by <tt>get*Count()</tt>
+ * are the highest defined reference plus one, and <tt>add*()</tt> without a
+ * reference appends a point at that reference.
+ * <p>
+ * Like in {@link ArrayProcessImage}, the values of the given points are
+ * copied, points cannot be removed, and the register tables are guarded by
+ * sequence locks, so that range reads are consistent without blocking
+ * writers.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class SparseProcessImage implements ProcessImageImplementation,
+		BulkProcessImage {
+
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int ADDRESS_SPACE = 0x10000;
+	private static final int PAGES = ADDRESS_SPACE >>> PAGE_BITS;
+
+	// optimistic reads retried before yielding
+	private static final int SPIN_RETRIES = 8;
+
+	// instance attributes
+	private final BitTable m_DigitalOuts = new BitTable();
+	private final BitTable m_DigitalIns = new BitTable();
+	private final WordTable m_InputRegisters = new WordTable();
+	private final WordTable m_Registers = new WordTable();
+	private volatile boolean m_FillGaps = false;
+	private volatile short m_FillValue = 0;
+	protected boolean m_Locked = false;
+
+	/**
+	 * Constructs a new, empty <tt>SparseProcessImage</tt> instance.
+	 */
+	public SparseProcessImage() {
+	}// constructor
+
+	public boolean isLocked() {
+		return m_Locked;
+	}// isLocked
+
+	public void setLocked(boolean locked) {
+		m_Locked = locked;
+	}// setLocked
+
+	/**
+	 * Tests if gaps are read as fill value.
+	 *
+	 * @return true if gaps are filled, false if reading them throws an
+	 *         <tt>IllegalAddressException</tt>.
+	 */
+	public boolean isFillGaps() {
+		return m_FillGaps;
+	}// isFillGaps
+
+	/**
+	 * Sets whether gaps are read as fill value (respectively not set), or
+	 * whether reading them throws an <tt>IllegalAddressException</tt>.
+	 *
+	 * @param b
+	 *            true if gaps should be filled, false otherwise.
+	 */
+	public void setFillGaps(boolean b) {
+		m_FillGaps = b;
+	}// setFillGaps
+
+	/**
+	 * Returns the value gaps of the register tables are read as.
+	 *
+	 * @return the fill value as unsigned short (<tt>int</tt>).
+	 */
+	public int getFillValue() {
+		return m_FillValue & 0xffff;
+	}// getFillValue
+
+	/**
+	 * Sets the value gaps of the register tables are read as, if gaps are
+	 * filled.
+	 *
+	 * @param v
+	 *            the fill value as unsigned short (<tt>int</tt>).
+	 */
+	public void setFillValue(int v) {
+		m_FillValue = (short) v;
+	}// setFillValue
+
+	/*** Digital Outs ************************************/
+
+	/**
+	 * Tests if the digital out at the given reference is set.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return true if set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public boolean getDigitalOutState(int ref) throws IllegalAddressException {
+		return m_DigitalOuts.get(ref, m_FillGaps);
+	}// getDigitalOutState
+
+	/**
+	 * Sets the state of the digital out at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param b
+	 *            true if to be set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setDigitalOutState(int ref, boolean b)
+			throws IllegalAddressException {
+		m_DigitalOuts.set(ref, b);
+	}// setDigitalOutState
+
+	public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+		m_DigitalOuts.checkRange(ref, 1, m_FillGaps);
+		return new DigitalOutView(ref);
+	}// getDigitalOut
+
+	public int getDigitalOutCount() {
+		return m_DigitalOuts.m_Count;
+	}// getDigitalOutCount
+
+	public DigitalOut[] getDigitalOutRange(int ref, int count)
+			throws IllegalAddressException {
+		m_DigitalOuts.checkRange(ref, count, m_FillGaps);
+		DigitalOut[] douts = new DigitalOut[count];
+		for (int i = 0; i < douts.length; i++) {
+			douts[i] = new DigitalOutView(ref + i);
+		}
+		return douts;
+	}// getDigitalOutRange
+
+	public void setDigitalOut(int ref, DigitalOut _do)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setDigitalOutState(ref, _do.isSet());
+		}
+	}// setDigitalOut
+
+	public void addDigitalOut(DigitalOut _do) {
+		if (!isLocked()) {
+			m_DigitalOuts.append(_do.isSet());
+		}
+	}// addDigitalOut
+
+	/**
+	 * Adds a digital out at the given reference, initialized to the state
+	 * of the given one. An existing digital out is replaced.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param _do
+	 *            the <tt>DigitalOut</tt> holding the initial state.
+	 * @throws IllegalAddressException
+	 *             if the reference is outside the address space.
+	 */
+	public void addDigitalOut(int ref, DigitalOut _do)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_DigitalOuts.define(ref, 1);
+			m_DigitalOuts.set(ref, _do.isSet());
+		}
+	}// addDigitalOut
+
+	/**
+	 * Adds a range of digital outs, which are not set initially. Existing
+	 * digital outs in the range keep their state.
+	 *
+	 * @param ref
+	 *            the reference of the first digital out.
+	 * @param count
+	 *            the number of digital outs.
+	 * @throws IllegalAddressException
+	 *             if the range is outside the address space.
+	 */
+	public void addDigitalOuts(int ref, int count)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_DigitalOuts.define(ref, count);
+		}
+	}// addDigitalOuts
+
+	public void removeDigitalOut(DigitalOut _do) {
+		throw new UnsupportedOperationException();
+	}// removeDigitalOut
+
+	public void readDigitalOuts(int ref, int count, BitVector dest)
+			throws IllegalAddressException {
+		m_DigitalOuts.read(ref, count, dest, m_FillGaps);
+	}// readDigitalOuts
+
+	public void writeDigitalOuts(int ref, BitVector src)
+			throws IllegalAddressException {
+		m_DigitalOuts.write(ref, src);
+	}// writeDigitalOuts
+
+	/*** Digital Ins *************************************/
+
+	/**
+	 * Tests if the digital in at the given reference is set.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return true if set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public boolean getDigitalInState(int ref) throws IllegalAddressException {
+		return m_DigitalIns.get(ref, m_FillGaps);
+	}// getDigitalInState
+
+	/**
+	 * Sets the state of the digital in at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param b
+	 *            true if to be set, false otherwise.
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setDigitalInState(int ref, boolean b)
+			throws IllegalAddressException {
+		m_DigitalIns.set(ref, b);
+	}// setDigitalInState
+
+	public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+		m_DigitalIns.checkRange(ref, 1, m_FillGaps);
+		return new DigitalInView(ref);
+	}// getDigitalIn
+
+	public int getDigitalInCount() {
+		return m_DigitalIns.m_Count;
+	}// getDigitalInCount
+
+	public DigitalIn[] getDigitalInRange(int ref, int count)
+			throws IllegalAddressException {
+		m_DigitalIns.checkRange(ref, count, m_FillGaps);
+		DigitalIn[] dins = new DigitalIn[count];
+		for (int i = 0; i < dins.length; i++) {
+			dins[i] = new DigitalInView(ref + i);
+		}
+		return dins;
+	}// getDigitalInRange
+
+	public void setDigitalIn(int ref, DigitalIn di)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setDigitalInState(ref, di.isSet());
+		}
+	}// setDigitalIn
+
+	public void addDigitalIn(DigitalIn di) {
+		if (!isLocked()) {
+			m_DigitalIns.append(di.isSet());
+		}
+	}// addDigitalIn
+
+	/**
+	 * Adds a digital in at the given reference, initialized to the state of
+	 * the given one. An existing digital in is replaced.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param di
+	 *            the <tt>DigitalIn</tt> holding the initial state.
+	 * @throws IllegalAddressException
+	 *             if the reference is outside the address space.
+	 */
+	public void addDigitalIn(int ref, DigitalIn di)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_DigitalIns.define(ref, 1);
+			m_DigitalIns.set(ref, di.isSet());
+		}
+	}// addDigitalIn
+
+	/**
+	 * Adds a range of digital ins, which are not set initially. Existing
+	 * digital ins in the range keep their state.
+	 *
+	 * @param ref
+	 *            the reference of the first digital in.
+	 * @param count
+	 *            the number of digital ins.
+	 * @throws IllegalAddressException
+	 *             if the range is outside the address space.
+	 */
+	public void addDigitalIns(int ref, int count)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_DigitalIns.define(ref, count);
+		}
+	}// addDigitalIns
+
+	public void removeDigitalIn(DigitalIn di) {
+		throw new UnsupportedOperationException();
+	}// removeDigitalIn
+
+	public void readDigitalIns(int ref, int count, BitVector dest)
+			throws IllegalAddressException {
+		m_DigitalIns.read(ref, count, dest, m_FillGaps);
+	}// readDigitalIns
+
+	/*** Input Registers *********************************/
+
+	/**
+	 * Returns the value of the input register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public int getInputRegisterValue(int ref) throws IllegalAddressException {
+		return m_InputRegisters.get(ref, m_FillGaps, m_FillValue) & 0xffff;
+	}// getInputRegisterValue
+
+	/**
+	 * Sets the value of the input register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param v
+	 *            the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setInputRegisterValue(int ref, int v)
+			throws IllegalAddressException {
+		m_InputRegisters.set(ref, (short) v);
+	}// setInputRegisterValue
+
+	public InputRegister getInputRegister(int ref)
+			throws IllegalAddressException {
+		m_InputRegisters.checkRange(ref, 1, m_FillGaps);
+		return new InputRegisterView(ref);
+	}// getInputRegister
+
+	public int getInputRegisterCount() {
+		return m_InputRegisters.m_Count;
+	}// getInputRegisterCount
+
+	public InputRegister[] getInputRegisterRange(int ref, int count)
+			throws IllegalAddressException {
+		m_InputRegisters.checkRange(ref, count, m_FillGaps);
+		InputRegister[] iregs = new InputRegister[count];
+		for (int i = 0; i < iregs.length; i++) {
+			iregs[i] = new InputRegisterView(ref + i);
+		}
+		return iregs;
+	}// getInputRegisterRange
+
+	public void setInputRegister(int ref, InputRegister reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setInputRegisterValue(ref, reg.getValue());
+		}
+	}// setInputRegister
+
+	public void addInputRegister(InputRegister reg) {
+		if (!isLocked()) {
+			m_InputRegisters.append((short) reg.getValue());
+		}
+	}// addInputRegister
+
+	/**
+	 * Adds an input register at the given reference, initialized to the
+	 * value of the given one. An existing input register is replaced.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param reg
+	 *            the <tt>InputRegister</tt> holding the initial value.
+	 * @throws IllegalAddressException
+	 *             if the reference is outside the address space.
+	 */
+	public void addInputRegister(int ref, InputRegister reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_InputRegisters.define(ref, 1);
+			m_InputRegisters.set(ref, (short) reg.getValue());
+		}
+	}// addInputRegister
+
+	/**
+	 * Adds a range of input registers, initialized to zero. Existing input
+	 * registers in the range keep their value.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param count
+	 *            the number of input registers.
+	 * @throws IllegalAddressException
+	 *             if the range is outside the address space.
+	 */
+	public void addInputRegisters(int ref, int count)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_InputRegisters.define(ref, count);
+		}
+	}// addInputRegisters
+
+	public void removeInputRegister(InputRegister reg) {
+		throw new UnsupportedOperationException();
+	}// removeInputRegister
+
+	public boolean hasInputRegisters(int ref, int count) {
+		return m_InputRegisters.isRange(ref, count, m_FillGaps);
+	}// hasInputRegisters
+
+	public void readInputRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException {
+		m_InputRegisters.read(ref, count, dest, off, m_FillGaps, m_FillValue);
+	}// readInputRegisters
+
+	/**
+	 * Sets the values of a range of input registers from the given raw data,
+	 * as a single atomic update.
+	 *
+	 * @param ref
+	 *            the reference of the first input register.
+	 * @param src
+	 *            the buffer holding <tt>2*count</tt> bytes.
+	 * @param off
+	 *            the offset in the buffer.
+	 * @param count
+	 *            the number of input registers to be set.
+	 * @throws IllegalAddressException
+	 *             if the range contains undefined input registers.
+	 */
+	public void writeInputRegisters(int ref, byte[] src, int off, int count)
+			throws IllegalAddressException {
+		m_InputRegisters.write(ref, src, off, count);
+	}// writeInputRegisters
+
+	/*** Registers ***************************************/
+
+	/**
+	 * Returns the value of the register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @return the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public int getRegisterValue(int ref) throws IllegalAddressException {
+		return m_Registers.get(ref, m_FillGaps, m_FillValue) & 0xffff;
+	}// getRegisterValue
+
+	/**
+	 * Sets the value of the register at the given reference.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param v
+	 *            the value as unsigned short (<tt>int</tt>).
+	 * @throws IllegalAddressException
+	 *             if the reference is invalid.
+	 */
+	public void setRegisterValue(int ref, int v)
+			throws IllegalAddressException {
+		m_Registers.set(ref, (short) v);
+	}// setRegisterValue
+
+	public Register getRegister(int ref) throws IllegalAddressException {
+		m_Registers.checkRange(ref, 1, m_FillGaps);
+		return new RegisterView(ref);
+	}// getRegister
+
+	public int getRegisterCount() {
+		return m_Registers.m_Count;
+	}// getRegisterCount
+
+	public Register[] getRegisterRange(int ref, int count)
+			throws IllegalAddressException {
+		m_Registers.checkRange(ref, count, m_FillGaps);
+		Register[] regs = new Register[count];
+		for (int i = 0; i < regs.length; i++) {
+			regs[i] = new RegisterView(ref + i);
+		}
+		return regs;
+	}// getRegisterRange
+
+	public void setRegister(int ref, Register reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			setRegisterValue(ref, reg.getValue());
+		}
+	}// setRegister
+
+	public void addRegister(Register reg) {
+		if (!isLocked()) {
+			m_Registers.append((short) reg.getValue());
+		}
+	}// addRegister
+
+	/**
+	 * Adds a register at the given reference, initialized to the value of
+	 * the given one. An existing register is replaced.
+	 *
+	 * @param ref
+	 *            the reference.
+	 * @param reg
+	 *            the <tt>Register</tt> holding the initial value.
+	 * @throws IllegalAddressException
+	 *             if the reference is outside the address space.
+	 */
+	public void addRegister(int ref, Register reg)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_Registers.define(ref, 1);
+			m_Registers.set(ref, (short) reg.getValue());
+		}
+	}// addRegister
+
+	/**
+	 * Adds a range of registers, initialized to zero. Existing registers in
+	 * the range keep their value.
+	 *
+	 * @param ref
+	 *            the reference of the first register.
+	 * @param count
+	 *            the number of registers.
+	 * @throws IllegalAddressException
+	 *             if the range is outside the address space.
+	 */
+	public void addRegisters(int ref, int count)
+			throws IllegalAddressException {
+		if (!isLocked()) {
+			m_Registers.define(ref, count);
+		}
+	}// addRegisters
+
+	public void removeRegister(Register reg) {
+		throw new UnsupportedOperationException();
+	}// removeRegister
+
+	public boolean hasRegisters(int ref, int count) {
+		return m_Registers.isRange(ref, count, m_FillGaps);
+	}// hasRegisters
+
+	public void readRegisters(int ref, int count, byte[] dest, int off)
+			throws IllegalAddressException {
+		m_Registers.read(ref, count, dest, off, m_FillGaps, m_FillValue);
+	}// readRegisters
+
+	public void writeRegisters(int ref, byte[] src, int off, int count)
+			throws IllegalAddressException {
+		m_Registers.write(ref, src, off, count);
+	}// writeRegisters
+
+	/*** Tables ******************************************/
+
+	/**
+	 * Called after a failed optimistic read; spins for a few attempts and
+	 * then yields to the writer.
+	 */
+	private static void backoff(int attempt) {
+		if (attempt >= SPIN_RETRIES) {
+			Thread.yield();
+		}
+	}// backoff
+
+	/**
+	 * Inner class keeping track of the defined points of a table.
+	 * <p>
+	 * Pages are published before the count, and readers check the count
+	 * first. Points are only ever added, so a defined point stays defined.
+	 */
+	private static abstract class Table {
+
+		// one bit per point, allocated per page like the values
+		protected final long[][] m_Defined = new long[PAGES][];
+		protected volatile int m_Count;
+
+		/**
+		 * Allocates the value page with the given index.
+		 */
+		protected abstract void allocate(int page);
+
+		protected final boolean isDefined(int ref) {
+			long[] bits = m_Defined[ref >>> PAGE_BITS];
+			return bits != null
+					&& (bits[(ref & PAGE_MASK) >>> 6] & (1L << ref)) != 0;
+		}// isDefined
+
+		/**
+		 * Tests if the range is below the count and, if gaps are not
+		 * filled, fully defined.
+		 */
+		protected final boolean isRange(int ref, int count, boolean fill) {
+			if (ref < 0 || count < 0 || ref + count > m_Count) {
+				return false;
+			}
+			if (!fill) {
+				for (int i = ref, end = ref + count; i < end; i++) {
+					if (!isDefined(i)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}// isRange
+
+		protected final void checkRange(int ref, int count, boolean fill)
+				throws IllegalAddressException {
+			if (!isRange(ref, count, fill)) {
+				throw new IllegalAddressException();
+			}
+		}// checkRange
+
+		/**
+		 * Defines the points of the given range, allocating their pages.
+		 */
+		protected final synchronized void define(int ref, int count)
+				throws IllegalAddressException {
+			if (ref < 0 || count < 0 || ref + count > ADDRESS_SPACE) {
+				throw new IllegalAddressException();
+			}
+			for (int i = ref, end = ref + count; i < end; i++) {
+				int page = i >>> PAGE_BITS;
+				if (m_Defined[page] == null) {
+					allocate(page);
+					m_Defined[page] = new long[PAGE_SIZE / 64];
+				}
+				m_Defined[page][(i & PAGE_MASK) >>> 6] |= (1L << i);
+			}
+			// always written, to publish the pages and bits
+			m_Count = Math.max(m_Count, ref + count);
+		}// define
+
+		/**
+		 * Defines the point following the highest one and returns its
+		 * reference.
+		 */
+		protected final synchronized int next() {
+			int ref = m_Count;
+			define(ref, 1);
+			return ref;
+		}// next
+
+	}// inner class Table
+
+	/**
+	 * Inner class implementing a table of registers, stored in pages of
+	 * <tt>short</tt> values and guarded by a sequence lock.
+	 */
+	private static final class WordTable extends Table {
+
+		private final short[][] m_Pages = new short[PAGES][];
+		private final StampedLock m_Lock = new StampedLock();
+
+		protected void allocate(int page) {
+			m_Pages[page] = new short[PAGE_SIZE];
+		}// allocate
+
+		short get(int ref, boolean fill, short fillValue)
+				throws IllegalAddressException {
+			checkRange(ref, 1, fill);
+			short[] page = m_Pages[ref >>> PAGE_BITS];
+			return (page == null || !isDefined(ref)) ? fillValue
+					: page[ref & PAGE_MASK];
+		}// get
+
+		void set(int ref, short v) throws IllegalAddressException {
+			checkRange(ref, 1, false);
+			long stamp = m_Lock.writeLock();
+			try {
+				m_Pages[ref >>> PAGE_BITS][ref & PAGE_MASK] = v;
+			} finally {
+				m_Lock.unlockWrite(stamp);
+			}
+		}// set
+
+		void append(short v) {
+			// adding is rare, serialize with writers of the same table
+			synchronized (this) {
+				set(next(), v);
+			}
+		}// append
+
+		void read(int ref, int count, byte[] dest, int off, boolean fill,
+				short fillValue) throws IllegalAddressException {
+			checkRange(ref, count, fill);
+			for (int n = 0;; n++) {
+				long stamp = m_Lock.tryOptimisticRead();
+				if (stamp != 0) {
+					copy(ref, count, dest, off, fillValue);
+					if (m_Lock.validate(stamp)) {
+						return;
+					}
+				}
+				backoff(n);
+			}
+		}// read
+
+		private void copy(int ref, int count, byte[] dest, int off,
+				short fillValue) {
+			for (int i = ref, end = ref + count; i < end; i++) {
+				short[] page = m_Pages[i >>> PAGE_BITS];
+				short v = (page == null || !isDefined(i)) ? fillValue
+						: page[i & PAGE_MASK];
+				dest[off++] = (byte) (v >> 8);
+				dest[off++] = (byte) v;
+			}
+		}// copy
+
+		void write(int ref, byte[] src, int off, int count)
+				throws IllegalAddressException {
+			checkRange(ref, count, false);
+			long stamp = m_Lock.writeLock();
+			try {
+				for (int i = ref, end = ref + count; i < end; i++, off += 2) {
+					m_Pages[i >>> PAGE_BITS][i & PAGE_MASK] =
+							(short) ((src[off] << 8) | (src[off + 1] & 0xff));
+				}
+			} finally {
+				m_Lock.unlockWrite(stamp);
+			}
+		}// write
+
+	}// inner class WordTable
+
+	/**
+	 * Inner class implementing a table of bits, stored in pages of
+	 * <tt>long</tt> words. Writes are serialized, as they change the whole
+	 * word holding the bit.
+	 */
+	private static final class BitTable extends Table {
+
+		private final long[][] m_Pages = new long[PAGES][];
+
+		protected void allocate(int page) {
+			m_Pages[page] = new long[PAGE_SIZE / 64];
+		}// allocate
+
+		private boolean getBit(int ref) {
+			long[] page = m_Pages[ref >>> PAGE_BITS];
+			return page != null && isDefined(ref)
+					&& (page[(ref & PAGE_MASK) >>> 6] & (1L << ref)) != 0;
+		}// getBit
+
+		private void setBit(int ref, boolean b) {
+			long[] page = m_Pages[ref >>> PAGE_BITS];
+			int idx = (ref & PAGE_MASK) >>> 6;
+			if (b) {
+				page[idx] |= (1L << ref);
+			} else {
+				page[idx] &= ~(1L << ref);
+			}
+		}// setBit
+
+		boolean get(int ref, boolean fill) throws IllegalAddressException {
+			checkRange(ref, 1, fill);
+			return getBit(ref);
+		}// get
+
+		void set(int ref, boolean b) throws IllegalAddressException {
+			checkRange(ref, 1, false);
+			synchronized (this) {
+				setBit(ref, b);
+			}
+		}// set
+
+		void append(boolean b) {
+			synchronized (this) {
+				set(next(), b);
+			}
+		}// append
+
+		void read(int ref, int count, BitVector dest, boolean fill)
+				throws IllegalAddressException {
+			checkRange(ref, count, fill);
+			for (int i = 0; i < count; i++) {
+				dest.setBit(i, getBit(ref + i));
+			}
+		}// read
+
+		void write(int ref, BitVector src) throws IllegalAddressException {
+			int count = src.size();
+			checkRange(ref, count, false);
+			synchronized (this) {
+				for (int i = 0; i < count; i++) {
+					setBit(ref + i, src.getBit(i));
+				}
+			}
+		}// write
+
+	}// inner class BitTable
+
+	/*** Views *******************************************/
+
+	/**
+	 * Inner class implementing a <tt>DigitalOut</tt> view.
+	 */
+	private class DigitalOutView implements DigitalOut {
+
+		private final int m_Ref;
+
+		DigitalOutView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public boolean isSet() {
+			return m_DigitalOuts.getBit(m_Ref);
+		}// isSet
+
+		public void set(boolean b) {
+			setDigitalOutState(m_Ref, b);
+		}// set
+
+	}// inner class DigitalOutView
+
+	/**
+	 * Inner class implementing a <tt>DigitalIn</tt> view.
+	 */
+	private class DigitalInView implements DigitalIn {
+
+		private final int m_Ref;
+
+		DigitalInView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public boolean isSet() {
+			return m_DigitalIns.getBit(m_Ref);
+		}// isSet
+
+	}// inner class DigitalInView
+
+	/**
+	 * Inner class implementing an <tt>InputRegister</tt> view.
+	 */
+	private class InputRegisterView implements InputRegister {
+
+		private final int m_Ref;
+
+		InputRegisterView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public int getValue() {
+			return m_InputRegisters.get(m_Ref, true, m_FillValue) & 0xffff;
+		}// getValue
+
+		public int toUnsignedShort() {
+			return getValue();
+		}// toUnsignedShort
+
+		public short toShort() {
+			return (short) getValue();
+		}// toShort
+
+		public byte[] toBytes() {
+			int v = getValue();
+			return new byte[] { (byte) (v >> 8), (byte) v };
+		}// toBytes
+
+	}// inner class InputRegisterView
+
+	/**
+	 * Inner class implementing a <tt>Register</tt> view.
+	 */
+	private class RegisterView implements Register {
+
+		private final int m_Ref;
+
+		RegisterView(int ref) {
+			m_Ref = ref;
+		}// constructor
+
+		public int getValue() {
+			return m_Registers.get(m_Ref, true, m_FillValue) & 0xffff;
+		}// getValue
+
+		public int toUnsignedShort() {
+			return getValue();
+		}// toUnsignedShort
+
+		public short toShort() {
+			return (short) getValue();
+		}// toShort
+
+		public byte[] toBytes() {
+			int v = getValue();
+			return new byte[] { (byte) (v >> 8), (byte) v };
+		}// toBytes
+
+		public void setValue(int v) {
+			setRegisterValue(m_Ref, v);
+		}// setValue
+
+		public void setValue(short s) {
+			setRegisterValue(m_Ref, s);
+		}// setValue
+
+		public void setValue(byte[] bytes) {
+			if (bytes.length < 2) {
+				throw new IllegalArgumentException();
+			}
+			writeRegisters(m_Ref, bytes, 0, 1);
+		}// setValue
+
+	}// inner class RegisterView
+
+}// class SparseProcessImage
@@ -0,0 +1,186 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.scan;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.wimpi.modbus.facade.ReadPlan;
+
+/**
+ * Class representing a group of points that is read periodically from one
+ * target by a {@link ScanScheduler}.
+ * <p>
+ * The points are read through a <tt>ReadPlan</tt>, so that a group costs as
+ * few requests as its points allow. When several groups of the same target
+ * are due at once, groups with a higher priority are read first.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ScanGroup {
+
+	private final String m_Name;
+	private final ScanTarget m_Target;
+	private final ReadPlan m_Plan;
+	private final long m_Period;
+	private final int m_Priority;
+
+	// each counter has a single writer, the lane or the timer thread
+	private volatile long m_Cycles;
+	private volatile long m_Overruns;
+	private volatile long m_Failures;
+	private volatile long m_LastDuration;
+
+	// scheduling state, owned by the timer thread
+	final AtomicBoolean m_Busy = new AtomicBoolean(false);
+	volatile boolean m_Active;
+	long m_Deadline;
+	long m_Rounds;
+	ScanGroup m_Next;
+	ScanGroup m_Prev;
+	int m_Slot = -1;
+	// queueing order within a lane
+	long m_Sequence;
+
+	/**
+	 * Constructs a new <tt>ScanGroup</tt> instance.
+	 *
+	 * @param name
+	 *            the name of the group.
+	 * @param target
+	 *            the <tt>ScanTarget</tt> to read the points from.
+	 * @param plan
+	 *            the <tt>ReadPlan</tt> reading the points.
+	 * @param period
+	 *            the scan period in milliseconds.
+	 * @param priority
+	 *            the priority of the group; higher values are read first.
+	 * @throws IllegalArgumentException
+	 *             if the period is not positive.
+	 */
+	public ScanGroup(String name, ScanTarget target, ReadPlan plan,
+			long period, int priority) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Invalid period: " + period);
+		}
+		m_Name = name;
+		m_Target = target;
+		m_Plan = plan;
+		m_Period = period;
+		m_Priority = priority;
+	}// constructor
+
+	/**
+	 * Returns the name of this group.
+	 *
+	 * @return the name as <tt>String</tt>.
+	 */
+	public String getName() {
+		return m_Name;
+	}// getName
+
+	/**
+	 * Returns the target this group is read from.
+	 *
+	 * @return the <tt>ScanTarget</tt>.
+	 */
+	public ScanTarget getTarget() {
+		return m_Target;
+	}// getTarget
+
+	/**
+	 * Returns the plan reading the points of this group.
+	 *
+	 * @return the <tt>ReadPlan</tt>.
+	 */
+	public ReadPlan getPlan() {
+		return m_Plan;
+	}// getPlan
+
+	/**
+	 * Returns the scan period of this group.
+	 *
+	 * @return the period in milliseconds.
+	 */
+	public long getPeriod() {
+		return m_Period;
+	}// getPeriod
+
+	/**
+	 * Returns the priority of this group.
+	 *
+	 * @return the priority as <tt>int</tt>.
+	 */
+	public int getPriority() {
+		return m_Priority;
+	}// getPriority
+
+	/**
+	 * Returns the number of cycles read successfully.
+	 *
+	 * @return the number of cycles.
+	 */
+	public long getCycleCount() {
+		return m_Cycles;
+	}// getCycleCount
+
+	/**
+	 * Returns the number of cycles skipped.
+	 *
+	 * @return the number of skipped cycles.
+	 */
+	public long getOverrunCount() {
+		return m_Overruns;
+	}// getOverrunCount
+
+	/**
+	 * Returns the number of failed cycles.
+	 *
+	 * @return the number of failed cycles.
+	 */
+	public long getFailureCount() {
+		return m_Failures;
+	}// getFailureCount
+
+	/**
+	 * Returns the time spent reading the last completed cycle.
+	 *
+	 * @return the duration in nanoseconds.
+	 */
+	public long getLastDuration() {
+		return m_LastDuration;
+	}// getLastDuration
+
+	public String toString() {
+		return "ScanGroup[" + m_Name + ",period=" + m_Period + ",priority="
+				+ m_Priority + "]";
+	}// toString
+
+	void completed(long nanos) {
+		m_LastDuration = nanos;
+		m_Cycles++;
+	}// completed
+
+	void failed() {
+		m_Failures++;
+	}// failed
+
+	void overrun(int skipped) {
+		m_Overruns += skipped;
+	}// overrun
+
+}// class ScanGroup
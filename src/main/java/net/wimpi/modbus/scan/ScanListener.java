@@ -0,0 +1,66 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.scan;
+
+import net.wimpi.modbus.ModbusException;
+
+/**
+ * Interface defining a subscriber to the results of a
+ * <tt>ScanScheduler</tt>.
+ * <p>
+ * Results are published from the thread serving the target of the group, so
+ * that the points of the group can be read safely from within the callback.
+ * They are overwritten by the next cycle of the group.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ * @see ScanScheduler#addListener(ScanListener)
+ */
+public interface ScanListener {
+
+	/**
+	 * Called when a cycle of a group has been read.
+	 *
+	 * @param group
+	 *            the <tt>ScanGroup</tt> whose points have been updated.
+	 * @param nanos
+	 *            the time spent reading the group in nanoseconds.
+	 */
+	public void scanCompleted(ScanGroup group, long nanos);
+
+	/**
+	 * Called when a cycle of a group failed.
+	 *
+	 * @param group
+	 *            the <tt>ScanGroup</tt> that failed.
+	 * @param ex
+	 *            the <tt>ModbusException</tt> raised by the read.
+	 */
+	public void scanFailed(ScanGroup group, ModbusException ex);
+
+	/**
+	 * Called when cycles of a group were skipped, because the previous cycle
+	 * was still pending or the scheduler fell behind.
+	 *
+	 * @param group
+	 *            the <tt>ScanGroup</tt> that overran.
+	 * @param skipped
+	 *            the number of cycles skipped.
+	 */
+	public void scanOverrun(ScanGroup group, int skipped);
+
+}// interface ScanListener
@@ -0,0 +1,413 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.scan;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.util.ExecutorUtil;
+
+/**
+ * Class implementing a scan engine that reads {@link ScanGroup}s
+ * periodically and publishes the results to {@link ScanListener}s.
+ * <p>
+ * The deadlines of all groups are kept on a {@link TimingWheel} driven by a
+ * single timer thread. Cycles are scheduled at fixed rate, so they do not
+ * drift with the time spent reading. Each target is served by a lane of its
+ * own, i.e. a thread reading the due groups of that target one after the
+ * other, highest priority first. A slow or unreachable device thus only
+ * delays the groups on its own connection.
+ * <p>
+ * If a group is still pending or being read when its next cycle is due, the
+ * cycle is skipped rather than queued and reported as overrun. Cycles missed
+ * because the timer thread fell behind are skipped as well.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public class ScanScheduler implements Runnable {
+
+	private static final ScanListener[] NO_LISTENERS = new ScanListener[0];
+
+	private final long m_TickNanos;
+	private final int m_Slots;
+	private final ConcurrentLinkedQueue<ScanGroup> m_Updates;
+	private final AtomicBoolean m_Running;
+	private volatile ScanListener[] m_Listeners = NO_LISTENERS;
+	private volatile Thread m_Timer;
+	private ExecutorService m_Executor;
+
+	// owned by the timer thread
+	private final Map<ScanGroup, ScanGroup> m_Groups;
+	private final Map<ScanTarget, Lane> m_Lanes;
+	private final List<ScanGroup> m_Expired;
+	private TimingWheel m_Wheel;
+
+	/**
+	 * Constructs a new <tt>ScanScheduler</tt> instance with a tick of 10 ms
+	 * and 512 slots.
+	 */
+	public ScanScheduler() {
+		this(10, 512);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>ScanScheduler</tt> instance.
+	 *
+	 * @param tick
+	 *            the resolution of the timing wheel in milliseconds.
+	 * @param slots
+	 *            the number of slots of the timing wheel. Periods up to
+	 *            <tt>tick * slots</tt> are handled without wheel rotations.
+	 */
+	public ScanScheduler(long tick, int slots) {
+		if (tick <= 0 || slots <= 0) {
+			throw new IllegalArgumentException("Invalid wheel: " + tick + "/"
+					+ slots);
+		}
+		m_TickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+		m_Slots = slots;
+		m_Updates = new ConcurrentLinkedQueue<ScanGroup>();
+		m_Running = new AtomicBoolean(false);
+		m_Groups = new IdentityHashMap<ScanGroup, ScanGroup>();
+		m_Lanes = new IdentityHashMap<ScanTarget, Lane>();
+		m_Expired = new ArrayList<ScanGroup>();
+	}// constructor
+
+	/**
+	 * Adds a group to be scanned. Its first cycle is due immediately, or
+	 * when the scheduler is started.
+	 *
+	 * @param g
+	 *            the <tt>ScanGroup</tt> to be added.
+	 */
+	public void addGroup(ScanGroup g) {
+		g.m_Active = true;
+		m_Updates.offer(g);
+		wakeup();
+	}// addGroup
+
+	/**
+	 * Removes a group. A cycle of the group that is already being read will
+	 * still complete.
+	 *
+	 * @param g
+	 *            the <tt>ScanGroup</tt> to be removed.
+	 */
+	public void removeGroup(ScanGroup g) {
+		g.m_Active = false;
+		m_Updates.offer(g);
+		wakeup();
+	}// removeGroup
+
+	/**
+	 * Adds a listener that will be notified about the results of all groups.
+	 *
+	 * @param l
+	 *            a <tt>ScanListener</tt>.
+	 */
+	public synchronized void addListener(ScanListener l) {
+		ScanListener[] ls = new ScanListener[m_Listeners.length + 1];
+		System.arraycopy(m_Listeners, 0, ls, 0, m_Listeners.length);
+		ls[ls.length - 1] = l;
+		m_Listeners = ls;
+	}// addListener
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param l
+	 *            the <tt>ScanListener</tt> to be removed.
+	 */
+	public synchronized void removeListener(ScanListener l) {
+		ScanListener[] ls = m_Listeners;
+		for (int i = 0; i < ls.length; i++) {
+			if (ls[i] == l) {
+				ScanListener[] nls = new ScanListener[ls.length - 1];
+				System.arraycopy(ls, 0, nls, 0, i);
+				System.arraycopy(ls, i + 1, nls, i, nls.length - i);
+				m_Listeners = nls;
+				return;
+			}
+		}
+	}// removeListener
+
+	/**
+	 * Starts this <tt>ScanScheduler</tt>.
+	 */
+	public synchronized void start() {
+		if (m_Running.getAndSet(true)) {
+			return;
+		}
+		m_Executor = ExecutorUtil.newPerTaskExecutor();
+		m_Timer = new Thread(this, "ScanScheduler-timer");
+		m_Timer.setDaemon(true);
+		m_Timer.start();
+	}// start
+
+	/**
+	 * Stops this <tt>ScanScheduler</tt>. Reads in progress are interrupted.
+	 * The groups remain added and are scanned again after a restart.
+	 */
+	public synchronized void stop() {
+		if (!m_Running.getAndSet(false)) {
+			return;
+		}
+		LockSupport.unpark(m_Timer);
+		try {
+			m_Timer.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		m_Executor.shutdownNow();
+	}// stop
+
+	/**
+	 * Tests if this <tt>ScanScheduler</tt> is running.
+	 *
+	 * @return true if running, false otherwise.
+	 */
+	public boolean isRunning() {
+		return m_Running.get();
+	}// isRunning
+
+	/**
+	 * Runs the timer of this <tt>ScanScheduler</tt>.
+	 */
+	public void run() {
+		long now = System.nanoTime();
+		m_Wheel = new TimingWheel(m_TickNanos, m_Slots, now);
+		for (ScanGroup g : m_Groups.keySet()) {
+			g.m_Slot = -1;
+			g.m_Deadline = now;
+			m_Wheel.schedule(g);
+		}
+		try {
+			while (m_Running.get()) {
+				updateGroups();
+				long wait = m_Wheel.nextTick() - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+					continue;
+				}
+				m_Wheel.tick(m_Expired);
+				for (int i = 0; i < m_Expired.size(); i++) {
+					fire(m_Expired.get(i));
+				}
+				m_Expired.clear();
+			}
+		} finally {
+			for (Lane lane : m_Lanes.values()) {
+				lane.close();
+			}
+			m_Lanes.clear();
+		}
+	}// run
+
+	private void wakeup() {
+		Thread t = m_Timer;
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}// wakeup
+
+	private void updateGroups() {
+		ScanGroup g;
+		while ((g = m_Updates.poll()) != null) {
+			if (g.m_Active) {
+				m_Groups.put(g, g);
+				if (g.m_Slot < 0) {
+					g.m_Deadline = System.nanoTime();
+					m_Wheel.schedule(g);
+				}
+			} else if (!g.m_Active && m_Groups.remove(g) != null) {
+				m_Wheel.cancel(g);
+			}
+		}
+	}// updateGroups
+
+	private void fire(ScanGroup g) {
+		if (!g.m_Active) {
+			// removal pending
+			return;
+		}
+		if (g.m_Busy.compareAndSet(false, true)) {
+			Lane lane = m_Lanes.get(g.getTarget());
+			if (lane == null) {
+				lane = new Lane();
+				m_Lanes.put(g.getTarget(), lane);
+				m_Executor.execute(lane);
+			}
+			lane.offer(g);
+		} else {
+			overrun(g, 1);
+		}
+
+		// schedule the next cycle at fixed rate, skipping missed ones
+		long period = TimeUnit.MILLISECONDS.toNanos(g.getPeriod());
+		long next = g.m_Deadline + period;
+		long now = System.nanoTime();
+		if (next <= now) {
+			long missed = (now - next) / period + 1;
+			next += missed * period;
+			overrun(g, (int) Math.min(missed, Integer.MAX_VALUE));
+		}
+		g.m_Deadline = next;
+		m_Wheel.schedule(g);
+	}// fire
+
+	private void overrun(ScanGroup g, int skipped) {
+		g.overrun(skipped);
+		if (Modbus.debug)
+			System.out.println("Overrun of " + g + ": " + skipped);
+		ScanListener[] ls = m_Listeners;
+		for (int i = 0; i < ls.length; i++) {
+			try {
+				ls[i].scanOverrun(g, skipped);
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}// overrun
+
+	private void scan(ScanGroup g) {
+		ScanListener[] ls;
+		long start = System.nanoTime();
+		try {
+			g.getTarget().read(g.getPlan());
+			long nanos = System.nanoTime() - start;
+			g.completed(nanos);
+			ls = m_Listeners;
+			for (int i = 0; i < ls.length; i++) {
+				try {
+					ls[i].scanCompleted(g, nanos);
+				} catch (RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			}
+		} catch (ModbusException ex) {
+			failed(g, ex);
+		} catch (RuntimeException ex) {
+			// a faulty target must not end the lane
+			if (Modbus.debug)
+				ex.printStackTrace();
+			failed(g, new ModbusException("Scan target failed: " + ex));
+		} finally {
+			g.m_Busy.set(false);
+		}
+	}// scan
+
+	private void failed(ScanGroup g, ModbusException ex) {
+		g.failed();
+		if (Modbus.debug)
+			System.out.println("Scan of " + g + " failed: " + ex.getMessage());
+		ScanListener[] ls = m_Listeners;
+		for (int i = 0; i < ls.length; i++) {
+			try {
+				ls[i].scanFailed(g, ex);
+			} catch (RuntimeException rex) {
+				rex.printStackTrace();
+			}
+		}
+	}// failed
+
+	/**
+	 * Inner class implementing the lane serving the groups of one target.
+	 */
+	private class Lane implements Runnable {
+
+		private final ReentrantLock m_Lock = new ReentrantLock();
+		private final Condition m_Ready = m_Lock.newCondition();
+		private final PriorityQueue<ScanGroup> m_Queue = new PriorityQueue<ScanGroup>(
+				11, PRIORITY);
+		private long m_Sequence;
+		private boolean m_Closed;
+
+		void offer(ScanGroup g) {
+			m_Lock.lock();
+			try {
+				g.m_Sequence = m_Sequence++;
+				m_Queue.offer(g);
+				m_Ready.signal();
+			} finally {
+				m_Lock.unlock();
+			}
+		}// offer
+
+		void close() {
+			m_Lock.lock();
+			try {
+				m_Closed = true;
+				ScanGroup g;
+				while ((g = m_Queue.poll()) != null) {
+					g.m_Busy.set(false);
+				}
+				m_Ready.signal();
+			} finally {
+				m_Lock.unlock();
+			}
+		}// close
+
+		public void run() {
+			try {
+				ScanGroup g;
+				while ((g = take()) != null) {
+					scan(g);
+				}
+			} catch (InterruptedException ex) {
+				// stopped
+			}
+		}// run
+
+		private ScanGroup take() throws InterruptedException {
+			m_Lock.lock();
+			try {
+				while (!m_Closed && m_Queue.isEmpty()) {
+					m_Ready.await();
+				}
+				return (m_Closed) ? null : m_Queue.poll();
+			} finally {
+				m_Lock.unlock();
+			}
+		}// take
+
+	}// inner class Lane
+
+	private static final Comparator<ScanGroup> PRIORITY = new Comparator<ScanGroup>() {
+		public int compare(ScanGroup a, ScanGroup b) {
+			if (a.getPriority() != b.getPriority()) {
+				return (a.getPriority() > b.getPriority()) ? -1 : 1;
+			}
+			return (a.m_Sequence < b.m_Sequence) ? -1
+					: ((a.m_Sequence == b.m_Sequence) ? 0 : 1);
+		}
+	};
+
+}// class ScanScheduler
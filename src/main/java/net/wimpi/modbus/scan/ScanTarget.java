@@ -0,0 +1,44 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.scan;
+
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.facade.ReadPlan;
+
+/**
+ * Interface defining a connection the <tt>ScanScheduler</tt> can read
+ * <tt>ReadPlan</tt>s through. It is implemented by the master facades.
+ * <p>
+ * The scheduler serves each target from a single thread, so scans of
+ * different targets never delay each other.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public interface ScanTarget {
+
+	/**
+	 * Executes the given read plan.
+	 *
+	 * @param plan
+	 *            the <tt>ReadPlan</tt> to be executed.
+	 * @throws ModbusException
+	 *             if an I/O error or a transaction error occurs.
+	 */
+	public void read(ReadPlan plan) throws ModbusException;
+
+}// interface ScanTarget
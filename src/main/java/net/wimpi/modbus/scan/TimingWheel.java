@@ -0,0 +1,141 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.scan;
+
+import java.util.List;
+
+/**
+ * Class implementing a hashed timing wheel for the deadlines of
+ * <tt>ScanGroup</tt>s.
+ * <p>
+ * Time is divided into ticks, and each deadline is hashed into the slot of
+ * the tick it falls into, together with the number of wheel rotations left.
+ * Scheduling and cancelling are O(1) and each tick only visits one slot,
+ * regardless of the number of groups. Deadlines are rounded up to the next
+ * tick.
+ * <p>
+ * Instances are not thread safe; the <tt>ScanScheduler</tt> only uses them
+ * from its timer thread.
+ *
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+final class TimingWheel {
+
+	private final long m_TickNanos;
+	private final ScanGroup[] m_Slots;
+	private final int m_Mask;
+	private final long m_Start;
+	private long m_Tick;
+
+	/**
+	 * Constructs a new <tt>TimingWheel</tt> instance.
+	 *
+	 * @param tickNanos
+	 *            the duration of a tick in nanoseconds.
+	 * @param slots
+	 *            the number of slots, rounded up to a power of two.
+	 * @param start
+	 *            the <tt>System.nanoTime()</tt> of the first tick.
+	 */
+	TimingWheel(long tickNanos, int slots, long start) {
+		int n = 1;
+		while (n < slots) {
+			n <<= 1;
+		}
+		m_TickNanos = tickNanos;
+		m_Slots = new ScanGroup[n];
+		m_Mask = n - 1;
+		m_Start = start;
+	}// constructor
+
+	/**
+	 * Schedules the given group at its deadline. Deadlines in the past are
+	 * scheduled at the next tick.
+	 *
+	 * @param g
+	 *            a <tt>ScanGroup</tt> that is not scheduled.
+	 */
+	void schedule(ScanGroup g) {
+		long ticks = (g.m_Deadline - m_Start + m_TickNanos - 1) / m_TickNanos;
+		if (ticks < m_Tick) {
+			ticks = m_Tick;
+		}
+		g.m_Rounds = (ticks - m_Tick) / m_Slots.length;
+		g.m_Slot = (int) (ticks & m_Mask);
+		g.m_Prev = null;
+		g.m_Next = m_Slots[g.m_Slot];
+		if (g.m_Next != null) {
+			g.m_Next.m_Prev = g;
+		}
+		m_Slots[g.m_Slot] = g;
+	}// schedule
+
+	/**
+	 * Removes the given group from the wheel, if it is scheduled.
+	 *
+	 * @param g
+	 *            a <tt>ScanGroup</tt>.
+	 */
+	void cancel(ScanGroup g) {
+		if (g.m_Slot < 0) {
+			return;
+		}
+		if (g.m_Prev != null) {
+			g.m_Prev.m_Next = g.m_Next;
+		} else {
+			m_Slots[g.m_Slot] = g.m_Next;
+		}
+		if (g.m_Next != null) {
+			g.m_Next.m_Prev = g.m_Prev;
+		}
+		g.m_Next = null;
+		g.m_Prev = null;
+		g.m_Slot = -1;
+	}// cancel
+
+	/**
+	 * Returns the time at which the next tick is due.
+	 *
+	 * @return the <tt>System.nanoTime()</tt> of the next tick.
+	 */
+	long nextTick() {
+		return m_Start + m_Tick * m_TickNanos;
+	}// nextTick
+
+	/**
+	 * Processes the next tick, removing the groups that are due.
+	 *
+	 * @param expired
+	 *            the list receiving the due groups.
+	 */
+	void tick(List<ScanGroup> expired) {
+		ScanGroup g = m_Slots[(int) (m_Tick & m_Mask)];
+		while (g != null) {
+			ScanGroup next = g.m_Next;
+			if (g.m_Rounds == 0) {
+				cancel(g);
+				expired.add(g);
+			} else {
+				g.m_Rounds--;
+			}
+			g = next;
+		}
+		m_Tick++;
+	}// tick
+
+}// class TimingWheel
@@ -0,0 +1,59 @@
+/***
+ * Copyright 2002-2010 jamod development team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***/
+
+package net.wimpi.modbus.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.wimpi.modbus.Modbus;
+
+/**
+ * Helper class that provides the executors used for handling connections.
+ * 
+ * @author Dieter Wimberger
+ * @version @version@ (@date@)
+ */
+public final class ExecutorUtil {
+
+	private ExecutorUtil() {
+	}// constructor
+
+	/**
+	 * Returns a new executor that runs each task in a thread of its own.
+	 * <p/>
+	 * On JVMs supporting virtual threads (Java 21 and later) each task gets a
+	 * virtual thread, so blocking I/O does not occupy a platform thread. On
+	 * older JVMs the executor falls back to a cached pool of platform
+	 * threads.
+	 * 
+	 * @return a per-task <tt>ExecutorService</tt>.
+	 */
+	public static ExecutorService newPerTaskExecutor() {
+		try {
+			Method m = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception ex) {
+			if (Modbus.debug)
+				System.out.println("Virtual threads not available: "
+						+ ex.toString());
+			return Executors.newCachedThreadPool();
+		}
+	}// newPerTaskExecutor
+
+}// class ExecutorUtil
@@ -26,7 +26,9 @@ package net.wimpi.modbus.util;
  * 
  * @author Doug Lea, Dieter Wimberger
  * @version @version@ (@date@)
+ * @deprecated only used by the deprecated {@link LinkedQueue}.
  */
+@Deprecated
 public class LinkedNode {
 
 	protected Object m_Node;
@@ -21,6 +21,15 @@
  ***/
 package net.wimpi.modbus.util;
 
+/**
+ * Class implementing an unbounded linked queue, guarded by monitors.
+ * 
+ * @author Doug Lea, Dieter Wimberger
+ * @version @version@ (@date@)
+ * @deprecated no longer used by jamod; use the lock-free
+ *             <tt>java.util.concurrent.LinkedTransferQueue</tt> instead.
+ */
+@Deprecated
 public class LinkedQueue {
 
 	/**
@@ -21,6 +21,7 @@ import net.wimpi.modbus.io.BytesOutputStream;
 import net.wimpi.modbus.msg.ModbusMessage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Helper class that provides utility methods.
@@ -428,81 +429,217 @@ public final class ModbusUtil {
 		return ((hi << 8) | low);
 	}// makeWord
 
+	/**
+	 * Defines the initial value of the Modbus CRC-16.
+	 */
+	public static final int CRC16_INITIAL = 0xFFFF;
+
+	/**
+	 * Calculates the CRC of the given bytes.
+	 * <p>
+	 * Note that <tt>len</tt> is the index following the last byte, not the
+	 * number of bytes. The CRC is returned as the two bytes in transmission
+	 * order, i.e. the low byte first.
+	 * 
+	 * @param data
+	 *            the bytes.
+	 * @param offset
+	 *            the index of the first byte.
+	 * @param len
+	 *            the index following the last byte.
+	 * @return the CRC as <tt>int[2]</tt>.
+	 * @see #calculateCRC16(byte[], int, int)
+	 */
 	public static final int[] calculateCRC(byte[] data, int offset, int len) {
+		int crc = calculateCRC16(data, offset, Math.max(0, Math.min(len,
+				data.length)
+				- offset));
+		return new int[] { crc & 0xff, crc >>> 8 };
+	}// calculateCRC
+
+	/**
+	 * Calculates the CRC-16 of the given bytes, as used by Modbus RTU.
+	 * 
+	 * @param data
+	 *            the bytes.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the number of bytes.
+	 * @return the CRC; the low byte is transmitted first.
+	 */
+	public static final int calculateCRC16(byte[] data, int off, int len) {
+		return updateCRC16(CRC16_INITIAL, data, off, len);
+	}// calculateCRC16
 
-		int[] crc = { 0xFF, 0xFF };
-		int nextByte = 0;
-		int uIndex; /* will index into CRC lookup *//* table */
-		/* pass through message buffer */
-		for (int i = offset; i < len && i < data.length; i++) {
-			nextByte = 0xFF & ((int) data[i]);
-			uIndex = crc[0] ^ nextByte; // *puchMsg++; /* calculate the CRC */
-			crc[0] = crc[1] ^ auchCRCHi[uIndex];
-			crc[1] = auchCRCLo[uIndex];
+	/**
+	 * Updates a CRC-16 with the given bytes. Starting from
+	 * {@link #CRC16_INITIAL}, a frame can be checksummed in several parts.
+	 * <p>
+	 * Eight bytes are processed per step, using the precomputed tables of
+	 * the "slicing-by-8" algorithm.
+	 * 
+	 * @param crc
+	 *            the CRC of the preceding bytes.
+	 * @param data
+	 *            the bytes.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the number of bytes.
+	 * @return the updated CRC.
+	 */
+	public static final int updateCRC16(int crc, byte[] data, int off, int len) {
+		final int[] t = CRC16_TABLE;
+		int end = off + len;
+		for (int stop = end - 7; off < stop; off += 8) {
+			crc ^= (data[off] & 0xff) | ((data[off + 1] & 0xff) << 8);
+			crc = t[0x700 | (crc & 0xff)] ^ t[0x600 | (crc >>> 8)]
+					^ t[0x500 | (data[off + 2] & 0xff)]
+					^ t[0x400 | (data[off + 3] & 0xff)]
+					^ t[0x300 | (data[off + 4] & 0xff)]
+					^ t[0x200 | (data[off + 5] & 0xff)]
+					^ t[0x100 | (data[off + 6] & 0xff)]
+					^ t[data[off + 7] & 0xff];
+		}
+		for (; off < end; off++) {
+			crc = (crc >>> 8) ^ t[(crc ^ data[off]) & 0xff];
 		}
+		return crc;
+	}// updateCRC16
 
+	/**
+	 * Updates a CRC-16 with the remaining bytes of the given buffer. The
+	 * position of the buffer is advanced to its limit.
+	 * 
+	 * @param crc
+	 *            the CRC of the preceding bytes.
+	 * @param buf
+	 *            the <tt>ByteBuffer</tt>.
+	 * @return the updated CRC.
+	 * @see #updateCRC16(int, byte[], int, int)
+	 */
+	public static final int updateCRC16(int crc, ByteBuffer buf) {
+		int pos = buf.position();
+		int end = buf.limit();
+		if (buf.hasArray()) {
+			crc = updateCRC16(crc, buf.array(), buf.arrayOffset() + pos, end
+					- pos);
+		} else {
+			final int[] t = CRC16_TABLE;
+			for (int stop = end - 7; pos < stop; pos += 8) {
+				crc ^= (buf.get(pos) & 0xff) | ((buf.get(pos + 1) & 0xff) << 8);
+				crc = t[0x700 | (crc & 0xff)] ^ t[0x600 | (crc >>> 8)]
+						^ t[0x500 | (buf.get(pos + 2) & 0xff)]
+						^ t[0x400 | (buf.get(pos + 3) & 0xff)]
+						^ t[0x300 | (buf.get(pos + 4) & 0xff)]
+						^ t[0x200 | (buf.get(pos + 5) & 0xff)]
+						^ t[0x100 | (buf.get(pos + 6) & 0xff)]
+						^ t[buf.get(pos + 7) & 0xff];
+			}
+			for (; pos < end; pos++) {
+				crc = (crc >>> 8) ^ t[(crc ^ buf.get(pos)) & 0xff];
+			}
+		}
+		buf.position(end);
 		return crc;
-	}// calculateCRC
+	}// updateCRC16
 
+	/**
+	 * Calculates the LRC of the given bytes.
+	 * <p>
+	 * Note that <tt>len</tt> is the index following the last byte, not the
+	 * number of bytes.
+	 * 
+	 * @param data
+	 *            the bytes.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the index following the last byte.
+	 * @return the LRC as unsigned byte value.
+	 */
 	public static final int calculateLRC(byte[] data, int off, int len) {
-		int lrc = 0;
-		for (int i = off; i < len; i++) {
-			lrc += (int) data[i] & 0xff; // calculate with unsigned bytes
-		}
-		lrc = (lrc ^ 0xff) + 1; // two's complement
-		return (int) ((byte) lrc) & 0xff;
+		return updateLRC(0, data, off, Math.max(0, len - off));
 	}// calculateLRC
 
-	/* Table of CRC values for high-order byte */
-	private final static short[] auchCRCHi = { 0x00, 0xC1, 0x81, 0x40, 0x01,
-			0xC0, 0x80, 0x41, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40,
-			0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40, 0x00, 0xC1, 0x81,
-			0x40, 0x01, 0xC0, 0x80, 0x41, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1,
-			0x81, 0x40, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x00,
-			0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x01, 0xC0, 0x80, 0x41,
-			0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81,
-			0x40, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1,
-			0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x01, 0xC0, 0x80, 0x41, 0x00,
-			0xC1, 0x81, 0x40, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41,
-			0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80,
-			0x41, 0x00, 0xC1, 0x81, 0x40, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0,
-			0x80, 0x41, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40, 0x00,
-			0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40,
-			0x01, 0xC0, 0x80, 0x41, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81,
-			0x40, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x01, 0xC0,
-			0x80, 0x41, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x00,
-			0xC1, 0x81, 0x40, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41,
-			0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x01, 0xC0, 0x80,
-			0x41, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1,
-			0x81, 0x40, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80, 0x41, 0x01,
-			0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40, 0x00, 0xC1, 0x81, 0x40,
-			0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40, 0x01, 0xC0, 0x80,
-			0x41, 0x01, 0xC0, 0x80, 0x41, 0x00, 0xC1, 0x81, 0x40 };
-
-	/* Table of CRC values for low-order byte */
-	private final static short[] auchCRCLo = { 0x00, 0xC0, 0xC1, 0x01, 0xC3,
-			0x03, 0x02, 0xC2, 0xC6, 0x06, 0x07, 0xC7, 0x05, 0xC5, 0xC4, 0x04,
-			0xCC, 0x0C, 0x0D, 0xCD, 0x0F, 0xCF, 0xCE, 0x0E, 0x0A, 0xCA, 0xCB,
-			0x0B, 0xC9, 0x09, 0x08, 0xC8, 0xD8, 0x18, 0x19, 0xD9, 0x1B, 0xDB,
-			0xDA, 0x1A, 0x1E, 0xDE, 0xDF, 0x1F, 0xDD, 0x1D, 0x1C, 0xDC, 0x14,
-			0xD4, 0xD5, 0x15, 0xD7, 0x17, 0x16, 0xD6, 0xD2, 0x12, 0x13, 0xD3,
-			0x11, 0xD1, 0xD0, 0x10, 0xF0, 0x30, 0x31, 0xF1, 0x33, 0xF3, 0xF2,
-			0x32, 0x36, 0xF6, 0xF7, 0x37, 0xF5, 0x35, 0x34, 0xF4, 0x3C, 0xFC,
-			0xFD, 0x3D, 0xFF, 0x3F, 0x3E, 0xFE, 0xFA, 0x3A, 0x3B, 0xFB, 0x39,
-			0xF9, 0xF8, 0x38, 0x28, 0xE8, 0xE9, 0x29, 0xEB, 0x2B, 0x2A, 0xEA,
-			0xEE, 0x2E, 0x2F, 0xEF, 0x2D, 0xED, 0xEC, 0x2C, 0xE4, 0x24, 0x25,
-			0xE5, 0x27, 0xE7, 0xE6, 0x26, 0x22, 0xE2, 0xE3, 0x23, 0xE1, 0x21,
-			0x20, 0xE0, 0xA0, 0x60, 0x61, 0xA1, 0x63, 0xA3, 0xA2, 0x62, 0x66,
-			0xA6, 0xA7, 0x67, 0xA5, 0x65, 0x64, 0xA4, 0x6C, 0xAC, 0xAD, 0x6D,
-			0xAF, 0x6F, 0x6E, 0xAE, 0xAA, 0x6A, 0x6B, 0xAB, 0x69, 0xA9, 0xA8,
-			0x68, 0x78, 0xB8, 0xB9, 0x79, 0xBB, 0x7B, 0x7A, 0xBA, 0xBE, 0x7E,
-			0x7F, 0xBF, 0x7D, 0xBD, 0xBC, 0x7C, 0xB4, 0x74, 0x75, 0xB5, 0x77,
-			0xB7, 0xB6, 0x76, 0x72, 0xB2, 0xB3, 0x73, 0xB1, 0x71, 0x70, 0xB0,
-			0x50, 0x90, 0x91, 0x51, 0x93, 0x53, 0x52, 0x92, 0x96, 0x56, 0x57,
-			0x97, 0x55, 0x95, 0x94, 0x54, 0x9C, 0x5C, 0x5D, 0x9D, 0x5F, 0x9F,
-			0x9E, 0x5E, 0x5A, 0x9A, 0x9B, 0x5B, 0x99, 0x59, 0x58, 0x98, 0x88,
-			0x48, 0x49, 0x89, 0x4B, 0x8B, 0x8A, 0x4A, 0x4E, 0x8E, 0x8F, 0x4F,
-			0x8D, 0x4D, 0x4C, 0x8C, 0x44, 0x84, 0x85, 0x45, 0x87, 0x47, 0x46,
-			0x86, 0x82, 0x42, 0x43, 0x83, 0x41, 0x81, 0x80, 0x40 };
+	/**
+	 * Updates an LRC with the given bytes. Starting from 0, a frame can be
+	 * checksummed in several parts.
+	 * 
+	 * @param lrc
+	 *            the LRC of the preceding bytes.
+	 * @param data
+	 *            the bytes.
+	 * @param off
+	 *            the index of the first byte.
+	 * @param len
+	 *            the number of bytes.
+	 * @return the updated LRC as unsigned byte value.
+	 */
+	public static final int updateLRC(int lrc, byte[] data, int off, int len) {
+		// the LRC is the two's complement of the sum of the bytes, which
+		// only has to be reduced once at the end
+		int sum = 0;
+		int end = off + len;
+		for (int stop = end - 7; off < stop; off += 8) {
+			sum += (data[off] & 0xff) + (data[off + 1] & 0xff)
+					+ (data[off + 2] & 0xff) + (data[off + 3] & 0xff)
+					+ (data[off + 4] & 0xff) + (data[off + 5] & 0xff)
+					+ (data[off + 6] & 0xff) + (data[off + 7] & 0xff);
+		}
+		for (; off < end; off++) {
+			sum += data[off] & 0xff;
+		}
+		return (lrc - sum) & 0xff;
+	}// updateLRC
+
+	/**
+	 * Updates an LRC with the remaining bytes of the given buffer. The
+	 * position of the buffer is advanced to its limit.
+	 * 
+	 * @param lrc
+	 *            the LRC of the preceding bytes.
+	 * @param buf
+	 *            the <tt>ByteBuffer</tt>.
+	 * @return the updated LRC as unsigned byte value.
+	 */
+	public static final int updateLRC(int lrc, ByteBuffer buf) {
+		int pos = buf.position();
+		int end = buf.limit();
+		if (buf.hasArray()) {
+			lrc = updateLRC(lrc, buf.array(), buf.arrayOffset() + pos, end
+					- pos);
+		} else {
+			int sum = 0;
+			for (; pos < end; pos++) {
+				sum += buf.get(pos) & 0xff;
+			}
+			lrc = (lrc - sum) & 0xff;
+		}
+		buf.position(end);
+		return lrc;
+	}// updateLRC
+
+	/**
+	 * Tables of the CRC-16 (reflected polynomial 0xA001) for slicing-by-8:
+	 * entry <tt>256 * k + b</tt> holds the CRC of byte <tt>b</tt> followed by
+	 * <tt>k</tt> zero bytes.
+	 */
+	private static final int[] CRC16_TABLE = new int[8 * 256];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int crc = b;
+			for (int i = 0; i < 8; i++) {
+				crc = ((crc & 1) != 0) ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+			}
+			CRC16_TABLE[b] = crc;
+		}
+		for (int i = 256; i < CRC16_TABLE.length; i++) {
+			int crc = CRC16_TABLE[i - 256];
+			CRC16_TABLE[i] = (crc >>> 8) ^ CRC16_TABLE[crc & 0xff];
+		}
+	}
 
 }// class ModBusUtil
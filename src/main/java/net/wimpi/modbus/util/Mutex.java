@@ -16,14 +16,19 @@
 
 package net.wimpi.modbus.util;
 
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * A simple non-reentrant mutual exclusion lock. The lock is free upon
  * construction. Each acquire gets the lock, and each release frees it.
  * Releasing a lock that is already free has no effect.
  * <p/>
- * This implementation makes no attempt to provide any fairness or ordering
- * guarantees. If you need them, consider using one of the Semaphore
- * implementations as a locking mechanism.
+ * By default this implementation makes no attempt to provide any fairness or
+ * ordering guarantees. A fair mutex grants the lock to waiting threads in
+ * arrival order, including timed attempts, so that a thread acquiring the
+ * lock at a high rate cannot starve the others.
  * <p/>
  * <b>Sample usage</b><br>
  * <p/>
@@ -108,61 +113,72 @@ package net.wimpi.modbus.util;
 public class Mutex {
 
 	/**
-	 * The lock status
+	 * The lock status; guards the single permit against releases of a free
+	 * lock.
+	 */
+	private final AtomicBoolean m_InUse = new AtomicBoolean(false);
+
+	/**
+	 * Holds the permit. A <tt>java.util.concurrent</tt> semaphore is used
+	 * instead of the object monitor, so that threads waiting for the mutex do
+	 * not pin the carrier thread when running as virtual threads.
+	 */
+	private final Semaphore m_Permit;
+
+	/**
+	 * Constructs a new non-fair <tt>Mutex</tt> instance.
+	 */
+	public Mutex() {
+		this(false);
+	}// constructor
+
+	/**
+	 * Constructs a new <tt>Mutex</tt> instance.
+	 * 
+	 * @param fair
+	 *            true if waiting threads should acquire the lock in arrival
+	 *            order, false otherwise.
 	 */
-	protected boolean inuse_ = false;
+	public Mutex(boolean fair) {
+		m_Permit = new Semaphore(1, fair);
+	}// constructor
+
+	/**
+	 * Tests if this mutex grants the lock in arrival order.
+	 * 
+	 * @return true if fair, false otherwise.
+	 */
+	public boolean isFair() {
+		return m_Permit.isFair();
+	}// isFair
+
+	/**
+	 * Returns an estimate of the number of threads waiting for the lock.
+	 * 
+	 * @return the number of waiting threads.
+	 */
+	public int getQueueLength() {
+		return m_Permit.getQueueLength();
+	}// getQueueLength
 
 	public void acquire() throws InterruptedException {
-		if (Thread.interrupted())
-			throw new InterruptedException();
-		synchronized (this) {
-			try {
-				while (inuse_)
-					wait();
-				inuse_ = true;
-			} catch (InterruptedException ex) {
-				notify();
-				throw ex;
-			}
-		}
+		m_Permit.acquire();
+		m_InUse.set(true);
 	}// accquire
 
-	public synchronized void release() {
-		inuse_ = false;
-		notify();
+	public void release() {
+		if (m_InUse.compareAndSet(true, false)) {
+			m_Permit.release();
+		}
 	}// release
 
 	public boolean attempt(long msecs) throws InterruptedException {
-		if (Thread.interrupted())
-			throw new InterruptedException();
-		synchronized (this) {
-			if (!inuse_) {
-				inuse_ = true;
-				return true;
-			} else if (msecs <= 0)
-				return false;
-			else {
-				long waitTime = msecs;
-				long start = System.currentTimeMillis();
-				try {
-					for (;;) {
-						wait(waitTime);
-						if (!inuse_) {
-							inuse_ = true;
-							return true;
-						} else {
-							waitTime = msecs
-									- (System.currentTimeMillis() - start);
-							if (waitTime <= 0)
-								return false;
-						}
-					}
-				} catch (InterruptedException ex) {
-					notify();
-					throw ex;
-				}
-			}
+		// a timed attempt honours the fairness setting, even for 0
+		if (m_Permit.tryAcquire(Math.max(msecs, 0), TimeUnit.MILLISECONDS)) {
+			m_InUse.set(true);
+			return true;
 		}
+		return false;
 	}// attempt
 
-}// class Mutex
\ No newline at end of file
+}// class Mutex
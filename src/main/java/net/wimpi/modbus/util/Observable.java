@@ -19,30 +19,32 @@
 
 package net.wimpi.modbus.util;
 
-import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A cleanroom implementation of the Observable pattern.
  * <p/>
+ * The observers are kept in a copy-on-write list, so that notifying them
+ * takes no lock, and observers may be added or removed during a
+ * notification.
+ * <p/>
  * 
  * @author Dieter Wimberger (wimpi)
  * @version @version@ (@date@)
  */
 public class Observable {
 
-	private Vector<Observer> m_Observers;
+	private CopyOnWriteArrayList<Observer> m_Observers;
 
 	/**
 	 * Constructs a new Observable instance.
 	 */
 	public Observable() {
-		m_Observers = new Vector<Observer>(10);
+		m_Observers = new CopyOnWriteArrayList<Observer>();
 	}// constructor
 
 	public int getObserverCount() {
-		synchronized (m_Observers) {
-			return m_Observers.size();
-		}
+		return m_Observers.size();
 	}// getObserverCount
 
 	/**
@@ -53,12 +55,7 @@ public class Observable {
 	 *            an observer instance to be added.
 	 */
 	public void addObserver(Observer o) {
-		synchronized (m_Observers) {
-			if (!m_Observers.contains(o)) {
-				m_Observers.addElement(o);
-
-			}
-		}
+		m_Observers.addIfAbsent(o);
 	}// addObserver
 
 	/**
@@ -69,9 +66,7 @@ public class Observable {
 	 *            an observer instance to be removed.
 	 */
 	public void removeObserver(Observer o) {
-		synchronized (m_Observers) {
-			m_Observers.removeElement(o);
-		}
+		m_Observers.remove(o);
 	}// removeObserver
 
 	/**
@@ -79,9 +74,7 @@ public class Observable {
 	 * <tt>Observable</tt>.
 	 */
 	public void removeObservers() {
-		synchronized (m_Observers) {
-			m_Observers.removeAllElements();
-		}
+		m_Observers.clear();
 	}// removeObservers
 
 	/**
@@ -92,10 +85,8 @@ public class Observable {
 	 *            an arbitrary argument to be passed.
 	 */
 	public void notifyObservers(Object arg) {
-		synchronized (m_Observers) {
-			for (int i = 0; i < m_Observers.size(); i++) {
-				((Observer) m_Observers.elementAt(i)).update(this, arg);
-			}
+		for (Observer o : m_Observers) {
+			o.update(this, arg);
 		}
 	}// notifyObservers
 
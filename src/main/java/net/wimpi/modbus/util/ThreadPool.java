@@ -19,112 +19,179 @@
 
 package net.wimpi.modbus.util;
 
-import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Class implementing a simple thread pool.
+ * Class implementing a thread pool on top of a
+ * <tt>java.util.concurrent.ThreadPoolExecutor</tt>.
+ * <p>
+ * The pool starts threads on demand up to its maximum size, and lets threads
+ * that have been idle for the keep alive time (60 seconds by default)
+ * terminate. Tasks waiting for a thread are kept in a lock-free
+ * <tt>LinkedTransferQueue</tt> if the queue is unbounded, are handed over
+ * directly through a <tt>SynchronousQueue</tt> if the capacity is 0, and are
+ * kept in a <tt>LinkedBlockingQueue</tt> (with separate put and take locks)
+ * otherwise. Tasks that cannot be queued are handed to the rejection policy,
+ * which defaults to <tt>ThreadPoolExecutor.AbortPolicy</tt>.
+ * <p>
+ * Exceptions thrown by tasks are counted and passed on to the uncaught
+ * exception handler of the worker thread, which is then replaced. Besides the
+ * statistics of <tt>ThreadPoolExecutor</tt> (active threads, pool size,
+ * completed tasks), the pool reports its queue depth and the number of
+ * rejected and failed tasks.
  * 
  * @author Dieter Wimberger
  * @version @version@ (@date@)
  */
-public class ThreadPool {
+public class ThreadPool extends ThreadPoolExecutor {
 
-	// instance attributes and associations
-	private final LinkedQueue m_TaskPool;
-	private ArrayList<PoolThread> m_Threads;
-	private int m_Size = 1;
+	private static final AtomicInteger c_PoolNumber = new AtomicInteger();
+
+	private final LongAdder m_Rejected = new LongAdder();
+	private final LongAdder m_Failed = new LongAdder();
 
 	/**
-	 * Constructs a new <tt>ThreadPool</tt> instance.
+	 * Constructs a new <tt>ThreadPool</tt> instance with an unbounded queue.
 	 * 
 	 * @param size
-	 *            the size of the thread pool.
+	 *            the maximum number of threads of the pool.
 	 */
 	public ThreadPool(int size) {
-		m_Size = size;
-		m_TaskPool = new LinkedQueue();
-		m_Threads = new ArrayList<PoolThread>();
-		initPool();
+		this(size, size, -1);
 	}// constructor
 
 	/**
-	 * Execute the <tt>Runnable</tt> instance through a thread in this
-	 * <tt>ThreadPool</tt>.
+	 * Constructs a new <tt>ThreadPool</tt> instance.
+	 * <p>
+	 * Up to <tt>coresize</tt> threads are started before tasks are queued;
+	 * once the queue is full, further threads are started up to
+	 * <tt>maxsize</tt>. With an unbounded queue, the pool does not grow
+	 * beyond <tt>coresize</tt>.
 	 * 
-	 * @param task
-	 *            the <tt>Runnable</tt> to be executed.
+	 * @param coresize
+	 *            the number of threads started before tasks are queued.
+	 * @param maxsize
+	 *            the maximum number of threads.
+	 * @param capacity
+	 *            the number of tasks that can be queued, 0 for direct
+	 *            hand-off, or a negative value for an unbounded queue.
 	 */
-	public void execute(Runnable task) {
-		try {
-			synchronized(m_TaskPool) {
-				m_TaskPool.put(task);
-			}
-		} catch (InterruptedException ex) {
-			// FIXME: Handle!?
-		}
-	}// execute
+	public ThreadPool(int coresize, int maxsize, int capacity) {
+		super(coresize, maxsize, 60, TimeUnit.SECONDS, createQueue(capacity),
+				new PoolThreadFactory());
+		allowCoreThreadTimeOut(true);
+		setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+	}// constructor
 
 	/**
-	 * Initializes the pool, populating it with n started threads.
+	 * Sets the policy applied to tasks that can neither be queued nor run by
+	 * a new thread. Rejections are counted before the policy is applied.
+	 * 
+	 * @param handler
+	 *            a <tt>RejectedExecutionHandler</tt>, e.g. one of the
+	 *            policies defined by <tt>ThreadPoolExecutor</tt>.
 	 */
-	protected void initPool() {
-		for (int i = m_Size; --i >= 0;) {
-			PoolThread toAdd = new PoolThread();
-			toAdd.start();
-			m_Threads.add(toAdd);
-		}
-	}// initPool
+	public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+		super.setRejectedExecutionHandler(new CountingHandler(handler));
+	}// setRejectedExecutionHandler
+
+	public RejectedExecutionHandler getRejectedExecutionHandler() {
+		return ((CountingHandler) super.getRejectedExecutionHandler()).m_Policy;
+	}// getRejectedExecutionHandler
 
 	/**
-	 * Stops the pool, cleaning up the threads
+	 * Returns the number of tasks waiting for a thread. For an unbounded
+	 * queue, this traverses the queue.
+	 * 
+	 * @return the queue depth as <tt>int</tt>.
 	 */
-	public void killPool() {
-		for (PoolThread p : m_Threads) {
-			p.setRunning(false);
-			p.interrupt();
-		}
-	}
+	public int getQueueSize() {
+		return getQueue().size();
+	}// getQueueSize
 
 	/**
-	 * Inner class implementing a thread that can be run in a
-	 * <tt>ThreadPool</tt>.
+	 * Returns the number of tasks that have been rejected.
 	 * 
-	 * @author Dieter Wimberger
-	 * @version @version@ (@date@)
+	 * @return the count as <tt>long</tt>.
 	 */
-	private class PoolThread extends Thread {
-		private final AtomicBoolean keepRunning = new AtomicBoolean(false);
-		private Runnable task;
-
-		/**
-		 * Runs the <tt>PoolThread</tt>.
-		 * <p>
-		 * This method will infinitely loop, picking up available tasks from the
-		 * <tt>LinkedQueue</tt>.
-		 */
-		public void run() {
-			// System.out.println("Running PoolThread");
-			setRunning(true);
-			do {
-				try {
-					task = (Runnable) m_TaskPool.take();
-					task.run();
-					
-				} catch (Exception e) {
-					// Ignore, we were likely just interrupted. Recheck if we
-					// should be running or not.
-				}
-			} while (isRunning());
-		}
+	public long getRejectedCount() {
+		return m_Rejected.sum();
+	}// getRejectedCount
+
+	/**
+	 * Returns the number of tasks that terminated with an exception.
+	 * 
+	 * @return the count as <tt>long</tt>.
+	 */
+	public long getFailedCount() {
+		return m_Failed.sum();
+	}// getFailedCount
 
-		void setRunning(boolean run) {
-			keepRunning.set(run);
+	/**
+	 * Stops the pool, interrupting the running tasks and discarding the
+	 * queued ones.
+	 */
+	public void killPool() {
+		shutdownNow();
+	}// killPool
+
+	protected void afterExecute(Runnable task, Throwable t) {
+		super.afterExecute(task, t);
+		if (t != null) {
+			m_Failed.increment();
 		}
+	}// afterExecute
 
-		boolean isRunning() {
-			return keepRunning.get();
+	private static BlockingQueue<Runnable> createQueue(int capacity) {
+		if (capacity < 0) {
+			return new LinkedTransferQueue<Runnable>();
+		} else if (capacity == 0) {
+			return new SynchronousQueue<Runnable>();
+		} else {
+			return new LinkedBlockingQueue<Runnable>(capacity);
 		}
-	}// PoolThread
+	}// createQueue
+
+	/**
+	 * Inner class counting rejections before applying the configured policy.
+	 */
+	private class CountingHandler implements RejectedExecutionHandler {
+
+		private final RejectedExecutionHandler m_Policy;
+
+		CountingHandler(RejectedExecutionHandler policy) {
+			m_Policy = policy;
+		}// constructor
+
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+			m_Rejected.increment();
+			m_Policy.rejectedExecution(task, pool);
+		}// rejectedExecution
+
+	}// inner class CountingHandler
+
+	/**
+	 * Inner class creating the named threads of a <tt>ThreadPool</tt>.
+	 */
+	private static class PoolThreadFactory implements ThreadFactory {
+
+		private final int m_Pool = c_PoolNumber.incrementAndGet();
+		private final AtomicInteger m_Thread = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "ThreadPool-" + m_Pool + "-"
+					+ m_Thread.incrementAndGet());
+		}// newThread
+
+	}// inner class PoolThreadFactory
 
-}// ThreadPool
+}// class ThreadPool